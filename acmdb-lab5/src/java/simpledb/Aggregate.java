@@ -3,28 +3,26 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Several aggregates over a composite group key are computed in a
+ * single pass over the child, sharing a single hash table (see
+ * {@link GroupAggregator}).
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator childIt;
-    private int afield;
-    private int gfield;
-    private Aggregator.Op aop;
+    private int[] afields;
+    private int[] gfields;
+    private Aggregator.Op[] aops;
+    // the probability that a tuple of the data is in the child
+    private double fraction = 1.0;
 
     private Aggregator aggregator;
     private DbIterator aggregatorIt;
 
     /**
-     * Constructor.
-     * 
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
-     * 
+     * Constructor for a single aggregate grouped by at most one field.
      * 
      * @param child
      *            The DbIterator that is feeding us tuples.
@@ -37,72 +35,147 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-	    // some code goes here
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The column over which each aggregate is computed.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @throws IllegalArgumentException
+     *             if an aggregate other than COUNT or APPROX_COUNT_DISTINCT is
+     *             computed over a string column
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, 1.0);
+    }
+
+    /**
+     * Constructor for aggregates over a sample of the data, e.g. read by a
+     * {@link SampleScan}: SUM and COUNT are scaled up to estimates over all
+     * of the data, and each SUM, COUNT and AVG is followed, after all the
+     * aggregates, by the half-width of its 95% confidence interval (see
+     * {@link GroupAggregator}).
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The column over which each aggregate is computed.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @param fraction
+     *            the probability, in (0, 1], that a tuple of the data is
+     *            in the child; 1 for exact aggregates
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            double fraction) {
         this.childIt = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.fraction = fraction;
         this.aggregatorIt = null;
+        this.aggregator = newAggregator(child.getTupleDesc());
+    }
 
-        // only two possible type
-        boolean grouping = (gfield != -1);
-        Type aggregateType = child.getTupleDesc().getFieldType(afield);
-        Type groupType = (grouping) ? child.getTupleDesc().getFieldType(gfield) : null;
-
-        if (aggregateType == Type.INT_TYPE)
-            this.aggregator = new IntegerAggregator(gfield, groupType, afield, aop);
-        else if (aggregateType == Type.STRING_TYPE)
-            this.aggregator = new StringAggregator(gfield, groupType, afield, aop);
-        else
-            throw new IllegalArgumentException("@Aggragte Constructor");
+    private GroupAggregator newAggregator(TupleDesc td) {
+        return new GroupAggregator(td, gfields, afields, aops,
+                (long) HashAggregation.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize(), fraction);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
+     * @return If this aggregate is accompanied by a groupby, return the first
+     *         groupby field index in the <b>INPUT</b> tuples. If not, return
      *         {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
-        // some code goes here
-    	return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the probability that a tuple of the data is in the child, 1
+     *         unless the aggregates are estimated from a sample
+     */
+    public double getSampleFraction() {
+        return fraction;
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
-     *         null;
+     *         of the first groupby field in the <b>OUTPUT</b> tuples If not,
+     *         return null;
      * */
     public String groupFieldName() {
-	    // some code goes here
-        if (gfield == -1)
+        if (gfields.length == 0)
             return null;
         else
-	        return childIt.getTupleDesc().getFieldName(gfield);
+            return childIt.getTupleDesc().getFieldName(gfields[0]);
     }
 
     /**
-     * @return the aggregate field
+     * @return the names of the groupby fields in the <b>OUTPUT</b> tuples
+     */
+    public String[] groupFieldNames() {
+        String[] names = new String[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            names[i] = childIt.getTupleDesc().getFieldName(gfields[i]);
+        return names;
+    }
+
+    /**
+     * @return the field of the first aggregate
      * */
     public int aggregateField() {
-    	// some code goes here
-    	return afield;
+    	return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return the field of each aggregate
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return return the name of the field of the first aggregate
      * */
     public String aggregateFieldName() {
-    	// some code goes here
-        return childIt.getTupleDesc().getFieldName(afield);
+        return childIt.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the operator of the first aggregate
      * */
     public Aggregator.Op aggregateOp() {
-    	// some code goes here
-    	return aop;
+    	return aops[0];
+    }
+
+    /**
+     * @return return the operator of each aggregate
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -111,10 +184,19 @@ public class Aggregate extends Operator {
 
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
-    	// some code goes here
         super.open();
         childIt.open();
-        // create aggregator iterator
+        consumeChild();
+    }
+
+    /**
+     * Called by {@link #open} once the child is open: aggregates the whole
+     * child into a hash table of groups and closes it.
+     */
+    protected void consumeChild() throws DbException, TransactionAbortedException {
+        // start over, so that reopening does not aggregate the child twice
+        aggregator = newAggregator(childIt.getTupleDesc());
+        // one pass over the child computes all the aggregates
         while (childIt.hasNext()) {
             Tuple item = childIt.next();
             aggregator.mergeTupleIntoGroup(item);
@@ -125,14 +207,11 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The first fields are the fields by which we
+     * are grouping, if any, followed by one field per aggregate. Should
+     * return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-    	// some code goes here
         if (aggregatorIt.hasNext())
             return aggregatorIt.next();
         else
@@ -140,42 +219,33 @@ public class Aggregate extends Operator {
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-	    // some code goes here
         aggregatorIt.rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * 
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * Returns the TupleDesc of this Aggregate: the group by fields, named as
+     * in the child, followed by one integer field per aggregate, named
+     * "aop(child_td.getFieldName(afield))".
      */
     public TupleDesc getTupleDesc() {
-	    // some code goes here
     	return aggregator.getTupleDesc();
     }
 
     public void close() {
-    	// some code goes here
-        aggregatorIt.close();
+        if (aggregatorIt != null)
+            aggregatorIt.close();
+        if (aggregator != null)
+            aggregator.close();
         super.close();
     }
 
     @Override
     public DbIterator[] getChildren() {
-    	// some code goes here
-        assert aggregatorIt != null;
-    	return new DbIterator[]{aggregatorIt};
+    	return new DbIterator[]{childIt};
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-    	// some code goes here
         assert children.length == 1;
         childIt = children[0];
     }
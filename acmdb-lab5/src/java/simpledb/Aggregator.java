@@ -26,7 +26,12 @@ public interface Aggregator extends Serializable {
          * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
          * will be used to compute distributed avg in lab7.
          * */
-        SC_AVG;
+        SC_AVG,
+        /**
+         * APPROX_COUNT_DISTINCT: estimate the number of distinct values
+         * with a {@link HyperLogLog} sketch, in constant memory per group.
+         * */
+        APPROX_COUNT_DISTINCT;
 
         /**
          * Interface to access operations by a string containing an integer
@@ -64,6 +69,8 @@ public interface Aggregator extends Serializable {
         		return "count";
         	if (this==SC_AVG)
     			return "sc_avg";
+        	if (this==APPROX_COUNT_DISTINCT)
+        		return "approx_count_distinct";
         	throw new IllegalStateException("impossible to reach here");
         }
     }
@@ -74,14 +81,22 @@ public interface Aggregator extends Serializable {
      * been encountered.
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
+     * @throws DbException if the groups cannot be spilled to disk
      */
-    public void mergeTupleIntoGroup(Tuple tup);
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException;
 
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
+     * @throws DbException if spilled groups cannot be read back
+     */
+    public DbIterator iterator() throws DbException;
+
+    /**
+     * Release the resources of this aggregator, such as groups spilled to
+     * disk. The results can no longer be read afterwards.
      */
-    public DbIterator iterator();
+    public void close();
 
     /**
      * Return the tuple description of the result in an aggregator
@@ -0,0 +1,33 @@
+package simpledb;
+
+/**
+ * AntiJoin implements "x NOT IN (subquery)" and "NOT EXISTS (subquery)": it
+ * returns the tuples of its left child that have no match on the right.
+ * Like {@link SemiJoin}, it probes a hash set of the right join fields once
+ * per left tuple and never returns the right tuples.
+ */
+public class AntiJoin extends SemiJoin {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate between a field of child1 and a field
+     *            of child2
+     * @param child1
+     *            Iterator for the left(outer) relation, whose tuples are
+     *            returned
+     * @param child2
+     *            Iterator for the right(inner) relation, e.g. the subquery
+     */
+    public AntiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        super(p, child1, child2);
+    }
+
+    protected boolean keep(boolean matched) {
+        return !matched;
+    }
+
+}
@@ -0,0 +1,389 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import simpledb.Predicate.Op;
+
+/**
+ * BTreeBulkLoader builds a BTreeFile bottom-up from a stream of tuples,
+ * without inserting them one by one: the tuples, sorted on the key field,
+ * are packed into leaf pages written out in key order, then each level of
+ * internal pages is written from the first keys of the level below, until
+ * a single root page is left. The pages are written straight to the file,
+ * not through the BufferPool, and the file is added to the Catalog once it
+ * is complete.
+ * <p>
+ * The fill factor sets the share of the slots of each page that are used,
+ * leaving room for later inserts before pages split. Pages are never less
+ * than half full (apart from a root), as required by
+ * {@link BTreeFile#insertTuple} and {@link BTreeFile#deleteTuple}: the last
+ * two pages of a level share their items, or are merged, accordingly.
+ * <p>
+ * Pages keyed on a string field hold items of varying size (see
+ * {@link BTreeKeyCompression}), and are filled by the bytes of their items
+ * rather than their number. Their keys are the shortest prefixes separating
+ * the leaves.
+ * <p>
+ * Only two leaves of tuples are held in memory, plus the first key of each
+ * leaf, from which the internal levels are built. Unsorted input is sorted
+ * first by an {@link ExternalSort}.
+ *
+ * @see simpledb.BTreeFileEncoder
+ */
+public class BTreeBulkLoader {
+
+	/** Default share of the slots of a page used by the loaded tuples */
+	public static final double DEFAULT_FILL_FACTOR = 1.0;
+
+	private final File f;
+	private final TupleDesc td;
+	private final int keyField;
+	private final Type[] types;
+	private long sortMemoryBytes;
+
+	// the weight of the tuples per leaf, and of the children per internal
+	// page: their number, or their bytes if the keys are compressed
+	private final boolean compressed;
+	private final int restSize;
+	private final int leafCap;
+	private final int leafMin;
+	private final int leafRoom;
+	private final int childCap;
+	private final int childMin;
+	private final int childRoom;
+
+	private RandomAccessFile raf;
+	private int numPages;
+	// the first key and the page number of each page of the last level written
+	private ArrayList<Field> keys;
+	private ArrayList<Integer> pages;
+	private Field lastLeafKey;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param f - the file to write the B+ tree to; its contents are replaced
+	 * @param td - the tuple descriptor of the tuples of the file
+	 * @param keyField - the field the B+ tree is keyed on
+	 * @param fillFactor - the share of the slots of each page to use, from
+	 *            0.5 to 1
+	 */
+	public BTreeBulkLoader(File f, TupleDesc td, int keyField, double fillFactor) {
+		if (keyField < 0 || keyField >= td.numFields())
+			throw new IllegalArgumentException("@BTreeBulkLoader, no key field " + keyField);
+		if (!(fillFactor >= 0.5 && fillFactor <= 1.0))
+			throw new IllegalArgumentException("@BTreeBulkLoader, the fill factor must be from 0.5 to 1");
+		this.f = f;
+		this.td = td;
+		this.keyField = keyField;
+		this.types = new Type[td.numFields()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = td.getFieldType(i);
+		this.sortMemoryBytes = (long) OrderBy.DEFAULT_SORT_PAGES * BufferPool.getPageSize();
+
+		this.compressed = BTreeKeyCompression.isCompressed(types[keyField]);
+		this.restSize = td.getSize() - types[keyField].getLen();
+		if (compressed) {
+			// pages hold their maximum number of items of the largest size,
+			// and are half full with half as many less one
+			int tupleSize = restSize + BTreeKeyCompression.MAX_KEY_SIZE;
+			int maxTuples = BTreeKeyCompression.maxLeafTuples(BufferPool.getPageSize(), restSize);
+			this.leafRoom = maxTuples * tupleSize;
+			this.leafMin = Math.max(1, (maxTuples / 2 - 1) * tupleSize + 1);
+			this.leafCap = Math.max(leafMin, (int) (fillFactor * leafRoom));
+			// the first child pointer weighs in as well
+			int entrySize = BTreeKeyCompression.MAX_KEY_SIZE + BTreeInternalPage.INDEX_SIZE;
+			int maxEntries = BTreeKeyCompression.maxInternalEntries(BufferPool.getPageSize());
+			this.childRoom = maxEntries * entrySize + BTreeInternalPage.INDEX_SIZE;
+			this.childMin = Math.max(1, (maxEntries / 2 - 1) * entrySize + 1) + BTreeInternalPage.INDEX_SIZE;
+			this.childCap = Math.max(childMin, (int) (fillFactor * maxEntries * entrySize) + BTreeInternalPage.INDEX_SIZE);
+			return;
+		}
+
+		// as in BTreeLeafPage and BTreeInternalPage
+		int pageBits = BufferPool.getPageSize() * 8;
+		int maxTuples = (pageBits - 3 * BTreeLeafPage.INDEX_SIZE * 8) / (td.getSize() * 8 + 1);
+		int entryBits = (types[keyField].getLen() + BTreeInternalPage.INDEX_SIZE) * 8 + 1;
+		int maxEntries = (pageBits - (2 * BTreeLeafPage.INDEX_SIZE + 1) * 8 - 1) / entryBits;
+		this.leafMin = Math.max(1, maxTuples / 2);
+		this.leafCap = Math.max(leafMin, (int) (fillFactor * maxTuples));
+		this.leafRoom = 2 * leafMin - 1;
+		this.childMin = maxEntries / 2 + 1;
+		this.childCap = Math.max(childMin, (int) (fillFactor * (maxEntries + 1)));
+		this.childRoom = 2 * childMin - 1;
+	}
+
+	/**
+	 * Sets the memory used to sort unsorted input, in bytes.
+	 */
+	public void setSortMemory(long bytes) {
+		this.sortMemoryBytes = bytes;
+	}
+
+	/**
+	 * Loads the B+ tree and adds it to the Catalog.
+	 *
+	 * @param tuples - the tuples to load, with the tuple descriptor given to
+	 *            the constructor; they are opened and closed here
+	 * @param sorted - whether the tuples come sorted on the key field; if
+	 *            not, they are sorted first
+	 * @param name - the name of the table in the Catalog
+	 * @return the BTreeFile
+	 * @throws DbException if the file is a table already, or if the tuples
+	 *             are not sorted although they should be
+	 */
+	public BTreeFile load(DbIterator tuples, boolean sorted, String name)
+			throws DbException, TransactionAbortedException, IOException {
+		try {
+			Database.getCatalog().getDatabaseFile(f.getAbsoluteFile().hashCode());
+			throw new DbException("@BTreeBulkLoader, " + f + " is already a table");
+		} catch (NoSuchElementException e) {
+			// the pages of the file are not in use
+		}
+
+		ExternalSort sort = null;
+		tuples.open();
+		raf = new RandomAccessFile(f, "rw");
+		try {
+			if (!sorted) {
+				sort = new ExternalSort(td, new BTreeFileEncoder.TupleComparator(keyField),
+						sortMemoryBytes);
+				while (tuples.hasNext())
+					sort.add(tuples.next());
+				sort.finish();
+			}
+			raf.setLength(0);
+			raf.write(BTreeRootPtrPage.createEmptyPageData());
+			numPages = 0;
+			keys = new ArrayList<Field>();
+			pages = new ArrayList<Integer>();
+			lastLeafKey = null;
+
+			writeLeaves(tuples, sort);
+			int rootCategory = BTreePageId.LEAF;
+			while (pages.size() > 1) {
+				writeInternalLevel(rootCategory);
+				rootCategory = BTreePageId.INTERNAL;
+			}
+			raf.seek(0);
+			raf.write(BTreeFileEncoder.convertToRootPtrPage(pages.get(0), rootCategory, 0));
+		} finally {
+			raf.close();
+			raf = null;
+			keys = null;
+			pages = null;
+			tuples.close();
+			if (sort != null)
+				sort.close();
+		}
+
+		BTreeFile bf = new BTreeFile(f, keyField, td);
+		Database.getCatalog().addTable(bf, name);
+		return bf;
+	}
+
+	/**
+	 * Writes the leaves, holding back a full leaf until the next one is full
+	 * so that the last two can share their tuples.
+	 */
+	private void writeLeaves(DbIterator tuples, ExternalSort sort)
+			throws DbException, TransactionAbortedException, IOException {
+		ArrayList<Tuple> prev = null;
+		ArrayList<Tuple> cur = new ArrayList<Tuple>();
+		int curWeight = 0;
+		Tuple last = null;
+		while (true) {
+			Tuple t;
+			if (sort != null)
+				t = sort.next();
+			else
+				t = tuples.hasNext() ? tuples.next() : null;
+			if (t == null)
+				break;
+			if (!t.getTupleDesc().equals(td))
+				throw new DbException("@BTreeBulkLoader, tuple " + t + " does not match the table");
+			if (last != null && t.getField(keyField).compare(Op.LESS_THAN, last.getField(keyField)))
+				throw new DbException("@BTreeBulkLoader, tuples are not sorted on field " + keyField);
+			Field prevKey = cur.isEmpty() ? null : last.getField(keyField);
+			last = t;
+			int weight = weight(t.getField(keyField), prevKey, true);
+			if (!cur.isEmpty() && curWeight + weight > leafCap) {
+				if (prev != null)
+					writeLeaf(prev, false);
+				prev = cur;
+				cur = new ArrayList<Tuple>();
+				weight = weight(t.getField(keyField), null, true);
+				curWeight = 0;
+			}
+			cur.add(t);
+			curWeight += weight;
+		}
+		if (prev == null) {
+			// the only leaf is the root, possibly empty
+			writeLeaf(cur, true);
+			return;
+		}
+		int full = prev.size();
+		prev.addAll(cur);
+		ArrayList<Field> lastKeys = new ArrayList<Field>();
+		for (Tuple t : prev)
+			lastKeys.add(t.getField(keyField));
+		int[] sizes = lastPages(lastKeys, full, true);
+		if (sizes.length == 2)
+			writeLeaf(new ArrayList<Tuple>(prev.subList(0, sizes[0])), false);
+		writeLeaf(new ArrayList<Tuple>(prev.subList(prev.size() - sizes[sizes.length - 1], prev.size())),
+				true);
+	}
+
+	private void writeLeaf(ArrayList<Tuple> tuples, boolean last) throws IOException {
+		int pgNo = ++numPages;
+		byte[] data = BTreeFileEncoder.convertToLeafPage(tuples, BufferPool.getPageSize(),
+				types.length, types, keyField);
+		// the leaves are the first pages of the file, in key order
+		ByteBuffer.wrap(data).putInt(BTreeLeafPage.INDEX_SIZE, pgNo - 1)
+				.putInt(2 * BTreeLeafPage.INDEX_SIZE, last ? 0 : pgNo + 1);
+		raf.write(data);
+		Field first = tuples.isEmpty() ? null : tuples.get(0).getField(keyField);
+		if (lastLeafKey != null && first != null && compressed)
+			keys.add(BTreeKeyCompression.separator(lastLeafKey, first));
+		else
+			keys.add(first);
+		if (!tuples.isEmpty())
+			lastLeafKey = tuples.get(tuples.size() - 1).getField(keyField);
+		pages.add(pgNo);
+	}
+
+	/**
+	 * Writes the internal pages over the pages of the last level written, and
+	 * points these to their parent.
+	 *
+	 * @param childCategory - the category of the pages of the last level
+	 */
+	private void writeInternalLevel(int childCategory) throws IOException {
+		int tableid = f.getAbsoluteFile().hashCode();
+		int n = pages.size();
+		ArrayList<Integer> groups = new ArrayList<Integer>();
+		int groupStart = 0;
+		int groupWeight = 0;
+		for (int i = 0; i < n; i++) {
+			int weight = itemWeight(keys, groupStart, i, false);
+			if (i > groupStart && groupWeight + weight > childCap) {
+				groups.add(i - groupStart);
+				groupStart = i;
+				weight = itemWeight(keys, groupStart, i, false);
+				groupWeight = 0;
+			}
+			groupWeight += weight;
+		}
+		int[] sizes;
+		if (groups.isEmpty()) {
+			sizes = new int[] { n };
+		} else {
+			int full = groups.get(groups.size() - 1);
+			int[] last = lastPages(keys.subList(groupStart - full, n), full, false);
+			sizes = new int[groups.size() - 1 + last.length];
+			for (int i = 0; i < groups.size() - 1; i++)
+				sizes[i] = groups.get(i);
+			System.arraycopy(last, 0, sizes, groups.size() - 1, last.length);
+		}
+
+		ArrayList<Field> levelKeys = new ArrayList<Field>();
+		ArrayList<Integer> levelPages = new ArrayList<Integer>();
+		int start = 0;
+		for (int size : sizes) {
+			ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+			for (int i = start + 1; i < start + size; i++) {
+				entries.add(new BTreeEntry(keys.get(i),
+						new BTreePageId(tableid, pages.get(i - 1), childCategory),
+						new BTreePageId(tableid, pages.get(i), childCategory)));
+			}
+			int pgNo = ++numPages;
+			raf.seek(offset(pgNo));
+			raf.write(BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+					types[keyField], childCategory));
+			// the parent pointer comes first in both kinds of pages
+			for (int i = start; i < start + size; i++) {
+				raf.seek(offset(pages.get(i)));
+				raf.writeInt(pgNo);
+			}
+			levelKeys.add(keys.get(start));
+			levelPages.add(pgNo);
+			start += size;
+		}
+		keys = levelKeys;
+		pages = levelPages;
+	}
+
+	/**
+	 * @param key - the key of a tuple, or of a child of an internal page
+	 * @param prevKey - the key before it on the page, or null if it is the
+	 *            first item of the page
+	 * @param leaf - whether the item is a tuple
+	 * @return the weight of the item on the page: 1, or the bytes it takes if
+	 *         the keys are compressed
+	 */
+	private int weight(Field key, Field prevKey, boolean leaf) {
+		if (!compressed)
+			return 1;
+		if (leaf)
+			return BTreeKeyCompression.keySize(key, prevKey) + restSize;
+		return BTreeKeyCompression.keySize(key, prevKey) + BTreeInternalPage.INDEX_SIZE;
+	}
+
+	/**
+	 * @param keys - the keys of the items of a level
+	 * @param first - the first item of the page
+	 * @param i - the item
+	 * @param leaf - whether the items are tuples or children
+	 * @return the weight of the i-th item on the page starting at the first
+	 */
+	private int itemWeight(List<Field> keys, int first, int i, boolean leaf) {
+		if (leaf)
+			return weight(keys.get(i), i > first ? keys.get(i - 1) : null, true);
+		// the key of the first child is not on the page
+		if (i == first)
+			return compressed ? BTreeInternalPage.INDEX_SIZE : 1;
+		return weight(keys.get(i), i - 1 > first ? keys.get(i - 1) : null, false);
+	}
+
+	/**
+	 * @return the weight of the items of a page, given by their keys
+	 */
+	private int pageWeight(List<Field> keys, int from, int to, boolean leaf) {
+		int weight = 0;
+		for (int i = from; i < to; i++)
+			weight += itemWeight(keys, from, i, leaf);
+		return weight;
+	}
+
+	/**
+	 * Splits the items of the last two pages of a level, of which the first
+	 * is full, so that both are at least half full, or puts them in a single
+	 * page if there are too few for two.
+	 *
+	 * @param keys - the keys of the items of the last two pages
+	 * @param full - the number of items of the first page
+	 * @param leaf - whether the items are tuples or children
+	 * @return the sizes of the last pages
+	 */
+	private int[] lastPages(List<Field> keys, int full, boolean leaf) {
+		int n = keys.size();
+		if (pageWeight(keys, full, n, leaf) >= (leaf ? leafMin : childMin))
+			return new int[] { full, n - full };
+		int total = pageWeight(keys, 0, n, leaf);
+		if (total <= (leaf ? leafRoom : childRoom))
+			return new int[] { n };
+		// the first page takes half the weight, rounded up
+		int first = 0;
+		int weight = 0;
+		while (2 * weight < total)
+			weight += itemWeight(keys, 0, first++, leaf);
+		return new int[] { first, n - first };
+	}
+
+	private static long offset(int pgNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * BufferPool.getPageSize();
+	}
+}
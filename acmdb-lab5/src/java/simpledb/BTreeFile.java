@@ -3,6 +3,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import simpledb.Predicate.Op;
 
@@ -16,6 +18,13 @@ import static simpledb.BTreePageId.LEAF;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Besides the locks transactions hold until they complete, the pages carry short-term
+ * latches, held only while an insert or a delete runs. An insert first descends without
+ * locking the root pointer and internal pages, read-latching each of them instead, and
+ * locks the leaf only; a leaf page which must split, or any page a running transaction
+ * has written to, makes it fall back to locking as it goes. Pages locked READ_WRITE are
+ * write-latched before they change, so splits and merges are never seen half done.
  *
  * @see simpledb.BTreeLeafPage#BTreeLeafPage
  * @see simpledb.BTreeInternalPage#BTreeInternalPage
@@ -29,6 +38,9 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	// the latches of the pages, by page id
+	private final ConcurrentHashMap<PageId, ReentrantReadWriteLock> latches =
+			new ConcurrentHashMap<PageId, ReentrantReadWriteLock>();
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -206,23 +218,89 @@ public class BTreeFile implements DbFile {
 		else {
 			// internal page, find next node containing key field
 			BTreeInternalPage curPageNode = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-			BTreeInternalPageIterator internalPageIt = (BTreeInternalPageIterator) curPageNode.iterator();
-			// field is null, then return left-most leaf page
-			if (f == null) {
-				assert internalPageIt.hasNext();
-				BTreeEntry firstEntry = internalPageIt.next();
-				return findLeafPage(tid, dirtypages, firstEntry.getLeftChild(), perm, f);
-			}
-			// field not null
-			BTreeEntry entry = null;
-			while (internalPageIt.hasNext()) {
-				entry = internalPageIt.next();
-				Field key = entry.getKey();
-                if (f.compare(Op.LESS_THAN_OR_EQ, key))
-					return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
+			return findLeafPage(tid, dirtypages, findChild(curPageNode, f), perm, f);
+		}
+	}
+
+	/**
+	 * @param page - an internal page
+	 * @param f - the field to search for, or null for the left-most child
+	 * @return the left-most child of the page possibly containing the key field f
+	 */
+	private BTreePageId findChild(BTreeInternalPage page, Field f) {
+		BTreeInternalPageIterator internalPageIt = (BTreeInternalPageIterator) page.iterator();
+		// field is null, then return left-most child
+		if (f == null) {
+			assert internalPageIt.hasNext();
+			return internalPageIt.next().getLeftChild();
+		}
+		// field not null
+		BTreeEntry entry = null;
+		while (internalPageIt.hasNext()) {
+			entry = internalPageIt.next();
+			if (f.compare(Op.LESS_THAN_OR_EQ, entry.getKey()))
+				return entry.getLeftChild();
+		}
+		assert entry != null;
+		return entry.getRightChild();
+	}
+
+	/**
+	 * Finds the leaf page for the key field f like findLeafPage, without locking the root
+	 * pointer page and the internal pages on the way. Each of them is read-latched instead,
+	 * until the latch of the page below is taken, and the leaf page is locked READ_WRITE
+	 * under the latch of its parent. The descent never waits: it gives up as soon as a latch
+	 * or the lock of the leaf page is not free, or it comes across a page written by another
+	 * running transaction, whose changes may yet be rolled back.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param field - the field to search for
+	 * @return the leaf page possibly containing the key field, locked READ_WRITE, or null
+	 * if the descent gave up
+	 *
+	 * @throws DbException
+	 */
+	private BTreeLeafPage findLeafPageOptimistic(TransactionId tid, HashMap<PageId, Page> dirtypages,
+			Field field) throws DbException {
+		// the first insert creates the root pointer page
+		if(f.length() == 0)
+			return null;
+		if(Boolean.getBoolean("noopt")) return null;
+
+		BufferPool bp = Database.getBufferPool();
+		ReentrantReadWriteLock.ReadLock held = null;
+		try {
+			BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+			while(pid.pgcateg() != LEAF) {
+				ReentrantReadWriteLock.ReadLock latch = latch(pid).readLock();
+				if(!latch.tryLock())
+					return null;
+				// the latch of the page above is let go once the one of the page below is taken
+				if(held != null)
+					held.unlock();
+				held = latch;
+
+				Page p = bp.peekPage(tid, pid);
+				if(p == null)
+					return null;
+				if(pid.pgcateg() == BTreePageId.ROOT_PTR)
+					pid = ((BTreeRootPtrPage) p).getRootId();
+				else
+					pid = findChild((BTreeInternalPage) p, field);
+				if(pid == null) // the root is yet to be created
+					return null;
 			}
-			assert entry != null;
-			return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
+
+			Page leaf = bp.tryGetPage(tid, pid, Permissions.READ_WRITE);
+			if(leaf == null)
+				return null;
+			if(!(leaf instanceof BTreeLeafPage)) System.out.println("DEBUG not leaf " + pid + " " + leaf);
+			dirtypages.put(pid, leaf);
+			return (BTreeLeafPage) leaf;
+		} finally {
+			if(held != null)
+				held.unlock();
 		}
 	}
 
@@ -249,7 +327,8 @@ public class BTreeFile implements DbFile {
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
 	 * of the first tuple in the right-hand page (the key is "copied up"), and child pointers
 	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent
-	 * pointers as needed.
+	 * pointers as needed. String keys are copied up truncated to the shortest prefix separating
+	 * the two pages (see {@link BTreeKeyCompression#separator}).
 	 *
 	 * Return the leaf page into which a new tuple with key field "field" should be inserted.
 	 *
@@ -290,7 +369,8 @@ public class BTreeFile implements DbFile {
 
 		// move right-half entries to newPage
         BTreeLeafPageReverseIterator leafRevIt = (BTreeLeafPageReverseIterator) page.reverseIterator();
-        while (page.getNumTuples() - newPage.getNumTuples() > 1) {
+        // tuples with compressed keys vary in size, so balance the room left on the pages
+        while (newPage.getNumEmptySlots() - page.getNumEmptySlots() > 1) {
 			Tuple toMoveTuple = leafRevIt.next();
 			page.deleteTuple(toMoveTuple);
 			newPage.insertTuple(toMoveTuple);
@@ -298,7 +378,9 @@ public class BTreeFile implements DbFile {
 
         // update parent
 		Tuple middleTup = leafRevIt.next();
-		BTreeEntry copyUpEntry = new BTreeEntry(middleTup.getField(keyField), page.getId(), newPage.getId());
+		Field separator = BTreeKeyCompression.separator(middleTup.getField(keyField),
+				newPage.iterator().next().getField(keyField));
+		BTreeEntry copyUpEntry = new BTreeEntry(separator, page.getId(), newPage.getId());
 		BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), copyUpEntry.getKey());
 		parentPage.insertEntry(copyUpEntry);
 		// update parent pointer, Note: getParent may return a new parent page
@@ -311,7 +393,7 @@ public class BTreeFile implements DbFile {
 		assert dirtypages.containsKey(parentPage.pid);
 
 		// which leafpage to return
-		if (field.compare(Op.LESS_THAN_OR_EQ, middleTup.getField(keyField)))
+		if (field.compare(Op.LESS_THAN_OR_EQ, separator))
 			return page;
 		else
 			return newPage;
@@ -347,7 +429,7 @@ public class BTreeFile implements DbFile {
 
 		// move right-half entries to newPage
         BTreeInternalPageReverseIterator internalRevIt = (BTreeInternalPageReverseIterator) page.reverseIterator();
-        while (page.getNumEntries() - newPage.getNumEntries() > 1) {
+        while (newPage.getNumEmptySlots() - page.getNumEmptySlots() > 1) {
 			BTreeEntry toMoveEntry = internalRevIt.next();
 			page.deleteKeyAndRightChild(toMoveEntry);
 			newPage.insertEntry(toMoveEntry);
@@ -514,9 +596,54 @@ public class BTreeFile implements DbFile {
 		}
 	}
 
+	/**
+	 * @return the latch of a page of this file
+	 */
+	private ReentrantReadWriteLock latch(PageId pid) {
+		ReentrantReadWriteLock latch = latches.get(pid);
+		if(latch == null) {
+			latches.putIfAbsent(pid, new ReentrantReadWriteLock());
+			latch = latches.get(pid);
+		}
+		return latch;
+	}
+
+	/**
+	 * The dirty pages of an insert or a delete. A page is write-latched when it is added,
+	 * which getPage does once the page is locked READ_WRITE and before it changes, and
+	 * stays latched until release() at the end of the insert or delete.
+	 */
+	private class LatchedPages extends HashMap<PageId, Page> {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public Page put(PageId pid, Page page) {
+			if(!containsKey(pid))
+				latch(pid).writeLock().lock();
+			return super.put(pid, page);
+		}
+
+		@Override
+		public Page remove(Object pid) {
+			if(containsKey(pid))
+				latch((PageId) pid).writeLock().unlock();
+			return super.remove(pid);
+		}
+
+		/**
+		 * Releases the latches of all pages
+		 */
+		void release() {
+			for(PageId pid : keySet())
+				latch(pid).writeLock().unlock();
+		}
+	}
+
 	/**
 	 * Insert a tuple into this BTreeFile, keeping the tuples in sorted order.
 	 * May cause pages to split if the page where tuple t belongs is full.
+	 * Unless a running transaction has written to the pages on the way, only the
+	 * leaf page is locked, or also the pages a split changes.
 	 *
 	 * @param tid - the transaction id
 	 * @param t - the tuple to insert
@@ -526,31 +653,56 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
-
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+		LatchedPages dirtypages = new LatchedPages();
+		try {
+			// first try to find and lock the leaf page without locking the pages above it
+			BTreeLeafPage leafPage = findLeafPageOptimistic(tid, dirtypages, t.getField(keyField));
+			boolean opt = leafPage != null;
+			if(leafPage == null) {
+				// get a read lock on the root pointer page and use it to locate the root page
+				BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+				BTreePageId rootId = rootPtr.getRootId();
+
+				if(rootId == null) { // the root has just been created, so set the root pointer to point to it
+					rootId = new BTreePageId(tableid, numPages(), LEAF);
+					rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+					rootPtr.setRootId(rootId);
+				}
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it
-			rootId = new BTreePageId(tableid, numPages(), LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
-		}
+				// find and lock the left-most leaf page corresponding to the key field
+				leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+			}
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
-		}
+			// split the leaf page if there are no more slots available, locking the pages
+			// above it as needed
+			if(leafPage.getNumEmptySlots() == 0) {
+				leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+			}
 
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
+			// insert the tuple into the leaf page
+			leafPage.insertTuple(t);
+			{
+				Field k = t.getField(keyField);
+				BTreePageId r = leafPage.getRightSiblingId();
+				BTreePageId l = leafPage.getLeftSiblingId();
+				if(r != null) {
+					BTreeLeafPage rp = (BTreeLeafPage) Database.getBufferPool().peekPage(tid, r);
+					if(rp != null && rp.iterator().hasNext() && rp.iterator().next().getField(keyField).compare(Op.LESS_THAN, k))
+						System.out.println("DEBUG misplaced right " + opt + " " + k + " leaf " + leafPage.getId() + " right first " + rp.iterator().next() + " parent " + leafPage.getParentId());
+				}
+				if(l != null) {
+					BTreeLeafPage lp = (BTreeLeafPage) Database.getBufferPool().peekPage(tid, l);
+					if(lp != null && lp.reverseIterator().hasNext() && lp.reverseIterator().next().getField(keyField).compare(Op.GREATER_THAN, k))
+						System.out.println("DEBUG misplaced left " + opt + " " + k + " leaf " + leafPage.getId() + " left last " + lp.reverseIterator().next() + " parent " + leafPage.getParentId());
+				}
+			}
 
-		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
-		dirtyPagesArr.addAll(dirtypages.values());
-		return dirtyPagesArr;
+			ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+			dirtyPagesArr.addAll(dirtypages.values());
+			return dirtyPagesArr;
+		} finally {
+			dirtypages.release();
+		}
 	}
 
 	/**
@@ -636,6 +788,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);
+				handleParentKeyUpdate(tid, dirtypages, parent, leftEntry.getKey());
 			}
 		}
 		else if(rightSiblingId != null) {
@@ -647,14 +800,44 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);
+				handleParentKeyUpdate(tid, dirtypages, parent, rightEntry.getKey());
 			}
 		}
 	}
 
+	/**
+	 * Keys of the parent of two pages change when one of them steals from the other. With
+	 * compressed keys (see {@link BTreeKeyCompression}) that changes the size of the parent:
+	 * split it if it no longer fits, or handle it like a page it was deleted from if it drops
+	 * below minimum occupancy. Pages with uncompressed keys are left as they are.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param parent - the parent whose entry was updated
+	 * @param key - the updated key
+	 * @see #splitInternalPage(TransactionId, HashMap, BTreeInternalPage, Field)
+	 * @see #handleMinOccupancyPage(TransactionId, HashMap, BTreePage)
+	 *
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void handleParentKeyUpdate(TransactionId tid, HashMap<PageId, Page> dirtypages,
+			BTreeInternalPage parent, Field key)
+					throws DbException, IOException, TransactionAbortedException {
+		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
+		if(parent.isOverfull()) {
+			splitInternalPage(tid, dirtypages, parent, key);
+		}
+		else if(parent.getNumEmptySlots() > maxEmptySlots) {
+			handleMinOccupancyPage(tid, dirtypages, parent);
+		}
+	}
+
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
-	 * tuple in the right-hand page.
+	 * tuple in the right-hand page, truncated like the keys copied up on a split.
 	 *
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
@@ -676,16 +859,21 @@ public class BTreeFile implements DbFile {
 		sibIt = (isRightSibling) ? sibling.iterator() : sibling.reverseIterator();
 		// move tuples
 		// sibling has more tuples then page
-		while (sibling.getNumTuples() - page.getNumTuples() > 1) {
+		while (page.getNumEmptySlots() - sibling.getNumEmptySlots() > 1) {
 			sibTup = sibIt.next();
 			sibling.deleteTuple(sibTup);
 			page.insertTuple(sibTup);
 		}
 		// update entry
-		if (! isRightSibling)
+		Tuple rightTup = null;
+		if (! isRightSibling) {
 			sibTup = sibIt.next(); // steal from left, then update key still remains at left
+			rightTup = page.iterator().next();
+		}
+		else
+			rightTup = sibIt.next();
 		assert sibTup != null;
-		entry.setKey(sibTup.getField(keyField));
+		entry.setKey(BTreeKeyCompression.separator(sibTup.getField(keyField), rightTup.getField(keyField)));
         parent.updateEntry(entry);
 	}
 
@@ -726,6 +914,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				handleParentKeyUpdate(tid, dirtypages, parent, leftEntry.getKey());
 			}
 		}
 		else if(rightSiblingId != null) {
@@ -737,6 +926,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				handleParentKeyUpdate(tid, dirtypages, parent, rightEntry.getKey());
 			}
 		}
 	}
@@ -770,7 +960,7 @@ public class BTreeFile implements DbFile {
 		page.insertEntry(pullDownEntry);
 
 		Iterator<BTreeEntry> leftIt = leftSibling.reverseIterator();
-		while (leftSibling.getNumEntries() - page.getNumEntries() > 1) {
+		while (page.getNumEmptySlots() - leftSibling.getNumEmptySlots() > 1) {
 			BTreeEntry leftEntry = leftIt.next();
 			leftSibling.deleteKeyAndRightChild(leftEntry);
 			page.insertEntry(leftEntry);
@@ -821,7 +1011,7 @@ public class BTreeFile implements DbFile {
 		page.insertEntry(pullDownEntry);
 
 		Iterator<BTreeEntry> rightIt = rightSibling.iterator();
-		while (rightSibling.getNumEntries() - page.getNumEntries() > 1) {
+		while (page.getNumEmptySlots() - rightSibling.getNumEmptySlots() > 1) {
 			BTreeEntry leftEntry = rightIt.next();
 			rightSibling.deleteKeyAndLeftChild(leftEntry);
 			page.insertEntry(leftEntry);
@@ -973,7 +1163,7 @@ public class BTreeFile implements DbFile {
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
 		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged
 			// page will become the new root
@@ -1006,22 +1196,25 @@ public class BTreeFile implements DbFile {
 	 */
 	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
-		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
-
-		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(), LEAF);
-		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
+		LatchedPages dirtypages = new LatchedPages();
+		try {
+			BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().pageNumber(), LEAF);
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+			page.deleteTuple(t);
+
+			// if the page is below minimum occupancy, get some tuples from its siblings
+			// or merge with one of the siblings
+			int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+			if(page.getNumEmptySlots() > maxEmptySlots) {
+				handleMinOccupancyPage(tid, dirtypages, page);
+			}
 
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) {
-			handleMinOccupancyPage(tid, dirtypages, page);
+			ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
+			dirtyPagesArr.addAll(dirtypages.values());
+			return dirtyPagesArr;
+		} finally {
+			dirtypages.release();
 		}
-
-		ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
-		dirtyPagesArr.addAll(dirtypages.values());
-		return dirtyPagesArr;
 	}
 
 	/**
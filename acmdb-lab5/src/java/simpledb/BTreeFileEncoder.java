@@ -493,7 +493,8 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
+	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage.
+	 * Tuples which do not fit on the page are left out.
 	 * 
 	 * @param tuples - the set of tuples
 	 * @param npagebytes - number of bytes per page
@@ -510,6 +511,9 @@ public class BTreeFileEncoder {
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
 		}
+		if (BTreeKeyCompression.isCompressed(typeAr[keyField]))
+			return convertToCompressedLeafPage(tuples, npagebytes, nrecbytes - typeAr[keyField].getLen(), keyField);
+
 		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
 		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
 		int nrecords = (npagebytes * 8 - pointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
@@ -569,6 +573,74 @@ public class BTreeFileEncoder {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
+	 * with compressed keys (see {@link BTreeKeyCompression}). Tuples which do
+	 * not fit on the page are left out.
+	 * 
+	 * @param tuples - the set of tuples
+	 * @param npagebytes - number of bytes per page
+	 * @param nrestbytes - number of bytes of each tuple without its key
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @return a byte array which can be passed to the BTreeLeafPage constructor
+	 * @throws IOException
+	 */
+	private static byte[] convertToCompressedLeafPage(ArrayList<Tuple> tuples, int npagebytes,
+			int nrestbytes, int keyField) throws IOException {
+		int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE;
+		int nslots = BTreeKeyCompression.leafSlots(npagebytes, nrestbytes);
+		int nheaderbytes = (nslots + 7) / 8;
+		int nmaxbytes = BTreeKeyCompression.maxLeafTuples(npagebytes, nrestbytes)
+				* (nrestbytes + BTreeKeyCompression.MAX_KEY_SIZE);
+
+		// write out the tuples first, as many as fit
+		Collections.sort(tuples, new TupleComparator(keyField));
+		ByteArrayOutputStream recs = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream rdos = new DataOutputStream(recs);
+		int recordcount = 0;
+		Field prevKey = null;
+		for (Tuple t : tuples) {
+			Field key = t.getField(keyField);
+			if (rdos.size() + BTreeKeyCompression.keySize(key, prevKey) + nrestbytes > nmaxbytes)
+				break;
+			for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+				if (j == keyField)
+					BTreeKeyCompression.writeKey(rdos, key, prevKey);
+				else
+					t.getField(j).serialize(rdos);
+			}
+			prevKey = key;
+			recordcount++;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeInt(0); // left sibling pointer
+		dos.writeInt(0); // right sibling pointer
+		writeHeader(dos, nheaderbytes, recordcount);
+		dos.write(recs.toByteArray());
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - (pointerbytes + nheaderbytes + rdos.size())]);
+
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Write out a page header with the given number of slots in use, the first ones
+	 */
+	private static void writeHeader(DataOutputStream dos, int nheaderbytes, int nused) throws IOException {
+		for (int i = 0; i < nheaderbytes; i++) {
+			byte headerbyte = 0;
+			for (int j = 0; j < 8; j++) {
+				if (i * 8 + j < nused)
+					headerbyte |= (1 << j);
+			}
+			dos.writeByte(headerbyte);
+		}
+	}
+
 	/**
 	 *  Comparator to sort BTreeEntry objects by key
 	 */
@@ -612,7 +684,8 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage.
+	 * Entries which do not fit on the page are left out.
 	 * 
 	 * @param entries - the set of entries
 	 * @param npagebytes - number of bytes per page
@@ -624,6 +697,9 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (BTreeKeyCompression.isCompressed(keyType))
+			return convertToCompressedInternalPage(entries, npagebytes, childPageCategory);
+
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -697,6 +773,56 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * with compressed keys (see {@link BTreeKeyCompression}). Entries which do not
+	 * fit on the page are left out.
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 */
+	private static byte[] convertToCompressedInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			int childPageCategory) throws IOException {
+		// pointerbytes: one extra child pointer, parent pointer, child page category
+		int pointerbytes = 2 * BTreeInternalPage.INDEX_SIZE + 1;
+		int nslots = BTreeKeyCompression.internalSlots(npagebytes);
+		int nheaderbytes = (nslots + 7) / 8;
+		int nmaxbytes = BTreeKeyCompression.maxInternalEntries(npagebytes)
+				* (BTreeKeyCompression.MAX_KEY_SIZE + BTreeInternalPage.INDEX_SIZE);
+
+		// write out the entries first, as many as fit
+		Collections.sort(entries, new EntryComparator());
+		ByteArrayOutputStream recs = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream rdos = new DataOutputStream(recs);
+		int entrycount = 0;
+		Field prevKey = null;
+		for (BTreeEntry e : entries) {
+			Field key = e.getKey();
+			if (rdos.size() + BTreeKeyCompression.keySize(key, prevKey) + BTreeInternalPage.INDEX_SIZE > nmaxbytes)
+				break;
+			BTreeKeyCompression.writeKey(rdos, key, prevKey);
+			rdos.writeInt(e.getRightChild().pageNumber());
+			prevKey = key;
+			entrycount++;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+		writeHeader(dos, nheaderbytes, entrycount + 1);
+		dos.writeInt(entries.get(0).getLeftChild().pageNumber());
+		dos.write(recs.toByteArray());
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - (pointerbytes + nheaderbytes + rdos.size())]);
+
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
@@ -17,7 +17,9 @@ public class BTreeInternalPage extends BTreePage {
 	private final byte header[];
 	private final Field keys[];
 	private final int children[];
+	private final boolean compressed;
 	private final int numSlots;
+	private int usedBytes = -1; // bytes of the compressed entries, -1 until computed
 	
 	private int childCategory; // either leaf or internal
 
@@ -37,7 +39,11 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			if (compressed)
+				// pages of variable size entries can only be balanced to within an entry
+				assert (getNumEmptySlots() <= getMaxEntries() - getMaxEntries() / 2 + 1);
+			else
+				assert (getNumEntries() >= getMaxEntries() / 2);
 		}
 	}
 	
@@ -57,6 +63,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * If the page is keyed on a string field, the keys are prefix compressed
+	 * (see {@link BTreeKeyCompression}) and the entries vary in size. There is
+	 * then a slot per entry of the smallest size, and the first child pointer
+	 * is followed by the entries in use, key and child pointer, one after the
+	 * other in slot order, with no room for the others.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -67,7 +79,8 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxEntries() + 1;
+		this.compressed = BTreeKeyCompression.isCompressed(td.getFieldType(keyField));
+		this.numSlots = getSlotsPerPage();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -87,6 +100,14 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (compressed) {
+			readCompressedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -98,7 +119,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -113,8 +133,13 @@ public class BTreeInternalPage extends BTreePage {
 
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * If the keys are compressed, this is the number of entries of the largest
+	 * size the page can hold, less one kept for an entry whose key is updated
+	 * to a longer one; it holds more of smaller ones.
  	 */
 	public int getMaxEntries() {        
+		if (compressed)
+			return BTreeKeyCompression.maxInternalEntries(BufferPool.getPageSize());
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
@@ -124,12 +149,86 @@ public class BTreeInternalPage extends BTreePage {
 		return entriesPerPage;
 	}
 
+	/**
+	 * Retrieve the number of slots of this page: one per entry it can hold,
+	 * or one per entry of the smallest size if the keys are compressed, and
+	 * one for the first child pointer
+	 */
+	private int getSlotsPerPage() {
+		if (!compressed)
+			return getMaxEntries() + 1;
+		return BTreeKeyCompression.internalSlots(BufferPool.getPageSize());
+	}
+
+	/**
+	 * @return the size of an entry with a compressed key, at most
+	 */
+	private int getMaxEntrySize() {
+		return BTreeKeyCompression.MAX_KEY_SIZE + INDEX_SIZE;
+	}
+
+	/**
+	 * @return the number of slots of this page, used by the reverse iterator
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
+	/**
+	 * @return the number of bytes the compressed entries of this page take,
+	 *         not counting the first child pointer
+	 */
+	private int getUsedBytes() {
+		if (usedBytes < 0) {
+			usedBytes = 0;
+			Field prevKey = null;
+			for (int i=1; i<numSlots; i++) {
+				if (isSlotUsed(i)) {
+					usedBytes += BTreeKeyCompression.keySize(keys[i], prevKey) + INDEX_SIZE;
+					prevKey = keys[i];
+				}
+			}
+		}
+		return usedBytes;
+	}
+
+	/**
+	 * @return the number of bytes the compressed entries of this page would
+	 *         grow by if an entry with the given key were inserted
+	 */
+	private int getInsertSize(Field key) {
+		Field prevKey = null;
+		Field nextKey = null;
+		for (int i=1; i<numSlots; i++) {
+			if (isSlotUsed(i)) {
+				if (keys[i].compare(Op.GREATER_THAN, key)) {
+					nextKey = keys[i];
+					break;
+				}
+				prevKey = keys[i];
+			}
+		}
+		int size = BTreeKeyCompression.keySize(key, prevKey) + INDEX_SIZE;
+		if (nextKey != null)
+			size += BTreeKeyCompression.keySize(nextKey, key) - BTreeKeyCompression.keySize(nextKey, prevKey);
+		return size;
+	}
+
+	/**
+	 * @return true if an update to a longer key left the compressed entries
+	 *         of this page larger than its maximum number of entries; the
+	 *         page still fits on disk, but must be split
+	 */
+	public boolean isOverfull() {
+		return compressed && getUsedBytes() > getMaxEntries() * getMaxEntrySize();
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		int slotsPerPage = getSlotsPerPage();
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
@@ -220,6 +319,46 @@ public class BTreeInternalPage extends BTreePage {
 		return child;
 	}
 
+	/**
+	 * Read the first child pointer and the entries in use, with their keys
+	 * compressed, from the source file.
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		int firstChild = dis.readInt();
+		children[0] = isSlotUsed(0) ? firstChild : -1;
+		Field prevKey = null;
+		for (int i=1; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			keys[i] = BTreeKeyCompression.readKey(dis, prevKey);
+			children[i] = dis.readInt();
+			prevKey = keys[i];
+		}
+	}
+
+	/**
+	 * Writes the first child pointer and the entries in use, with their keys
+	 * compressed, and pads the rest of the page with zeroes.
+	 */
+	private void writeCompressedEntries(DataOutputStream dos) {
+		try {
+			dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+			Field prevKey = null;
+			for (int i=1; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				BTreeKeyCompression.writeKey(dos, keys[i], prevKey);
+				dos.writeInt(children[i]);
+				prevKey = keys[i];
+			}
+			dos.write(new byte[BufferPool.getPageSize() - (2 * INDEX_SIZE + 1 + header.length + getUsedBytes())]);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -262,6 +401,16 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
+		if (compressed) {
+			writeCompressedEntries(dos);
+			try {
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -395,7 +544,8 @@ public class BTreeInternalPage extends BTreePage {
 	
 	/**
 	 * Update the key and/or child pointers of an entry at the location specified by its 
-	 * record id.
+	 * record id. If the keys are compressed, a longer key may leave the page overfull.
+	 * @see #isOverfull()
 	 * @param e - the entry with updated key and/or child pointers
 	 * @throws DbException if this entry is not on this page, entry slot is
 	 *         already empty, or updating this key would put the entry out of 
@@ -431,12 +581,14 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		children[rid.tupleno()] = e.getRightChild().pageNumber(); 
 		keys[rid.tupleno()] = e.getKey();
+		usedBytes = -1;
 	}
 
 	/**
 	 * Adds the specified entry to the page; the entry's recordId should be updated to 
 	 * reflect that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or key field type,
+	 * @throws DbException if the page is full (no empty slots, or no room for the
+	 *         entry if the keys are compressed) or key field type,
 	 *         table id, or child page category is a mismatch, or the entry is invalid
 	 * @param e The entry to add.
 	 */
@@ -456,8 +608,11 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if (compressed && getUsedBytes() + getInsertSize(e.getKey()) > getMaxEntries() * getMaxEntrySize())
+			throw new DbException("called insertEntry on page with no room for the entry.");
+
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().pageNumber();
 			children[1] = e.getRightChild().pageNumber();
 			keys[1] = e.getKey();
@@ -562,11 +717,17 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		int cnt = 0;
+		for(int i=1; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. If the keys are
+	 * compressed, this is the number of entries of the largest size the page
+	 * has room for.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
@@ -575,6 +736,10 @@ public class BTreeInternalPage extends BTreePage {
 		for(int i=1; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
+		if (compressed) {
+			int room = (getMaxEntries() * getMaxEntrySize() - getUsedBytes()) / getMaxEntrySize();
+			cnt = Math.min(cnt, Math.max(0, room));
+		}
 		return cnt;
 	}
 
@@ -595,6 +760,7 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+		usedBytes = -1;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -743,7 +909,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
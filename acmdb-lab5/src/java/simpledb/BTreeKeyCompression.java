@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Prefix compression of the string keys of the pages of a BTreeFile. The
+ * keys of a page are sorted, so neighbours tend to share a prefix: each key
+ * is stored as the length of the prefix it shares with the key before it on
+ * the page, in one byte, followed by the length of the rest of the key, in
+ * one byte, and the rest itself. The first key of a page is stored whole.
+ * A key then takes from 2 bytes, when it repeats the key before it, to 130
+ * bytes, rather than the 132 bytes of a {@link StringField}.
+ * <p>
+ * Inserting a key between two others never grows the key after it, and
+ * deleting a key never grows the page, so a page with room for one more key
+ * of the largest size can take any key. The capacity of a page is counted
+ * in entries of the largest size accordingly (see {@link #maxLeafTuples} and
+ * {@link #maxInternalEntries}).
+ * <p>
+ * Integer keys are stored as they are.
+ *
+ * @see BTreeLeafPage
+ * @see BTreeInternalPage
+ */
+final class BTreeKeyCompression {
+
+	/** The size of a key repeating the key before it */
+	static final int MIN_KEY_SIZE = 2;
+
+	/** The size of a key sharing no prefix with the key before it, at most */
+	static final int MAX_KEY_SIZE = MIN_KEY_SIZE + Type.STRING_LEN;
+
+	private BTreeKeyCompression() {
+	}
+
+	/**
+	 * @return true if the keys of the given type are prefix compressed
+	 */
+	static boolean isCompressed(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
+	/**
+	 * @return the number of header bytes of a page with the given number of
+	 *         slots
+	 */
+	private static int headerBytes(int slots) {
+		return (slots + 7) / 8;
+	}
+
+	/**
+	 * @param pageSize - the size of the page
+	 * @param restSize - the size of the tuples without their key
+	 * @return the number of slots of a leaf page, one per tuple of the
+	 *         smallest size it has room for
+	 */
+	static int leafSlots(int pageSize, int restSize) {
+		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
+		int extraBits = 3 * BTreePage.INDEX_SIZE * 8;
+		return (pageSize * 8 - extraBits) / ((restSize + MIN_KEY_SIZE) * 8 + 1);
+	}
+
+	/**
+	 * @param pageSize - the size of the page
+	 * @param restSize - the size of the tuples without their key
+	 * @return the number of tuples of the largest size a leaf page holds
+	 */
+	static int maxLeafTuples(int pageSize, int restSize) {
+		int slots = leafSlots(pageSize, restSize);
+		int space = pageSize - 3 * BTreePage.INDEX_SIZE - headerBytes(slots);
+		// every tuple takes a slot
+		space = Math.min(space, slots * (restSize + MIN_KEY_SIZE));
+		return space / (restSize + MAX_KEY_SIZE);
+	}
+
+	/**
+	 * @param pageSize - the size of the page
+	 * @return the number of slots of an internal page, one per entry of the
+	 *         smallest size it has room for and one for the first child
+	 */
+	static int internalSlots(int pageSize) {
+		// extraBits are: one parent pointer, 1 byte for child page category,
+		// the first child pointer, 1 bit for its header
+		int extraBits = 2 * BTreePage.INDEX_SIZE * 8 + 8 + 1;
+		return (pageSize * 8 - extraBits) / ((MIN_KEY_SIZE + BTreePage.INDEX_SIZE) * 8 + 1) + 1;
+	}
+
+	/**
+	 * @param pageSize - the size of the page
+	 * @return the number of entries of the largest size an internal page
+	 *         holds, less one kept for an entry whose key is updated to a
+	 *         longer one
+	 */
+	static int maxInternalEntries(int pageSize) {
+		int slots = internalSlots(pageSize);
+		int space = pageSize - (2 * BTreePage.INDEX_SIZE + 1) - headerBytes(slots);
+		// every entry takes a slot
+		space = Math.min(space, (slots - 1) * (MIN_KEY_SIZE + BTreePage.INDEX_SIZE));
+		return space / (MAX_KEY_SIZE + BTreePage.INDEX_SIZE) - 1;
+	}
+
+	/**
+	 * @return the length of the prefix shared by two strings
+	 */
+	private static int sharedPrefix(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	private static String value(Field key) {
+		return ((StringField) key).getValue();
+	}
+
+	/**
+	 * @param key - a string key
+	 * @param prev - the key before it on the page, or null if it is the first
+	 * @return the number of bytes the key takes on the page
+	 */
+	static int keySize(Field key, Field prev) {
+		String s = value(key);
+		int shared = prev == null ? 0 : sharedPrefix(s, value(prev));
+		return MIN_KEY_SIZE + s.length() - shared;
+	}
+
+	/**
+	 * Writes a string key after the key before it on the page.
+	 *
+	 * @param prev - the key before it on the page, or null if it is the first
+	 */
+	static void writeKey(DataOutputStream dos, Field key, Field prev) throws IOException {
+		String s = value(key);
+		int shared = prev == null ? 0 : sharedPrefix(s, value(prev));
+		dos.writeByte(shared);
+		dos.writeByte(s.length() - shared);
+		// one byte per character, as StringField.serialize
+		dos.writeBytes(s.substring(shared));
+	}
+
+	/**
+	 * Reads a string key written by {@link #writeKey}.
+	 *
+	 * @param prev - the key before it on the page, or null if it is the first
+	 */
+	static Field readKey(DataInputStream dis, Field prev) throws IOException {
+		int shared = dis.readUnsignedByte();
+		byte[] rest = new byte[dis.readUnsignedByte()];
+		dis.readFully(rest);
+		String prefix = shared == 0 ? "" : value(prev).substring(0, shared);
+		return new StringField(prefix + new String(rest), Type.STRING_LEN);
+	}
+
+	/**
+	 * Picks the key separating two neighbouring pages, no less than the keys
+	 * of the left page and no more than those of the right page. A string
+	 * key is truncated to the shortest prefix of the first key of the right
+	 * page that is greater than the last key of the left page; any other key
+	 * is the last key of the left page.
+	 *
+	 * @param left - the last key of the left page
+	 * @param right - the first key of the right page
+	 * @return the separator key
+	 */
+	static Field separator(Field left, Field right) {
+		if (!isCompressed(left.getType()) || !left.compare(Predicate.Op.LESS_THAN, right))
+			return left;
+		String r = value(right);
+		int shared = sharedPrefix(value(left), r);
+		// the left key is smaller, so the right key goes on after the shared prefix
+		return new StringField(r.substring(0, shared + 1), Type.STRING_LEN);
+	}
+}
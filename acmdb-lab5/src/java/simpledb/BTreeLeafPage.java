@@ -14,7 +14,9 @@ import java.io.*;
 public class BTreeLeafPage extends BTreePage {
 	private final byte header[];
 	private final Tuple tuples[];
+	private final boolean compressed;
 	private final int numSlots;
+	private int usedBytes = -1; // bytes of the compressed tuples, -1 until computed
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -36,7 +38,11 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		if (checkoccupancy && depth > 0) {
-			assert(getNumTuples() >= getMaxTuples()/2);
+			if (compressed)
+				// pages of variable size tuples can only be balanced to within a tuple
+				assert(getNumEmptySlots() <= getMaxTuples() - getMaxTuples()/2 + 1);
+			else
+				assert(getNumTuples() >= getMaxTuples()/2);
 		}
 	}
 
@@ -53,6 +59,11 @@ public class BTreeLeafPage extends BTreePage {
 	 * <p>
 	 *      ceiling(no. tuple slots / 8)
 	 * <p>
+	 * If the page is keyed on a string field, the keys are prefix compressed
+	 * (see {@link BTreeKeyCompression}) and the tuples vary in size. There is
+	 * then a slot per tuple of the smallest size, and the tuples in use are
+	 * stored one after the other in slot order, with no room for the others.
+	 * <p>
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -63,7 +74,8 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxTuples();
+		this.compressed = BTreeKeyCompression.isCompressed(td.getFieldType(keyField));
+		this.numSlots = getSlotsPerPage();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent and sibling pointers
@@ -96,8 +108,16 @@ public class BTreeLeafPage extends BTreePage {
 		tuples = new Tuple[numSlots];
 		try{
 			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
+			Field prevKey = null;
+			for (int i=0; i<tuples.length; i++) {
+				if (compressed) {
+					tuples[i] = readNextCompressedTuple(dis, i, prevKey);
+					if (tuples[i] != null)
+						prevKey = tuples[i].getField(keyField);
+				}
+				else
+					tuples[i] = readNextTuple(dis,i);
+			}
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
@@ -107,9 +127,13 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	/** 
-	 * Retrieve the maximum number of tuples this page can hold.
+	 * Retrieve the maximum number of tuples this page can hold. If the keys
+	 * are compressed, this is the number of tuples of the largest size the
+	 * page can hold; it holds more of smaller ones.
 	 */
 	public int getMaxTuples() {        
+		if (compressed)
+			return BTreeKeyCompression.maxLeafTuples(BufferPool.getPageSize(), getRestSize());
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8; 
@@ -117,17 +141,89 @@ public class BTreeLeafPage extends BTreePage {
 		return tuplesPerPage;
 	}
 
+	/**
+	 * Retrieve the number of tuple slots of this page: one per tuple it can
+	 * hold, or one per tuple of the smallest size if the keys are compressed
+	 */
+	private int getSlotsPerPage() {
+		if (!compressed)
+			return getMaxTuples();
+		return BTreeKeyCompression.leafSlots(BufferPool.getPageSize(), getRestSize());
+	}
+
+	/**
+	 * @return the size of the tuples of this page without their key
+	 */
+	private int getRestSize() {
+		return td.getSize() - td.getFieldType(keyField).getLen();
+	}
+
+	/**
+	 * @return the size of a tuple with a compressed key, at most
+	 */
+	private int getMaxTupleSize() {
+		return getRestSize() + BTreeKeyCompression.MAX_KEY_SIZE;
+	}
+
+	/**
+	 * @return the number of slots of this page, used by the reverse iterator
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
 	 */
 	private int getHeaderSize() {        
-		int tuplesPerPage = getMaxTuples();
+		int tuplesPerPage = getSlotsPerPage();
 		int hb = (tuplesPerPage / 8);
 		if (hb * 8 < tuplesPerPage) hb++;
 
 		return hb;
 	}
 
+	/**
+	 * @return the number of bytes the compressed tuples of this page take
+	 */
+	private int getUsedBytes() {
+		if (usedBytes < 0) {
+			usedBytes = 0;
+			Field prevKey = null;
+			for (int i=0; i<numSlots; i++) {
+				if (isSlotUsed(i)) {
+					Field key = tuples[i].getField(keyField);
+					usedBytes += BTreeKeyCompression.keySize(key, prevKey) + getRestSize();
+					prevKey = key;
+				}
+			}
+		}
+		return usedBytes;
+	}
+
+	/**
+	 * @return the number of bytes the compressed tuples of this page would
+	 *         grow by if a tuple with the given key were inserted
+	 */
+	private int getInsertSize(Field key) {
+		Field prevKey = null;
+		Field nextKey = null;
+		for (int i=0; i<numSlots; i++) {
+			if (isSlotUsed(i)) {
+				Field k = tuples[i].getField(keyField);
+				if (k.compare(Predicate.Op.GREATER_THAN, key)) {
+					nextKey = k;
+					break;
+				}
+				prevKey = k;
+			}
+		}
+		int size = BTreeKeyCompression.keySize(key, prevKey) + getRestSize();
+		if (nextKey != null)
+			size += BTreeKeyCompression.keySize(nextKey, key) - BTreeKeyCompression.keySize(nextKey, prevKey);
+		return size;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
@@ -187,6 +283,33 @@ public class BTreeLeafPage extends BTreePage {
 		return t;
 	}
 
+	/**
+	 * Read tuples with a compressed key from the source file.
+	 *
+	 * @param prevKey - the key of the tuple before it on the page
+	 */
+	private Tuple readNextCompressedTuple(DataInputStream dis, int slotId, Field prevKey) throws NoSuchElementException {
+		// the tuples in use are stored one after the other
+		if (!isSlotUsed(slotId))
+			return null;
+
+		Tuple t = new Tuple(td);
+		t.setRecordId(new RecordId(pid, slotId));
+		try {
+			for (int j=0; j<td.numFields(); j++) {
+				if (j == keyField)
+					t.setField(j, BTreeKeyCompression.readKey(dis, prevKey));
+				else
+					t.setField(j, td.getFieldType(j).parse(dis));
+			}
+		} catch (IOException | java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+
+		return t;
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -233,6 +356,16 @@ public class BTreeLeafPage extends BTreePage {
 			}
 		}
 
+		if (compressed) {
+			writeCompressedTuples(dos);
+			try {
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the tuples
 		for (int i=0; i<tuples.length; i++) {
 
@@ -279,6 +412,31 @@ public class BTreeLeafPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Writes the tuples in use one after the other, with their keys
+	 * compressed, and pads the rest of the page with zeroes.
+	 */
+	private void writeCompressedTuples(DataOutputStream dos) {
+		try {
+			Field prevKey = null;
+			for (int i=0; i<tuples.length; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				for (int j=0; j<td.numFields(); j++) {
+					Field f = tuples[i].getField(j);
+					if (j == keyField)
+						BTreeKeyCompression.writeKey(dos, f, prevKey);
+					else
+						f.serialize(dos);
+				}
+				prevKey = tuples[i].getField(keyField);
+			}
+			dos.write(new byte[BufferPool.getPageSize() - (3 * INDEX_SIZE + header.length + getUsedBytes())]);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Delete the specified tuple from the page;  the tuple should be updated to reflect
 	 *   that it is no longer stored on any page.
@@ -302,8 +460,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * Adds the specified tuple to the page such that all records remain in sorted order;  
 	 * the tuple should be updated to reflect
 	 *  that it is now stored on this page.
-	 * @throws DbException if the page is full (no empty slots) or tupledesc
-	 *         is mismatch.
+	 * @throws DbException if the page is full (no empty slots, or no room for
+	 *         the tuple if the keys are compressed) or tupledesc is mismatch.
 	 * @param t The tuple to add.
 	 */
 	public void insertTuple(Tuple t) throws DbException {
@@ -322,9 +480,12 @@ public class BTreeLeafPage extends BTreePage {
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
 
+		Field key = t.getField(keyField);
+		if (compressed && getUsedBytes() + getInsertSize(key) > getMaxTuples() * getMaxTupleSize())
+			throw new DbException("called addTuple on page with no room for the tuple.");
+
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
 				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
@@ -438,17 +599,27 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of tuples currently stored on this page
 	 */
 	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+		int cnt = 0;
+		for(int i=0; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. If the keys are
+	 * compressed, this is the number of tuples of the largest size the page
+	 * has room for.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
 		for(int i=0; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
+		if (compressed) {
+			int room = (getMaxTuples() * getMaxTupleSize() - getUsedBytes()) / getMaxTupleSize();
+			cnt = Math.min(cnt, Math.max(0, room));
+		}
 		return cnt;
 	}
 
@@ -469,6 +640,7 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+		usedBytes = -1;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -575,7 +747,7 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 
 	public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
 		this.p = p;
-		this.curTuple = p.getMaxTuples() - 1;
+		this.curTuple = p.getNumSlots() - 1;
 	}
 
 	public boolean hasNext() {
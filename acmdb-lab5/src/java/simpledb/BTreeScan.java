@@ -60,6 +60,14 @@ public class BTreeScan implements DbIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the index predicate the tuples are read by, or null if all
+	 *         of them are
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The BlockNestedLoopJoin operator implements the relational join operation
+ * for arbitrary predicates. Unlike {@link Join}, which rescans the inner
+ * relation once per outer tuple, it reads a block of outer tuples that fits in
+ * a memory budget and scans the inner relation once per block, testing every
+ * inner tuple against the whole block.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default size of the outer block, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
+    private JoinPredicate joinPredicate;
+    private DbIterator childIt1;
+    private DbIterator childIt2;
+    private TupleDesc tupleDesc;
+    private int blockTuples;
+
+    private ArrayList<Tuple> block;
+    private Tuple item2;
+    private int blockPos;
+
+    /**
+     * Constructor, using a block of {@link #DEFAULT_BLOCK_PAGES} pages.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockBytes
+     *            The memory budget of one block of outer tuples, in bytes
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int blockBytes) {
+        this.joinPredicate = p;
+        this.childIt1 = child1;
+        this.childIt2 = child2;
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockTuples = blockTuples(blockBytes, child1.getTupleDesc());
+        this.block = new ArrayList<>();
+    }
+
+    /**
+     * @return the number of tuples of the given schema that fit in a block of
+     *         blockBytes bytes (at least one)
+     */
+    public static int blockTuples(int blockBytes, TupleDesc td) {
+        return Math.max(1, blockBytes / td.getSize());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return childIt1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return childIt2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        childIt1.open();
+        childIt2.open();
+        resetState();
+    }
+
+    public void close() {
+        childIt1.close();
+        childIt2.close();
+        resetState();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        childIt1.rewind();
+        childIt2.rewind();
+        resetState();
+    }
+
+    private void resetState() {
+        block.clear();
+        item2 = null;
+        blockPos = 0;
+    }
+
+    /**
+     * Fill the block with the next tuples of the outer relation.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && childIt1.hasNext())
+            block.add(childIt1.next());
+        return !block.isEmpty();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The output tuples are the concatenation of the joining
+     * tuples from the left and right relation, as in {@link Join}; within a
+     * block they are produced in inner-relation order.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (item2 != null) {
+                while (blockPos < block.size()) {
+                    Tuple item1 = block.get(blockPos++);
+                    if (joinPredicate.filter(item1, item2))
+                        return Tuple.merge(item1, item2);
+                }
+                item2 = null;
+            }
+            if (block.isEmpty()) {
+                if (!nextBlock())
+                    return null;
+            } else if (!childIt2.hasNext()) {
+                // done with this block, scan the inner relation again for the next one
+                if (!nextBlock())
+                    return null;
+                childIt2.rewind();
+            }
+            if (childIt2.hasNext()) {
+                item2 = childIt2.next();
+                blockPos = 0;
+            } else {
+                return null; // empty inner relation
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{childIt1, childIt2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        assert children.length == 2;
+        childIt1 = children[0];
+        childIt2 = children[1];
+    }
+
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A Bloom filter over a set of fields: it can tell for sure that a field is
+ * not in the set, but may wrongly report that one is (about 1% of the time
+ * with the default number of bits per key).
+ * <p>
+ * A hash join builds one over the join fields of its build input and passes
+ * it down to the scan of its probe input (see {@link #probeScan} and
+ * {@link SeqScan#addBloomFilter}), so that the tuples that cannot join are
+ * dropped as soon as they are read.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of bits per expected key, for about 1% of false positives */
+    public static final int BITS_PER_KEY = 10;
+
+    /** Number of bits set per key, optimal for BITS_PER_KEY */
+    public static final int NUM_HASHES = 7;
+
+    private final long[] bits;
+    private final int numBits;
+
+    /**
+     * Creates an empty Bloom filter.
+     *
+     * @param expectedKeys
+     *            the number of keys that will be added
+     */
+    public BloomFilter(int expectedKeys) {
+        long n = Math.max(64L, (long) Math.max(1, expectedKeys) * BITS_PER_KEY);
+        this.bits = new long[(int) Math.min((n + 63) / 64, Integer.MAX_VALUE / 64)];
+        this.numBits = bits.length * 64;
+    }
+
+    /**
+     * @return a 64-bit hash of f, consistent with Field.equals
+     */
+    private static long hash(Field f) {
+        long h = f.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Adds f to the set.
+     */
+    public void add(Field f) {
+        long h = hash(f);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if f was never added, true if it may have been
+     */
+    public boolean mightContain(Field f) {
+        long h = hash(f);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the SeqScan that produces the tuples of it, if it is a scan or
+     *         a chain of Filters over a scan, or null. A field index of it is
+     *         the same field in the scan.
+     */
+    public static SeqScan probeScan(DbIterator it) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        return it instanceof SeqScan ? (SeqScan) it : null;
+    }
+
+}
@@ -0,0 +1,64 @@
+package simpledb;
+
+/**
+ * Broadcast hands every tuple of its child to each of several outputs. Each
+ * output is meant to be read by one copy of a fragment under a
+ * {@link Gather}, e.g. as the small side of a join whose other side is split
+ * by a {@link Repartition}. The child is read once, on a thread of its own,
+ * while the outputs are open; it is read again for the outputs that are
+ * rewound (see {@link Consumer#rewind}).
+ */
+public class Broadcast extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Producer producer;
+
+    private Broadcast(Producer producer) {
+        this.producer = producer;
+    }
+
+    /**
+     * Copies the tuples of child to n outputs.
+     *
+     * @param child
+     *            the tuples to copy, which must not be read elsewhere
+     * @param n
+     *            the number of outputs
+     * @return the outputs, to be read by different threads
+     */
+    public static Broadcast[] copy(DbIterator child, int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("@Broadcast, there must be an output");
+        Producer producer = new Producer(child, Producer.BROADCAST);
+        Broadcast[] outputs = new Broadcast[n];
+        for (int i = 0; i < n; i++)
+            outputs[i] = new Broadcast(producer);
+        producer.setConsumers(outputs);
+        return outputs;
+    }
+
+    Producer[] getProducers() {
+        return new Producer[] { producer };
+    }
+
+    public String getName() {
+        return "broadcast";
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { producer.getChild() };
+    }
+
+    /**
+     * Replaces the child of all the outputs, which must be closed, as they
+     * share it.
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        Producer p = producer.rebuild(children[0]);
+        for (Consumer c : p.getConsumers())
+            ((Broadcast) c).producer = p;
+    }
+}
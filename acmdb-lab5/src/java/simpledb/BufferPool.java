@@ -5,6 +5,7 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -31,6 +32,11 @@ public class BufferPool {
     private BitSet dirty = null; // use bitmap to mark which slot is dirty
     private BitSet empty = null; // use bitmap to mark which slot is empty
     private LockManager lockManager;
+    // modification counter of each table, bumped by every write to it and
+    // by the end of every transaction that wrote to it
+    private final ConcurrentHashMap<Integer, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+    // tables written by each running transaction
+    private final ConcurrentHashMap<TransactionId, Set<Integer>> writtenTables = new ConcurrentHashMap<>();
 
 
     /** Default number of pages passed to the constructor. This is used by
@@ -89,7 +95,48 @@ public class BufferPool {
         // some code goes here
         // get LOCK first before real working
         lockManager.acquire_lock(perm, tid, pid);
+        return fetchPage(pid);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage}, but only if the lock on it is
+     * acquired without waiting.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @return the page, or null if another transaction holds a conflicting
+     *         lock on it
+     */
+    public Page tryGetPage(TransactionId tid, PageId pid, Permissions perm) throws DbException {
+        if (!lockManager.try_acquire_lock(perm, tid, pid))
+            return null;
+        return fetchPage(pid);
+    }
 
+    /**
+     * Retrieves a page without locking it. Nothing keeps other transactions
+     * from changing the page meanwhile, so this is only for access methods
+     * that guard the changes to their pages with latches of their own, like
+     * BTreeFile. The changes of a running transaction may yet be rolled back,
+     * so a page another transaction holds the write lock on is not returned.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @return the page, or null if another transaction holds the write lock
+     *         on it
+     */
+    public Page peekPage(TransactionId tid, PageId pid) throws DbException {
+        if (lockManager.is_exclusive_by_other(tid, pid))
+            return null;
+        return fetchPage(pid);
+    }
+
+    /**
+     * Looks the page up in the buffer pool, reading it from disk if it is not
+     * there, once the caller has locked it as needed
+     */
+    private Page fetchPage(PageId pid) throws DbException {
         synchronized (this) {
             if (pageid2ind.containsKey(pid)) {
                 // hit in buffer pool
@@ -182,6 +229,12 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1|lab2
 //        System.out.println(String.format("%s try complete 2", tid));
+        Set<Integer> written = writtenTables.remove(tid);
+        if (written != null) {
+            // committed or rolled back, the tables change again for others
+            for (int tableId : written)
+                bumpTableVersion(tableId);
+        }
         ConcurrentLinkedDeque<PageId> lockedPages = lockManager.transactionComplete(tid, commit);
         if (lockedPages == null)
             // no locked pages
@@ -189,9 +242,11 @@ public class BufferPool {
 
         for (PageId pid : lockedPages) {
             int ind = pageid2ind.getOrDefault(pid, -1);
-            if (ind == -1)
+            if (ind == -1) {
+                if (!commit && lockManager.is_exclusive(pid)) System.out.println("DEBUG revert skipped " + pid);
                 // may have been evicted for SHARED locks
                 continue;
+            }
             Page page = pages[ind];
             if (page != null && lockManager.is_exclusive(pid)) {
                 if (commit) {
@@ -230,6 +285,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile toAddtable = Database.getCatalog().getDatabaseFile(tableId);
+        tableWritten(tid, tableId);
         ArrayList<Page> dirtyPages = toAddtable.insertTuple(tid, t);
 //        synchronized (this) {
             for (Page dirtyPage : dirtyPages) {
@@ -238,6 +294,9 @@ public class BufferPool {
                 addPage(tid, dirtyPage);
             }
 //        }
+        // t has its RecordId now
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insert(tid, t);
     }
 
     /**
@@ -258,6 +317,9 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         DbFile toDelTable = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        tableWritten(tid, toDelTable.getId());
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(toDelTable.getId()))
+            index.delete(tid, t);
         ArrayList<Page> dirtyPages = toDelTable.deleteTuple(tid, t);
 //        synchronized (this) {
             for (Page dirtyPage : dirtyPages) {
@@ -269,6 +331,43 @@ public class BufferPool {
     }
 
 
+    /**
+     * Returns the modification counter of a table, which changes whenever a
+     * tuple is inserted into or deleted from it, and whenever a transaction
+     * that did so commits or aborts. Results computed from a table stay
+     * valid as long as its counter is the same, and no running transaction
+     * has written to it (see {@link #hasUncommittedWrites}).
+     *
+     * @param tableId the table
+     * @return the counter, 0 for a table never written to
+     */
+    public long getTableVersion(int tableId) {
+        AtomicLong v = tableVersions.get(tableId);
+        return v == null ? 0 : v.get();
+    }
+
+    /**
+     * @param tableId the table
+     * @return true if a running transaction has inserted into or deleted
+     *         from the table
+     */
+    public boolean hasUncommittedWrites(int tableId) {
+        for (Set<Integer> tables : writtenTables.values()) {
+            if (tables.contains(tableId))
+                return true;
+        }
+        return false;
+    }
+
+    private void tableWritten(TransactionId tid, int tableId) {
+        writtenTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
+        bumpTableVersion(tableId);
+    }
+
+    private void bumpTableVersion(int tableId) {
+        tableVersions.computeIfAbsent(tableId, k -> new AtomicLong()).incrementAndGet();
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -397,6 +496,7 @@ public class BufferPool {
             throw new DbException("no page can be evicted @evictPage");
         else
             ind = pageid2ind.get(toEvict);
+        if (lockManager.is_exclusive(toEvict)) System.out.println("DEBUG evict exclusive " + toEvict);
         // flush dirty page
         try {
             flushPage(toEvict);
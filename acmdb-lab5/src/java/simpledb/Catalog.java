@@ -32,6 +32,8 @@ public class Catalog {
     HashMap<Integer, CatalogItem> itemMap = null;
     // name to pageid
     HashMap<String, Integer> name2Id = null;
+    // table id to the secondary indexes of the table
+    HashMap<Integer, List<SecondaryIndex>> indexMap = null;
 
     /**
      * Constructor.
@@ -41,6 +43,7 @@ public class Catalog {
         // some code goes here
         this.itemMap = new HashMap<>();
         this.name2Id = new HashMap<>();
+        this.indexMap = new HashMap<>();
     }
 
     /**
@@ -58,6 +61,7 @@ public class Catalog {
         if (this.itemMap.containsKey(fileID)) {
             this.itemMap.remove(fileID);
             this.name2Id.remove(getTableName(fileID));
+            this.indexMap.remove(fileID);
         }
 
         this.itemMap.put(fileID, new CatalogItem(file, pkeyField));
@@ -117,6 +121,27 @@ public class Catalog {
         return this.itemMap.get(tableid).file;
     }
 
+    /**
+     * Registers a secondary index with the table it indexes. The BTreeFile
+     * of the index must be a table of the catalog already.
+     */
+    public void addIndex(SecondaryIndex index) {
+        if (! this.itemMap.containsKey(index.getTableId()))
+            throw new NoSuchElementException("@addIndex");
+        List<SecondaryIndex> indexes = new ArrayList<>(getIndexes(index.getTableId()));
+        indexes.add(index);
+        this.indexMap.put(index.getTableId(), Collections.unmodifiableList(indexes));
+    }
+
+    /**
+     * @return the secondary indexes of the specified table, which may be
+     *     none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> indexes = this.indexMap.get(tableid);
+        return indexes == null ? Collections.<SecondaryIndex>emptyList() : indexes;
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         if (! this.itemMap.containsKey(tableid))
@@ -140,6 +165,7 @@ public class Catalog {
         // some code goes here
         this.itemMap.clear();
         this.name2Id.clear();
+        this.indexMap.clear();
     }
     
     /**
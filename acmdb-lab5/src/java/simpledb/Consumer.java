@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Consumer is the receiving end of an exchange: an operator returning the
+ * tuples that its producers, running on other threads, put in its queue.
+ * The tuples of different producers come in no particular order.
+ */
+public abstract class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    // replaced by the producer when the consumer is rewound
+    transient volatile BlockingQueue<Tuple> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    // producers that have not finished yet
+    private int running;
+
+    /**
+     * @return the producers feeding this consumer
+     */
+    abstract Producer[] getProducers();
+
+    public void open() throws DbException, TransactionAbortedException {
+        for (Producer p : getProducers())
+            p.attach();
+        running = getProducers().length;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        for (Producer p : getProducers())
+            p.detach(this);
+        running = 0;
+    }
+
+    /**
+     * Reads the tuples of the producers again from the first one, once the
+     * other consumers they feed are closed or rewound too.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        for (Producer p : getProducers())
+            p.rewind(this);
+        running = getProducers().length;
+    }
+
+    /**
+     * Returns the next tuple put in the queue, or null once every producer
+     * has finished.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (running > 0) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("@" + getClass().getSimpleName() + ", interrupted");
+            }
+            if (t != DONE)
+                return t;
+            running--;
+            for (Producer p : getProducers()) {
+                Exception e = p.getFailure();
+                if (e instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) e;
+                if (e != null)
+                    throw new DbException("@" + getClass().getSimpleName() + ", producer failed: " + e);
+            }
+        }
+        return null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return getProducers()[0].getChild().getTupleDesc();
+    }
+}
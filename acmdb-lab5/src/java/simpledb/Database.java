@@ -17,6 +17,7 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final QueryResultCache _resultcache;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -24,6 +25,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _resultcache = new QueryResultCache(QueryResultCache.DEFAULT_BYTES);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -45,6 +47,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the query result cache of the static Database instance */
+    public static QueryResultCache getResultCache() {
+        return _instance.get()._resultcache;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -70,6 +77,8 @@ public class Database {
             e.printStackTrace();
         }
 //        _instance._bufferpool = new BufferPool(pages);
+        // the table versions of the results start over with the new pool
+        _instance.get()._resultcache.clear();
         return _instance.get()._bufferpool;
     }
 
@@ -0,0 +1,457 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Distinct is an operator that implements SELECT DISTINCT: it returns each
+ * distinct tuple of its child once.
+ * <p>
+ * Tuples are remembered as their encoded bytes (see {@link SpillFile} for the
+ * format) in open-addressing hash sets, one per partition of the hash, and a
+ * tuple is returned as soon as it is first seen. When the sets outgrow the
+ * memory budget, the largest partition is evicted: the tuples it has already
+ * returned are written to a "seen" file, and from then on the tuples of that
+ * partition are written to a "pending" file instead of being looked up. Once
+ * the child is exhausted, each evicted partition is processed in turn by
+ * loading its seen tuples, without returning them, and then streaming its
+ * pending tuples; a partition that still does not fit is split again on
+ * other bits of the hash.
+ * <p>
+ * While nothing is evicted, the tuples come out in the order of the child.
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions of the hash */
+    public static final int FAN_OUT = 16;
+
+    private static final int FAN_OUT_BITS = 4;
+    private static final int MAX_DEPTH = 32 / FAN_OUT_BITS - 1;
+    private static final int INITIAL_CAPACITY = 16;
+    // a slot at load factor 1/2, the hash and the end of the bytes
+    private static final int BYTES_PER_ROW = 2 * 4 + 4 + 4;
+
+    private DbIterator child;
+    private final long memoryBytes;
+
+    // the partitions being filled, at the current depth of partitioning
+    private transient Level level;
+    // the evicted partitions left to process
+    private transient ArrayDeque<Work> pending;
+    // the evicted partition being processed, null while reading the child
+    private transient Work current;
+    private transient SpillFile.Reader seenReader;
+    private transient SpillFile.Reader pendingReader;
+    private transient ArrayList<SpillFile> files;
+    private boolean external;
+    // true while the tuples are offered by the caller instead of read from the child
+    private transient boolean pushed;
+
+    // scratch buffer for encoding tuples
+    private transient ByteArrayOutputStream rowBuf;
+    private transient DataOutputStream rowOut;
+
+    /**
+     * Constructor, using a memory budget of
+     * {@link HashAggregation#DEFAULT_MEMORY_PAGES} pages.
+     *
+     * @param child
+     *            the child operator
+     */
+    public Distinct(DbIterator child) {
+        this(child, (long) HashAggregation.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the child operator
+     * @param memoryBytes
+     *            the memory budget for the distinct tuples, in bytes
+     */
+    public Distinct(DbIterator child, long memoryBytes) {
+        this.child = child;
+        this.memoryBytes = memoryBytes;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * @return the memory budget for the distinct tuples, in bytes
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @return true if some tuples did not fit in the memory budget and were
+     *         written to disk
+     */
+    public boolean isExternal() {
+        return external;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        init();
+        pushed = false;
+        super.open();
+    }
+
+    /**
+     * Opens this operator with its input given by {@link #offer} instead of
+     * read from the child, e.g. by the workers of a {@link PushEngine}. The
+     * memory budget and the eviction of partitions are the same.
+     */
+    void openPushed() {
+        init();
+        pushed = true;
+    }
+
+    /**
+     * Records a tuple of the input of an operator opened by
+     * {@link #openPushed}.
+     *
+     * @return true if t was not seen before, and must be returned now
+     */
+    boolean offer(Tuple t) throws DbException {
+        return level.offer(t, false);
+    }
+
+    /**
+     * Once all of the input has been offered, returns the tuples of the
+     * evicted partitions that have not been returned yet.
+     *
+     * @return the next one, or null if there are no more
+     */
+    Tuple drain() throws DbException, TransactionAbortedException {
+        return fetchNext();
+    }
+
+    private void init() {
+        rowBuf = new ByteArrayOutputStream();
+        rowOut = new DataOutputStream(rowBuf);
+        files = new ArrayList<>();
+        start();
+    }
+
+    private void start() {
+        level = new Level(0);
+        pending = new ArrayDeque<>();
+        current = null;
+        seenReader = null;
+        pendingReader = null;
+        external = false;
+    }
+
+    public void close() {
+        super.close();
+        if (!pushed)
+            child.close();
+        deleteFiles();
+        level = null;
+        pending = null;
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        deleteFiles();
+        child.rewind();
+        start();
+    }
+
+    private void deleteFiles() {
+        if (seenReader != null)
+            seenReader.close();
+        if (pendingReader != null)
+            pendingReader.close();
+        if (files != null) {
+            for (SpillFile f : files)
+                f.delete();
+            files.clear();
+        }
+    }
+
+    /**
+     * Returns the next tuple that has not been returned yet, or null if
+     * there are no more tuples.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (true) {
+            Tuple t;
+            boolean seen = false;
+            if (current == null) {
+                t = !pushed && child.hasNext() ? child.next() : null;
+            } else {
+                t = seenReader.readNext();
+                seen = t != null;
+                if (t == null)
+                    t = pendingReader.readNext();
+            }
+            if (t == null) {
+                if (!nextWork())
+                    return null;
+                continue;
+            }
+            if (level.offer(t, seen))
+                return t;
+        }
+    }
+
+    /**
+     * Queue the partitions evicted by the current level, and start
+     * processing the next evicted partition.
+     *
+     * @return false if there is none left
+     */
+    private boolean nextWork() throws DbException {
+        if (current != null) {
+            seenReader.close();
+            pendingReader.close();
+            current.seen.delete();
+            current.pending.delete();
+            files.remove(current.seen);
+            files.remove(current.pending);
+        }
+        for (int p = FAN_OUT - 1; p >= 0; p--) {
+            Work w = level.evicted[p];
+            if (w != null)
+                pending.addFirst(w);
+        }
+        current = pending.poll();
+        if (current == null)
+            return false;
+        level = new Level(current.depth + 1);
+        seenReader = current.seen.reader();
+        pendingReader = current.pending.reader();
+        return true;
+    }
+
+    /**
+     * Encode a tuple as a string of bytes: an int as 4 bytes, a string as
+     * its modified UTF-8 encoding preceded by a 2 byte length.
+     */
+    private byte[] encode(Tuple t) {
+        rowBuf.reset();
+        TupleDesc td = getTupleDesc();
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    rowOut.writeInt(((IntField) t.getField(i)).getValue());
+                else
+                    rowOut.writeUTF(((StringField) t.getField(i)).getValue());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e); // cannot happen in memory
+        }
+        return rowBuf.toByteArray();
+    }
+
+    private Tuple decode(byte[] bytes, int start, int end) {
+        TupleDesc td = getTupleDesc();
+        Tuple t = new Tuple(td);
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, start, end - start));
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    t.setField(i, new IntField(in.readInt()));
+                else
+                    t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e); // cannot happen in memory
+        }
+        return t;
+    }
+
+    private static int hash(byte[] b) {
+        int h = 1;
+        for (byte x : b)
+            h = 31 * h + x;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @return the partition of a hash at the given level of partitioning;
+     *         each level uses the next FAN_OUT_BITS high bits, while the
+     *         set slots are chosen with the low bits
+     */
+    private static int partition(int hash, int depth) {
+        return (hash >>> (32 - FAN_OUT_BITS * (depth + 1))) & (FAN_OUT - 1);
+    }
+
+    /** The files of an evicted partition */
+    private static class Work {
+        final SpillFile seen;
+        final SpillFile pending;
+        final int depth;
+
+        Work(SpillFile seen, SpillFile pending, int depth) {
+            this.seen = seen;
+            this.pending = pending;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * The partitions at one depth of partitioning: a set of tuples for each
+     * partition still in memory, or the files of an evicted one.
+     */
+    private class Level {
+        final int depth;
+        final RowSet[] sets = new RowSet[FAN_OUT];
+        final Work[] evicted = new Work[FAN_OUT];
+        long bytesUsed;
+
+        Level(int depth) {
+            this.depth = depth;
+            for (int p = 0; p < FAN_OUT; p++)
+                sets[p] = new RowSet();
+        }
+
+        /**
+         * Record a tuple.
+         *
+         * @param seen
+         *            true if t has already been returned
+         * @return true if t must be returned now
+         */
+        boolean offer(Tuple t, boolean seen) throws DbException {
+            byte[] row = encode(t);
+            int h = hash(row);
+            int p = partition(h, depth);
+            if (evicted[p] != null) {
+                (seen ? evicted[p].seen : evicted[p].pending).write(t);
+                return false;
+            }
+            long before = sets[p].bytesUsed();
+            boolean added = sets[p].add(row, h);
+            bytesUsed += sets[p].bytesUsed() - before;
+            if (bytesUsed > memoryBytes && depth < MAX_DEPTH)
+                evictLargest();
+            return added && !seen;
+        }
+
+        private void evictLargest() throws DbException {
+            int largest = -1;
+            for (int p = 0; p < FAN_OUT; p++) {
+                if (evicted[p] == null && (largest < 0
+                        || sets[p].bytesUsed() > sets[largest].bytesUsed()))
+                    largest = p;
+            }
+            if (largest < 0)
+                return;
+            RowSet set = sets[largest];
+            SpillFile seen = new SpillFile(getTupleDesc());
+            SpillFile later = new SpillFile(getTupleDesc());
+            files.add(seen);
+            files.add(later);
+            for (int r = 0; r < set.size; r++)
+                seen.write(decode(set.rowBytes, r == 0 ? 0 : set.rowEnds[r - 1], set.rowEnds[r]));
+            evicted[largest] = new Work(seen, later, depth);
+            bytesUsed -= set.bytesUsed();
+            sets[largest] = null;
+            external = true;
+        }
+    }
+
+    /**
+     * Open-addressing hash set of encoded tuples. Rows are numbered in order
+     * of insertion; their hashes and the ends of their bytes are stored in
+     * arrays indexed by row number, their bytes one after the other in a
+     * single array. The slots hold row number plus one, or 0 if empty, and
+     * are probed linearly.
+     */
+    private static class RowSet {
+        int[] slots = new int[INITIAL_CAPACITY * 2];
+        int[] hashes = new int[INITIAL_CAPACITY];
+        int[] rowEnds = new int[INITIAL_CAPACITY];
+        byte[] rowBytes = new byte[INITIAL_CAPACITY * 8];
+        int bytesUsed;
+        int size;
+
+        long bytesUsed() {
+            return (long) size * BYTES_PER_ROW + bytesUsed;
+        }
+
+        /**
+         * @return false if the row was already in the set
+         */
+        boolean add(byte[] row, int hash) {
+            int mask = slots.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                int s = slots[i];
+                if (s == 0) {
+                    insert(row, hash, i);
+                    return true;
+                }
+                if (hashes[s - 1] == hash && rowEquals(s - 1, row))
+                    return false;
+            }
+        }
+
+        private boolean rowEquals(int r, byte[] row) {
+            int start = r == 0 ? 0 : rowEnds[r - 1];
+            if (rowEnds[r] - start != row.length)
+                return false;
+            for (int i = 0; i < row.length; i++) {
+                if (rowBytes[start + i] != row[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private void insert(byte[] row, int hash, int slot) {
+            int r = size++;
+            if (r == hashes.length) {
+                hashes = Arrays.copyOf(hashes, r * 2);
+                rowEnds = Arrays.copyOf(rowEnds, r * 2);
+            }
+            if (bytesUsed + row.length > rowBytes.length)
+                rowBytes = Arrays.copyOf(rowBytes,
+                        Math.max(rowBytes.length * 2, bytesUsed + row.length));
+            System.arraycopy(row, 0, rowBytes, bytesUsed, row.length);
+            bytesUsed += row.length;
+            rowEnds[r] = bytesUsed;
+            hashes[r] = hash;
+            slots[slot] = r + 1;
+            if (size * 2 > slots.length)
+                rehash(slots.length * 2);
+        }
+
+        private void rehash(int capacity) {
+            slots = new int[capacity];
+            int mask = capacity - 1;
+            for (int r = 0; r < size; r++) {
+                int i = hashes[r] & mask;
+                while (slots[i] != 0)
+                    i = (i + 1) & mask;
+                slots[i] = r + 1;
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange is the base class of the operators that move tuples between
+ * threads, so that copies of a fragment of a plan, made of the usual serial
+ * operators, can run in parallel over different parts of the data:
+ * <ul>
+ * <li>{@link Repartition} splits its child's tuples by a hash of a field, one
+ * output per fragment;</li>
+ * <li>{@link Broadcast} hands all of its child's tuples to every fragment;</li>
+ * <li>{@link Gather} runs each fragment on a thread of its own and merges
+ * their tuples back into one stream.</li>
+ * </ul>
+ * The threads come from a pool shared by all the exchanges, which grows as
+ * needed: a worker may wait on another one, e.g. a fragment on the
+ * repartitioning of its input, so a bounded pool could deadlock.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of input tuples per fragment below which the planner keeps an
+     * operator serial
+     */
+    public static final int MIN_TUPLES_PER_FRAGMENT = 4096;
+
+    /** Number of tuples a producer may get ahead of each consumer */
+    public static final int QUEUE_CAPACITY = 1024;
+
+    // end-of-producer marker in the queues
+    static final Tuple DONE = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
+
+    private static ExecutorService pool;
+
+    static synchronized ExecutorService pool() {
+        if (pool == null) {
+            AtomicInteger count = new AtomicInteger();
+            pool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "Exchange-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * @return the text drawn for this operator in a query plan
+     */
+    public abstract String getName();
+}
@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort sorts a stream of tuples within a bounded amount of memory.
+ * <p>
+ * Tuples are collected until the memory budget is used up; the buffer is then
+ * sorted and written to a {@link SpillFile} as a sorted run. Once all tuples
+ * have been added, the runs are merged with a loser tree, k at a time, where
+ * k is bounded by the read buffers that fit in the budget. The last merge is
+ * not materialized: its output is streamed by {@link #next}. If all tuples fit
+ * in memory nothing is written to disk.
+ */
+public class ExternalSort {
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int maxBufferedTuples;
+    private final int maxFanIn;
+
+    private ArrayList<Tuple> buffer = new ArrayList<>();
+    private ArrayList<SpillFile> runs = new ArrayList<>();
+    private boolean finished = false;
+
+    // in memory output
+    private int bufferPos;
+    // external output
+    private LoserTree merger;
+
+    /**
+     * @param td
+     *            the schema of the tuples to sort
+     * @param comparator
+     *            the sort order
+     * @param memoryBytes
+     *            the memory budget, in bytes; tuples are accounted for with
+     *            their size in a page (see {@link TupleDesc#getSize})
+     */
+    public ExternalSort(TupleDesc td, Comparator<Tuple> comparator, long memoryBytes) {
+        this.td = td;
+        this.comparator = comparator;
+        this.maxBufferedTuples = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                memoryBytes / td.getSize()));
+        this.maxFanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE,
+                memoryBytes / SpillFile.BUFFER_SIZE));
+    }
+
+    /**
+     * Add a tuple to sort. May write a sorted run to disk.
+     */
+    public void add(Tuple t) throws DbException {
+        if (finished)
+            throw new IllegalStateException("@ExternalSort, add after finish");
+        buffer.add(t);
+        if (buffer.size() >= maxBufferedTuples)
+            spillRun();
+    }
+
+    private void spillRun() throws DbException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : buffer)
+            run.write(t);
+        run.finishWriting();
+        runs.add(run);
+        buffer.clear();
+    }
+
+    /**
+     * Indicate that all tuples have been added. Merges runs until at most
+     * one merge pass is left and positions the output on the first tuple.
+     */
+    public void finish() throws DbException {
+        if (finished)
+            return;
+        finished = true;
+        if (runs.isEmpty()) {
+            buffer.sort(comparator);
+            bufferPos = 0;
+            return;
+        }
+        if (!buffer.isEmpty())
+            spillRun();
+        buffer = null;
+        while (runs.size() > maxFanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += maxFanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + maxFanIn));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile out = new SpillFile(td);
+                LoserTree tree = new LoserTree(group);
+                Tuple t;
+                while ((t = tree.next()) != null)
+                    out.write(t);
+                tree.close();
+                out.finishWriting();
+                for (SpillFile run : group)
+                    run.delete();
+                merged.add(out);
+            }
+            runs = merged;
+        }
+        merger = new LoserTree(runs);
+    }
+
+    /**
+     * @return true if the sort spilled to disk
+     */
+    public boolean isExternal() {
+        return finished ? merger != null : !runs.isEmpty();
+    }
+
+    /**
+     * @return the next tuple in sorted order, or null if there are no more
+     */
+    public Tuple next() throws DbException {
+        if (!finished)
+            throw new IllegalStateException("@ExternalSort, next before finish");
+        if (merger != null)
+            return merger.next();
+        if (buffer != null && bufferPos < buffer.size())
+            return buffer.get(bufferPos++);
+        return null;
+    }
+
+    /**
+     * Restart the output from the first tuple.
+     */
+    public void rewind() throws DbException {
+        if (!finished)
+            throw new IllegalStateException("@ExternalSort, rewind before finish");
+        if (merger != null) {
+            merger.close();
+            merger = new LoserTree(runs);
+        } else {
+            bufferPos = 0;
+        }
+    }
+
+    /**
+     * Release the memory and the temporary files held by this sort.
+     */
+    public void close() {
+        if (merger != null)
+            merger.close();
+        merger = null;
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+        buffer = null;
+    }
+
+    /**
+     * A tournament tree of losers over the heads of k sorted runs. The
+     * internal nodes hold the run that lost the match played there, and
+     * node 0 holds the overall winner, so replacing the winner only replays
+     * the matches on the path from its leaf to the root: log(k) comparisons
+     * per output tuple.
+     */
+    private class LoserTree {
+        private final SpillFile.Reader[] readers;
+        private final Tuple[] heads;
+        private final int[] tree;
+        private final int k;
+
+        LoserTree(List<SpillFile> runs) throws DbException {
+            k = runs.size();
+            readers = new SpillFile.Reader[k];
+            heads = new Tuple[k];
+            tree = new int[k];
+            for (int i = 0; i < k; i++) {
+                readers[i] = runs.get(i).reader();
+                heads[i] = readers[i].readNext();
+            }
+            Arrays.fill(tree, -1);
+            for (int i = 0; i < k; i++)
+                adjust(i);
+        }
+
+        /**
+         * @return true if run a wins against run b. Exhausted runs lose
+         *         against everything, and ties go to the earlier run so that
+         *         the merge is stable.
+         */
+        private boolean beats(int a, int b) {
+            if (heads[a] == null)
+                return false;
+            if (heads[b] == null)
+                return true;
+            int c = comparator.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /** Replay the matches from the leaf of run s up to the root. */
+        private void adjust(int s) {
+            for (int t = (s + k) >> 1; t > 0; t >>= 1) {
+                if (tree[t] == -1) {
+                    // still building the tree, wait here for an opponent
+                    tree[t] = s;
+                    return;
+                }
+                if (beats(tree[t], s)) {
+                    int winner = tree[t];
+                    tree[t] = s;
+                    s = winner;
+                }
+            }
+            tree[0] = s;
+        }
+
+        Tuple next() throws DbException {
+            int w = tree[0];
+            Tuple t = heads[w];
+            if (t == null)
+                return null;
+            heads[w] = readers[w].readNext();
+            adjust(w);
+            return t;
+        }
+
+        void close() {
+            for (SpillFile.Reader r : readers)
+                r.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Fetch completes the narrow tuples of {@link RecordIdScan}s once they have
+ * been filtered and joined: for each scanned table, it reads the tuple
+ * located by its <code>alias.$rid</code> field from its HeapPage, through
+ * the BufferPool, and appends the given fields of it. The
+ * <code>$rid</code> fields are dropped, the other fields of the child
+ * come first, in order.
+ */
+public class Fetch extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private DbIterator child;
+    private final int[] tableIds;
+    private final int[][] fields;
+    // the index of the $rid field of each table in the child's tuples
+    private final int[] ridFields;
+    // the number of slots per page of each table
+    private final int[] numSlots;
+    // the fields of the child that are returned
+    private final int[] kept;
+    private final TupleDesc td;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this operator is running as a part of.
+     * @param child
+     *            the plan over the RecordIdScans of the tables
+     * @param tableIds
+     *            the tables scanned by RecordIdScans in child
+     * @param aliases
+     *            the aliases of the tables
+     * @param fields
+     *            for each table, the indexes of the fields to fetch
+     */
+    public Fetch(TransactionId tid, DbIterator child, int[] tableIds, String[] aliases,
+            int[][] fields) {
+        if (tableIds.length != aliases.length || tableIds.length != fields.length)
+            throw new IllegalArgumentException("@Fetch, one alias and field list per table");
+        this.tid = tid;
+        this.child = child;
+        this.tableIds = tableIds.clone();
+        this.fields = fields.clone();
+        TupleDesc childTd = child.getTupleDesc();
+        ridFields = new int[tableIds.length];
+        numSlots = new int[tableIds.length];
+        for (int k = 0; k < tableIds.length; k++) {
+            ridFields[k] = childTd.fieldNameToIndex(aliases[k] + "." + RecordIdScan.RID);
+            numSlots[k] = HeapPage.numSlots(Database.getCatalog().getTupleDesc(tableIds[k]));
+        }
+
+        ArrayList<Integer> keep = new ArrayList<Integer>();
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        for (int i = 0; i < childTd.numFields(); i++) {
+            if (childTd.getFieldName(i).endsWith("." + RecordIdScan.RID))
+                continue;
+            keep.add(i);
+            types.add(childTd.getFieldType(i));
+            names.add(childTd.getFieldName(i));
+        }
+        for (int k = 0; k < tableIds.length; k++) {
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableIds[k]);
+            for (int f : fields[k]) {
+                types.add(tableTd.getFieldType(f));
+                names.add(aliases[k] + "." + tableTd.getFieldName(f));
+            }
+        }
+        kept = new int[keep.size()];
+        for (int i = 0; i < kept.length; i++)
+            kept[i] = keep.get(i);
+        td = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Fetches the fields of the tables for a tuple of the child.
+     *
+     * @return the tuple as returned by this operator
+     */
+    Tuple fetch(Tuple t) throws DbException, TransactionAbortedException {
+        Tuple result = new Tuple(td);
+        int i = 0;
+        for (int f : kept)
+            result.setField(i++, t.getField(f));
+        for (int k = 0; k < tableIds.length; k++) {
+            if (fields[k].length == 0)
+                continue;
+            int rid = ((IntField) t.getField(ridFields[k])).getValue();
+            RecordId r = RecordIdScan.decode(tableIds[k], rid, numSlots[k]);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, r.getPageId(),
+                    Permissions.READ_ONLY);
+            Tuple full = page.getTuple(r.tupleno());
+            if (full == null)
+                throw new DbException("@Fetch, tuple " + r.tupleno() + " of page "
+                        + r.getPageId().pageNumber() + " is gone");
+            for (int f : fields[k])
+                result.setField(i++, full.getField(f));
+        }
+        return result;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!child.hasNext())
+            return null;
+        return fetch(child.next());
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
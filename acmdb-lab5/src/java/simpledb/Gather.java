@@ -0,0 +1,59 @@
+package simpledb;
+
+/**
+ * Gather runs each of its children, copies of a fragment of a plan over
+ * different parts of the data, on a thread of its own, and returns all of
+ * their tuples as they come. The children are opened, read and closed by
+ * these threads, so e.g. the hash tables of joins in the fragments are
+ * built in parallel; they must not share iterators, except through other
+ * exchanges.
+ */
+public class Gather extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Producer[] producers;
+
+    /**
+     * Constructor.
+     *
+     * @param fragments
+     *            the plans to run in parallel, with the same TupleDesc
+     */
+    public Gather(DbIterator[] fragments) {
+        setChildren(fragments);
+    }
+
+    Producer[] getProducers() {
+        return producers;
+    }
+
+    public String getName() {
+        return "gather(" + producers.length + ")";
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // restart the fragments from the beginning
+        close();
+        open();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        DbIterator[] children = new DbIterator[producers.length];
+        for (int i = 0; i < producers.length; i++)
+            children[i] = producers[i].getChild();
+        return children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("@Gather, there must be a fragment");
+        producers = new Producer[children.length];
+        for (int i = 0; i < children.length; i++) {
+            producers[i] = new Producer(children[i], Producer.BROADCAST);
+            producers[i].setConsumers(new Consumer[] { this });
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+/**
+ * Knows how to compute a list of aggregates over a composite group key, all
+ * of them in a single pass and in a single hash table. Integer fields
+ * support all aggregates, string fields only COUNT and
+ * APPROX_COUNT_DISTINCT.
+ */
+public class GroupAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private int[] gbfields;
+    private int[] afields;
+    private Op[] whats;
+    private TupleDesc tupleDesc;
+
+    // (group values, aggregate values), spilled to disk past the memory budget
+    private transient HashAggregation groups;
+
+    /**
+     * Aggregate constructor, using a memory budget of
+     * {@link HashAggregation#DEFAULT_MEMORY_PAGES} pages.
+     *
+     * @param td
+     *            the schema of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple,
+     *            empty if there is no grouping
+     * @param afields
+     *            the 0-based index of the aggregate field in the tuple, for
+     *            each aggregate
+     * @param whats
+     *            the aggregation operators
+     */
+    public GroupAggregator(TupleDesc td, int[] gbfields, int[] afields, Op[] whats) {
+        this(td, gbfields, afields, whats,
+                (long) HashAggregation.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param td
+     *            the schema of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple,
+     *            empty if there is no grouping
+     * @param afields
+     *            the 0-based index of the aggregate field in the tuple, for
+     *            each aggregate
+     * @param whats
+     *            the aggregation operators
+     * @param memoryBytes
+     *            the memory budget for the groups, in bytes
+     * @throws IllegalArgumentException
+     *             if there is no aggregate, or an operator other than COUNT
+     *             is applied to a string field
+     */
+    public GroupAggregator(TupleDesc td, int[] gbfields, int[] afields, Op[] whats,
+            long memoryBytes) {
+        this(td, gbfields, afields, whats, memoryBytes, 1.0);
+    }
+
+    /**
+     * Aggregate constructor, for tuples sampled from the data
+     *
+     * @param td
+     *            the schema of the tuples to aggregate
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple,
+     *            empty if there is no grouping
+     * @param afields
+     *            the 0-based index of the aggregate field in the tuple, for
+     *            each aggregate
+     * @param whats
+     *            the aggregation operators
+     * @param memoryBytes
+     *            the memory budget for the groups, in bytes
+     * @param fraction
+     *            the probability, in (0, 1], that a tuple of the data is in
+     *            the input; below 1, SUM and COUNT are scaled up and followed
+     *            by the bounds of their estimates, as in
+     *            {@link HashAggregation}
+     * @throws IllegalArgumentException
+     *             if there is no aggregate, or an operator other than COUNT
+     *             is applied to a string field
+     */
+    public GroupAggregator(TupleDesc td, int[] gbfields, int[] afields, Op[] whats,
+            long memoryBytes, double fraction) {
+        if (afields.length == 0 || afields.length != whats.length)
+            throw new IllegalArgumentException("@GroupAggregator, need one operator per aggregate field");
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+
+        Type[] gbtypes = new Type[gbfields.length];
+        int bounds = 0;
+        for (Op what : whats) {
+            if (HashAggregation.isBounded(what, fraction))
+                bounds++;
+        }
+        Type[] types = new Type[gbfields.length + afields.length + bounds];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            gbtypes[i] = td.getFieldType(gbfields[i]);
+            types[i] = gbtypes[i];
+            names[i] = td.getFieldName(gbfields[i]);
+        }
+        int bound = gbfields.length + afields.length;
+        for (int i = 0; i < afields.length; i++) {
+            if (td.getFieldType(afields[i]) == Type.STRING_TYPE && whats[i] != Op.COUNT
+                    && whats[i] != Op.APPROX_COUNT_DISTINCT)
+                throw new IllegalArgumentException("@GroupAggregator, only COUNT and APPROX_COUNT_DISTINCT are supported on strings");
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = whats[i] + "(" + td.getFieldName(afields[i]) + ")";
+            if (HashAggregation.isBounded(whats[i], fraction)) {
+                types[bound] = Type.INT_TYPE;
+                names[bound++] = "ci95(" + names[gbfields.length + i] + ")";
+            }
+        }
+        this.tupleDesc = new TupleDesc(types, names);
+        this.groups = new HashAggregation(gbfields, gbtypes, afields, whats, tupleDesc,
+                memoryBytes, fraction);
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and the group-by
+     *            fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        groups.add(tup);
+    }
+
+    /**
+     * @return the schema of the result: the group-by fields, with their names
+     *         in the input, followed by one field per aggregate named
+     *         "op(field)", and for a sample, by the half-width of the 95%
+     *         confidence interval of each SUM, COUNT and AVG, named
+     *         "ci95(op(field))"
+     */
+    @Override
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    /**
+     * @return true if the groups did not fit in the memory budget and were
+     *         written to disk
+     */
+    public boolean isExternal() {
+        return groups.isExternal();
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by values followed by
+     *         the aggregate values, in the order given to the constructor
+     */
+    public DbIterator iterator() throws DbException {
+        return groups.iterator();
+    }
+
+    public void close() {
+        groups.close();
+    }
+
+}
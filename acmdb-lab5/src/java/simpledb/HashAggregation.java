@@ -0,0 +1,827 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashAggregation computes a list of aggregates per group within a bounded
+ * amount of memory, in a single pass over its input. It is the engine behind
+ * {@link IntegerAggregator}, {@link StringAggregator} and
+ * {@link GroupAggregator}.
+ * <p>
+ * Groups live in an open-addressing hash table shared by all the aggregates.
+ * A single integer group key is stored in an int array; any other key (a
+ * string, or several fields) is stored as its encoded bytes in a byte array.
+ * The aggregate state of a group is kept in unboxed int arrays, one per
+ * aggregate plus a shared tuple count, so adding a tuple to an existing
+ * group allocates nothing for integer keys. An APPROX_COUNT_DISTINCT keeps
+ * a {@link HyperLogLog} sketch per group instead.
+ * <p>
+ * The input may be a sample of the data, e.g. read by a {@link SampleScan},
+ * in which each tuple was kept with a known probability. SUM and COUNT are
+ * then scaled up by the inverse of that probability, and each of SUM, COUNT
+ * and AVG is followed in the result, after all the aggregates, by the
+ * half-width of its 95% confidence interval. As a sample is made of whole
+ * pages, the variance of the estimates follows from the totals of each page,
+ * kept per group over the tuples of a page, which arrive one after the other
+ * from a scan; tuples that lost their RecordId, e.g. in a join, are taken as
+ * sampled one by one.
+ * <p>
+ * When the groups outgrow the memory budget, their partial aggregates are
+ * written to {@link #FAN_OUT} partitions on disk according to the hash of
+ * the group key, and the table starts over empty. The result is then
+ * computed one partition at a time by merging the partial aggregates of the
+ * partition in a fresh table; a partition that still does not fit is split
+ * again on other bits of the hash.
+ */
+public class HashAggregation {
+
+    /** Default memory budget, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    /** Number of partitions groups are split into when they spill. */
+    public static final int FAN_OUT = 16;
+
+    private static final int FAN_OUT_BITS = 4;
+    private static final int MAX_DEPTH = 32 / FAN_OUT_BITS - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the standard normal quantile of a 95% confidence interval
+    private static final double Z_95 = 1.96;
+
+    // the page of a tuple without a RecordId
+    private static final int NO_PAGE = -1;
+
+    private final int[] keyFields;
+    private final Type[] keyTypes;
+    private final boolean intKey;
+    private final int[] aggFields;
+    private final Aggregator.Op[] ops;
+    // the probability that each tuple of the data is in the input
+    private final double fraction;
+    // the aggregates that keep page totals, for their intervals
+    private final boolean[] paged;
+    private final long memoryBytes;
+    private final int bytesPerGroup;
+    private final TupleDesc resultTd;
+    private final TupleDesc partialTd;
+    // positions of the key fields in a partial aggregate tuple
+    private final int[] partialKeyFields;
+
+    private Table table;
+    // spilled partial aggregates, by partition; null until the first spill
+    private ArrayList<ArrayList<SpillFile>> partitions;
+    private SpillFile[] writers;
+
+    /**
+     * @param keyFields
+     *            the group key fields of the input tuples, empty if there is
+     *            no grouping
+     * @param keyTypes
+     *            the types of the key fields
+     * @param aggFields
+     *            the aggregated field of the input tuples, for each aggregate
+     * @param ops
+     *            the aggregates to compute; only COUNT may be applied to a
+     *            string field, and SUM_COUNT and SC_AVG are not supported
+     * @param resultTd
+     *            the schema of the result tuples: the key fields followed by
+     *            one integer per aggregate
+     * @param memoryBytes
+     *            the memory budget for the groups, in bytes
+     */
+    public HashAggregation(int[] keyFields, Type[] keyTypes, int[] aggFields,
+            Aggregator.Op[] ops, TupleDesc resultTd, long memoryBytes) {
+        this(keyFields, keyTypes, aggFields, ops, resultTd, memoryBytes, 1.0);
+    }
+
+    /**
+     * @param keyFields
+     *            the group key fields of the input tuples, empty if there is
+     *            no grouping
+     * @param keyTypes
+     *            the types of the key fields
+     * @param aggFields
+     *            the aggregated field of the input tuples, for each aggregate
+     * @param ops
+     *            the aggregates to compute; only COUNT may be applied to a
+     *            string field, and SUM_COUNT and SC_AVG are not supported
+     * @param resultTd
+     *            the schema of the result tuples: the key fields followed by
+     *            one integer per aggregate, then, if fraction is below 1,
+     *            one integer per SUM, COUNT or AVG (see {@link #isBounded})
+     * @param memoryBytes
+     *            the memory budget for the groups, in bytes
+     * @param fraction
+     *            the probability, in (0, 1], that a tuple of the data is in
+     *            the input
+     */
+    public HashAggregation(int[] keyFields, Type[] keyTypes, int[] aggFields,
+            Aggregator.Op[] ops, TupleDesc resultTd, long memoryBytes, double fraction) {
+        if (!(fraction > 0 && fraction <= 1))
+            throw new IllegalArgumentException("@HashAggregation, the sample fraction must be in (0, 1]");
+        if (keyFields.length != keyTypes.length || aggFields.length != ops.length)
+            throw new IllegalArgumentException("@HashAggregation, need one type per key field and one field per aggregate");
+        for (Aggregator.Op op : ops) {
+            if (op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG)
+                throw new IllegalArgumentException("@HashAggregation, not implemented operator " + op);
+        }
+        this.keyFields = keyFields.clone();
+        this.keyTypes = keyTypes.clone();
+        this.intKey = keyTypes.length == 1 && keyTypes[0] == Type.INT_TYPE;
+        this.aggFields = aggFields.clone();
+        this.ops = ops.clone();
+        this.fraction = fraction;
+        this.resultTd = resultTd;
+        this.memoryBytes = memoryBytes;
+        // a slot per group at load factor 1/2, the hash, key, count and
+        // aggregate arrays, then the page totals and sketches
+        int bytes = 2 * 4 + 3 * 4 + 4 * ops.length;
+        // the partial aggregates are followed by the sums over the pages, as
+        // two ints per double, and the sketches, as WORDS ints each
+        int extra = 0;
+        if (fraction < 1) {
+            bytes += 16;
+            extra += 2;
+        }
+        this.paged = new boolean[ops.length];
+        for (int a = 0; a < ops.length; a++) {
+            paged[a] = fraction < 1
+                    && (ops[a] == Aggregator.Op.SUM || ops[a] == Aggregator.Op.AVG);
+            if (paged[a]) {
+                bytes += 24;
+                extra += 4;
+            } else if (ops[a] == Aggregator.Op.APPROX_COUNT_DISTINCT) {
+                bytes += HyperLogLog.REGISTERS + 32;
+                extra += HyperLogLog.WORDS;
+            }
+        }
+        this.bytesPerGroup = bytes;
+
+        Type[] partialTypes = new Type[keyTypes.length + ops.length + 1 + extra];
+        this.partialKeyFields = new int[keyTypes.length];
+        for (int i = 0; i < keyTypes.length; i++) {
+            partialTypes[i] = keyTypes[i];
+            partialKeyFields[i] = i;
+        }
+        for (int i = keyTypes.length; i < partialTypes.length; i++)
+            partialTypes[i] = Type.INT_TYPE;
+        this.partialTd = new TupleDesc(partialTypes);
+        this.table = new Table();
+    }
+
+    /**
+     * @return true if the given aggregate is followed in the result by the
+     *         half-width of its confidence interval: a SUM, COUNT or AVG
+     *         over a sample
+     */
+    public static boolean isBounded(Aggregator.Op op, double fraction) {
+        return fraction < 1 && (op == Aggregator.Op.SUM || op == Aggregator.Op.COUNT
+                || op == Aggregator.Op.AVG);
+    }
+
+    /**
+     * Add a tuple to the aggregates of its group. May write the groups to
+     * disk.
+     */
+    public void add(Tuple tup) throws DbException {
+        int g = table.group(tup, keyFields);
+        boolean first = table.cnt[g] == 0;
+        if (fraction < 1) {
+            RecordId rid = tup.getRecordId();
+            table.enterPage(g, rid == null ? NO_PAGE : rid.getPageId().pageNumber());
+        }
+        for (int a = 0; a < ops.length; a++) {
+            if (ops[a] == Aggregator.Op.COUNT)
+                continue;
+            if (ops[a] == Aggregator.Op.APPROX_COUNT_DISTINCT) {
+                table.sketch(a, g).add(tup.getField(aggFields[a]));
+                continue;
+            }
+            int value = ((IntField) tup.getField(aggFields[a])).getValue();
+            if (paged[a])
+                table.pageSum[a][g] += value;
+            int[] acc = table.acc[a];
+            switch (ops[a]) {
+                case MIN:
+                    acc[g] = first ? value : Math.min(acc[g], value);
+                    break;
+                case MAX:
+                    acc[g] = first ? value : Math.max(acc[g], value);
+                    break;
+                default: // SUM, AVG
+                    acc[g] += value;
+                    break;
+            }
+        }
+        table.cnt[g]++;
+        if (fraction < 1)
+            table.pageCnt[g]++;
+        if (keyFields.length > 0 && table.bytesUsed() > memoryBytes)
+            spill(table, 0);
+    }
+
+    /**
+     * @return true if some groups were written to disk
+     */
+    public boolean isExternal() {
+        return partitions != null;
+    }
+
+    /**
+     * @return an iterator over the result tuples of the groups added so far.
+     *         If the groups spilled, the result is computed one partition at
+     *         a time while it is read.
+     */
+    public DbIterator iterator() throws DbException {
+        if (partitions == null) {
+            ArrayList<Tuple> tuples = new ArrayList<>(table.size);
+            table.results(tuples);
+            return new TupleIterator(resultTd, tuples);
+        }
+        // the groups in memory are merged with the spilled ones
+        if (table.size > 0)
+            spill(table, 0);
+        for (int p = 0; p < FAN_OUT; p++) {
+            if (writers[p] != null)
+                writers[p].finishWriting();
+            writers[p] = null;
+        }
+        return new PartitionIterator();
+    }
+
+    /**
+     * Deletes the groups written to disk, if any. The result can no longer
+     * be read afterwards.
+     */
+    public void close() {
+        if (partitions == null)
+            return;
+        for (ArrayList<SpillFile> files : partitions) {
+            for (SpillFile f : files)
+                f.delete();
+            files.clear();
+        }
+        Arrays.fill(writers, null);
+    }
+
+    private void spill(Table t, int depth) throws DbException {
+        if (partitions == null) {
+            partitions = new ArrayList<>(FAN_OUT);
+            for (int p = 0; p < FAN_OUT; p++)
+                partitions.add(new ArrayList<SpillFile>());
+            writers = new SpillFile[FAN_OUT];
+        }
+        for (int g = 0; g < t.size; g++) {
+            int p = partition(t.hashes[g], depth);
+            if (writers[p] == null) {
+                writers[p] = new SpillFile(partialTd);
+                partitions.get(p).add(writers[p]);
+            }
+            writers[p].write(t.partial(g));
+        }
+        t.clear();
+    }
+
+    /**
+     * @return the partition of a hash at the given level of partitioning;
+     *         each level uses the next FAN_OUT_BITS high bits, while the
+     *         table slots are chosen with the low bits
+     */
+    private static int partition(int hash, int depth) {
+        return (hash >>> (32 - FAN_OUT_BITS * (depth + 1))) & (FAN_OUT - 1);
+    }
+
+    /** Sets d as the int fields f and f + 1 of t, and returns f + 2. */
+    private static int setDouble(Tuple t, int f, double d) {
+        long bits = Double.doubleToLongBits(d);
+        t.setField(f, new IntField((int) (bits >>> 32)));
+        t.setField(f + 1, new IntField((int) bits));
+        return f + 2;
+    }
+
+    /** @return the double set by {@link #setDouble} from field f of t */
+    private static double getDouble(Tuple t, int f) {
+        long hi = ((IntField) t.getField(f)).getValue();
+        long lo = ((IntField) t.getField(f + 1)).getValue() & 0xffffffffL;
+        return Double.longBitsToDouble((hi << 32) | lo);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int hash(byte[] b) {
+        int h = 1;
+        for (byte x : b)
+            h = 31 * h + x;
+        return mix(h);
+    }
+
+    /**
+     * Open-addressing hash table of groups. Groups are numbered in order of
+     * insertion and their hash, key and aggregate state are stored in
+     * parallel arrays indexed by group number; the slots hold group number
+     * plus one, or 0 if empty, and are probed linearly.
+     */
+    private class Table {
+        int[] slots;
+        int[] hashes;
+        int[] intKeys;
+        byte[] keyBytes;
+        int[] keyEnds;
+        int keyBytesUsed;
+        int[][] acc;
+        int[] cnt;
+        // for a sample: the current page of each group and its count, and
+        // the sum of the squared counts of the previous pages
+        int[] pageKey;
+        int[] pageCnt;
+        double[] cnt2;
+        // per aggregate, null unless paged: the total of the current page,
+        // and the sums over the previous pages of the squared totals and of
+        // the totals times the counts
+        double[][] pageSum;
+        double[][] sum2;
+        double[][] sumCnt;
+        // per aggregate, null unless APPROX_COUNT_DISTINCT
+        HyperLogLog[][] sketches;
+        int size;
+        // scratch buffer for encoding composite keys
+        private final ByteArrayOutputStream keyBuf = new ByteArrayOutputStream();
+        private final DataOutputStream keyOut = new DataOutputStream(keyBuf);
+
+        Table() {
+            clear();
+        }
+
+        void clear() {
+            slots = new int[INITIAL_CAPACITY * 2];
+            hashes = new int[INITIAL_CAPACITY];
+            acc = new int[ops.length][INITIAL_CAPACITY];
+            cnt = new int[INITIAL_CAPACITY];
+            if (fraction < 1) {
+                pageKey = new int[INITIAL_CAPACITY];
+                pageCnt = new int[INITIAL_CAPACITY];
+                cnt2 = new double[INITIAL_CAPACITY];
+            }
+            pageSum = new double[ops.length][];
+            sum2 = new double[ops.length][];
+            sumCnt = new double[ops.length][];
+            sketches = new HyperLogLog[ops.length][];
+            for (int a = 0; a < ops.length; a++) {
+                if (paged[a]) {
+                    pageSum[a] = new double[INITIAL_CAPACITY];
+                    sum2[a] = new double[INITIAL_CAPACITY];
+                    sumCnt[a] = new double[INITIAL_CAPACITY];
+                } else if (ops[a] == Aggregator.Op.APPROX_COUNT_DISTINCT)
+                    sketches[a] = new HyperLogLog[INITIAL_CAPACITY];
+            }
+            if (intKey) {
+                intKeys = new int[INITIAL_CAPACITY];
+            } else {
+                keyBytes = new byte[INITIAL_CAPACITY * 8];
+                keyEnds = new int[INITIAL_CAPACITY];
+            }
+            keyBytesUsed = 0;
+            size = 0;
+        }
+
+        long bytesUsed() {
+            return (long) size * bytesPerGroup + keyBytesUsed;
+        }
+
+        /**
+         * @return the number of the group of the key made of the given
+         *         fields of t, which is created if it does not exist yet
+         */
+        int group(Tuple t, int[] fields) {
+            if (intKey) {
+                int k = ((IntField) t.getField(fields[0])).getValue();
+                return group(k, mix(k));
+            }
+            byte[] k = encodeKey(t, fields);
+            return group(k, hash(k));
+        }
+
+        /**
+         * Encode a key as a string of bytes: an int as 4 bytes, a string as
+         * its modified UTF-8 encoding preceded by a 2 byte length.
+         */
+        private byte[] encodeKey(Tuple t, int[] fields) {
+            keyBuf.reset();
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    Field f = t.getField(fields[i]);
+                    if (keyTypes[i] == Type.INT_TYPE)
+                        keyOut.writeInt(((IntField) f).getValue());
+                    else
+                        keyOut.writeUTF(((StringField) f).getValue());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e); // cannot happen in memory
+            }
+            return keyBuf.toByteArray();
+        }
+
+        int group(int key, int hash) {
+            int mask = slots.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                int s = slots[i];
+                if (s == 0) {
+                    int g = newGroup(hash, i);
+                    intKeys[g] = key;
+                    return g;
+                }
+                if (hashes[s - 1] == hash && intKeys[s - 1] == key)
+                    return s - 1;
+            }
+        }
+
+        int group(byte[] key, int hash) {
+            int mask = slots.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                int s = slots[i];
+                if (s == 0) {
+                    int g = newGroup(hash, i);
+                    if (keyBytesUsed + key.length > keyBytes.length)
+                        keyBytes = Arrays.copyOf(keyBytes,
+                                Math.max(keyBytes.length * 2, keyBytesUsed + key.length));
+                    System.arraycopy(key, 0, keyBytes, keyBytesUsed, key.length);
+                    keyBytesUsed += key.length;
+                    keyEnds[g] = keyBytesUsed;
+                    return g;
+                }
+                if (hashes[s - 1] == hash && keyEquals(s - 1, key))
+                    return s - 1;
+            }
+        }
+
+        private boolean keyEquals(int g, byte[] key) {
+            int start = g == 0 ? 0 : keyEnds[g - 1];
+            if (keyEnds[g] - start != key.length)
+                return false;
+            for (int i = 0; i < key.length; i++) {
+                if (keyBytes[start + i] != key[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private int newGroup(int hash, int slot) {
+            int g = size++;
+            if (g == hashes.length) {
+                int cap = hashes.length * 2;
+                hashes = Arrays.copyOf(hashes, cap);
+                cnt = Arrays.copyOf(cnt, cap);
+                if (pageKey != null) {
+                    pageKey = Arrays.copyOf(pageKey, cap);
+                    pageCnt = Arrays.copyOf(pageCnt, cap);
+                    cnt2 = Arrays.copyOf(cnt2, cap);
+                }
+                for (int a = 0; a < acc.length; a++) {
+                    acc[a] = Arrays.copyOf(acc[a], cap);
+                    if (pageSum[a] != null) {
+                        pageSum[a] = Arrays.copyOf(pageSum[a], cap);
+                        sum2[a] = Arrays.copyOf(sum2[a], cap);
+                        sumCnt[a] = Arrays.copyOf(sumCnt[a], cap);
+                    }
+                    if (sketches[a] != null)
+                        sketches[a] = Arrays.copyOf(sketches[a], cap);
+                }
+                if (intKeys != null)
+                    intKeys = Arrays.copyOf(intKeys, cap);
+                if (keyEnds != null)
+                    keyEnds = Arrays.copyOf(keyEnds, cap);
+            }
+            hashes[g] = hash;
+            if (pageKey != null)
+                pageKey[g] = NO_PAGE;
+            slots[slot] = g + 1;
+            if (size * 2 > slots.length)
+                rehash(slots.length * 2);
+            return g;
+        }
+
+        private void rehash(int capacity) {
+            slots = new int[capacity];
+            int mask = capacity - 1;
+            for (int g = 0; g < size; g++) {
+                int i = hashes[g] & mask;
+                while (slots[i] != 0)
+                    i = (i + 1) & mask;
+                slots[i] = g + 1;
+            }
+        }
+
+        /**
+         * Moves group g to the given page, adding the totals of its previous
+         * page to the sums if it is another one.
+         */
+        void enterPage(int g, int page) {
+            if (page == NO_PAGE || page != pageKey[g]) {
+                flushPage(g);
+                pageKey[g] = page;
+            }
+        }
+
+        /** Adds the totals of the current page of group g to the sums. */
+        void flushPage(int g) {
+            double n = pageCnt[g];
+            cnt2[g] += n * n;
+            for (int a = 0; a < ops.length; a++) {
+                if (pageSum[a] != null) {
+                    double t = pageSum[a][g];
+                    sum2[a][g] += t * t;
+                    sumCnt[a][g] += t * n;
+                    pageSum[a][g] = 0;
+                }
+            }
+            pageCnt[g] = 0;
+        }
+
+        /** @return the sketch of aggregate a for group g */
+        HyperLogLog sketch(int a, int g) {
+            if (sketches[a][g] == null)
+                sketches[a][g] = new HyperLogLog();
+            return sketches[a][g];
+        }
+
+        /** Set the key fields of group g as the first fields of t. */
+        void setKey(int g, Tuple t) {
+            if (intKey) {
+                t.setField(0, new IntField(intKeys[g]));
+                return;
+            }
+            int start = g == 0 ? 0 : keyEnds[g - 1];
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(keyBytes, start, keyEnds[g] - start));
+            try {
+                for (int i = 0; i < keyTypes.length; i++) {
+                    if (keyTypes[i] == Type.INT_TYPE)
+                        t.setField(i, new IntField(in.readInt()));
+                    else
+                        t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e); // cannot happen in memory
+            }
+        }
+
+        /**
+         * @return the partial aggregate of group g: (key..., acc..., cnt,
+         *         sums over the pages and sketches...). A page whose tuples
+         *         are split between two partial aggregates counts as two.
+         */
+        Tuple partial(int g) {
+            Tuple t = new Tuple(partialTd);
+            setKey(g, t);
+            for (int a = 0; a < ops.length; a++)
+                t.setField(keyTypes.length + a, new IntField(acc[a][g]));
+            int f = keyTypes.length + ops.length;
+            t.setField(f++, new IntField(cnt[g]));
+            if (pageKey != null) {
+                flushPage(g);
+                f = setDouble(t, f, cnt2[g]);
+            }
+            for (int a = 0; a < ops.length; a++) {
+                if (pageSum[a] != null) {
+                    f = setDouble(t, f, sum2[a][g]);
+                    f = setDouble(t, f, sumCnt[a][g]);
+                } else if (sketches[a] != null) {
+                    HyperLogLog h = sketch(a, g);
+                    for (int w = 0; w < HyperLogLog.WORDS; w++)
+                        t.setField(f++, new IntField(h.getWord(w)));
+                }
+            }
+            return t;
+        }
+
+        /** Merge a partial aggregate written by {@link #partial}. */
+        void combine(Tuple partial) {
+            int g = group(partial, partialKeyFields);
+            boolean first = cnt[g] == 0;
+            for (int a = 0; a < ops.length; a++) {
+                int value = ((IntField) partial.getField(keyTypes.length + a)).getValue();
+                switch (ops[a]) {
+                    case MIN:
+                        acc[a][g] = first ? value : Math.min(acc[a][g], value);
+                        break;
+                    case MAX:
+                        acc[a][g] = first ? value : Math.max(acc[a][g], value);
+                        break;
+                    default: // SUM, AVG; COUNT uses cnt
+                        acc[a][g] += value;
+                        break;
+                }
+            }
+            int f = keyTypes.length + ops.length;
+            cnt[g] += ((IntField) partial.getField(f++)).getValue();
+            if (pageKey != null) {
+                cnt2[g] += getDouble(partial, f);
+                f += 2;
+            }
+            for (int a = 0; a < ops.length; a++) {
+                if (pageSum[a] != null) {
+                    sum2[a][g] += getDouble(partial, f);
+                    sumCnt[a][g] += getDouble(partial, f + 2);
+                    f += 4;
+                } else if (sketches[a] != null) {
+                    HyperLogLog h = sketch(a, g);
+                    for (int w = 0; w < HyperLogLog.WORDS; w++)
+                        h.mergeWord(w, ((IntField) partial.getField(f++)).getValue());
+                }
+            }
+        }
+
+        /**
+         * @return the half-width of the 95% confidence interval of the
+         *         estimate of aggregate a for group g
+         */
+        double halfWidth(int a, int g) {
+            double variance;
+            if (ops[a] == Aggregator.Op.COUNT) {
+                variance = cnt2[g] * (1 - fraction) / (fraction * fraction);
+            } else if (ops[a] == Aggregator.Op.SUM) {
+                variance = sum2[a][g] * (1 - fraction) / (fraction * fraction);
+            } else {
+                // of the ratio of the page totals to the page counts
+                double n = cnt[g];
+                double r = acc[a][g] / n;
+                double residuals = sum2[a][g] - 2 * r * sumCnt[a][g] + r * r * cnt2[g];
+                variance = (1 - fraction) * Math.max(0, residuals) / (n * n);
+            }
+            return Z_95 * Math.sqrt(variance);
+        }
+
+        void results(List<Tuple> out) {
+            for (int g = 0; g < size; g++) {
+                if (pageKey != null)
+                    flushPage(g);
+                Tuple t = new Tuple(resultTd);
+                if (keyTypes.length > 0)
+                    setKey(g, t);
+                int bound = keyTypes.length + ops.length;
+                for (int a = 0; a < ops.length; a++) {
+                    int value;
+                    if (ops[a] == Aggregator.Op.COUNT)
+                        value = (int) Math.round(cnt[g] / fraction);
+                    else if (ops[a] == Aggregator.Op.SUM)
+                        value = (int) Math.round(acc[a][g] / fraction);
+                    else if (ops[a] == Aggregator.Op.AVG)
+                        value = acc[a][g] / cnt[g];
+                    else if (ops[a] == Aggregator.Op.APPROX_COUNT_DISTINCT)
+                        value = (int) Math.min(sketch(a, g).estimate(), Integer.MAX_VALUE);
+                    else
+                        value = acc[a][g];
+                    t.setField(keyTypes.length + a, new IntField(value));
+                    if (isBounded(ops[a], fraction))
+                        t.setField(bound++, new IntField((int) Math.round(halfWidth(a, g))));
+                }
+                out.add(t);
+            }
+        }
+    }
+
+    /**
+     * Streams the result of spilled groups: the partitions are aggregated
+     * one at a time, and a partition that does not fit in memory is split
+     * into temporary sub-partitions on the next bits of the hash.
+     */
+    private class PartitionIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        // pending work: the files of a partition and its partitioning depth
+        private ArrayDeque<List<SpillFile>> pending;
+        private ArrayDeque<Integer> depths;
+        private ArrayList<SpillFile> temporary = new ArrayList<>();
+        private ArrayList<Tuple> current = new ArrayList<>();
+        private int pos;
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            start();
+        }
+
+        private void start() {
+            pending = new ArrayDeque<>();
+            depths = new ArrayDeque<>();
+            for (int p = 0; p < FAN_OUT; p++) {
+                if (!partitions.get(p).isEmpty()) {
+                    pending.add(partitions.get(p));
+                    depths.add(0);
+                }
+            }
+            current.clear();
+            pos = 0;
+        }
+
+        /**
+         * Aggregate the next partition into current.
+         *
+         * @return false if all partitions have been aggregated
+         */
+        private boolean nextPartition() throws DbException {
+            while (!pending.isEmpty()) {
+                List<SpillFile> files = pending.poll();
+                int depth = depths.poll();
+                Table t = new Table();
+                ArrayList<ArrayList<SpillFile>> split = null;
+                for (SpillFile f : files) {
+                    SpillFile.Reader r = f.reader();
+                    Tuple partial;
+                    while ((partial = r.readNext()) != null) {
+                        t.combine(partial);
+                        if (t.bytesUsed() > memoryBytes && depth < MAX_DEPTH)
+                            split = splitInto(split, t, depth + 1);
+                    }
+                    r.close();
+                    // sub-partitions are read once, the spilled groups are kept
+                    if (temporary.remove(f))
+                        f.delete();
+                }
+                if (split == null) {
+                    current.clear();
+                    pos = 0;
+                    t.results(current);
+                    return true;
+                }
+                splitInto(split, t, depth + 1);
+                for (ArrayList<SpillFile> sub : split) {
+                    for (SpillFile f : sub)
+                        f.finishWriting();
+                    if (!sub.isEmpty()) {
+                        pending.addFirst(sub);
+                        depths.addFirst(depth + 1);
+                    }
+                }
+            }
+            return false;
+        }
+
+        private ArrayList<ArrayList<SpillFile>> splitInto(ArrayList<ArrayList<SpillFile>> split,
+                Table t, int depth) throws DbException {
+            if (split == null) {
+                split = new ArrayList<>(FAN_OUT);
+                for (int p = 0; p < FAN_OUT; p++)
+                    split.add(new ArrayList<SpillFile>());
+            }
+            for (int g = 0; g < t.size; g++) {
+                ArrayList<SpillFile> sub = split.get(partition(t.hashes[g], depth));
+                if (sub.isEmpty()) {
+                    SpillFile f = new SpillFile(partialTd);
+                    sub.add(f);
+                    temporary.add(f);
+                }
+                sub.get(0).write(t.partial(g));
+            }
+            t.clear();
+            return split;
+        }
+
+        protected Tuple fetchNext() throws DbException {
+            while (pos >= current.size()) {
+                if (!nextPartition())
+                    return null;
+            }
+            return current.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            deleteTemporary();
+            start();
+        }
+
+        public void close() {
+            super.close();
+            deleteTemporary();
+            current.clear();
+            HashAggregation.this.close();
+        }
+
+        private void deleteTemporary() {
+            for (SpillFile f : temporary)
+                f.delete();
+            temporary.clear();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return resultTd;
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A HashBucketPage holds tuples of a bucket of a {@link HashIndexFile}, in
+ * no particular order. The pages of a bucket are chained: the primary page,
+ * located through the HashDirectoryPages, points to the first overflow page
+ * of the bucket, if any, which points to the next one and so on.
+ */
+public class HashBucketPage implements Page {
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private final int numSlots;
+    private int nextPageNo;
+    private final byte[] header;
+    private final Tuple[] tuples;
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+    private byte[] oldData;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     * The format of a HashBucketPage is an integer, the page number of the
+     * next page of the bucket or 0 for the last one, then header bytes
+     * indicating the slots of the page that are in use, as for a
+     * {@link HeapPage}, then the tuple slots. The number of slots is given
+     * by {@link #numSlots}.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots(td);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        nextPageNo = dis.readInt();
+        header = new byte[headerSize(numSlots)];
+        dis.readFully(header);
+        tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                dis.skipBytes(td.getSize());
+                continue;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(dis));
+            } catch (java.text.ParseException e) {
+                throw new IOException(e);
+            }
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuple slots of a bucket page of a file with
+     *         tuples of the given TupleDesc
+     */
+    public static int numSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() - 4) * 8 / (td.getSize() * 8 + 1);
+    }
+
+    private static int headerSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /**
+     * Generates the bytes of a bucket page holding the given tuples, used to
+     * write a file without going through the BufferPool.
+     *
+     * @param td
+     *            the TupleDesc of the file
+     * @param nextPageNo
+     *            the page number of the next page of the bucket, or 0
+     * @param tuples
+     *            at most {@link #numSlots} tuples
+     */
+    public static byte[] createPageData(TupleDesc td, int nextPageNo, List<Tuple> tuples) {
+        int numSlots = numSlots(td);
+        if (tuples.size() > numSlots)
+            throw new IllegalArgumentException("@HashBucketPage, too many tuples for a page");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] header = new byte[headerSize(numSlots)];
+        for (int i = 0; i < tuples.size(); i++)
+            header[i / 8] |= 1 << (i % 8);
+        try {
+            dos.writeInt(nextPageNo);
+            dos.write(header);
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - 4 - header.length
+                    - tuples.size() * td.getSize()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the page number of the next page of the bucket, or 0 if this
+     *         is the last one
+     */
+    public int getNextPageNo() {
+        return nextPageNo;
+    }
+
+    public void setNextPageNo(int pgNo) {
+        this.nextPageNo = pgNo;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(nextPageNo);
+            dos.write(header);
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i)) {
+                    dos.write(new byte[td.getSize()]);
+                    continue;
+                }
+                for (int j = 0; j < td.numFields(); j++)
+                    tuples[i].getField(j).serialize(dos);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - 4 - header.length
+                    - numSlots * td.getSize()]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Adds a tuple to the page, and sets its RecordId to its slot.
+     *
+     * @throws DbException if the page is full or the tuple is of another
+     *         TupleDesc
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("@HashBucketPage, type mismatch in insertTuple");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+                return;
+            }
+        }
+        throw new DbException("@HashBucketPage, insertTuple on a full page");
+    }
+
+    /**
+     * Removes a tuple of this page, and clears its RecordId.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("@HashBucketPage, tried to delete a tuple of another page");
+        if (!isSlotUsed(rid.tupleno()))
+            throw new DbException("@HashBucketPage, tried to delete an empty slot");
+        markSlotUsed(rid.tupleno(), false);
+        tuples[rid.tupleno()] = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * @return the number of empty slots on this page
+     */
+    public int getNumEmptySlots() {
+        int empty = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                empty++;
+        }
+        return empty;
+    }
+
+    /**
+     * @return true if the slot holds a tuple
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] >> (i % 8) & 1) == 1;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= 1 << (i % 8);
+        else
+            header[i / 8] &= ~(1 << (i % 8));
+    }
+
+    /**
+     * @return an iterator over the tuples of this page, which does not
+     *         support remove
+     */
+    public Iterator<Tuple> iterator() {
+        List<Tuple> used = new ArrayList<Tuple>();
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                used.add(tuples[i]);
+        }
+        return Collections.unmodifiableList(used).iterator();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, oldData);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A HashDirectoryPage of a {@link HashIndexFile} maps a range of buckets to
+ * the page numbers of their primary HashBucketPages: the i-th directory page
+ * of the HashMetaPage locates the buckets from i * {@link #numEntries()} on.
+ */
+public class HashDirectoryPage implements Page {
+
+    private final HashPageId pid;
+    private final int[] bucketPages;
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+    private byte[] oldData;
+
+    /**
+     * Constructor. Construct the HashDirectoryPage from a set of bytes of data
+     * read from disk. The format of a HashDirectoryPage is an integer per
+     * bucket, the page number of its primary bucket page, or 0 for a bucket
+     * which does not exist yet.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        bucketPages = new int[numEntries()];
+        for (int i = 0; i < bucketPages.length; i++)
+            bucketPages[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of buckets a directory page locates
+     */
+    public static int numEntries() {
+        return BufferPool.getPageSize() / 4;
+    }
+
+    /**
+     * @return the page number of the primary page of the i-th bucket of this
+     *         directory page, or 0 if it does not exist
+     */
+    public int getBucketPageNo(int i) {
+        return bucketPages[i];
+    }
+
+    /**
+     * Sets the page number of the primary page of the i-th bucket of this
+     * directory page.
+     */
+    public void setBucketPageNo(int i, int pgNo) {
+        bucketPages[i] = pgNo;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int pgNo : bucketPages)
+                dos.writeInt(pgNo);
+            dos.write(new byte[BufferPool.getPageSize() - 4 * bucketPages.length]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, oldData);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -15,6 +15,9 @@ public class HashEquiJoin extends Operator {
     private Tuple item1;
     // merge tuples with same field
     private HashMap<Field, ArrayList<Tuple>> child2Map;
+    // the keys of child2Map, pushed down into the scan of child1
+    private BloomFilter bloomFilter;
+    private SeqScan probeScan;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -64,6 +67,7 @@ public class HashEquiJoin extends Operator {
         super.open();
         childIt1.open();
         childIt2.open();
+        child2Map.clear();
         while (childIt2.hasNext()) {
             Tuple item2 = childIt2.next();
             Field toPutKey = item2.getField(joinPredicate.getField2());
@@ -74,12 +78,33 @@ public class HashEquiJoin extends Operator {
                 val.add(item2);
         }
         childIt2.close();
+        pushDownBloomFilter();
         item1 = (childIt1.hasNext()) ? childIt1.next() : null;
     }
 
+    /**
+     * Lets the scan under childIt1, if any, drop the tuples whose join field
+     * is not a key of the hash table before they reach this join.
+     */
+    private void pushDownBloomFilter() {
+        if (probeScan != null)
+            probeScan.removeBloomFilter(bloomFilter);
+        probeScan = BloomFilter.probeScan(childIt1);
+        if (probeScan == null)
+            return;
+        bloomFilter = new BloomFilter(child2Map.size());
+        for (Field key : child2Map.keySet())
+            bloomFilter.add(key);
+        probeScan.addBloomFilter(joinPredicate.getField1(), bloomFilter);
+    }
+
     public void close() {
         // some code goes here
         super.close();
+        if (probeScan != null)
+            probeScan.removeBloomFilter(bloomFilter);
+        probeScan = null;
+        bloomFilter = null;
         childIt1.close();
         childIt2.close();
         item1 = null;
@@ -0,0 +1,591 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an implementation of a DbFile that stores its tuples in
+ * the buckets of a hash table on one of their fields, the key, using linear
+ * hashing: finding the tuples of a key reads the bucket of the key, which
+ * is one page unless the bucket overflowed, whatever the size of the file.
+ * <p>
+ * Page 0 is a {@link HashMetaPage} holding the number of buckets and the
+ * {@link HashDirectoryPage}s, which locate the primary page of each bucket.
+ * A bucket is a chain of {@link HashBucketPage}s. When an insert finds the
+ * bucket of its key full, it adds an overflow page to it, and the bucket
+ * pointed to by the split pointer of the meta page is split: its tuples are
+ * spread between it and a new bucket at the end of the file, hashing their
+ * key modulo twice as many buckets. The buckets are thus split one at a
+ * time in order, and the file grows by a page or two per split instead of
+ * being rehashed as a whole. The overflow pages a split empties are kept in
+ * a free list for the next overflows. Deletes leave the buckets as they
+ * are.
+ * <p>
+ * Scans go through the buckets in order; the tuples do not come out in the
+ * order of any field. A HashIndexFile can be a table of its own, or hold the
+ * entries of a {@link SecondaryIndex}.
+ *
+ * @see HashMetaPage
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public class HashIndexFile implements DbFile {
+
+    /** The number of buckets of a file created empty */
+    public static final int DEFAULT_BUCKETS = 4;
+
+    /** The share of the slots of its buckets {@link #load} fills */
+    public static final double LOAD_FILL_FACTOR = 0.75;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a hash index file backed by the specified file. An empty
+     * file is given {@link #DEFAULT_BUCKETS} buckets when first used.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this file
+     * @param key
+     *            the field the tuples are hashed on
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     */
+    public HashIndexFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields())
+            throw new IllegalArgumentException("@HashIndexFile, no field " + key);
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /**
+     * Builds a hash index file holding the given tuples, writing its pages
+     * directly, and adds it to the Catalog. The file has enough buckets for
+     * its tuples to fill {@link #LOAD_FILL_FACTOR} of their slots.
+     *
+     * @param f
+     *            the file to write, whose contents are replaced
+     * @param td
+     *            the TupleDesc of the tuples
+     * @param key
+     *            the field the tuples are hashed on
+     * @param tuples
+     *            the tuples, which are read twice; opened and closed here
+     * @param name
+     *            the name of the table in the Catalog
+     * @return the file
+     * @throws DbException
+     *             if f is a table of the Catalog already, or a tuple is not
+     *             of the given TupleDesc
+     */
+    public static HashIndexFile load(File f, TupleDesc td, int key, DbIterator tuples,
+            String name) throws DbException, TransactionAbortedException, IOException {
+        try {
+            Database.getCatalog().getDatabaseFile(f.getAbsoluteFile().hashCode());
+            throw new DbException("@HashIndexFile, " + f + " is already a table");
+        } catch (NoSuchElementException e) {
+            // the pages of the file are not in use
+        }
+
+        ExternalSort sort = null;
+        tuples.open();
+        try {
+            int count = 0;
+            while (tuples.hasNext()) {
+                if (!td.equals(tuples.next().getTupleDesc()))
+                    throw new DbException("@HashIndexFile, a tuple does not match " + td);
+                count++;
+            }
+            int perBucket = Math.max(1,
+                    (int) (LOAD_FILL_FACTOR * HashBucketPage.numSlots(td)));
+            final int buckets = Math.max(DEFAULT_BUCKETS, (count + perBucket - 1) / perBucket);
+            sort = new ExternalSort(td, new Comparator<Tuple>() {
+                public int compare(Tuple t1, Tuple t2) {
+                    return Integer.compare(hash(t1.getField(key)) % buckets,
+                            hash(t2.getField(key)) % buckets);
+                }
+            }, (long) OrderBy.DEFAULT_SORT_PAGES * BufferPool.getPageSize());
+            tuples.rewind();
+            while (tuples.hasNext())
+                sort.add(tuples.next());
+            sort.finish();
+            write(f, td, key, buckets, sort);
+        } finally {
+            tuples.close();
+            if (sort != null)
+                sort.close();
+        }
+
+        HashIndexFile hf = new HashIndexFile(f, key, td);
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /**
+     * Writes a file of the given number of buckets at level 0: the meta
+     * page, the directory pages, the primary page of each bucket in order,
+     * then the overflow pages.
+     *
+     * @param sorted
+     *            the tuples in the order of their bucket, or null for none
+     */
+    private static void write(File f, TupleDesc td, int key, int buckets, ExternalSort sorted)
+            throws DbException, IOException {
+        int perDirectory = HashDirectoryPage.numEntries();
+        int directoryPages = (buckets + perDirectory - 1) / perDirectory;
+        if (directoryPages > HashMetaPage.maxDirectoryPages())
+            throw new DbException("@HashIndexFile, too many buckets: " + buckets);
+        int pageSize = BufferPool.getPageSize();
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(0);
+            HashMetaPage meta = new HashMetaPage(new HashPageId(0, 0, HashPageId.META),
+                    new byte[pageSize]);
+            meta.init(buckets);
+            for (int i = 0; i < directoryPages; i++)
+                meta.addDirectoryPage(1 + i);
+            raf.write(meta.getPageData());
+            for (int i = 0; i < directoryPages; i++) {
+                HashDirectoryPage dir = new HashDirectoryPage(
+                        new HashPageId(0, 1 + i, HashPageId.DIRECTORY), new byte[pageSize]);
+                for (int j = 0; j < perDirectory && i * perDirectory + j < buckets; j++)
+                    dir.setBucketPageNo(j, 1 + directoryPages + i * perDirectory + j);
+                raf.write(dir.getPageData());
+            }
+
+            int numSlots = HashBucketPage.numSlots(td);
+            int nextFree = 1 + directoryPages + buckets;
+            Tuple t = sorted == null ? null : sorted.next();
+            for (int b = 0; b < buckets; b++) {
+                int pgNo = 1 + directoryPages + b;
+                List<Tuple> page = new ArrayList<Tuple>();
+                while (t != null && hash(t.getField(key)) % buckets == b) {
+                    if (page.size() == numSlots) {
+                        // chain an overflow page at the end of the file
+                        raf.seek((long) pgNo * pageSize);
+                        raf.write(HashBucketPage.createPageData(td, nextFree, page));
+                        pgNo = nextFree++;
+                        page.clear();
+                    }
+                    page.add(t);
+                    t = sorted.next();
+                }
+                raf.seek((long) pgNo * pageSize);
+                raf.write(HashBucketPage.createPageData(td, 0, page));
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the hash of a key, at least 0; the bits of the hash code of
+     *         the key are mixed so that consecutive keys are spread over the
+     *         buckets
+     */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B1;
+        return (h ^ (h >>> 16)) & 0x7fffffff;
+    }
+
+    /**
+     * Returns the File backing this HashIndexFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * @return an ID uniquely identifying this file: the hash of the absolute
+     *         name of its file, as for BTreeFile
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns the index of the field that this file is hashed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Read a page from the file on disk. This should not be called directly
+     * but should be called from the BufferPool via getPage()
+     */
+    public Page readPage(PageId pid) {
+        HashPageId id = (HashPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                if ((long) (id.pageNumber() + 1) * data.length > raf.length())
+                    throw new IllegalArgumentException("@HashIndexFile, read past end of table");
+                raf.seek((long) id.pageNumber() * data.length);
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            Debug.log(1, "HashIndexFile.readPage: read page %d", id.pageNumber());
+            switch (id.pgcateg()) {
+                case HashPageId.META:
+                    return new HashMetaPage(id, data);
+                case HashPageId.DIRECTORY:
+                    return new HashDirectoryPage(id, data);
+                default:
+                    return new HashBucketPage(id, data);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Write a page to disk. This should not be called directly but should
+     * be called from the BufferPool when pages are flushed to disk
+     */
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file, including the meta page.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Fetches a page through the local cache of the pages dirtied by the
+     * current operation, as in {@link BTreeFile}, adding it to the cache if
+     * it is fetched with read-write permission.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        if (dirtypages.containsKey(pid))
+            return dirtypages.get(pid);
+        Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE)
+            dirtypages.put(pid, p);
+        return p;
+    }
+
+    /**
+     * @return the meta page, writing the pages of an empty file of
+     *         {@link #DEFAULT_BUCKETS} buckets first if the file is empty
+     */
+    HashMetaPage getMetaPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Permissions perm) throws DbException, IOException, TransactionAbortedException {
+        synchronized (this) {
+            if (f.length() == 0)
+                write(f, td, keyField, DEFAULT_BUCKETS, null);
+        }
+        return (HashMetaPage) getPage(tid, dirtypages, HashMetaPage.getId(tableid), perm);
+    }
+
+    /**
+     * @return the id of the primary page of a bucket
+     */
+    HashPageId getBucketId(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta, int bucket) throws DbException, TransactionAbortedException {
+        int perDirectory = HashDirectoryPage.numEntries();
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, dirtypages,
+                new HashPageId(tableid, meta.getDirectoryPageNo(bucket / perDirectory),
+                        HashPageId.DIRECTORY), Permissions.READ_ONLY);
+        return new HashPageId(tableid, dir.getBucketPageNo(bucket % perDirectory),
+                HashPageId.BUCKET);
+    }
+
+    /**
+     * Appends an empty page to the file, and returns it locked with
+     * read-write permission.
+     */
+    private Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        HashPageId pid;
+        synchronized (this) {
+            pid = new HashPageId(tableid, numPages(), pgcateg);
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.seek((long) pid.pageNumber() * BufferPool.getPageSize());
+                raf.write(new byte[BufferPool.getPageSize()]);
+            } finally {
+                raf.close();
+            }
+        }
+        // make sure the page is not in the buffer pool or in the local cache
+        Database.getBufferPool().discardPage(pid);
+        dirtypages.remove(pid);
+        return getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Inserts a tuple into the bucket of its key, splitting the next bucket
+     * to split if the bucket of the key overflows.
+     *
+     * @return the pages dirtied by the insert
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("@HashIndexFile, type mismatch in insertTuple");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+        int bucket = meta.bucketOf(hash(t.getField(keyField)));
+        if (!insertIntoBucket(tid, dirtypages, meta, bucket, t)) {
+            meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+            splitBucket(tid, dirtypages, meta);
+        }
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Inserts a tuple into the first page of a bucket with an empty slot,
+     * chaining an overflow page to the bucket if it is full.
+     *
+     * @return false if the bucket overflowed
+     */
+    private boolean insertIntoBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta, int bucket, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages,
+                getBucketId(tid, dirtypages, meta, bucket), Permissions.READ_ONLY);
+        while (page.getNumEmptySlots() == 0 && page.getNextPageNo() != 0) {
+            page = (HashBucketPage) getPage(tid, dirtypages,
+                    new HashPageId(tableid, page.getNextPageNo(), HashPageId.BUCKET),
+                    Permissions.READ_ONLY);
+        }
+        page = (HashBucketPage) getPage(tid, dirtypages, page.getId(), Permissions.READ_WRITE);
+        boolean full = page.getNumEmptySlots() == 0;
+        if (full) {
+            HashBucketPage overflow = getEmptyBucketPage(tid, dirtypages);
+            page.setNextPageNo(overflow.getId().pageNumber());
+            page = overflow;
+        }
+        page.insertTuple(t);
+        return !full;
+    }
+
+    /**
+     * @return an empty bucket page locked with read-write permission: the
+     *         first free page, or a page appended to the file
+     */
+    private HashBucketPage getEmptyBucketPage(TransactionId tid,
+            HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+        if (meta.getFreePageNo() == 0)
+            return (HashBucketPage) getEmptyPage(tid, dirtypages, HashPageId.BUCKET);
+        HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages,
+                new HashPageId(tableid, meta.getFreePageNo(), HashPageId.BUCKET),
+                Permissions.READ_WRITE);
+        meta.setFreePageNo(page.getNextPageNo());
+        page.setNextPageNo(0);
+        return page;
+    }
+
+    /**
+     * Splits the bucket pointed to by the split pointer: adds a bucket at the
+     * end of the file, advances the split pointer, then moves the tuples of
+     * the bucket that now hash to the new bucket, and packs the others in as
+     * few pages of the bucket as they fit, freeing the rest. Does nothing if
+     * the directory cannot locate another bucket; the buckets then only grow
+     * their chains.
+     */
+    private void splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashMetaPage meta) throws DbException, IOException, TransactionAbortedException {
+        int perDirectory = HashDirectoryPage.numEntries();
+        int old = meta.getNext();
+        int bucket = meta.numBuckets();
+        if (bucket / perDirectory == meta.getNumDirectoryPages()) {
+            if (meta.getNumDirectoryPages() == HashMetaPage.maxDirectoryPages())
+                return;
+            Page dir = getEmptyPage(tid, dirtypages, HashPageId.DIRECTORY);
+            meta.addDirectoryPage(dir.getId().pageNumber());
+        }
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, dirtypages,
+                new HashPageId(tableid, meta.getDirectoryPageNo(bucket / perDirectory),
+                        HashPageId.DIRECTORY), Permissions.READ_WRITE);
+        Page primary = getEmptyBucketPage(tid, dirtypages);
+        dir.setBucketPageNo(bucket % perDirectory, primary.getId().pageNumber());
+        meta.advance();
+
+        List<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        HashPageId pid = getBucketId(tid, dirtypages, meta, old);
+        while (pid != null) {
+            HashBucketPage page = (HashBucketPage) getPage(tid, dirtypages, pid,
+                    Permissions.READ_WRITE);
+            chain.add(page);
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                page.deleteTuple(t);
+                tuples.add(t);
+            }
+            pid = page.getNextPageNo() == 0 ? null
+                    : new HashPageId(tableid, page.getNextPageNo(), HashPageId.BUCKET);
+        }
+
+        List<Tuple> moved = new ArrayList<Tuple>();
+        int used = 0;
+        for (Tuple t : tuples) {
+            if (meta.bucketOf(hash(t.getField(keyField))) != old) {
+                moved.add(t);
+                continue;
+            }
+            if (chain.get(used).getNumEmptySlots() == 0)
+                used++;
+            chain.get(used).insertTuple(t);
+        }
+        chain.get(used).setNextPageNo(0);
+        for (HashBucketPage page : chain.subList(used + 1, chain.size())) {
+            page.setNextPageNo(meta.getFreePageNo());
+            meta.setFreePageNo(page.getId().pageNumber());
+        }
+
+        for (Tuple t : moved)
+            insertIntoBucket(tid, dirtypages, meta, bucket, t);
+    }
+
+    /**
+     * Deletes a tuple from the page of its RecordId.
+     *
+     * @return the page dirtied by the delete
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof HashPageId)
+                || rid.getPageId().getTableId() != tableid)
+            throw new DbException("@HashIndexFile, tried to delete a tuple of another table");
+        HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(page);
+        return dirty;
+    }
+
+    /**
+     * Get the tuples whose key satisfies a predicate: those of a key are
+     * read from its bucket only, those of other predicates from all the
+     * buckets.
+     *
+     * @param tid
+     *            the transaction id
+     * @param ipred
+     *            the predicate on the key
+     * @return an iterator for the tuples, in no particular order
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashFileIterator(this, tid, ipred);
+    }
+
+    /**
+     * Get an iterator for all the tuples of this file, bucket by bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(this, tid, null);
+    }
+}
+
+/**
+ * Helper class that reads the tuples of a HashIndexFile passing an optional
+ * predicate on the key, walking the chain of pages of each bucket in turn
+ */
+class HashFileIterator extends AbstractDbFileIterator {
+
+    private final HashIndexFile f;
+    private final TransactionId tid;
+    private final IndexPredicate ipred;
+
+    private HashMap<PageId, Page> pages;
+    private HashMetaPage meta;
+    private int bucket;
+    private int lastBucket;
+    private HashPageId nextPid;
+    private Iterator<Tuple> it;
+
+    /**
+     * @param ipred
+     *            the predicate the key of the tuples must satisfy, or null
+     *            for all the tuples
+     */
+    public HashFileIterator(HashIndexFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        pages = new HashMap<PageId, Page>();
+        try {
+            meta = f.getMetaPage(tid, pages, Permissions.READ_ONLY);
+        } catch (IOException e) {
+            throw new DbException("@HashFileIterator, " + e.getMessage());
+        }
+        if (ipred != null && ipred.getOp() == Predicate.Op.EQUALS) {
+            bucket = meta.bucketOf(HashIndexFile.hash(ipred.getField()));
+            lastBucket = bucket;
+        } else {
+            bucket = 0;
+            lastBucket = meta.numBuckets() - 1;
+        }
+        nextPid = f.getBucketId(tid, pages, meta, bucket);
+        it = null;
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (meta == null)
+            return null;
+        while (true) {
+            while (it != null && it.hasNext()) {
+                Tuple t = it.next();
+                if (ipred == null || t.getField(f.keyField()).compare(ipred.getOp(),
+                        ipred.getField()))
+                    return t;
+            }
+            if (nextPid == null) {
+                if (bucket == lastBucket)
+                    return null;
+                bucket++;
+                nextPid = f.getBucketId(tid, pages, meta, bucket);
+            }
+            HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                    nextPid, Permissions.READ_ONLY);
+            it = page.iterator();
+            nextPid = page.getNextPageNo() == 0 ? null
+                    : new HashPageId(f.getId(), page.getNextPageNo(), HashPageId.BUCKET);
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        meta = null;
+        it = null;
+        nextPid = null;
+        pages = null;
+    }
+}
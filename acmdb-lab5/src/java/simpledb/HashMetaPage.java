@@ -0,0 +1,220 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashMetaPage is the first page of a {@link HashIndexFile}. It holds the
+ * state of its linear hashing: the number of buckets the file started with,
+ * the level and the split pointer, which together give the number of
+ * buckets and the bucket of a hash value (see {@link #bucketOf}), the first
+ * of the bucket pages freed when their bucket shrank, which are chained
+ * through their next page number, and the page numbers of the
+ * HashDirectoryPages locating the buckets.
+ *
+ * @see HashDirectoryPage
+ */
+public class HashMetaPage implements Page {
+
+    private final HashPageId pid;
+    private int initialBuckets;
+    private int level;
+    private int next;
+    private int freePageNo;
+    private int numDirectoryPages;
+    private final int[] directoryPages;
+
+    private boolean dirty = false;
+    private TransactionId dirtier = null;
+    private byte[] oldData;
+
+    /**
+     * Constructor. Construct the HashMetaPage from a set of bytes of data read
+     * from disk. The format of a HashMetaPage is five integers: the number of
+     * buckets the file started with, the level, the split pointer, the page
+     * number of the first free page or 0 and the number of directory pages,
+     * followed by an integer per directory page, its page number. An all zero
+     * page is a meta page to initialize with {@link #init}.
+     */
+    public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        initialBuckets = dis.readInt();
+        level = dis.readInt();
+        next = dis.readInt();
+        freePageNo = dis.readInt();
+        numDirectoryPages = dis.readInt();
+        directoryPages = new int[maxDirectoryPages()];
+        for (int i = 0; i < numDirectoryPages; i++)
+            directoryPages[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the id of the meta page of a hash index file
+     */
+    public static HashPageId getId(int tableid) {
+        return new HashPageId(tableid, 0, HashPageId.META);
+    }
+
+    /**
+     * @return the number of directory pages a meta page can locate
+     */
+    public static int maxDirectoryPages() {
+        return BufferPool.getPageSize() / 4 - 5;
+    }
+
+    /**
+     * Sets up the state of an empty file of the given number of buckets, at
+     * level 0 with no bucket split yet, no free pages and no directory
+     * pages.
+     */
+    public void init(int initialBuckets) {
+        if (initialBuckets < 1)
+            throw new IllegalArgumentException("@HashMetaPage, no buckets");
+        this.initialBuckets = initialBuckets;
+        this.level = 0;
+        this.next = 0;
+        this.freePageNo = 0;
+        this.numDirectoryPages = 0;
+    }
+
+    /**
+     * @return the number of buckets the file started with
+     */
+    public int getInitialBuckets() {
+        return initialBuckets;
+    }
+
+    /**
+     * @return the number of times the buckets have all been split
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the next bucket to split
+     */
+    public int getNext() {
+        return next;
+    }
+
+    /**
+     * @return the number of buckets of the file
+     */
+    public int numBuckets() {
+        return (initialBuckets << level) + next;
+    }
+
+    /**
+     * @param hash
+     *            a hash value, at least 0
+     * @return the bucket holding the keys of the given hash value: the hash
+     *         modulo the number of buckets at this level, or at the next
+     *         level if that bucket has already been split
+     */
+    public int bucketOf(int hash) {
+        int b = hash % (initialBuckets << level);
+        if (b < next)
+            b = hash % (initialBuckets << (level + 1));
+        return b;
+    }
+
+    /**
+     * Moves the split pointer past the bucket just split, to the first
+     * bucket of the next level once all the buckets of this level are split.
+     */
+    public void advance() {
+        next++;
+        if (next == initialBuckets << level) {
+            level++;
+            next = 0;
+        }
+    }
+
+    /**
+     * @return the page number of the first free page, or 0 if there is none
+     */
+    public int getFreePageNo() {
+        return freePageNo;
+    }
+
+    public void setFreePageNo(int pgNo) {
+        this.freePageNo = pgNo;
+    }
+
+    /**
+     * @return the number of directory pages
+     */
+    public int getNumDirectoryPages() {
+        return numDirectoryPages;
+    }
+
+    /**
+     * @return the page number of the i-th directory page
+     */
+    public int getDirectoryPageNo(int i) {
+        if (i < 0 || i >= numDirectoryPages)
+            throw new IllegalArgumentException("@HashMetaPage, no directory page " + i);
+        return directoryPages[i];
+    }
+
+    /**
+     * Appends a directory page to the directory.
+     *
+     * @throws DbException if the meta page has no room for it
+     */
+    public void addDirectoryPage(int pgNo) throws DbException {
+        if (numDirectoryPages == directoryPages.length)
+            throw new DbException("@HashMetaPage, no room for another directory page");
+        directoryPages[numDirectoryPages++] = pgNo;
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(initialBuckets);
+            dos.writeInt(level);
+            dos.writeInt(next);
+            dos.writeInt(freePageNo);
+            dos.writeInt(numDirectoryPages);
+            for (int i = 0; i < numDirectoryPages; i++)
+                dos.writeInt(directoryPages[i]);
+            dos.write(new byte[BufferPool.getPageSize() - 20 - 4 * numDirectoryPages]);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty)
+            this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    public HashMetaPage getBeforeImage() {
+        try {
+            return new HashMetaPage(pid, oldData);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashScan reads the tuples of a {@link HashIndexFile} whose key satisfies
+ * a predicate. An equality predicate reads the bucket of its key only; the
+ * tuples come out in no particular order.
+ */
+public class HashScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final IndexPredicate ipred;
+    private final TupleDesc td;
+    private transient DbFileIterator it;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the hash index file to scan
+     * @param tableAlias
+     *            the alias of the table, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate on the key, or null to return all the tuples
+     */
+    public HashScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HashIndexFile))
+            throw new IllegalArgumentException("@HashScan, not a hash index file");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[tableTd.numFields()];
+        String[] names = new String[tableTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = tableAlias + "." + tableTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the name of the table in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the predicate on the key, or null if all the tuples are read
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HashIndexFile f = (HashIndexFile) Database.getCatalog().getDatabaseFile(tableid);
+        it = ipred == null ? f.iterator(tid) : f.indexIterator(tid, ipred);
+        it.open();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it.rewind();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+    }
+}
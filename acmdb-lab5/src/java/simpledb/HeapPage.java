@@ -73,6 +73,14 @@ public class HeapPage implements Page {
         return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
     }
 
+    /**
+     * @return the number of tuple slots of a page of a table with tuples of
+     *         the given TupleDesc
+     */
+    public static int numSlots(TupleDesc td) {
+        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -362,6 +370,15 @@ public class HeapPage implements Page {
         } 
     }
 
+    /**
+     * @return the tuple in slot i of this page, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots)
+            throw new NoSuchElementException("@HeapPage, no slot " + i);
+        return isSlotUsed(i) ? tuples[i] : null;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
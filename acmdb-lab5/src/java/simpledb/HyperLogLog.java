@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * HyperLogLog estimates the number of distinct values added to it in a
+ * fixed amount of memory: {@link #REGISTERS} one-byte registers, for a
+ * standard error of about 1.04 / sqrt(REGISTERS), i.e. 3.25%.
+ * <p>
+ * The 64 bit hash of a value picks a register with its first
+ * {@link #PRECISION} bits, and the register keeps the largest position of
+ * the first 1 bit seen among the remaining bits. Two sketches merge by
+ * taking the largest value of each register, so partial sketches, e.g. of
+ * the groups of an aggregate that spilled to disk, can be combined.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of hash bits choosing a register */
+    public static final int PRECISION = 10;
+
+    /** Number of registers */
+    public static final int REGISTERS = 1 << PRECISION;
+
+    /** Number of ints the registers are packed into by {@link #getWord} */
+    public static final int WORDS = REGISTERS / 4;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Adds a value to the sketch.
+     */
+    public void add(Field f) {
+        long h;
+        if (f.getType() == Type.INT_TYPE)
+            h = ((IntField) f).getValue();
+        else
+            h = ((StringField) f).getValue().hashCode() * 0x9e3779b97f4a7c15L;
+        addHash(mix(h));
+    }
+
+    /**
+     * Adds a value to the sketch by a well mixed 64 bit hash of it.
+     */
+    public void addHash(long hash) {
+        int r = (int) (hash >>> (64 - PRECISION));
+        // the remaining bits, with a stop bit so that the rank is bounded
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[r])
+            registers[r] = rank;
+    }
+
+    /**
+     * Adds the values of another sketch to this one.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double e = ALPHA * REGISTERS * REGISTERS / sum;
+        // small cardinalities are counted more precisely by the empty
+        // registers (linear counting)
+        if (e <= 2.5 * REGISTERS && zeros > 0)
+            e = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return Math.round(e);
+    }
+
+    /**
+     * @return four registers packed into an int, for i in [0, WORDS)
+     */
+    public int getWord(int i) {
+        int w = 0;
+        for (int k = 0; k < 4; k++)
+            w |= (registers[4 * i + k] & 0xff) << (8 * k);
+        return w;
+    }
+
+    /**
+     * Merges four registers packed by {@link #getWord} into this sketch.
+     */
+    public void mergeWord(int i, int w) {
+        for (int k = 0; k < 4; k++) {
+            byte r = (byte) (w >>> (8 * k));
+            if (r > registers[4 * i + k])
+                registers[4 * i + k] = r;
+        }
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements the relational join operation
+ * when the inner relation is stored in a BTreeFile keyed on the join field.
+ * Instead of scanning the inner relation, it probes the B+ tree with
+ * {@link BTreeFile#indexIterator} once per outer tuple.
+ * <p>
+ * Outer tuples are read in batches and each batch is sorted on the join key
+ * before probing, so consecutive probes descend to the same or neighbouring
+ * leaf pages, which are then likely to still be in the BufferPool.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of outer tuples sorted and probed together. */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private JoinPredicate joinPredicate;
+    private DbIterator childIt1;
+    private DbIterator childIt2;
+    private TupleDesc tupleDesc;
+    private int batchSize;
+
+    private TransactionId tid;
+    private BTreeFile innerFile;
+    private ArrayList<Predicate> innerPredicates;
+    private Predicate.Op probeOp;
+
+    private ArrayList<Tuple> batch;
+    private int batchPos;
+    private Tuple item1;
+    private transient DbFileIterator probe;
+
+    /**
+     * Constructor, using batches of {@link #DEFAULT_BATCH_SIZE} outer tuples.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The inner relation, a SeqScan over a BTreeFile keyed on the
+     *            right join field, possibly under Filters (see
+     *            {@link #isIndexable})
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The inner relation, a SeqScan over a BTreeFile keyed on the
+     *            right join field, possibly under Filters (see
+     *            {@link #isIndexable})
+     * @param batchSize
+     *            The number of outer tuples sorted and probed together
+     * @throws IllegalArgumentException
+     *             if child2 cannot be probed through an index, or the
+     *             predicate cannot be answered by a B+ tree search
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int batchSize) {
+        if (!isSupported(p.getOperator()))
+            throw new IllegalArgumentException("@IndexNestedLoopJoin, unsupported operator " + p.getOperator());
+        if (!isIndexable(child2, p.getField2()))
+            throw new IllegalArgumentException("@IndexNestedLoopJoin, inner relation has no index on the join field");
+        if (batchSize < 1)
+            throw new IllegalArgumentException("@IndexNestedLoopJoin, batch size must be positive");
+        this.joinPredicate = p;
+        this.childIt1 = child1;
+        this.childIt2 = child2;
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>();
+        initInner();
+    }
+
+    /**
+     * @return true if op can be answered by a B+ tree search
+     */
+    public static boolean isSupported(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if inner is a SeqScan, possibly under Filters, over a
+     *         BTreeFile whose key field is field
+     */
+    public static boolean isIndexable(DbIterator inner, int field) {
+        SeqScan scan = innerScan(inner);
+        if (scan == null)
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(scan.tableid);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    private static SeqScan innerScan(DbIterator inner) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        return inner instanceof SeqScan ? (SeqScan) inner : null;
+    }
+
+    private void initInner() {
+        SeqScan scan = innerScan(childIt2);
+        this.tid = scan.tid;
+        this.innerFile = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.tableid);
+        // the filters above the scan are applied to the probed tuples instead
+        this.innerPredicates = new ArrayList<>();
+        for (DbIterator it = childIt2; it instanceof Filter; it = ((Filter) it).getChildren()[0])
+            innerPredicates.add(((Filter) it).getPredicate());
+        // "outer op inner" is searched in the index as "inner reversed(op) outer"
+        switch (joinPredicate.getOperator()) {
+            case LESS_THAN:
+                probeOp = Predicate.Op.GREATER_THAN;
+                break;
+            case LESS_THAN_OR_EQ:
+                probeOp = Predicate.Op.GREATER_THAN_OR_EQ;
+                break;
+            case GREATER_THAN:
+                probeOp = Predicate.Op.LESS_THAN;
+                break;
+            case GREATER_THAN_OR_EQ:
+                probeOp = Predicate.Op.LESS_THAN_OR_EQ;
+                break;
+            default:
+                probeOp = joinPredicate.getOperator();
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return childIt1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return childIt2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        // the inner child is never scanned, only its index is probed
+        childIt1.open();
+        resetState();
+    }
+
+    public void close() {
+        childIt1.close();
+        resetState();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        childIt1.rewind();
+        resetState();
+    }
+
+    private void resetState() {
+        if (probe != null)
+            probe.close();
+        probe = null;
+        item1 = null;
+        batch.clear();
+        batchPos = 0;
+    }
+
+    /**
+     * Read the next batch of outer tuples and sort it on the join key.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean nextBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        batchPos = 0;
+        while (batch.size() < batchSize && childIt1.hasNext())
+            batch.add(childIt1.next());
+        batch.sort(new TupleComparator(joinPredicate.getField1(), true));
+        return !batch.isEmpty();
+    }
+
+    private boolean passesInnerFilters(Tuple t) {
+        for (Predicate p : innerPredicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The output tuples are the concatenation of the joining
+     * tuples from the left and right relation, as in {@link Join}; within a
+     * batch they are produced in join key order.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null) {
+                while (probe.hasNext()) {
+                    Tuple item2 = probe.next();
+                    if (passesInnerFilters(item2))
+                        return Tuple.merge(item1, item2);
+                }
+                probe.close();
+                probe = null;
+            }
+            if (batchPos >= batch.size() && !nextBatch())
+                return null;
+            item1 = batch.get(batchPos++);
+            probe = innerFile.indexIterator(tid,
+                    new IndexPredicate(probeOp, item1.getField(joinPredicate.getField1())));
+            probe.open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{childIt1, childIt2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        assert children.length == 2;
+        childIt1 = children[0];
+        childIt2 = children[1];
+        initInner();
+    }
+
+}
@@ -17,6 +17,8 @@ public class JoinOptimizer {
     Vector<LogicalJoinNode> joins;
     PlanCache planCaChe;
 
+    private static int parallelism = 1;
+
     /**
      * Constructor
      * 
@@ -31,6 +33,31 @@ public class JoinOptimizer {
         this.planCaChe = new PlanCache();
     }
 
+    /**
+     * @return the degree of parallelism of the equality joins that are not
+     *         evaluated by a merge join or an index, and of the scans and
+     *         exchanges of plans over large tables (see
+     *         {@link LogicalPlan#setParallel}); 1, the default, for serial
+     *         plans
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the degree of parallelism of the equality joins: above 1 they are
+     * evaluated by a {@link ParallelHashJoin} with that many partitions, and
+     * by a {@link HashEquiJoin} otherwise. The same goes for the
+     * {@link ParallelSeqScan}s and {@link Exchange}s of plans over large
+     * tables. The default, 1, keeps plans on the caller's thread whatever
+     * the number of processors.
+     */
+    public static void setParallelism(int dop) {
+        if (dop < 1)
+            throw new IllegalArgumentException("@JoinOptimizer, dop must be positive");
+        parallelism = dop;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -48,6 +75,19 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, parallelism);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)} does,
+     * for a given degree of parallelism.
+     *
+     * @param dop
+     *            the degree of parallelism, 1 for a serial plan
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int dop) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -72,10 +112,28 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (p.getOperator() == Predicate.Op.EQUALS)
+        if (lj instanceof LogicalSubplanJoinNode) {
+            LogicalSubplanJoinNode.Kind kind = ((LogicalSubplanJoinNode) lj).kind;
+            if (kind == LogicalSubplanJoinNode.Kind.SEMI)
+                return new SemiJoin(p, plan1, plan2);
+            if (kind == LogicalSubplanJoinNode.Kind.ANTI)
+                return new AntiJoin(p, plan1, plan2);
+        }
+
+        boolean ordered1 = OperatorOrdering.isAscendingOn(plan1, t1id);
+        boolean ordered2 = OperatorOrdering.isAscendingOn(plan2, t2id);
+        boolean indexed2 = !(lj instanceof LogicalSubplanJoinNode)
+                && IndexNestedLoopJoin.isIndexable(plan2, t2id);
+        if (useSortMerge(p.getOperator(), ordered1, ordered2))
+            j = new SortMergeJoin(p, plan1, plan2, ordered1, ordered2);
+        else if (useIndexNestedLoop(p.getOperator(), ordered1, indexed2))
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        else if (p.getOperator() == Predicate.Op.EQUALS && dop > 1)
+            j = new ParallelHashJoin(p, plan1, plan2, dop);
+        else if (p.getOperator() == Predicate.Op.EQUALS)
             j = new HashEquiJoin(p, plan1, plan2); // to speed up
         else
-            j = new Join(p,plan1,plan2);
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
 
         return j;
 
@@ -107,6 +165,137 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of a join, knowing whether the inputs arrive sorted on
+     * their join fields. This is the cost of the join algorithm that
+     * {@link #instantiateJoin} picks for such inputs: a sort-merge join if
+     * the inputs are ordered (see {@link #useSortMerge}), an index nested
+     * loop join if the inner table is a BTreeFile keyed on the join field
+     * (see {@link #useIndexNestedLoop}), and otherwise the same as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     *
+     * @param t1Ordered
+     *            Is the left-hand side ordered on the join field?
+     * @param t2Ordered
+     *            Is the right-hand side ordered on the join field? For a base
+     *            table this means it is a BTreeFile keyed on the join field,
+     *            which is also what an index nested loop join needs.
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean t1Ordered, boolean t2Ordered) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, t1Ordered, t2Ordered,
+                p.isParallel() ? parallelism : 1);
+    }
+
+    /**
+     * Estimate the cost of a join, as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean, boolean)}
+     * does, for a given degree of parallelism. Only the hash join runs in
+     * parallel: its inputs are still read by a single thread, but the probes
+     * are split across dop partitions (see {@link ParallelHashJoin}).
+     *
+     * @param dop
+     *            the degree of parallelism, 1 for a serial plan
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean t1Ordered, boolean t2Ordered,
+            int dop) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return estimateNonMergeJoinCost(j, card1, card2, cost1, cost2, dop);
+        if (useSortMerge(j.p, t1Ordered, t2Ordered))
+            // one pass over each input
+            return cost1 + cost2 + card1 + card2;
+        BTreeFile index = t2Ordered ? innerIndex(j) : null;
+        if (useIndexNestedLoop(j.p, t1Ordered, index != null))
+            return estimateIndexNestedLoopCost(j, index, card1, card2, cost1, cost2);
+        return estimateNonMergeJoinCost(j, card1, card2, cost1, cost2, dop);
+    }
+
+    /**
+     * @return true if a join with operator op over inputs with the given
+     *         ordering should be evaluated by a {@link SortMergeJoin}: an
+     *         equality with both inputs ordered
+     */
+    static boolean useSortMerge(Predicate.Op op, boolean t1Ordered, boolean t2Ordered) {
+        return SortMergeJoin.isSupported(op) && t1Ordered && t2Ordered;
+    }
+
+    /**
+     * @return true if an equality join should probe the index of the inner
+     *         (right) input with an {@link IndexNestedLoopJoin}, instead of
+     *         building a hash table over all of it. A merge join is preferred
+     *         when both inputs are ordered, as it reads the inner relation
+     *         only once.
+     */
+    static boolean useIndexNestedLoop(Predicate.Op op, boolean t1Ordered, boolean t2Indexed) {
+        return op == Predicate.Op.EQUALS && t2Indexed
+                && !useSortMerge(op, t1Ordered, true);
+    }
+
+    /**
+     * @return the BTreeFile of the right-hand table of j if it is keyed on the
+     *         join field, or null
+     */
+    private BTreeFile innerIndex(LogicalJoinNode j) {
+        Integer tableId = j.t2Alias == null ? null : p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return null;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return null;
+        int keyField = ((BTreeFile) f).keyField();
+        return f.getTupleDesc().getFieldName(keyField).equals(j.f2PureName)
+                ? (BTreeFile) f : null;
+    }
+
+    /**
+     * Cost of an index nested loop join: one scan of the outer input, and
+     * for every outer tuple a descent through the B+ tree followed by
+     * reading the matching inner tuples.
+     */
+    private double estimateIndexNestedLoopCost(LogicalJoinNode j, BTreeFile index,
+            int card1, int card2, double cost1, double cost2) {
+        double pageCost = cost2 / max(1, index.numPages());
+        double matches = (double) estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, card1, card2, false,
+                isPkey(j.t2Alias, j.f2PureName), null, null) / max(1, card1);
+        double perMatch = cost2 / max(1, card2) + 1;
+        return cost1 + card1 * (estimateIndexHeight(index) * pageCost + matches * perMatch);
+    }
+
+    /**
+     * Estimate the number of levels of a B+ tree, from its number of pages and
+     * the fanout of its internal pages (see BTreeInternalPage.getMaxEntries)
+     */
+    private static int estimateIndexHeight(BTreeFile index) {
+        int keySize = index.getTupleDesc().getFieldType(index.keyField()).getLen();
+        int indexSize = Type.INT_TYPE.getLen();
+        int fanout = (BufferPool.getPageSize() * 8 - (2 * indexSize * 8 + 8 + 1))
+                / (keySize * 8 + indexSize * 8 + 1) + 1;
+        int pages = max(1, index.numPages());
+        return 1 + (int) ceil(log(pages) / log(max(2, fanout)));
+    }
+
+    /**
+     * Estimate how many outer tuples fit in one block of a
+     * {@link BlockNestedLoopJoin}, based on the width of the outer table (the
+     * width of an intermediate result is not tracked).
+     */
+    private int estimateBlockTuples(String outerAlias) {
+        int blockBytes = BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES * BufferPool.getPageSize();
+        Integer tableId = p.getTableId(outerAlias);
+        if (tableId == null)
+            return BlockNestedLoopJoin.blockTuples(blockBytes,
+                    new TupleDesc(new Type[]{Type.INT_TYPE}));
+        return BlockNestedLoopJoin.blockTuples(blockBytes,
+                Database.getCatalog().getTupleDesc(tableId));
+    }
+
+    private double estimateNonMergeJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, int dop) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
@@ -116,12 +305,18 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            if (j.p.equals(Predicate.Op.EQUALS))
+            if (j.p.equals(Predicate.Op.EQUALS) && dop > 1)
+                // using ParallelHashJoin: one partitioning pass over each
+                // input, then the partitions are probed concurrently
+                return cost1 + cost2 + card1 + card2 + (double) card1 * card2 / dop;
+            else if (j.p.equals(Predicate.Op.EQUALS))
                 // using HashEquiJoin
                 return cost1 + cost2 + card1 * card2;
-            else
-                // normal nested join
-                return  cost1 + cost1 * card2 + card1 * card2;
+            else {
+                // block nested loop join, one scan of the inner table per outer block
+                double blocks = ceil((double) card1 / estimateBlockTuples(j.t1Alias));
+                return cost1 + blocks * cost2 + (double) card1 * card2;
+            }
         }
     }
 
@@ -253,6 +448,8 @@ public class JoinOptimizer {
 
         // some code goes here
         //Replace the following
+        if (joins.isEmpty()) // single table query, nothing to order
+            return joins;
         for (int i = 0; i <= joins.size(); ++i) {
             Set<Set<LogicalJoinNode>> subsets = enumerateSubsets(joins, i);
             Iterator<Set<LogicalJoinNode>> subsetIter = subsets.iterator();
@@ -325,12 +522,13 @@ public class JoinOptimizer {
 
         if (this.p.getTableId(j.t1Alias) == null)
             throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
+        // a join with a subquery has no right-hand table
+        if (j.t2Alias != null && this.p.getTableId(j.t2Alias) == null)
             throw new ParsingException("Unknown table " + j.t2Alias);
 
         String table1Name = Database.getCatalog().getTableName(
                 this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
+        String table2Name = j.t2Alias == null ? null : Database.getCatalog().getTableName(
                 this.p.getTableId(j.t2Alias));
         String table1Alias = j.t1Alias;
         String table2Alias = j.t2Alias;
@@ -342,6 +540,7 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        boolean leftOrdered, rightOrdered;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -357,6 +556,9 @@ public class JoinOptimizer {
                             filterSelectivities.get(j.t2Alias));
             rightPkey = table2Alias == null ? false : isPkey(table2Alias,
                     j.f2PureName);
+            leftOrdered = isOrdered(j.t1Alias, j.f1PureName);
+            rightOrdered = table2Alias == null ? false : isOrdered(table2Alias,
+                    j.f2PureName);
         } else {
             // news is not empty -- figure best way to join j to news
             prevBest = pc.getOrder(news);
@@ -385,6 +587,10 @@ public class JoinOptimizer {
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
                         j.f2PureName);
+                // the order of an intermediate result is not tracked
+                leftOrdered = false;
+                rightOrdered = j.t2Alias == null ? false : isOrdered(j.t2Alias,
+                        j.f2PureName);
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
@@ -397,6 +603,8 @@ public class JoinOptimizer {
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
                 leftPkey = isPkey(j.t1Alias, j.f1PureName);
+                leftOrdered = isOrdered(j.t1Alias, j.f1PureName);
+                rightOrdered = false;
 
             } else {
                 // don't consider this plan if one of j.t1 or j.t2
@@ -406,10 +614,12 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                leftOrdered, rightOrdered);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                rightOrdered, leftOrdered);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -460,6 +670,23 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
+    /**
+     * Return true if a scan of the specified table produces tuples in order of
+     * field, i.e. the table is a BTreeFile keyed on field
+     *
+     * @param tableAlias
+     *            The alias of the table in the query
+     * @param field
+     *            The pure name of the field
+     */
+    private boolean isOrdered(String tableAlias, String field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(p.getTableId(tableAlias));
+        if (!(f instanceof BTreeFile))
+            return false;
+        int keyField = ((BTreeFile) f).keyField();
+        return f.getTupleDesc().getFieldName(keyField).equals(field);
+    }
+
     /**
      * Return true if a primary key field is joined by one of the joins in
      * joinlist
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT/OFFSET: it skips the first
+ * offset tuples of its child and then returns at most limit tuples. Once the
+ * limit is reached it stops pulling tuples from its child.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int limit;
+    private int offset;
+    private int returned;
+    private boolean skipped;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return
+     * @param offset
+     *            the number of tuples to skip first
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, int offset, DbIterator child) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("@Limit, limit and offset must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child.open();
+        returned = 0;
+        skipped = false;
+    }
+
+    public void close() {
+        child.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+        skipped = false;
+    }
+
+    /**
+     * @return the next tuple of the child after the first offset ones, or
+     *         null once limit tuples have been returned
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit)
+            return null;
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); i++)
+                child.next();
+            skipped = true;
+        }
+        if (!child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -71,6 +71,10 @@ public class Lock {
         return tid.equals(exclusiveLock);
     }
 
+    public boolean exclusive_by_other(TransactionId tid) {
+        return exclusiveLock != null && !exclusiveLock.equals(tid);
+    }
+
     public HashSet<TransactionId> get_to_nodes(){
         HashSet<TransactionId> transactionIds = new HashSet<>(sharedLocks);
         if (exclusiveLock != null) {
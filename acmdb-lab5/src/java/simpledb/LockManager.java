@@ -98,8 +98,8 @@ public class LockManager {
     }
 
     public void acquire_lock(Permissions perm, TransactionId tid, PageId pid) throws TransactionAbortedException {
-        if (! pid2LockTable.containsKey(pid))
-            pid2LockTable.put(pid, new Lock(pid));
+        // atomically, as the workers of a parallel scan may ask concurrently
+        pid2LockTable.computeIfAbsent(pid, Lock::new);
 //        if (holding_lock(tid, pid)) // already holding the lock
 //            return;
         //try to get
@@ -126,6 +126,23 @@ public class LockManager {
         tid2PagesTable.get(tid).add(pid); // this Transaction holds pid
     }
 
+    /**
+     * Acquires the lock only if no other transaction holds a conflicting
+     * lock, without waiting
+     *
+     * @return true if the lock is acquired
+     */
+    public boolean try_acquire_lock(Permissions perm, TransactionId tid, PageId pid) {
+        Lock lock = pid2LockTable.computeIfAbsent(pid, Lock::new);
+        synchronized (lock) {
+            if (!lock.acquire_lock(perm, tid))
+                return false;
+        }
+        tid2PagesTable.putIfAbsent(tid, new ConcurrentLinkedDeque<>());
+        tid2PagesTable.get(tid).add(pid);
+        return true;
+    }
+
     public void release_page(TransactionId tid, PageId pid) {
 //        System.out.println(String.format("%s try release %s", tid, pid));
         synchronized (pid2LockTable.get(pid)) {
@@ -154,8 +171,25 @@ public class LockManager {
     }
 
     public boolean holding_lock(TransactionId tid, PageId pid){
-        synchronized (pid2LockTable.get(pid)) {
-            return pid2LockTable.get(pid).holding_lock(tid);
+        Lock lock = pid2LockTable.get(pid);
+        if (lock == null)
+            // never locked
+            return false;
+        synchronized (lock) {
+            return lock.holding_lock(tid);
+        }
+    }
+
+    /**
+     * @return true if a transaction other than tid holds the write lock on
+     *         the page
+     */
+    public boolean is_exclusive_by_other(TransactionId tid, PageId pid) {
+        Lock lock = pid2LockTable.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.exclusive_by_other(tid);
         }
     }
 
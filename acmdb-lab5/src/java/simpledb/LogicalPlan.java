@@ -2,19 +2,22 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, group by fields and aggregates.
+ * All the aggregates of a query are computed by a single {@link Aggregate}
+ * over a possibly composite group key.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,12 +32,22 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
+    private int offset = 0;
+    private boolean distinct = false;
+    private boolean parallel = false;
+    private boolean lateMaterialization = false;
+    private boolean indexScans = true;
+    // the sampled tables by alias: the percentage of pages read, and the seed
+    private HashMap<String,Double> samplePercents = new HashMap<String,Double>();
+    private HashMap<String,Long> sampleSeeds = new HashMap<String,Long>();
     private String query;
 //    private Query owner;
 
@@ -156,6 +169,33 @@ public class LogicalPlan {
         joins.addElement(lj);
     }
 
+    /** Add a semi-join (or anti-join) with a subquery to the plan: the
+     *  tuples of the table of joinField1 are kept if joinField1 equals (or
+     *  does not equal) the first field of some tuple of the subquery.
+     *  Nothing of the subquery is returned.
+     *
+     *  @param joinField1 The name of the outer join field; this can
+     *  be a fully qualified name (e.g., tableName.field or
+     *  alias.field) or may be an unqualified unique field name.
+     *  @param subplan the subquery, whose first field is the inner join field
+     *  @param anti true for NOT IN / NOT EXISTS, false for IN / EXISTS
+     *  @throws ParsingException if the field is ambiguous, or is not in one
+     *      of the tables added via {@link #addScan}
+     */
+    public void addSemiJoin(String joinField1, DbIterator subplan, boolean anti) throws ParsingException {
+        joinField1 = disambiguateName(joinField1);
+
+        String table1 = joinField1.split("[.]")[0];
+        String pureField = joinField1.split("[.]")[1];
+
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1, pureField, subplan,
+                Predicate.Op.EQUALS, anti ? LogicalSubplanJoinNode.Kind.ANTI
+                        : LogicalSubplanJoinNode.Kind.SEMI);
+        System.out.println("Added subplan " + lj.kind.toString().toLowerCase()
+                + "-join on " + joinField1);
+        joins.addElement(lj);
+    }
+
     /** Add a scan to the plan. One scan node needs to be added for each alias of a table
         accessed by the plan.
         @param table the id of the table accessed by the plan (can be resolved to a DbFile using {@link Catalog#getDatabaseFile}
@@ -168,6 +208,21 @@ public class LogicalPlan {
         tableMap.put(name,table);
     }
 
+    /** Read only a sample of the pages of a table added via {@link #addScan},
+        with a {@link SampleScan}. The aggregates of the query are then
+        estimates over the whole table: each SUM, COUNT and AVG of the select
+        list is followed in the output by the half-width of its 95% confidence
+        interval.
+        @param name the alias of the table in the plan
+        @param percent the probability that a page is read, in percent
+        @param seed the seed of the choice of the pages, or null for a random one
+    */
+    public void addSample(String name, double percent, Long seed) {
+        System.out.println("Added sample of " + percent + "% of table " + name);
+        samplePercents.put(name, percent);
+        sampleSeeds.put(name, seed);
+    }
+
     /** Add a specified field/aggregate combination to the select list of the query.
         Fields are output by the query such that the rightmost field is the first added via addProjectField.
         @param fname the field to add to the output
@@ -186,36 +241,123 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        if (gfield != null)
+            addGroupBy(gfield);
+        addAggregate(op, afield);
+    }
+
+    /** Add an aggregate over the field to the query. All the aggregates of
+        a query are computed in a single pass, grouped by the fields added
+        via {@link #addGroupBy}.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.elementAt(i).equals(op) && aggFields.elementAt(i).equals(afield))
+                return;
+        }
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query. When called several times, the
+        groups are formed on all the fields.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  When called
+        several times, the fields are sorted on in the order they were added.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
         hasOrderBy = true;
     }
 
+    /** Restrict the result to limit tuples, after skipping the first offset ones.
+        @param limit the maximum number of tuples to return
+        @param offset the number of tuples to skip
+     * @throws ParsingException if limit or offset is negative
+    */
+    public void setLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0)
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /** Return each distinct result tuple once (SELECT DISTINCT).  Duplicates are
+        removed before the ORDER BY and LIMIT are applied.
+        @param distinct true to remove duplicate result tuples
+    */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    /** Allow parts of the physical plan to run on worker threads when
+        {@link JoinOptimizer#getParallelism} is above 1: the equality joins
+        (see {@link ParallelHashJoin}), the scans of large heap
+        files (see {@link ParallelSeqScan}), and the aggregates, DISTINCT and
+        subquery joins over large inputs (see {@link Exchange}).  These change
+        the order of the result tuples, so plans run on the caller's thread
+        unless asked otherwise.  Plans whose tuples are modified while they
+        are read, such as the child of a Delete, must not.
+        @param parallel false, the default, to run the whole plan on the
+        caller's thread
+    */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /** @return false if the whole plan runs on the caller's thread
+        (see {@link #setParallel})
+    */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /** Read the tuples passing a filter through a B+ tree or hash index,
+        when that is cheaper than scanning the table (see {@link BTreeScan},
+        {@link HashScan} and {@link SecondaryIndexScan}).  Plans whose tuples
+        are deleted while they are read must not, as the deletes change the
+        indexes walked.
+        @param indexScans false to scan the tables sequentially
+    */
+    public void setIndexScans(boolean indexScans) {
+        this.indexScans = indexScans;
+    }
+
+    /** Scan the heap files with {@link RecordIdScan}s that return only the
+        fields read by the filters and joins, and read the other fields the
+        query needs with a {@link Fetch} above the joins, for the tuples left
+        by then only. Queries selecting * read whole tuples.
+        @param late true to materialize the tuples late
+    */
+    public void setLateMaterialization(boolean late) {
+        this.lateMaterialization = late;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -268,6 +410,7 @@ public class LogicalPlan {
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
+        if (s.equals("APPROX_COUNT_DISTINCT")) return Aggregator.Op.APPROX_COUNT_DISTINCT;
         throw new ParsingException("Unknown predicate " + s);
     }
 
@@ -289,20 +432,42 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,int[][]> lateFields = lateMaterialization
+                ? lateFields() : new HashMap<String,int[][]>();
+        // the filters applied by index scans rather than by Filters
+        HashSet<LogicalFilterNode> indexFilters = new HashSet<LogicalFilterNode>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            DbIterator ss = null;
+            Double percent = samplePercents.get(table.alias);
+            String baseTableName = Database.getCatalog().getTableName(table.t);
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                int id = Database.getCatalog().getDatabaseFile(table.t).getId();
+                if (percent == null && indexScans)
+                    ss = indexScan(t, table, baseTableStats.get(baseTableName), indexFilters);
+                if (ss != null) {
+                    // the index scan returns whole tuples, or all the fields
+                    // the query uses
+                    lateFields.remove(table.alias);
+                } else if (percent == null && lateFields.containsKey(table.alias))
+                    ss = new RecordIdScan(t, id, table.alias, lateFields.get(table.alias)[0]);
+                else if (percent == null)
+                    ss = new SeqScan(t, id, table.alias);
+                else if (sampleSeeds.get(table.alias) == null)
+                    ss = new SampleScan(t, id, table.alias, percent);
+                else
+                    ss = new SampleScan(t, id, table.alias, percent, sampleSeeds.get(table.alias));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
+            } catch (IllegalArgumentException e) {
+                throw new ParsingException(e);
             }
             
             subplanMap.put(table.alias,ss);
-            String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
-            filterSelectivities.put(table.alias, 1.0);
+            // a sample keeps each tuple with the probability it is read with
+            filterSelectivities.put(table.alias, percent == null ? 1.0 : percent / 100);
 
         }
 
@@ -323,10 +488,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = constant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -334,15 +496,22 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexFilters.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the field of the table, the scan may return only some of them
+            int field = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                    .fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(field, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        if (parallel)
+            parallelizeScans(t);
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -382,7 +551,26 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            int dop = parallelism(estimatedRows(t1name, equivMap, statsMap, filterSelectivities));
+            if (isSubqueryJoin && ((LogicalSubplanJoinNode) lj).kind != LogicalSubplanJoinNode.Kind.JOIN
+                    && dop > 1) {
+                // each fragment checks its share of the outer tuples against all of the subquery
+                int f1;
+                try {
+                    f1 = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+                }
+                Repartition[] outer = Repartition.split(plan1, f1, dop);
+                Broadcast[] inner = Broadcast.copy(plan2, dop);
+                DbIterator[] fragments = new DbIterator[dop];
+                for (int k = 0; k < dop; k++)
+                    fragments[k] = jo.instantiateJoin(lj, outer[k], inner[k]);
+                j = new Gather(fragments);
+            } else {
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2,
+                        parallel ? JoinOptimizer.getParallelism() : 1);
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -407,6 +595,24 @@ public class LogicalPlan {
         }
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
+        if (!lateFields.isEmpty()) {
+            // the rest of the fields of the tuples left
+            int[] ids = new int[lateFields.size()];
+            String[] aliases = new String[lateFields.size()];
+            int[][] fields = new int[lateFields.size()][];
+            int k = 0;
+            for (Map.Entry<String,int[][]> e : lateFields.entrySet()) {
+                ids[k] = getTableId(e.getKey());
+                aliases[k] = e.getKey();
+                fields[k++] = e.getValue()[1];
+            }
+            node = new Fetch(t, node, ids, aliases, fields);
+        }
+
+        // the probability that a tuple of the joined tables is read
+        double fraction = 1.0;
+        for (double percent : samplePercents.values())
+            fraction *= percent / 100;
 
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
@@ -414,7 +620,15 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // the aggregates follow the group by fields in the output
+                int agg = -1;
+                for (int k = 0; k < aggOps.size(); k++) {
+                    if (aggOps.elementAt(k).equals(si.aggOp) && aggFields.elementAt(k).equals(si.fname))
+                        agg = k;
+                }
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed");
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -424,18 +638,29 @@ public class LogicalPlan {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                if (HashAggregation.isBounded(getAggOp(si.aggOp), fraction)) {
+                    // the bounds of the estimates follow all the aggregates
+                    int bound = groupByFields.size() + aggOps.size();
+                    for (int k = 0; k < agg; k++) {
+                        if (HashAggregation.isBounded(getAggOp(aggOps.elementAt(k)), fraction))
+                            bound++;
+                    }
+                    outFields.add(bound);
+                    outTypes.add(Type.INT_TYPE);
+                }
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -458,14 +683,35 @@ public class LogicalPlan {
                 }
         }
 
+        int dop = parallelism(estimatedRows(null, equivMap, statsMap, filterSelectivities));
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int k = 0; k < gfields.length; k++)
+                    gfields[k] = td.fieldNameToIndex(groupByFields.elementAt(k));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int k = 0; k < afields.length; k++) {
+                    afields[k] = td.fieldNameToIndex(aggFields.elementAt(k));
+                    aops[k] = getAggOp(aggOps.elementAt(k));
+                }
+                if (fraction < 1) {
+                    aggNode = new Aggregate(node, afields, gfields, aops, fraction);
+                } else if (OperatorOrdering.isGroupedOn(node, gfields)) {
+                    // groups arrive one after the other, no hash table needed
+                    aggNode = new StreamingAggregate(node, afields, gfields, aops);
+                } else if (gfields.length > 0 && dop > 1) {
+                    // each group is aggregated whole by one of the fragments
+                    Repartition[] parts = Repartition.split(node, gfields[0], dop);
+                    DbIterator[] fragments = new DbIterator[dop];
+                    for (int k = 0; k < dop; k++)
+                        fragments[k] = new Aggregate(parts[k], afields, gfields, aops);
+                    aggNode = new Gather(fragments);
+                } else {
+                    aggNode = new Aggregate(node, afields, gfields, aops);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,11 +720,305 @@ public class LogicalPlan {
             node = aggNode;
         }
 
+        if (distinct) {
+            // the ORDER BY fields must then be among the projected ones
+            DbIterator project = new Project(outFields, outTypes, node);
+            if (hasAgg || dop <= 1)
+                return orderAndLimit(new Distinct(project));
+            // equal tuples always land in the same fragment
+            Repartition[] parts = Repartition.split(project, 0, dop);
+            DbIterator[] fragments = new DbIterator[dop];
+            for (int k = 0; k < dop; k++)
+                fragments[k] = new Distinct(parts[k]);
+            return orderAndLimit(new Gather(fragments));
+        }
+        return new Project(outFields, outTypes, orderAndLimit(node));
+    }
+
+    /**
+     * @return the constant of a filter on a field of the given type
+     */
+    private static Field constant(Type type, String c) {
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(c));
+        return new StringField(c, Type.STRING_LEN);
+    }
+
+    /**
+     * Picks the filter of a table to apply through an index: the one that
+     * compares the key field of a B+ tree file, or a field of a heap file with
+     * a {@link SecondaryIndex}, to a constant by a range or equality, or the
+     * key field of a hash index file or a field with a hash index to a
+     * constant by equality, and whose matching tuples cost the least to read
+     * through the index, if that costs less than scanning the whole file.
+     * A secondary index covering all the fields of the table the query uses
+     * is read without the heap file, and may be scanned whole without a
+     * filter.
+     *
+     * @param indexFilters
+     *            the filters applied by index scans, to add the filter to
+     * @return the index scan, or null to scan the table sequentially
+     */
+    private DbIterator indexScan(TransactionId t, LogicalScanNode table, TableStats stats,
+            Set<LogicalFilterNode> indexFilters) {
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        if (stats == null)
+            return null;
+        TupleDesc td = f.getTupleDesc();
+        Set<Integer> used = usedFields(table);
+        LogicalFilterNode best = null;
+        SecondaryIndex bestIndex = null;
+        boolean bestIndexOnly = false;
+        double bestCost = stats.estimateScanCost();
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(f.getId())) {
+            if (used != null && index.covers(used) && !index.isHash()
+                    && stats.estimateIndexOnlyScanCost(index, 1.0) < bestCost) {
+                bestIndex = index;
+                bestIndexOnly = true;
+                bestCost = stats.estimateIndexOnlyScanCost(index, 1.0);
+            }
+        }
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || lf.p == Predicate.Op.NOT_EQUALS
+                    || lf.p == Predicate.Op.LIKE)
+                continue;
+            int field;
+            double sel;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                sel = stats.estimateSelectivity(field, lf.p, constant(td.getFieldType(field), lf.c));
+            } catch (NoSuchElementException e) {
+                // reported when the filters are built
+                continue;
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            boolean equality = lf.p == Predicate.Op.EQUALS;
+            boolean keyed = f instanceof BTreeFile && ((BTreeFile) f).keyField() == field
+                    || equality && f instanceof HashIndexFile
+                            && ((HashIndexFile) f).keyField() == field;
+            if (keyed && stats.estimateIndexScanCost(sel) < bestCost) {
+                best = lf;
+                bestIndex = null;
+                bestIndexOnly = false;
+                bestCost = stats.estimateIndexScanCost(sel);
+            }
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(f.getId())) {
+                if (index.getField() != field || !equality && index.isHash())
+                    continue;
+                boolean indexOnly = used != null && index.covers(used);
+                double cost = indexOnly ? stats.estimateIndexOnlyScanCost(index, sel)
+                        : stats.estimateIndexScanCost(index, sel);
+                if (cost < bestCost) {
+                    best = lf;
+                    bestIndex = index;
+                    bestIndexOnly = indexOnly;
+                    bestCost = cost;
+                }
+            }
+        }
+        if (best == null && bestIndexOnly)
+            return new SecondaryIndexScan(t, bestIndex, table.alias, null, true);
+        if (best == null)
+            return null;
+        // the index returns exactly the tuples passing the filter
+        indexFilters.add(best);
+        Type type = td.getFieldType(td.fieldNameToIndex(best.fieldPureName));
+        IndexPredicate ipred = new IndexPredicate(best.p, constant(type, best.c));
+        if (bestIndex == null && f instanceof HashIndexFile)
+            return new HashScan(t, f.getId(), table.alias, ipred);
+        if (bestIndex == null)
+            return new BTreeScan(t, f.getId(), table.alias, ipred);
+        return new SecondaryIndexScan(t, bestIndex, table.alias, ipred, bestIndexOnly);
+    }
+
+    /**
+     * @return the names of the fields the query outputs, groups, aggregates
+     *         or orders by; a name starting with "null." stands for whole
+     *         tuples
+     */
+    private Vector<String> usedNames() {
+        Vector<String> used = new Vector<String>();
+        for (LogicalSelectListNode si : selectList)
+            used.add(si.fname);
+        used.addAll(groupByFields);
+        used.addAll(aggFields);
+        used.addAll(oByFields);
+        return used;
+    }
+
+    /**
+     * @return the fields of the table of a scan read by the query, through
+     *         its filters, joins or output, or null if whole tuples are
+     *         needed
+     */
+    private Set<Integer> usedFields(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        TreeSet<Integer> result = new TreeSet<Integer>();
+        try {
+            for (LogicalFilterNode lf : filters) {
+                if (lf.tableAlias.equals(table.alias))
+                    result.add(td.fieldNameToIndex(lf.fieldPureName));
+            }
+            for (LogicalJoinNode lj : joins) {
+                if (lj.t1Alias.equals(table.alias))
+                    result.add(td.fieldNameToIndex(lj.f1PureName));
+                if (!(lj instanceof LogicalSubplanJoinNode) && lj.t2Alias.equals(table.alias))
+                    result.add(td.fieldNameToIndex(lj.f2PureName));
+            }
+            for (String name : usedNames()) {
+                if (name.startsWith("null."))
+                    return null;
+                int dot = name.indexOf('.');
+                if (name.substring(0, dot).equals(table.alias))
+                    result.add(td.fieldNameToIndex(name.substring(dot + 1)));
+            }
+        } catch (NoSuchElementException e) {
+            // reported when the plan is built with whole tuples
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return for each table to scan with a {@link RecordIdScan}, by alias,
+     *         the fields of the table read by its filters and joins, then the
+     *         other fields the query needs; empty if whole tuples are needed
+     */
+    private HashMap<String,int[][]> lateFields() {
+        HashMap<String,int[][]> result = new HashMap<String,int[][]>();
+        Vector<String> used = usedNames();
+        for (String name : used) {
+            if (name.startsWith("null."))
+                return result;
+        }
+
+        for (LogicalScanNode table : tables) {
+            if (samplePercents.containsKey(table.alias)
+                    || !(Database.getCatalog().getDatabaseFile(table.t) instanceof HeapFile))
+                continue;
+            TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+            TreeSet<Integer> early = new TreeSet<Integer>();
+            TreeSet<Integer> late = new TreeSet<Integer>();
+            try {
+                for (LogicalFilterNode lf : filters) {
+                    if (lf.tableAlias.equals(table.alias))
+                        early.add(td.fieldNameToIndex(lf.fieldPureName));
+                }
+                for (LogicalJoinNode lj : joins) {
+                    if (lj.t1Alias.equals(table.alias))
+                        early.add(td.fieldNameToIndex(lj.f1PureName));
+                    if (!(lj instanceof LogicalSubplanJoinNode) && lj.t2Alias.equals(table.alias))
+                        early.add(td.fieldNameToIndex(lj.f2PureName));
+                }
+                for (String name : used) {
+                    int dot = name.indexOf('.');
+                    if (name.substring(0, dot).equals(table.alias))
+                        late.add(td.fieldNameToIndex(name.substring(dot + 1)));
+                }
+            } catch (NoSuchElementException e) {
+                // reported when the plan is built with whole tuples
+                continue;
+            }
+            late.removeAll(early);
+            if (late.isEmpty())
+                continue;
+            int[][] fields = new int[2][];
+            fields[0] = early.stream().mapToInt(Integer::intValue).toArray();
+            fields[1] = late.stream().mapToInt(Integer::intValue).toArray();
+            result.put(table.alias, fields);
+        }
+        return result;
+    }
+
+    /**
+     * @return the estimated number of tuples, after their filters, of the
+     *         largest of the tables joined into the subplan of the given name,
+     *         or of all the tables if name is null
+     */
+    private int estimatedRows(String name, Map<String,String> equivMap,
+            Map<String,TableStats> statsMap, Map<String,Double> filterSelectivities) {
+        int rows = 0;
+        for (LogicalScanNode table : tables) {
+            String subplan = equivMap.containsKey(table.alias) ? equivMap.get(table.alias) : table.alias;
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s == null || (name != null && !name.equals(subplan)))
+                continue;
+            rows = Math.max(rows, s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+        return rows;
+    }
+
+    /**
+     * @return the number of fragments to split an operator over the given
+     *         number of input tuples into, or 1 to keep it serial
+     */
+    private int parallelism(int rows) {
+        int dop = JoinOptimizer.getParallelism();
+        if (!parallel || dop <= 1 || rows < dop * Exchange.MIN_TUPLES_PER_FRAGMENT)
+            return 1;
+        return dop;
+    }
+
+    /**
+     * Replace each scan of a heap file of at least dop morsels, together with
+     * the Filters above it, by a ParallelSeqScan whose workers evaluate the
+     * filters.
+     */
+    private void parallelizeScans(TransactionId t) {
+        int dop = JoinOptimizer.getParallelism();
+        if (dop <= 1)
+            return;
+        for (Map.Entry<String, DbIterator> e : subplanMap.entrySet()) {
+            ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+            DbIterator it = e.getValue();
+            while (it instanceof Filter) {
+                predicates.add(((Filter) it).getPredicate());
+                it = ((Filter) it).getChildren()[0];
+            }
+            if (!(it instanceof SeqScan) || it instanceof SampleScan || it instanceof RecordIdScan)
+                continue;
+            SeqScan ss = (SeqScan) it;
+            DbFile f = Database.getCatalog().getDatabaseFile(ss.tableid);
+            if (!(f instanceof HeapFile)
+                    || ((HeapFile) f).numPages() < dop * ParallelSeqScan.MORSEL_PAGES)
+                continue;
+            e.setValue(new ParallelSeqScan(t, ss.tableid, ss.getAlias(), dop,
+                    predicates.toArray(new Predicate[0]), null));
+        }
+    }
+
+    /**
+     * Apply the ORDER BY and LIMIT of this plan to node.
+     */
+    private DbIterator orderAndLimit(DbIterator node) throws ParsingException {
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int k = 0; k < oByIndexes.length; k++) {
+                try {
+                    oByIndexes[k] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(k));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + oByFields.elementAt(k)
+                            + " in ORDER BY" + (distinct ? ", it must be in the SELECT DISTINCT list" : ""));
+                }
+                ascs[k] = oByAscs.elementAt(k);
+            }
+            if (oByIndexes.length == 1 && ascs[0]
+                    && OperatorOrdering.isAscendingOn(node, oByIndexes[0])) {
+                // e.g. a scan of a B+ tree on its key, nothing to sort
+            } else if (limit >= 0 && ((long) limit + offset) * node.getTupleDesc().getSize()
+                    <= (long) OrderBy.DEFAULT_SORT_PAGES * BufferPool.getPageSize()) {
+                node = new TopN(oByIndexes, ascs, limit + offset, node);
+            } else {
+                node = new OrderBy(oByIndexes, ascs, node);
+            }
         }
 
-        return new Project(outFields, outTypes, node);
+        if (limit >= 0) {
+            node = new Limit(limit, offset, node);
+        }
+        return node;
     }
 
     public static void main(String argv[]) {
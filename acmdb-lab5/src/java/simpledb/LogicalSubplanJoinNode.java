@@ -6,10 +6,28 @@ package simpledb;
  */
 public class LogicalSubplanJoinNode extends LogicalJoinNode {
     
+    /** How the outer table is combined with the subplan */
+    public enum Kind {
+        /** a regular join, returning both sides */
+        JOIN,
+        /** IN / EXISTS: the outer tuples with a match (see {@link SemiJoin}) */
+        SEMI,
+        /** NOT IN / NOT EXISTS: the outer tuples without a match (see {@link AntiJoin}) */
+        ANTI
+    }
+
     /** The subplan (used on the inner) of the join */
     DbIterator subPlan;
+
+    Kind kind;
     
     public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred) {
+        this(table1, joinField1, sp, pred, Kind.JOIN);
+    }
+
+    public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred,
+            Kind kind) {
+        this.kind = kind;
         t1Alias = table1;
         String[] tmps = joinField1.split("[.]");
         if (tmps.length>1)
@@ -30,11 +48,12 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         if (!(o instanceof LogicalSubplanJoinNode))
             return false;
         
-        return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan));
+        return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan)
+                && ((LogicalSubplanJoinNode)o).kind == kind);
     }
     
     public LogicalSubplanJoinNode swapInnerOuter() {
-        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p, kind);
         return j2;
     }
 
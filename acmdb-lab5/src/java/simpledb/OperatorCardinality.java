@@ -25,9 +25,34 @@ public class OperatorCardinality {
             return updateFilterCardinality((Filter) o, tableAliasToId,
                     tableStats);
         } else if (o instanceof Join) {
-            return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
+            Join j = (Join) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof BlockNestedLoopJoin) {
+            BlockNestedLoopJoin j = (BlockNestedLoopJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof ParallelHashJoin) {
+            ParallelHashJoin j = (ParallelHashJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
@@ -41,10 +66,8 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -52,6 +75,52 @@ public class OperatorCardinality {
         }
     }
 
+    private static boolean isScan(DbIterator it) {
+        return it instanceof SeqScan || it instanceof BTreeScan
+                || it instanceof SecondaryIndexScan || it instanceof HashScan;
+    }
+
+    /**
+     * @return the estimated number of tuples of a SeqScan, BTreeScan,
+     *         HashScan or SecondaryIndexScan, after the predicate of an index
+     *         scan
+     */
+    private static int scanCardinality(DbIterator scan,
+            Map<String, TableStats> tableStats) {
+        if (scan instanceof SeqScan)
+            return tableStats.get(((SeqScan) scan).getTableName())
+                    .estimateTableCardinality(1.0);
+        if (scan instanceof SecondaryIndexScan) {
+            SecondaryIndexScan si = (SecondaryIndexScan) scan;
+            TableStats stats = tableStats.get(si.getTableName());
+            IndexPredicate ip = si.getIndexPredicate();
+            if (ip == null)
+                return stats.estimateTableCardinality(1.0);
+            return stats.estimateTableCardinality(stats.estimateSelectivity(
+                    si.getIndex().getField(), ip.getOp(), ip.getField()));
+        }
+        if (scan instanceof HashScan) {
+            HashScan h = (HashScan) scan;
+            TableStats stats = tableStats.get(h.getTableName());
+            IndexPredicate ip = h.getIndexPredicate();
+            if (ip == null)
+                return stats.estimateTableCardinality(1.0);
+            int tableid = Database.getCatalog().getTableId(h.getTableName());
+            int key = ((HashIndexFile) Database.getCatalog().getDatabaseFile(tableid)).keyField();
+            return stats.estimateTableCardinality(
+                    stats.estimateSelectivity(key, ip.getOp(), ip.getField()));
+        }
+        BTreeScan b = (BTreeScan) scan;
+        TableStats stats = tableStats.get(b.getTableName());
+        IndexPredicate ip = b.getIndexPredicate();
+        if (ip == null)
+            return stats.estimateTableCardinality(1.0);
+        int tableid = Database.getCatalog().getTableId(b.getTableName());
+        int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).keyField();
+        return stats.estimateTableCardinality(
+                stats.estimateSelectivity(key, ip.getOp(), ip.getField()));
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -77,10 +146,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(child, tableStats)
+                        * selectivity) + 1);
                 return false;
             }
         }
@@ -88,7 +156,12 @@ public class OperatorCardinality {
         return false;
     }
 
-    private static boolean updateJoinCardinality(Join j,
+    /**
+     * Shared by all the join operators, which only differ in how the join
+     * predicate and the join field names are obtained.
+     */
+    private static boolean updateJoinCardinality(Operator j, JoinPredicate jp,
+            String joinField1Name, String joinField2Name,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
 
@@ -98,77 +171,20 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
 
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
-        String tableAlias2 = tmp2[0];
-        String pureFieldName2 = tmp2[1];
-
-        boolean child1HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias1))
-                .equals(pureFieldName1);
-        boolean child2HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias2))
-                .equals(pureFieldName2);
-
-        if (child1 instanceof Operator) {
-            Operator child1O = (Operator) child1;
-            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
-                    tableStats);
-            child1HasJoinPK = pk || child1HasJoinPK;
-            child1Card = child1O.getEstimatedCardinality();
-            child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
-        }
-
-        if (child2 instanceof Operator) {
-            Operator child2O = (Operator) child2;
-            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
-                    tableStats);
-            child2HasJoinPK = pk || child2HasJoinPK;
-            child2Card = child2O.getEstimatedCardinality();
-            child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
-        }
-
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
-                pureFieldName1, pureFieldName2, child1Card, child2Card,
-                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
-        return child1HasJoinPK || child2HasJoinPK;
-    }
-
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
-            Map<String, Integer> tableAliasToId,
-            Map<String, TableStats> tableStats) {
-
-        DbIterator[] children = j.getChildren();
-        DbIterator child1 = children[0];
-        DbIterator child2 = children[1];
-        int child1Card = 1;
-        int child2Card = 1;
-
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
-        String tableAlias1 = tmp1[0];
-        String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
         boolean child1HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias1))
                 .equals(pureFieldName1);
-        ;
         boolean child2HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias2))
                 .equals(pureFieldName2);
-        ;
 
         if (child1 instanceof Operator) {
             Operator child1O = (Operator) child1;
@@ -177,9 +193,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -189,13 +204,12 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(jp
+                .getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
@@ -219,29 +233,31 @@ public class OperatorCardinality {
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        // the number of groups is at most the product of the number of
+        // distinct values of the group fields, and at most the input size
+        double groups = 1.0;
+        for (String groupFieldName : a.groupFieldNames()) {
+            String[] tmp = groupFieldName.split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            groups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) Math.min(childCard, groups));
         return hasJoinPK;
     }
 }
@@ -0,0 +1,98 @@
+package simpledb;
+
+/**
+ * A utility class, which determines whether the output of an operator tree is
+ * known to arrive in ascending order of one of its fields, or grouped on some
+ * of its fields.
+ *
+ * The answer is conservative: false means "not known to be ordered", not
+ * "known to be unordered".
+ */
+public class OperatorOrdering {
+
+    /**
+     * @param plan
+     *            the root of the operator tree
+     * @param field
+     *            the index of a field in the output of plan
+     * @return true if the tuples of plan are known to be produced in ascending
+     *         order of field
+     */
+    public static boolean isAscendingOn(DbIterator plan, int field) {
+        if (plan == null || field < 0)
+            return false;
+        if (plan instanceof SeqScan) {
+            // a sequential scan over a B+ tree walks the leaves in key order
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).tableid);
+            return isKeyField(f, field);
+        } else if (plan instanceof BTreeScan) {
+            int tableid = Database.getCatalog().getTableId(((BTreeScan) plan).getTableName());
+            return isKeyField(Database.getCatalog().getDatabaseFile(tableid), field);
+        } else if (plan instanceof SecondaryIndexScan) {
+            // the entries of a B+ tree index are walked in the order of their value
+            SecondaryIndexScan scan = (SecondaryIndexScan) plan;
+            return !scan.getIndex().isHash() && scan.indexedField() == field;
+        } else if (plan instanceof Filter) {
+            return isAscendingOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof TopN) {
+            TopN o = (TopN) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof Limit || plan instanceof SemiJoin) {
+            // both return some of the tuples of their (left) child, in order
+            return isAscendingOn(((Operator) plan).getChildren()[0], field);
+        } else if (plan instanceof StreamingAggregate) {
+            // groups come out in input order, keyed by the first output field
+            StreamingAggregate a = (StreamingAggregate) plan;
+            return field == 0 && a.groupFields().length > 0
+                    && isAscendingOn(a.getChildren()[0], a.groupFields()[0]);
+        } else if (plan instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) plan;
+            int width1 = j.getChildren()[0].getTupleDesc().numFields();
+            if (field < width1)
+                return isAscendingOn(j.getChildren()[0], field);
+            // the right side is advanced in lock step with the left
+            return field - width1 == j.getJoinPredicate().getField2();
+        }
+        return false;
+    }
+
+    /**
+     * @param plan
+     *            the root of the operator tree
+     * @param fields
+     *            the indexes of some fields in the output of plan
+     * @return true if the tuples of plan are known to arrive grouped on
+     *         fields, i.e. tuples with equal values of all the fields are
+     *         adjacent
+     */
+    public static boolean isGroupedOn(DbIterator plan, int[] fields) {
+        if (plan == null || fields.length == 0)
+            return false;
+        if (fields.length == 1 && isAscendingOn(plan, fields[0]))
+            return true;
+        if (plan instanceof Filter || plan instanceof Limit) {
+            return isGroupedOn(((Operator) plan).getChildren()[0], fields);
+        } else if (plan instanceof OrderBy) {
+            // sorted on the fields first, in any order and direction
+            int[] keys = ((OrderBy) plan).getOrderByFields();
+            if (keys.length < fields.length)
+                return false;
+            for (int f : fields) {
+                boolean found = false;
+                for (int k = 0; k < fields.length; k++)
+                    found |= keys[k] == f;
+                if (!found)
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isKeyField(DbFile f, int field) {
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+}
@@ -8,13 +8,17 @@ import java.util.*;
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget of the sort, in pages. */
+    public static final int DEFAULT_SORT_PAGES = 256;
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
+    private boolean[] ascs;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private long memoryBytes;
+    private transient ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,21 +31,86 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorting
+     * on several fields, using the default memory budget.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child) {
+        this(orderbyFields, ascs, child,
+                (long) DEFAULT_SORT_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorting
+     * on several fields. Inputs that do not fit in memoryBytes are sorted
+     * externally (see {@link ExternalSort}).
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBytes
+     *            the memory budget of the sort, in bytes.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, DbIterator child,
+            long memoryBytes) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length)
+            throw new IllegalArgumentException("@OrderBy, need one direction per sort field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.memoryBytes = memoryBytes;
     }
     
+    /**
+     * @return true if the sort order on the first (most significant) sort
+     *         field is ascending.
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
     
+    /**
+     * @return the first (most significant) sort field.
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
+    }
+
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    public boolean[] getAscs()
+    {
+        return this.ascs.clone();
+    }
+    
+    /**
+     * @return the memory budget of the sort, in bytes.
+     */
+    public long getMemoryBytes()
+    {
+        return this.memoryBytes;
     }
     
     public String getOrderFieldName()
@@ -56,21 +125,24 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
+        // feed all the tuples to the sort; runs that do not fit in memory are spilled
+        sort = new ExternalSort(td, new TupleComparator(orderByFields, ascs), memoryBytes);
         while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            sort.add(child.next());
+        sort.finish();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        if (sort != null)
+            sort.close();
+        sort = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sort.rewind();
     }
 
     /**
@@ -82,9 +154,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (sort != null)
+            return sort.next();
+        else
             return null;
     }
 
@@ -101,23 +173,30 @@ public class OrderBy extends Operator {
 }
 
 class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    int[] fields;
+    boolean[] ascs;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] ascs) {
+        this.fields = fields;
+        this.ascs = ascs;
     }
 
     public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = (o1).getField(fields[i]);
+            Field t2 = (o2).getField(fields[i]);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                continue;
+            if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                return ascs[i] ? 1 : -1;
+            else
+                return ascs[i] ? -1 : 1;
+        }
+        return 0;
     }
     
 }
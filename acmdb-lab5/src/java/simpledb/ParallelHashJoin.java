@@ -0,0 +1,336 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ParallelHashJoin is an equality join that splits the work of a
+ * {@link HashEquiJoin} across a pool of threads. Both inputs are partitioned
+ * by a hash of their join field into dop partitions, so that tuples that can
+ * join always land in the same partition. Each partition then builds its own
+ * hash table over its slice of the right (inner) input and probes it with its
+ * slice of the left (outer) input, independently of the other partitions.
+ * <p>
+ * The children are only ever read by the thread calling the operator, as
+ * iterators are not safe for concurrent use: the workers
+ * only see tuples already in memory. The left input is dispatched in batches,
+ * and the joined tuples come back through a bounded queue, so the workers
+ * stay at most a queue's length ahead of the consumer. The output is not in
+ * any particular order.
+ * <p>
+ * The workers come from the pool of the exchanges (see {@link Exchange}),
+ * which grows as needed: a worker waits on the consumer while the queue is
+ * full, and the consumer may itself wait on the workers of a join below it,
+ * so a bounded pool could deadlock.
+ */
+public class ParallelHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Degree of parallelism used when none is given: one per processor */
+    public static final int DEFAULT_PARALLELISM =
+            Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    /** Number of joined tuples the workers may produce ahead of the consumer */
+    public static final int QUEUE_CAPACITY = 1024;
+
+    /** Number of left tuples handed out to the workers at once, per worker */
+    public static final int BATCH_TUPLES = 256;
+
+    // end-of-task marker in the output queue
+    private static final Tuple DONE = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
+
+    private JoinPredicate joinPredicate;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc tupleDesc;
+    private int dop;
+
+    // per partition, the right tuples by join field
+    private transient List<HashMap<Field, ArrayList<Tuple>>> tables;
+    // the right join fields, pushed down into the scan of the left input
+    private transient BloomFilter bloomFilter;
+    private transient SeqScan probeScan;
+    private transient BlockingQueue<Tuple> output;
+    private transient volatile boolean cancelled;
+    private transient volatile Throwable failure;
+    private int running;
+
+    /**
+     * Constructor, using {@link #DEFAULT_PARALLELISM} partitions.
+     *
+     * @param p
+     *            The equality predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param dop
+     *            the degree of parallelism: the number of partitions, each
+     *            built and probed by its own task
+     */
+    public ParallelHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int dop) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("@ParallelHashJoin, only equality joins are supported");
+        if (dop < 1)
+            throw new IllegalArgumentException("@ParallelHashJoin, dop must be positive");
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.dop = dop;
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    public int getDop() {
+        return dop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    private int partition(Field f) {
+        int h = f.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % dop;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        List<List<Tuple>> slices = new ArrayList<>(dop);
+        for (int i = 0; i < dop; i++)
+            slices.add(new ArrayList<>());
+        int f2 = joinPredicate.getField2();
+        List<Field> keys = new ArrayList<>();
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            keys.add(t.getField(f2));
+            slices.get(partition(t.getField(f2))).add(t);
+        }
+        pushDownBloomFilter(keys);
+
+        // build the tables of all the partitions in parallel
+        tables = new ArrayList<>(dop);
+        List<Callable<HashMap<Field, ArrayList<Tuple>>>> builds = new ArrayList<>(dop);
+        for (List<Tuple> slice : slices)
+            builds.add(() -> build(slice, f2));
+        try {
+            for (Future<HashMap<Field, ArrayList<Tuple>>> f : Exchange.pool().invokeAll(builds))
+                tables.add(f.get());
+        } catch (InterruptedException | ExecutionException e) {
+            throw new DbException("@ParallelHashJoin, failed to build the hash tables: " + e);
+        }
+
+        output = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        cancelled = false;
+        failure = null;
+        running = 0;
+        super.open();
+    }
+
+    /**
+     * Lets the scan under child1, if any, drop the tuples whose join field is
+     * not one of the keys before they are dispatched to the workers.
+     */
+    private void pushDownBloomFilter(List<Field> keys) {
+        if (probeScan != null)
+            probeScan.removeBloomFilter(bloomFilter);
+        probeScan = BloomFilter.probeScan(child1);
+        if (probeScan == null)
+            return;
+        bloomFilter = new BloomFilter(keys.size());
+        for (Field key : keys)
+            bloomFilter.add(key);
+        probeScan.addBloomFilter(joinPredicate.getField1(), bloomFilter);
+    }
+
+    private static HashMap<Field, ArrayList<Tuple>> build(List<Tuple> slice, int field) {
+        HashMap<Field, ArrayList<Tuple>> table = new HashMap<>();
+        for (Tuple t : slice)
+            table.computeIfAbsent(t.getField(field), k -> new ArrayList<>()).add(t);
+        return table;
+    }
+
+    /**
+     * Stops the workers still running and drops their output, so that none
+     * of them stays blocked on the queue.
+     */
+    private void cancel() {
+        cancelled = true;
+        while (running > 0) {
+            try {
+                if (output.take() == DONE)
+                    running--;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        running = 0;
+    }
+
+    public void close() {
+        super.close();
+        if (output != null)
+            cancel();
+        if (probeScan != null)
+            probeScan.removeBloomFilter(bloomFilter);
+        probeScan = null;
+        bloomFilter = null;
+        child1.close();
+        child2.close();
+        tables = null;
+        output = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cancel();
+        output.clear();
+        cancelled = false;
+        failure = null;
+        child1.rewind();
+    }
+
+    /**
+     * Reads the next batch of left tuples and hands each partition's slice of
+     * it to a worker.
+     *
+     * @return false if the left input is exhausted
+     */
+    private boolean dispatch() throws DbException, TransactionAbortedException {
+        if (!child1.hasNext())
+            return false;
+        List<List<Tuple>> slices = new ArrayList<>(dop);
+        for (int i = 0; i < dop; i++)
+            slices.add(new ArrayList<>());
+        int f1 = joinPredicate.getField1();
+        for (int n = 0; n < BATCH_TUPLES * dop && child1.hasNext(); n++) {
+            Tuple t = child1.next();
+            slices.get(partition(t.getField(f1))).add(t);
+        }
+        for (int i = 0; i < dop; i++) {
+            if (slices.get(i).isEmpty())
+                continue;
+            final List<Tuple> slice = slices.get(i);
+            final HashMap<Field, ArrayList<Tuple>> table = tables.get(i);
+            final BlockingQueue<Tuple> out = output;
+            running++;
+            Exchange.pool().execute(() -> probe(slice, table, f1, out));
+        }
+        return true;
+    }
+
+    private void probe(List<Tuple> slice, HashMap<Field, ArrayList<Tuple>> table,
+            int field, BlockingQueue<Tuple> out) {
+        try {
+            for (Tuple t1 : slice) {
+                ArrayList<Tuple> matches = table.get(t1.getField(field));
+                if (matches == null)
+                    continue;
+                for (Tuple t2 : matches) {
+                    if (!offer(out, Tuple.merge(t1, t2)))
+                        return;
+                }
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            try {
+                out.put(DONE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Puts a joined tuple in the queue, waiting for room unless the join was
+     * closed meanwhile.
+     *
+     * @return false if the join was cancelled
+     */
+    private boolean offer(BlockingQueue<Tuple> out, Tuple t) {
+        try {
+            while (!cancelled) {
+                if (out.offer(t, 10, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next tuple produced by one of the workers, handing out more
+     * left tuples when none is pending, or null once the left input is
+     * exhausted and every worker has finished. As for {@link HashEquiJoin},
+     * a result is the concatenation of the joining left and right tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            Tuple t = output.poll();
+            if (t == null) {
+                // keep the workers busy while they have not caught up
+                if (running < dop && dispatch())
+                    continue;
+                if (running == 0)
+                    return null;
+                try {
+                    t = output.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("@ParallelHashJoin, interrupted");
+                }
+            }
+            if (t != DONE)
+                return t;
+            running--;
+            if (failure != null)
+                throw new DbException("@ParallelHashJoin, probe failed: " + failure);
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -0,0 +1,310 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan is a sequential scan of a HeapFile whose pages are read by
+ * several worker threads. The pages are split into morsels of
+ * {@link #MORSEL_PAGES} consecutive pages, which the workers claim one after
+ * the other until none is left, so that a slow worker does not hold up the
+ * others. Each worker evaluates the pushed-down predicates and projection on
+ * its own tuples, and hands the remaining ones to the consumer through a
+ * bounded queue. The output is not in any particular order, so the planner
+ * only scans in parallel when asked to, with
+ * {@link JoinOptimizer#setParallelism} (see {@link LogicalPlan#setParallel}).
+ * <p>
+ * The pages are read through the BufferPool as part of the transaction the
+ * scan runs for, so their locks are held by that transaction, whichever
+ * thread acquired them. The workers run on threads of their own rather than
+ * in the pool of {@link ParallelHashJoin}, whose tasks may be waiting on this
+ * scan's consumer. They are started by the first call to hasNext, so that
+ * the Bloom filters pushed down after open, by a hash join building its
+ * table, are applied too; these are checked by the consumer.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages claimed by a worker at once */
+    public static final int MORSEL_PAGES = 4;
+
+    /** Number of tuples the workers may produce ahead of the consumer */
+    public static final int QUEUE_CAPACITY = 1024;
+
+    // end-of-worker marker in the output queue
+    private static final Tuple DONE = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
+
+    private final int dop;
+    private final Predicate[] predicates;
+    private final int[] outFields;
+    private TupleDesc tupleDesc;
+
+    private transient BlockingQueue<Tuple> output;
+    private transient volatile boolean cancelled;
+    private transient volatile Exception failure;
+    private transient Tuple next;
+    private boolean opened;
+    private boolean started;
+    private int running;
+
+    /**
+     * Constructor for a scan of all the tuples and fields of a table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param dop
+     *            the degree of parallelism: the number of worker threads
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int dop) {
+        this(tid, tableid, tableAlias, dop, null, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param dop
+     *            the degree of parallelism: the number of worker threads
+     * @param predicates
+     *            the predicates a tuple must all satisfy to be returned, over
+     *            the fields of the table; null for none
+     * @param outFields
+     *            the indexes of the fields of the table to return, in order;
+     *            null for all of them
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int dop,
+            Predicate[] predicates, int[] outFields) {
+        super(tid, tableid, tableAlias);
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("@ParallelSeqScan, only heap files can be scanned");
+        if (dop < 1)
+            throw new IllegalArgumentException("@ParallelSeqScan, dop must be positive");
+        this.dop = dop;
+        this.predicates = predicates == null ? new Predicate[0] : predicates;
+        this.outFields = outFields;
+    }
+
+    public int getDop() {
+        return dop;
+    }
+
+    /**
+     * @return the predicates evaluated by the workers
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * @return the indexes of the fields of the table returned, or null for
+     *         all of them
+     */
+    public int[] getOutFields() {
+        return outFields == null ? null : outFields.clone();
+    }
+
+    public void reset(int tableid, String tableAlias) {
+        super.reset(tableid, tableAlias);
+        tupleDesc = null;
+    }
+
+    /**
+     * @return the TupleDesc of {@link SeqScan}, restricted to the fields
+     *         returned
+     */
+    public TupleDesc getTupleDesc() {
+        if (tupleDesc == null) {
+            TupleDesc td = super.getTupleDesc();
+            if (outFields == null) {
+                tupleDesc = td;
+            } else {
+                Type[] types = new Type[outFields.length];
+                String[] names = new String[outFields.length];
+                for (int i = 0; i < outFields.length; i++) {
+                    types[i] = td.getFieldType(outFields[i]);
+                    names[i] = td.getFieldName(outFields[i]);
+                }
+                tupleDesc = new TupleDesc(types, names);
+            }
+        }
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        opened = true;
+        started = false;
+        next = null;
+    }
+
+    /**
+     * Starts the workers over the pages the table has now.
+     */
+    private void start() {
+        int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        AtomicInteger nextPage = new AtomicInteger();
+        BlockingQueue<Tuple> out = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        output = out;
+        cancelled = false;
+        failure = null;
+        running = Math.min(dop, (numPages + MORSEL_PAGES - 1) / MORSEL_PAGES);
+        for (int i = 0; i < running; i++) {
+            Thread worker = new Thread(() -> scan(numPages, nextPage, out),
+                    "ParallelSeqScan-" + tableid + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        started = true;
+    }
+
+    /**
+     * Reads morsels until none is left, putting the tuples that satisfy the
+     * predicates in the queue.
+     */
+    private void scan(int numPages, AtomicInteger nextPage, BlockingQueue<Tuple> out) {
+        try {
+            int first;
+            while (!cancelled && (first = nextPage.getAndAdd(MORSEL_PAGES)) < numPages) {
+                int last = Math.min(first + MORSEL_PAGES, numPages);
+                for (int pgNo = first; pgNo < last; pgNo++) {
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(tableid, pgNo), Permissions.READ_ONLY);
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        if (satisfies(t) && !offer(out, project(t)))
+                            return;
+                    }
+                }
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            failure = e;
+        } finally {
+            try {
+                out.put(DONE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean satisfies(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple project(Tuple t) {
+        if (outFields == null)
+            return t;
+        Tuple result = new Tuple(getTupleDesc());
+        for (int i = 0; i < outFields.length; i++)
+            result.setField(i, t.getField(outFields[i]));
+        result.setRecordId(t.getRecordId());
+        return result;
+    }
+
+    /**
+     * Puts a tuple in the queue, waiting for room unless the scan was closed
+     * meanwhile.
+     *
+     * @return false if the scan was cancelled
+     */
+    private boolean offer(BlockingQueue<Tuple> out, Tuple t) {
+        try {
+            while (!cancelled) {
+                if (out.offer(t, 10, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Stops the workers still running and drops their output, so that none
+     * of them stays blocked on the queue.
+     */
+    private void cancel() {
+        cancelled = true;
+        while (running > 0) {
+            try {
+                if (output.take() == DONE)
+                    running--;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        running = 0;
+        started = false;
+        next = null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!opened)
+            throw new IllegalStateException("Operator not yet open");
+        if (!started)
+            start();
+        while (next == null && running > 0) {
+            Tuple t;
+            try {
+                t = output.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("@ParallelSeqScan, interrupted");
+            }
+            if (t != DONE) {
+                if (passesBloomFilters(t))
+                    next = t;
+                continue;
+            }
+            running--;
+            Exception e = failure;
+            if (e instanceof TransactionAbortedException) {
+                cancel();
+                throw (TransactionAbortedException) e;
+            }
+            if (e != null) {
+                cancel();
+                throw new DbException("@ParallelSeqScan, scan failed: " + e);
+            }
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        if (started)
+            cancel();
+        opened = false;
+        output = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (started)
+            cancel();
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +13,8 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    // scan narrow tuples and fetch the rest of their fields at the end
+    static boolean lateMaterialization = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -50,6 +54,22 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("IN")
+                || wx.getOperator().equals("NOT IN")) {
+            if (!(wx.getOperand(0) instanceof ZConstant)
+                    || !(wx.getOperand(1) instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "Only IN (subquery) is supported, on a field: " + wx);
+            String field = ((ZConstant) wx.getOperand(0)).getValue();
+            lp.addSemiJoin(field, subqueryPlan(tid, (ZQuery) wx.getOperand(1)),
+                    wx.getOperator().equals("NOT IN"));
+        } else if (wx.getOperator().equals("EXISTS")) {
+            processExists(tid, (ZQuery) wx.getOperand(0), false, lp);
+        } else if (wx.getOperator().equals("NOT")
+                && wx.getOperand(0) instanceof ZExpression
+                && ((ZExpression) wx.getOperand(0)).getOperator().equals("EXISTS")) {
+            processExists(tid, (ZQuery) ((ZExpression) wx.getOperand(0)).getOperand(0),
+                    true, lp);
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -94,19 +114,7 @@ public class Parser {
                 }
 
                 if (!op2const) { // right op is a nested query
-                    try {
-                        LogicalPlan sublp = parseQueryLogicalPlan(tid,
-                                (ZQuery) ops.elementAt(1));
-                        DbIterator pp = sublp.physicalPlan(tid,
-                                TableStats.getStatsMap(), explain);
-                        lp.addJoin(tab1field, pp, op);
-                    } catch (IOException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    } catch (Zql.ParseException e) {
-                        throw new simpledb.ParsingException("Invalid subquery "
-                                + ops.elementAt(1));
-                    }
+                    lp.addJoin(tab1field, subqueryPlan(tid, (ZQuery) ops.elementAt(1)), op);
                 } else {
                     tab2field = ((ZConstant) ops.elementAt(1)).getValue();
                     lp.addJoin(tab1field, tab2field, op);
@@ -132,12 +140,194 @@ public class Parser {
 
     }
 
+    /**
+     * @return the physical plan of a subquery
+     */
+    private DbIterator subqueryPlan(TransactionId tid, ZQuery q)
+            throws simpledb.ParsingException {
+        try {
+            LogicalPlan sublp = parseQueryLogicalPlan(tid, q);
+            return sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid subquery " + q);
+        }
+    }
+
+    /**
+     * Plan "[NOT] EXISTS (q)" as a semi-join (anti-join) with q. The WHERE
+     * clause of q must compare one of its fields to a field of the outer
+     * query with exactly one equality, e.g. "EXISTS (SELECT * FROM s WHERE
+     * s.b = t.a AND s.c > 3)". That equality becomes the join predicate, and
+     * q is rewritten to return its side of it, filtered by the rest of its
+     * WHERE clause ("SELECT s.b FROM s WHERE s.c > 3").
+     */
+    private void processExists(TransactionId tid, ZQuery q, boolean anti, LogicalPlan lp)
+            throws simpledb.ParsingException {
+        if (q.getGroupBy() != null)
+            throw new simpledb.ParsingException(
+                    "GROUP BY in EXISTS subqueries is not supported.");
+        @SuppressWarnings("unchecked")
+        Vector<ZFromItem> from = q.getFrom();
+        Set<String> aliases = new HashSet<String>();
+        for (ZFromItem fromIt : from)
+            aliases.add(fromIt.getAlias() != null ? fromIt.getAlias() : fromIt.getTable());
+
+        // split the conjuncts of the WHERE clause
+        List<ZExp> conjuncts = new ArrayList<ZExp>();
+        if (q.getWhere() instanceof ZExpression
+                && ((ZExpression) q.getWhere()).getOperator().equals("AND")) {
+            @SuppressWarnings("unchecked")
+            Vector<ZExp> operands = ((ZExpression) q.getWhere()).getOperands();
+            conjuncts.addAll(operands);
+        } else if (q.getWhere() != null) {
+            conjuncts.add(q.getWhere());
+        }
+        String innerField = null, outerField = null;
+        ZExpression rest = new ZExpression("AND");
+        for (ZExp c : conjuncts) {
+            String[] fields = correlation(c, aliases);
+            if (fields == null) {
+                rest.addOperand(c);
+            } else if (innerField != null || !((ZExpression) c).getOperator().equals("=")) {
+                throw new simpledb.ParsingException(
+                        "EXISTS subqueries must be correlated by a single equality: " + q);
+            } else {
+                innerField = fields[0];
+                outerField = fields[1];
+            }
+        }
+        if (innerField == null)
+            throw new simpledb.ParsingException(
+                    "Uncorrelated EXISTS subqueries are not supported: " + q);
+
+        ZQuery sub = new ZQuery();
+        Vector<ZSelectItem> select = new Vector<ZSelectItem>();
+        select.add(new ZSelectItem(innerField));
+        sub.addSelect(select);
+        sub.addFrom(from);
+        if (rest.nbOperands() > 0)
+            sub.addWhere(rest);
+        lp.addSemiJoin(outerField, subqueryPlan(tid, sub), anti);
+    }
+
+    /**
+     * @return the field of the subquery and the field of the outer query
+     *         compared by c, if c compares two fields and exactly one of them
+     *         is qualified by a table that is not in the FROM clause of the
+     *         subquery (aliases), or null
+     */
+    private static String[] correlation(ZExp c, Set<String> aliases) {
+        if (!(c instanceof ZExpression) || ((ZExpression) c).nbOperands() != 2)
+            return null;
+        ZExpression e = (ZExpression) c;
+        String[] fields = new String[2];
+        boolean[] outer = new boolean[2];
+        for (int i = 0; i < 2; i++) {
+            if (!(e.getOperand(i) instanceof ZConstant)
+                    || ((ZConstant) e.getOperand(i)).getType() != ZConstant.COLUMNNAME)
+                return null;
+            fields[i] = ((ZConstant) e.getOperand(i)).getValue();
+            String[] parts = fields[i].split("[.]");
+            outer[i] = parts.length > 1 && !aliases.contains(parts[0]);
+        }
+        if (outer[0] == outer[1])
+            return null;
+        return outer[1] ? fields : new String[] { fields[1], fields[0] };
+    }
+
+    /**
+     * Zql does not know LIMIT/OFFSET, so a trailing LIMIT clause is cut off
+     * the statement text before it is parsed (see {@link #stripLimit}) and
+     * applied to the plan of the outermost query afterwards.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$",
+            Pattern.CASE_INSENSITIVE);
+    private int pendingLimit = -1;
+    private int pendingOffset = 0;
+
+    /**
+     * Remove a trailing "LIMIT n [OFFSET m]" from a statement; the values are
+     * remembered for the next call to {@link #parseQueryLogicalPlan}.
+     *
+     * @return the statement without its LIMIT clause
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        pendingLimit = -1;
+        pendingOffset = 0;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find())
+            return s;
+        try {
+            pendingLimit = Integer.parseInt(m.group(1));
+            pendingOffset = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT or OFFSET out of range");
+        }
+        return s.substring(0, m.start()) + m.group(3);
+    }
+
+    /**
+     * Zql does not know TABLESAMPLE either: each
+     * "TABLESAMPLE [SYSTEM] (percent) [REPEATABLE (seed)]" following a table
+     * name or alias in a FROM clause is cut off the statement text (see
+     * {@link #stripTableSamples}), and the scan of that table is turned into
+     * a {@link SampleScan} afterwards.
+     */
+    private static final Pattern TABLESAMPLE_CLAUSE = Pattern.compile(
+            "(\\w+)\\s+TABLESAMPLE\\s+(?:SYSTEM\\s*)?\\(\\s*(\\d+(?:\\.\\d*)?|\\.\\d+)\\s*\\)"
+                    + "(?:\\s+REPEATABLE\\s*\\(\\s*(-?\\d+)\\s*\\))?",
+            Pattern.CASE_INSENSITIVE);
+    // the sampled tables by name or alias: the percentage and seed, or null
+    private HashMap<String, Double> pendingSamplePercents = new HashMap<String, Double>();
+    private HashMap<String, Long> pendingSampleSeeds = new HashMap<String, Long>();
+
+    static {
+        // parsed by Zql as an aggregate, like the built-in ones
+        ZUtils.addCustomFunction("APPROX_COUNT_DISTINCT", 1);
+    }
+
+    /**
+     * Remove the TABLESAMPLE clauses from a statement; the samples are
+     * remembered for the next calls to {@link #parseQueryLogicalPlan}.
+     *
+     * @return the statement without its TABLESAMPLE clauses
+     */
+    String stripTableSamples(String s) throws simpledb.ParsingException {
+        pendingSamplePercents.clear();
+        pendingSampleSeeds.clear();
+        Matcher m = TABLESAMPLE_CLAUSE.matcher(s);
+        StringBuffer out = new StringBuffer();
+        while (m.find()) {
+            double percent = Double.parseDouble(m.group(2));
+            if (!(percent > 0 && percent <= 100))
+                throw new simpledb.ParsingException("TABLESAMPLE percentage out of range");
+            try {
+                pendingSamplePercents.put(m.group(1), percent);
+                pendingSampleSeeds.put(m.group(1),
+                        m.group(3) == null ? null : Long.parseLong(m.group(3)));
+            } catch (NumberFormatException e) {
+                throw new simpledb.ParsingException("REPEATABLE seed out of range");
+            }
+            m.appendReplacement(out, Matcher.quoteReplacement(m.group(1)));
+        }
+        m.appendTail(out);
+        return out.toString();
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        // the LIMIT belongs to this query, not to the subqueries parsed below
+        int limit = pendingLimit, offset = pendingOffset;
+        pendingLimit = -1;
+        pendingOffset = 0;
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setLateMaterialization(lateMaterialization);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -158,6 +348,9 @@ public class Parser {
                     name = fromIt.getTable();
 
                 lp.addScan(id, name);
+                if (pendingSamplePercents.containsKey(name))
+                    lp.addSample(name, pendingSamplePercents.get(name),
+                            pendingSampleSeeds.get(name));
 
                 // XXX handle subquery?
             } catch (NoSuchElementException e) {
@@ -182,23 +375,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        ArrayList<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
+                lp.addGroupBy(groupByField);
             }
 
         }
@@ -207,8 +397,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +407,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,32 +428,29 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
+        lp.setDistinct(q.isDistinct());
+        if (limit >= 0)
+            lp.setLimit(limit, offset);
         return lp;
     }
 
@@ -278,6 +462,25 @@ public class Parser {
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
+        // a sample differs from run to run, and EXPLAIN wants the plan
+        QueryResultCache cache = Database.getResultCache();
+        int[] tableIds = explain || !pendingSamplePercents.isEmpty() ? null : readTables(s);
+        String key = s.toString();
+        if (pendingLimit >= 0)
+            key += " LIMIT " + pendingLimit + " OFFSET " + pendingOffset;
+        long[] versions = null;
+        if (tableIds != null) {
+            DbIterator cached = cache.get(key, tableIds);
+            if (cached != null) {
+                pendingLimit = -1;
+                pendingOffset = 0;
+                System.out.println("The result is served from the query result cache.");
+                query.setPhysicalPlan(cached);
+                return query;
+            }
+            versions = cache.versions(tableIds);
+        }
+
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
@@ -316,10 +519,48 @@ public class Parser {
                 e.printStackTrace();
             }
         }
+        if (tableIds != null)
+            query.cacheResult(cache, key, tableIds, versions);
 
         return query;
     }
 
+    /**
+     * @return the ids of the tables a query reads, in its FROM clause and
+     *         those of its subqueries, or null if one of them is unknown
+     */
+    private static int[] readTables(ZQuery q) {
+        Set<Integer> ids = new HashSet<Integer>();
+        try {
+            readTables(q, ids);
+        } catch (NoSuchElementException e) {
+            // reported when the query is planned
+            return null;
+        }
+        int[] result = new int[ids.size()];
+        int i = 0;
+        for (int id : ids)
+            result[i++] = id;
+        return result;
+    }
+
+    private static void readTables(ZQuery q, Set<Integer> ids) {
+        for (Object from : q.getFrom())
+            ids.add(Database.getCatalog().getTableId(((ZFromItem) from).getTable()));
+        readTables(q.getWhere(), ids);
+        if (q.getGroupBy() != null)
+            readTables(q.getGroupBy().getHaving(), ids);
+    }
+
+    private static void readTables(ZExp e, Set<Integer> ids) {
+        if (e instanceof ZQuery)
+            readTables((ZQuery) e, ids);
+        else if (e instanceof ZExpression) {
+            for (Object operand : ((ZExpression) e).getOperands())
+                readTables((ZExp) operand, ids);
+        }
+    }
+
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -387,6 +628,8 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            // the pages read may be the ones the tuples are inserted into
+            lp.setParallel(false);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -418,6 +661,8 @@ public class Parser {
         if (s.getWhere() != null)
             processExpression(tid, (ZExpression) s.getWhere(), lp);
         lp.addProjectField("null.*", null);
+        lp.setParallel(false);
+        lp.setIndexScans(false);
 
         DbIterator op = new Delete(tid, lp.physicalPlan(tid,
                 TableStats.getStatsMap(), false));
@@ -427,6 +672,73 @@ public class Parser {
 
     }
 
+    /**
+     * Zql does not know CREATE INDEX: a statement
+     * "CREATE INDEX name ON table (field) [INCLUDE (field, ...)]
+     * [USING BTREE|HASH]" is recognized before Zql sees it, and builds a
+     * {@link SecondaryIndex} of a field of a heap file, a B+ tree index
+     * unless USING HASH is given, whose entries also hold the included
+     * fields.
+     */
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "^\\s*CREATE\\s+INDEX\\s+(\\w+)\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)"
+                    + "(?:\\s+INCLUDE\\s*\\(\\s*(\\w+(?:\\s*,\\s*\\w+)*)\\s*\\))?"
+                    + "(?:\\s+USING\\s+(BTREE|HASH))?\\s*;?\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Builds a secondary index of a field of a heap file, stored next to the
+     * heap file in name.idx.
+     *
+     * @param included
+     *            the other fields of the table the entries of the index hold
+     * @param hash
+     *            true for a hash index, false for a B+ tree index
+     */
+    public void handleCreateIndexStatement(String name, String table, String field,
+            List<String> included, boolean hash, TransactionId tid) throws TransactionAbortedException, DbException,
+            IOException, simpledb.ParsingException {
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        try {
+            Database.getCatalog().getTableId(name);
+            throw new simpledb.ParsingException("A table or index " + name + " exists already");
+        } catch (NoSuchElementException e) {
+            // the name is free
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(id);
+        if (!(f instanceof HeapFile))
+            throw new simpledb.ParsingException("Only heap files have secondary indexes");
+        int fieldIndex;
+        try {
+            fieldIndex = f.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown field " + field + " of " + table);
+        }
+        int[] includedIndexes = new int[included.size()];
+        for (int i = 0; i < includedIndexes.length; i++) {
+            try {
+                includedIndexes[i] = f.getTupleDesc().fieldNameToIndex(included.get(i));
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown field " + included.get(i) + " of "
+                        + table);
+            }
+            if (includedIndexes[i] == fieldIndex
+                    || included.subList(0, i).contains(included.get(i)))
+                throw new simpledb.ParsingException("Field " + included.get(i)
+                        + " is in the index twice");
+        }
+        File dir = ((HeapFile) f).getFile().getAbsoluteFile().getParentFile();
+        SecondaryIndex.create(tid, name, id, fieldIndex, includedIndexes,
+                new File(dir, name + ".idx"), hash);
+        System.out.println("Created index " + name + " on " + table + "(" + field + ")"
+                + (included.isEmpty() ? "" : " including " + String.join(", ", included)) + ".");
+    }
+
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -435,19 +747,19 @@ public class Parser {
                 throw new simpledb.ParsingException(
                         "No transaction is currently running");
             curtrans.commit();
-            curtrans = null;
-            inUserTrans = false;
             System.out.println("Transaction " + curtrans.getId().getId()
                     + " committed.");
+            curtrans = null;
+            inUserTrans = false;
         } else if (s.getStmtType().equals("ROLLBACK")) {
             if (curtrans == null)
                 throw new simpledb.ParsingException(
                         "No transaction is currently running");
             curtrans.abort();
-            curtrans = null;
-            inUserTrans = false;
             System.out.println("Transaction " + curtrans.getId().getId()
                     + " aborted.");
+            curtrans = null;
+            inUserTrans = false;
 
         } else if (s.getStmtType().equals("SET TRANSACTION")) {
             if (curtrans != null)
@@ -465,7 +777,8 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(
+                stripLimit(stripTableSamples(s)).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
@@ -503,8 +816,18 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0;)
+                text.write(buf, 0, n);
+            Matcher index = CREATE_INDEX.matcher(text.toString("UTF-8"));
+            boolean createIndex = index.matches();
+            ZStatement s = null;
+            if (!createIndex) {
+                String stmt = stripLimit(stripTableSamples(text.toString("UTF-8")));
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(stmt.getBytes("UTF-8")));
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +840,13 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (createIndex)
+                        handleCreateIndexStatement(index.group(1), index.group(2),
+                                index.group(3), index.group(4) == null
+                                        ? new ArrayList<String>()
+                                        : Arrays.asList(index.group(4).split("\\s*,\\s*")),
+                                "HASH".equalsIgnoreCase(index.group(5)), curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -581,11 +910,12 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "create index", "on",
+            "include", "using", "btree", "hash" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +925,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-push] [-late] [-f queryFile]";
     static final int SLEEP_TIME = 5000;
 
     protected void shutdown() {
@@ -616,6 +946,12 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-push")) {
+                    Query.setPushBased(true);
+                    System.out.println("Push-based execution enabled.");
+                } else if (argv[i].equals("-late")) {
+                    lateMaterialization = true;
+                    System.out.println("Late materialization enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
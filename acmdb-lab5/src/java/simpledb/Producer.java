@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A Producer reads a DbIterator on a thread of the exchange pool, from open
+ * to close, and puts its tuples in the queues of the consumers they are
+ * routed to: the only one, the one chosen by a hash of a field, or all of
+ * them. It is started by the first of its consumers to open, and stopped
+ * once all of them are closed. A consumer that is rewound waits for the
+ * others to close or rewind too, and the child is then read again for the
+ * consumers that were rewound.
+ */
+class Producer implements Runnable {
+
+    /** Routing of each tuple to every consumer */
+    static final int BROADCAST = -1;
+
+    // states of a consumer
+    private static final int ATTACHED = 0;
+    private static final int DETACHED = 1;
+    private static final int REWOUND = 2;
+
+    private final DbIterator child;
+    private final int field;
+    private Consumer[] consumers;
+
+    private boolean running;
+    // per consumer, whether it reads the current pass over the child
+    private AtomicIntegerArray states;
+    private Future<?> future;
+    private volatile boolean cancelled;
+    private volatile Exception failure;
+
+    /**
+     * @param child
+     *            the iterator to read, which must not be used elsewhere
+     * @param field
+     *            the field whose hash chooses the consumer of a tuple, or
+     *            BROADCAST
+     */
+    Producer(DbIterator child, int field) {
+        this.child = child;
+        this.field = field;
+    }
+
+    DbIterator getChild() {
+        return child;
+    }
+
+    Consumer[] getConsumers() {
+        return consumers;
+    }
+
+    void setConsumers(Consumer[] consumers) {
+        this.consumers = consumers;
+        this.states = new AtomicIntegerArray(consumers.length);
+    }
+
+    /**
+     * @return a producer reading another child for the same consumers, as
+     *         long as they are closed
+     */
+    synchronized Producer rebuild(DbIterator child) {
+        if (running)
+            throw new IllegalStateException("@Producer, the consumers must be closed");
+        Producer p = new Producer(child, field);
+        p.setConsumers(consumers);
+        return p;
+    }
+
+    /**
+     * @return the error that stopped the producer, if any
+     */
+    Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Starts the producer unless it is already running for the consumers.
+     */
+    synchronized void attach() {
+        if (running)
+            return;
+        for (int i = 0; i < consumers.length; i++)
+            states.set(i, ATTACHED);
+        cancelled = false;
+        failure = null;
+        running = true;
+        future = Exchange.pool().submit(this);
+    }
+
+    /**
+     * Stops sending tuples to a consumer, and stops the producer once no
+     * consumer is left, waiting for it to close the child and dropping the
+     * tuples left in the queues.
+     */
+    synchronized void detach(Consumer c) {
+        int i = indexOf(c);
+        if (!running || states.getAndSet(i, DETACHED) == DETACHED)
+            return;
+        settle();
+    }
+
+    /**
+     * Stops sending the tuples of the current pass to a consumer, which gets
+     * those of the next pass over the child in a new queue instead.
+     */
+    synchronized void rewind(Consumer c) {
+        int i = indexOf(c);
+        if (!running || states.get(i) == DETACHED)
+            return;
+        states.set(i, REWOUND);
+        c.queue = new ArrayBlockingQueue<>(Exchange.QUEUE_CAPACITY);
+        settle();
+    }
+
+    /**
+     * Once no consumer reads the current pass any more, stops it, and starts
+     * the next one for the consumers that were rewound, if any.
+     */
+    private void settle() {
+        boolean rewound = false;
+        for (int i = 0; i < consumers.length; i++) {
+            if (states.get(i) == ATTACHED)
+                return;
+            rewound |= states.get(i) == REWOUND;
+        }
+        cancelled = true;
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // reported through failure
+        }
+        if (!rewound) {
+            for (Consumer consumer : consumers)
+                consumer.queue.clear();
+            running = false;
+            return;
+        }
+        for (int i = 0; i < consumers.length; i++) {
+            if (states.get(i) == REWOUND)
+                states.set(i, ATTACHED);
+        }
+        cancelled = false;
+        failure = null;
+        future = Exchange.pool().submit(this);
+    }
+
+    private int indexOf(Consumer c) {
+        for (int i = 0; i < consumers.length; i++) {
+            if (consumers[i] == c)
+                return i;
+        }
+        throw new IllegalArgumentException("@Producer, not a consumer of this producer");
+    }
+
+    public void run() {
+        try {
+            child.open();
+            try {
+                while (!cancelled && child.hasNext())
+                    route(child.next());
+            } finally {
+                child.close();
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            failure = e;
+        } finally {
+            for (int i = 0; i < consumers.length; i++)
+                offer(i, Exchange.DONE);
+        }
+    }
+
+    private void route(Tuple t) {
+        if (consumers.length == 1) {
+            offer(0, t);
+        } else if (field == BROADCAST) {
+            for (int i = 0; i < consumers.length; i++)
+                offer(i, t);
+        } else {
+            int h = t.getField(field).hashCode();
+            h ^= h >>> 16;
+            offer((h & 0x7fffffff) % consumers.length, t);
+        }
+    }
+
+    /**
+     * Puts a tuple in the queue of a consumer, waiting for room unless the
+     * consumer or the producer is closed meanwhile.
+     */
+    private void offer(int consumer, Tuple t) {
+        BlockingQueue<Tuple> queue = consumers[consumer].queue;
+        try {
+            while (!cancelled && states.get(consumer) == ATTACHED) {
+                if (queue.offer(t, 10, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+    }
+}
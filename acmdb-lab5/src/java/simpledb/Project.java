@@ -45,6 +45,14 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the indexes of the child's fields that are projected out, in
+     *         order
+     */
+    public List<Integer> getOutFieldIds() {
+        return Collections.unmodifiableList(outFieldIds);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
@@ -0,0 +1,592 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PushEngine runs a physical plan push-based. Instead of each operator
+ * pulling tuples from its children through hasNext and next, the plan is
+ * compiled into pipelines: a source pushing tuples through a chain of
+ * streaming operators (Filter, Project, Fetch, Limit, and the probe of a
+ * hash join, semi-join or anti-join) into a sink. A pipeline is broken at the
+ * operators that must see all of their input first: the build side of a
+ * join, aggregates and sorts. Their input becomes a pipeline of its own, run
+ * before the one that reads their output; independent ones, e.g. the build
+ * sides of two joins, run at the same time. Aggregates and sorts are fed to
+ * a {@link GroupAggregator} or an {@link ExternalSort}, which spill to disk
+ * beyond the memory budget of the operator. DISTINCT is streaming: the tuples
+ * it has not seen yet are pushed on at once, and the ones of the partitions
+ * it spilled once its input is complete.
+ * <p>
+ * The tuples of a pipeline's source are split into morsels of a few pages
+ * of a heap file, each run as a task of a work-stealing ForkJoinPool, so
+ * that idle workers take over the morsels queued by busy ones. The operators
+ * of a chain are shared by the tasks, and the sinks accept concurrent
+ * pushes. The last pipeline pushes into a bounded queue read by
+ * {@link #next}, which holds the workers back when the reader is slow.
+ * <p>
+ * The other operators, e.g. nested loop and merge joins, B+ tree scans or
+ * exchanges, are run pull-based as the single-morsel source of a pipeline.
+ * The tuples come out in the order of the plan only when it is set by a sort
+ * (OrderBy or TopN) that is followed by streaming operators alone.
+ */
+public class PushEngine {
+
+    /** Number of consecutive pages of a heap file in a morsel */
+    public static final int MORSEL_PAGES = 4;
+
+    /** Number of result tuples the workers may produce ahead of the reader */
+    public static final int QUEUE_CAPACITY = 1024;
+
+    // end-of-results marker in the output queue
+    private static final Tuple DONE = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE}));
+
+    private static ForkJoinPool pool;
+
+    private final DbIterator plan;
+
+    // the stages holding state of the running plan, released when it is done
+    private List<Breaker> breakers;
+    private BlockingQueue<Tuple> output;
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+    private Tuple next;
+    private boolean started;
+    private boolean done;
+
+    /**
+     * Constructor.
+     *
+     * @param plan
+     *            the physical plan to run, not opened
+     */
+    public PushEngine(DbIterator plan) {
+        this.plan = plan;
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(ParallelHashJoin.DEFAULT_PARALLELISM);
+        return pool;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return plan.getTupleDesc();
+    }
+
+    /**
+     * Compiles the plan and starts running its pipelines.
+     */
+    public void start() {
+        Pipeline root = new Pipeline();
+        breakers = new ArrayList<>();
+        compile(plan, this::emit, root);
+        output = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        cancelled = false;
+        failure = null;
+        next = null;
+        done = false;
+        started = true;
+        pool().execute(() -> {
+            try {
+                run(root);
+            } catch (Throwable e) {
+                failure = unwrap(e);
+            } finally {
+                for (Breaker b : breakers)
+                    b.close();
+                try {
+                    output.put(DONE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /** @return true if there are more result tuples */
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!started)
+            throw new IllegalStateException("@PushEngine, not started");
+        if (next != null)
+            return true;
+        if (done)
+            return false;
+        Tuple t;
+        try {
+            t = output.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("@PushEngine, interrupted");
+        }
+        if (t != DONE) {
+            next = t;
+            return true;
+        }
+        done = true;
+        Throwable e = failure;
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e != null)
+            throw new DbException("@PushEngine, query failed: " + e);
+        return false;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    /**
+     * Stops the pipelines still running and drops their output.
+     */
+    public void close() {
+        if (!started)
+            return;
+        cancelled = true;
+        while (!done) {
+            try {
+                done = output.take() == DONE;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        next = null;
+        started = false;
+    }
+
+    private void emit(Tuple t) {
+        try {
+            while (!cancelled) {
+                if (output.offer(t, 10, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+    }
+
+    /** Where the tuples of a pipeline are pushed to, from any thread */
+    interface Stage {
+        void push(Tuple t) throws DbException, TransactionAbortedException;
+    }
+
+    /** A stage that gets all the tuples of a pipeline before they are used */
+    interface Breaker extends Stage {
+        /** Called once all the tuples have been pushed */
+        void finish() throws DbException, TransactionAbortedException;
+
+        /** Releases the memory and the files held, once the plan is done */
+        void close();
+    }
+
+    /** A unit of work of a pipeline */
+    interface Morsel {
+        void run() throws DbException, TransactionAbortedException;
+    }
+
+    /** The tuples a pipeline starts from */
+    interface Source {
+        /** @return the morsels pushing all of the tuples into head */
+        List<Morsel> morsels(Pipeline p) throws DbException, TransactionAbortedException;
+    }
+
+    private class Pipeline {
+        final List<Pipeline> dependencies = new ArrayList<>();
+        Source source;
+        Stage head;
+        // finished in order once all the tuples have been pushed
+        final List<Breaker> breakers = new ArrayList<>();
+        // set once no more tuples are needed, e.g. by a Limit
+        volatile boolean stopped;
+
+        boolean stopped() {
+            return stopped || cancelled;
+        }
+    }
+
+    /**
+     * Compiles the plan rooted at op into the pipeline p, pushing its tuples
+     * into out, and the pipelines p depends on.
+     */
+    private void compile(DbIterator op, Stage out, Pipeline p) {
+        if (op instanceof Filter) {
+            Predicate pred = ((Filter) op).getPredicate();
+            compile(child(op, 0), t -> {
+                if (pred.filter(t))
+                    out.push(t);
+            }, p);
+        } else if (op instanceof Project) {
+            TupleDesc td = op.getTupleDesc();
+            List<Integer> fields = ((Project) op).getOutFieldIds();
+            compile(child(op, 0), t -> {
+                Tuple result = new Tuple(td);
+                result.setRecordId(t.getRecordId());
+                for (int i = 0; i < fields.size(); i++)
+                    result.setField(i, t.getField(fields.get(i)));
+                out.push(result);
+            }, p);
+        } else if (op instanceof Fetch) {
+            Fetch fetch = (Fetch) op;
+            compile(child(op, 0), t -> out.push(fetch.fetch(t)), p);
+        } else if (op instanceof Limit) {
+            long offset = ((Limit) op).getOffset();
+            long end = offset + ((Limit) op).getLimit();
+            AtomicLong seen = new AtomicLong();
+            compile(child(op, 0), t -> {
+                long n = seen.getAndIncrement();
+                if (n >= end)
+                    p.stopped = true;
+                else if (n >= offset)
+                    out.push(t);
+            }, p);
+        } else if (hashJoin(op) != null) {
+            JoinPredicate jp = hashJoin(op);
+            HashBuild build = new HashBuild(jp.getField2());
+            p.dependencies.add(breaker(child(op, 1), build));
+            int f1 = jp.getField1();
+            compile(child(op, 0), t -> {
+                Collection<Tuple> matches = build.table.get(t.getField(f1));
+                if (matches == null)
+                    return;
+                for (Tuple t2 : matches)
+                    out.push(Tuple.merge(t, t2));
+            }, p);
+        } else if (op instanceof SemiJoin) {
+            JoinPredicate jp = ((SemiJoin) op).getJoinPredicate();
+            KeySetBuild build = new KeySetBuild(jp.getField2());
+            p.dependencies.add(breaker(child(op, 1), build));
+            int f1 = jp.getField1();
+            boolean anti = op instanceof AntiJoin;
+            compile(child(op, 0), t -> {
+                if (build.keys.contains(t.getField(f1)) != anti)
+                    out.push(t);
+            }, p);
+        } else if (op instanceof Aggregate && !(op instanceof StreamingAggregate)) {
+            // a StreamingAggregate is left pull-based, keeping its groups in order
+            AggregateSink sink = new AggregateSink((Aggregate) op);
+            p.dependencies.add(breaker(child(op, 0), sink));
+            source(p, out, q -> Collections.singletonList(() -> pull(sink.aggregator.iterator(), q)));
+        } else if (op instanceof OrderBy) {
+            SortSink sink = new SortSink((OrderBy) op);
+            p.dependencies.add(breaker(child(op, 0), sink));
+            // the output of a sort must be pushed in order, by a single morsel
+            source(p, out, q -> Collections.singletonList(() -> {
+                Tuple t;
+                while (!q.stopped() && (t = sink.sort.next()) != null)
+                    q.head.push(t);
+            }));
+        } else if (op instanceof TopN) {
+            TopNSink sink = new TopNSink((TopN) op);
+            p.dependencies.add(breaker(child(op, 0), sink));
+            source(p, out, q -> Collections.singletonList(() -> {
+                for (Tuple t : sink.result) {
+                    if (q.stopped())
+                        return;
+                    q.head.push(t);
+                }
+            }));
+        } else if (op instanceof Distinct) {
+            DistinctStage stage = new DistinctStage((Distinct) op, out, p);
+            compile(child(op, 0), stage, p);
+            finishing(p, stage);
+        } else if (scannable(op)) {
+            source(p, out, q -> pages((SeqScan) op, q));
+        } else {
+            source(p, out, q -> Collections.singletonList(() -> pull(op, q)));
+        }
+    }
+
+    /**
+     * @return the predicate of op if it is an equality hash join, else null
+     */
+    private static JoinPredicate hashJoin(DbIterator op) {
+        JoinPredicate jp = null;
+        if (op instanceof HashEquiJoin)
+            jp = ((HashEquiJoin) op).getJoinPredicate();
+        else if (op instanceof ParallelHashJoin)
+            jp = ((ParallelHashJoin) op).getJoinPredicate();
+        return jp != null && jp.getOperator() == Predicate.Op.EQUALS ? jp : null;
+    }
+
+    private static DbIterator child(DbIterator op, int i) {
+        return ((Operator) op).getChildren()[i];
+    }
+
+    private Pipeline breaker(DbIterator input, Breaker sink) {
+        Pipeline b = new Pipeline();
+        compile(input, sink, b);
+        finishing(b, sink);
+        return b;
+    }
+
+    /**
+     * Finishes b after the other breakers of p, i.e. after the ones pushing
+     * into it.
+     */
+    private void finishing(Pipeline p, Breaker b) {
+        p.breakers.add(b);
+        breakers.add(b);
+    }
+
+    private static void source(Pipeline p, Stage out, Source source) {
+        p.source = source;
+        p.head = out;
+    }
+
+    /**
+     * @return true if op is a scan of a heap file whose pages can be split
+     *         into morsels
+     */
+    private static boolean scannable(DbIterator op) {
+        if (!(op instanceof SeqScan) || op instanceof SampleScan)
+            return false;
+        if (op instanceof ParallelSeqScan && ((ParallelSeqScan) op).getOutFields() != null)
+            return false;
+        return Database.getCatalog().getDatabaseFile(((SeqScan) op).tableid) instanceof HeapFile;
+    }
+
+    private List<Morsel> pages(SeqScan scan, Pipeline p) {
+        int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(scan.tableid)).numPages();
+        Predicate[] preds = scan instanceof ParallelSeqScan
+                ? ((ParallelSeqScan) scan).getPredicates() : new Predicate[0];
+        RecordIdScan narrow = scan instanceof RecordIdScan ? (RecordIdScan) scan : null;
+        List<Morsel> morsels = new ArrayList<>();
+        for (int first = 0; first < numPages; first += MORSEL_PAGES) {
+            int from = first;
+            int to = Math.min(first + MORSEL_PAGES, numPages);
+            morsels.add(() -> {
+                for (int pgNo = from; pgNo < to && !p.stopped(); pgNo++) {
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(scan.tid,
+                            new HeapPageId(scan.tableid, pgNo), Permissions.READ_ONLY);
+                    Iterator<Tuple> it = page.iterator();
+                    tuples:
+                    while (it.hasNext() && !p.stopped()) {
+                        Tuple t = it.next();
+                        for (Predicate pred : preds) {
+                            if (!pred.filter(t))
+                                continue tuples;
+                        }
+                        p.head.push(narrow == null ? t : narrow.narrow(t));
+                    }
+                }
+            });
+        }
+        return morsels;
+    }
+
+    private static void pull(DbIterator it, Pipeline p)
+            throws DbException, TransactionAbortedException {
+        it.open();
+        try {
+            while (!p.stopped() && it.hasNext())
+                p.head.push(it.next());
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Runs a pipeline once the ones it depends on are complete.
+     */
+    private void run(Pipeline p) throws DbException, TransactionAbortedException {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Pipeline d : p.dependencies)
+            tasks.add(task(() -> run(d)));
+        ForkJoinTask.invokeAll(tasks);
+        if (cancelled)
+            return;
+        tasks.clear();
+        for (Morsel m : p.source.morsels(p))
+            tasks.add(task(m));
+        ForkJoinTask.invokeAll(tasks);
+        for (Breaker b : p.breakers) {
+            if (cancelled)
+                return;
+            b.finish();
+        }
+    }
+
+    private static ForkJoinTask<?> task(Morsel m) {
+        return ForkJoinTask.adapt(() -> {
+            try {
+                m.run();
+            } catch (DbException | TransactionAbortedException e) {
+                throw new Failure(e);
+            }
+        });
+    }
+
+    /** Carries a checked exception out of a task */
+    private static class Failure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Failure(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        // the pool may rethrow a copy of a task's exception, caused by it
+        while ((e instanceof Failure || e.getCause() instanceof Failure) && e.getCause() != null)
+            e = e.getCause();
+        return e;
+    }
+
+    /** Builds the hash table of a join's right input, by join field */
+    private static class HashBuild implements Breaker {
+        final ConcurrentHashMap<Field, Queue<Tuple>> table = new ConcurrentHashMap<>();
+        final int field;
+
+        HashBuild(int field) {
+            this.field = field;
+        }
+
+        public void push(Tuple t) {
+            table.computeIfAbsent(t.getField(field), k -> new ConcurrentLinkedQueue<>()).add(t);
+        }
+
+        public void finish() {
+        }
+
+        public void close() {
+        }
+    }
+
+    /** Collects the join fields of a semi-join's right input */
+    private static class KeySetBuild implements Breaker {
+        final Set<Field> keys = ConcurrentHashMap.newKeySet();
+        final int field;
+
+        KeySetBuild(int field) {
+            this.field = field;
+        }
+
+        public void push(Tuple t) {
+            keys.add(t.getField(field));
+        }
+
+        public void finish() {
+        }
+
+        public void close() {
+        }
+    }
+
+    /** Merges the input of an Aggregate into an aggregator of its own */
+    private static class AggregateSink implements Breaker {
+        final Aggregator aggregator;
+
+        AggregateSink(Aggregate op) {
+            aggregator = new GroupAggregator(child(op, 0).getTupleDesc(),
+                    op.groupFields(), op.aggregateFields(), op.aggregateOps(),
+                    (long) HashAggregation.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize(),
+                    op.getSampleFraction());
+        }
+
+        public void push(Tuple t) throws DbException {
+            synchronized (aggregator) {
+                aggregator.mergeTupleIntoGroup(t);
+            }
+        }
+
+        public void finish() {
+        }
+
+        public void close() {
+            aggregator.close();
+        }
+    }
+
+    /** Sorts the input of an OrderBy, within the memory budget of the operator */
+    private static class SortSink implements Breaker {
+        final ExternalSort sort;
+
+        SortSink(OrderBy op) {
+            sort = new ExternalSort(op.getTupleDesc(),
+                    new TupleComparator(op.getOrderByFields(), op.getAscs()),
+                    op.getMemoryBytes());
+        }
+
+        public void push(Tuple t) throws DbException {
+            synchronized (sort) {
+                sort.add(t);
+            }
+        }
+
+        public void finish() throws DbException {
+            sort.finish();
+        }
+
+        public void close() {
+            sort.close();
+        }
+    }
+
+    /** Keeps the best tuples of the input of a TopN */
+    private static class TopNSink implements Breaker {
+        final TopN.Heap heap;
+        List<Tuple> result;
+
+        TopNSink(TopN op) {
+            heap = op.newHeap();
+        }
+
+        public void push(Tuple t) {
+            synchronized (heap) {
+                heap.add(t);
+            }
+        }
+
+        public void finish() {
+            result = heap.result();
+        }
+
+        public void close() {
+            result = null;
+        }
+    }
+
+    /**
+     * Pushes on the tuples of a DISTINCT not seen yet, and once its input is
+     * complete the ones of the partitions it spilled.
+     */
+    private static class DistinctStage implements Breaker {
+        final Distinct distinct;
+        final Stage out;
+        final Pipeline p;
+
+        DistinctStage(Distinct op, Stage out, Pipeline p) {
+            distinct = new Distinct(child(op, 0), op.getMemoryBytes());
+            distinct.openPushed();
+            this.out = out;
+            this.p = p;
+        }
+
+        public void push(Tuple t) throws DbException, TransactionAbortedException {
+            boolean first;
+            synchronized (distinct) {
+                first = distinct.offer(t);
+            }
+            if (first)
+                out.push(t);
+        }
+
+        public void finish() throws DbException, TransactionAbortedException {
+            Tuple t;
+            while (!p.stopped() && (t = distinct.drain()) != null)
+                out.push(t);
+        }
+
+        public void close() {
+            distinct.close();
+        }
+    }
+}
@@ -20,6 +20,30 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
+    // runs the plan when queries are push-based
+    transient private PushEngine engine;
+
+    // where the result goes once read to the end, if it is to be cached
+    transient private QueryResultCache cache;
+    transient private String cacheKey;
+    transient private int[] cacheTables;
+    transient private long[] cacheVersions;
+    transient private List<Tuple> result;
+
+    private static boolean pushBased = false;
+
+    /**
+     * Sets whether queries are run by a {@link PushEngine}, which pushes
+     * tuples through pipelines of morsels on a pool of workers, rather than
+     * pulled through the operators of the plan.
+     */
+    public static void setPushBased(boolean push) {
+        pushBased = push;
+    }
+
+    public static boolean isPushBased() {
+        return pushBased;
+    }
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -41,6 +65,24 @@ public class Query implements Serializable {
         return this.op;
     }
 
+    /**
+     * Stores the result of this query in a cache once it has been read to
+     * the end, unless the tables it reads were written to in the meantime.
+     *
+     * @param cache the cache
+     * @param query the normalized text of the query
+     * @param tableIds the tables the query reads
+     * @param versions their counters before the query started, as returned
+     *            by {@link QueryResultCache#versions}
+     */
+    public void cacheResult(QueryResultCache cache, String query, int[] tableIds,
+            long[] versions) {
+        this.cache = cache;
+        this.cacheKey = query;
+        this.cacheTables = tableIds;
+        this.cacheVersions = versions;
+    }
+
     public Query(TransactionId t) {
         tid = t;
     }
@@ -52,7 +94,14 @@ public class Query implements Serializable {
 
     public void start() throws IOException, DbException,
             TransactionAbortedException {
-        op.open();
+        if (pushBased) {
+            engine = new PushEngine(op);
+            engine.start();
+        } else {
+            engine = null;
+            op.open();
+        }
+        result = cache != null && cacheVersions != null ? new ArrayList<Tuple>() : null;
 
         started = true;
     }
@@ -63,7 +112,12 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        boolean more = engine != null ? engine.hasNext() : op.hasNext();
+        if (!more && result != null) {
+            cache.put(cacheKey, cacheTables, cacheVersions, getOutputTupleDesc(), result);
+            result = null;
+        }
+        return more;
     }
 
     /**
@@ -83,12 +137,25 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        Tuple t = engine != null ? engine.next() : op.next();
+        if (result != null) {
+            result.add(t);
+            // too large to be cached anyway
+            if (QueryResultCache.size(getOutputTupleDesc(), result.size()) > cache.getMaxBytes())
+                result = null;
+        }
+        return t;
     }
 
     /** Close the iterator */
     public void close() throws IOException {
-        op.close();
+        result = null;
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        } else {
+            op.close();
+        }
         started = false;
     }
 
@@ -9,12 +9,26 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String PARALLEL_HASH_JOIN = "⨝(parallel hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
+    static final String BLOCK_JOIN = "⨝(block)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String SEMI_JOIN = "⋉";
+    static final String ANTI_JOIN = "▷";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String PARALLEL_SCAN = "scan(parallel)";
+    static final String SAMPLE_SCAN = "scan(sample %1$s%%)";
+    static final String RID_SCAN = "scan(narrow)";
+    static final String INDEX_SCAN = "scan(index)";
+    static final String SECONDARY_INDEX_SCAN = "scan(index %1$s)";
+    static final String INDEX_ONLY_SCAN = "scan(index-only %1$s)";
+    static final String HASH_SCAN = "scan(hash)";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String STREAM_GROUPBY = "g(stream)";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(DbIterator root) {
@@ -26,7 +40,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (joinSymbol(o) != null) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -39,6 +53,47 @@ public class QueryPlanVisualizer {
         return 2;
     }
 
+    /**
+     * @return the symbol drawn for a join operator, or null if o is not a join
+     */
+    private static String joinSymbol(Operator o) {
+        if (o instanceof Join)
+            return JOIN;
+        if (o instanceof BlockNestedLoopJoin)
+            return BLOCK_JOIN;
+        if (o instanceof IndexNestedLoopJoin)
+            return INDEX_JOIN;
+        if (o instanceof HashEquiJoin)
+            return HASH_JOIN;
+        if (o instanceof ParallelHashJoin)
+            return PARALLEL_HASH_JOIN;
+        if (o instanceof SortMergeJoin)
+            return MERGE_JOIN;
+        if (o instanceof AntiJoin)
+            return ANTI_JOIN;
+        if (o instanceof SemiJoin)
+            return SEMI_JOIN;
+        return null;
+    }
+
+    private static JoinPredicate joinPredicate(Operator o) {
+        if (o instanceof Join)
+            return ((Join) o).getJoinPredicate();
+        if (o instanceof BlockNestedLoopJoin)
+            return ((BlockNestedLoopJoin) o).getJoinPredicate();
+        if (o instanceof IndexNestedLoopJoin)
+            return ((IndexNestedLoopJoin) o).getJoinPredicate();
+        if (o instanceof HashEquiJoin)
+            return ((HashEquiJoin) o).getJoinPredicate();
+        if (o instanceof ParallelHashJoin)
+            return ((ParallelHashJoin) o).getJoinPredicate();
+        if (o instanceof SortMergeJoin)
+            return ((SortMergeJoin) o).getJoinPredicate();
+        if (o instanceof SemiJoin)
+            return ((SemiJoin) o).getJoinPredicate();
+        return null;
+    }
+
     private static class SubTreeDescriptor {
         int width;
         int upBarPosition;
@@ -65,10 +120,18 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan
+                || queryPlan instanceof SecondaryIndexScan || queryPlan instanceof HashScan) {
+            SeqScan s = queryPlan instanceof SeqScan ? (SeqScan) queryPlan : null;
+            BTreeScan b = queryPlan instanceof BTreeScan ? (BTreeScan) queryPlan : null;
+            SecondaryIndexScan si = queryPlan instanceof SecondaryIndexScan
+                    ? (SecondaryIndexScan) queryPlan : null;
+            HashScan h = queryPlan instanceof HashScan ? (HashScan) queryPlan : null;
+            String tableName = s != null ? s.getTableName()
+                    : b != null ? b.getTableName()
+                    : si != null ? si.getTableName() : h.getTableName();
+            String alias = s != null ? s.getAlias() : b != null ? b.getAlias()
+                    : si != null ? si.getAlias() : h.getAlias();
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
@@ -76,6 +139,56 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            if (s instanceof SampleScan) {
+                thisNode.text = String.format("%1$s(%2$s)",
+                        String.format(SAMPLE_SCAN, 100 * ((SampleScan) s).getFraction()),
+                        tableName + alias);
+            }
+            if (b != null && b.getIndexPredicate() != null) {
+                // the filter applied through the index
+                int tableid = Database.getCatalog().getTableId(tableName);
+                BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+                IndexPredicate ip = b.getIndexPredicate();
+                thisNode.text = String.format("%1$s(%2$s) %3$s(%4$s.%5$s%6$s%7$s)", INDEX_SCAN,
+                        tableName + alias, SELECT, b.getAlias(),
+                        f.getTupleDesc().getFieldName(f.keyField()), ip.getOp(), ip.getField());
+            }
+            if (si != null) {
+                IndexPredicate ip = si.getIndexPredicate();
+                String index = String.format(si.isIndexOnly() ? INDEX_ONLY_SCAN
+                        : SECONDARY_INDEX_SCAN, si.getIndex().getName());
+                thisNode.text = String.format("%1$s(%2$s)", index, tableName + alias);
+                if (ip != null) {
+                    TupleDesc td = Database.getCatalog().getTupleDesc(si.getIndex().getTableId());
+                    thisNode.text += String.format(" %1$s(%2$s.%3$s%4$s%5$s)", SELECT,
+                            si.getAlias(), td.getFieldName(si.getIndex().getField()),
+                            ip.getOp(), ip.getField());
+                }
+            }
+            if (h != null) {
+                thisNode.text = String.format("%1$s(%2$s)", HASH_SCAN, tableName + alias);
+                IndexPredicate ip = h.getIndexPredicate();
+                if (ip != null) {
+                    HashIndexFile f = (HashIndexFile) Database.getCatalog().getDatabaseFile(
+                            Database.getCatalog().getTableId(tableName));
+                    thisNode.text += String.format(" %1$s(%2$s.%3$s%4$s%5$s)", SELECT,
+                            h.getAlias(), f.getTupleDesc().getFieldName(f.keyField()),
+                            ip.getOp(), ip.getField());
+                }
+            }
+            if (s instanceof RecordIdScan) {
+                thisNode.text = String.format("%1$s(%2$s)", RID_SCAN, tableName + alias);
+            }
+            if (s instanceof ParallelSeqScan) {
+                // the filters evaluated by the workers, by field name
+                StringBuilder text = new StringBuilder(String.format("%1$s(%2$s)",
+                        PARALLEL_SCAN, tableName + alias));
+                TupleDesc td = Database.getCatalog().getTupleDesc(s.tableid);
+                for (Predicate p : ((ParallelSeqScan) s).getPredicates())
+                    text.append(String.format(" %1$s(%2$s.%3$s%4$s%5$s)", SELECT, s.getAlias(),
+                            td.getFieldName(p.getField()), p.getOp(), p.getOperand()));
+                thisNode.text = text.toString();
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -107,18 +220,17 @@ public class QueryPlanVisualizer {
             Operator plan = (Operator) queryPlan;
             DbIterator[] children = plan.getChildren();
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+            String joinSymbol = joinSymbol(plan);
+            if (joinSymbol != null) {
+                JoinPredicate jp = joinPredicate(plan);
+                // semi-joins only return their left child's fields
+                String field1 = children[0].getTupleDesc().getFieldName(jp.getField1());
+                String field2 = children[1].getTupleDesc().getFieldName(jp.getField2());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", joinSymbol,
+                        field1 + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (joinSymbol.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = joinSymbol.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -128,35 +240,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - joinSymbol.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -170,17 +254,25 @@ public class QueryPlanVisualizer {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                String[] gnames = a.groupFieldNames();
+                // the aggregate output fields are named op(field)
+                StringBuilder aggs = new StringBuilder();
+                for (int i = gnames.length; i < td.numFields(); i++) {
+                    if (i > gnames.length)
+                        aggs.append(", ");
+                    aggs.append(td.getFieldName(i));
+                }
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                if (gnames.length == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = GROUPBY;
+                    String groupBy = plan instanceof StreamingAggregate ? STREAM_GROUPBY : GROUPBY;
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            groupBy, String.join(",", gnames), aggs,
+                            a.getEstimatedCardinality());
+                    alignTxt = groupBy;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
@@ -330,6 +422,26 @@ public class QueryPlanVisualizer {
                 }
                 thisNode.height = currentDepth;
             }
+            else if (children.length == 1)
+            {
+                // any other single child operator, e.g. TopN or Limit
+                String name = plan.getClass().getSimpleName();
+                thisNode.text = String.format("%1$s,card:%2$d", name, plan.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            }
         }
         return thisNode;
     }
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * QueryResultCache keeps the results of recent queries, so that a query
+ * repeated while the tables it reads are unchanged is answered from memory,
+ * without planning it or reading a page through the {@link BufferPool}.
+ * <p>
+ * A result is keyed on the normalized text of its query and the ids of the
+ * tables it reads, and is stored with the modification counters of these
+ * tables (see {@link BufferPool#getTableVersion}) when the query started. It
+ * is served only while the counters are the same and no running transaction
+ * has written to the tables; otherwise it is dropped. The results are evicted
+ * in least recently used order to keep their tuples within a number of bytes.
+ * <p>
+ * A result served from the cache takes no lock on the pages it came from:
+ * it is the state of the tables as of the last committed write.
+ *
+ * @Threadsafe
+ */
+public class QueryResultCache {
+
+    /** Default number of bytes of tuples the cache keeps */
+    public static final long DEFAULT_BYTES = 4L << 20;
+
+    private static class Entry {
+        final int[] tableIds;
+        final long[] versions;
+        final TupleDesc td;
+        final List<Tuple> tuples;
+        final long bytes;
+
+        Entry(int[] tableIds, long[] versions, TupleDesc td, List<Tuple> tuples) {
+            this.tableIds = tableIds;
+            this.versions = versions;
+            this.td = td;
+            this.tuples = tuples;
+            this.bytes = size(td, tuples.size());
+        }
+    }
+
+    private final long maxBytes;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    // in access order, the least recently used first
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * @param maxBytes
+     *            the number of bytes of tuples to keep at most
+     */
+    public QueryResultCache(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("@QueryResultCache, negative size");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the number of bytes the given number of tuples takes, as
+     *         counted against the size of the cache
+     */
+    public static long size(TupleDesc td, int numTuples) {
+        return (long) td.getSize() * numTuples;
+    }
+
+    /**
+     * @return the key of a query reading the given tables
+     */
+    private static String key(String query, int[] tableIds) {
+        return query + " " + Arrays.toString(tableIds);
+    }
+
+    /**
+     * @return the ids of tables, sorted without duplicates
+     */
+    private static int[] normalize(int[] tableIds) {
+        return Arrays.stream(tableIds).sorted().distinct().toArray();
+    }
+
+    /**
+     * The modification counters of tables, to be passed to {@link #put} once
+     * a query reading them has been run.
+     *
+     * @return the counters, or null if a running transaction has written to
+     *         one of the tables, so that its result must not be cached
+     */
+    public long[] versions(int[] tableIds) {
+        BufferPool bp = Database.getBufferPool();
+        int[] ids = normalize(tableIds);
+        long[] versions = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            if (bp.hasUncommittedWrites(ids[i]))
+                return null;
+            versions[i] = bp.getTableVersion(ids[i]);
+        }
+        return versions;
+    }
+
+    /**
+     * Looks up the result of a query.
+     *
+     * @param query
+     *            the normalized text of the query
+     * @param tableIds
+     *            the ids of the tables the query reads
+     * @return an iterator over the result, or null if it is not cached or
+     *         the tables changed since
+     */
+    public synchronized DbIterator get(String query, int[] tableIds) {
+        String k = key(query, normalize(tableIds));
+        Entry e = entries.get(k);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (!Arrays.equals(e.versions, versions(e.tableIds))) {
+            remove(k);
+            misses++;
+            return null;
+        }
+        hits++;
+        return new TupleIterator(e.td, e.tuples);
+    }
+
+    /**
+     * Stores the result of a query, unless the tables it read were written
+     * to since it started, or it does not fit in the cache.
+     *
+     * @param query
+     *            the normalized text of the query
+     * @param tableIds
+     *            the ids of the tables the query reads
+     * @param versions
+     *            the counters of the tables when the query started, as
+     *            returned by {@link #versions}
+     * @param td
+     *            the TupleDesc of the result
+     * @param tuples
+     *            the result
+     * @return true if the result was stored
+     */
+    public synchronized boolean put(String query, int[] tableIds, long[] versions,
+            TupleDesc td, List<Tuple> tuples) {
+        int[] ids = normalize(tableIds);
+        if (versions == null || !Arrays.equals(versions, versions(ids))
+                || size(td, tuples.size()) > maxBytes)
+            return false;
+        String k = key(query, ids);
+        remove(k);
+        Entry e = new Entry(ids, versions, td, new ArrayList<Tuple>(tuples));
+        entries.put(k, e);
+        bytes += e.bytes;
+        Iterator<Entry> lru = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= lru.next().bytes;
+            lru.remove();
+        }
+        return true;
+    }
+
+    private void remove(String k) {
+        Entry e = entries.remove(k);
+        if (e != null)
+            bytes -= e.bytes;
+    }
+
+    /** Drops all the results */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /** @return the number of results cached */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the number of bytes of tuples cached */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /** @return the number of lookups answered from the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups not answered from the cache */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of bytes of tuples the cache keeps at most */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * RecordIdScan is a SeqScan of a heap file that returns only some of the
+ * fields of each tuple, e.g. those its filters and joins read, followed by
+ * an INT field named <code>alias.$rid</code> locating the tuple in the
+ * file. The other fields are read at the end of the plan by a
+ * {@link Fetch}, for the tuples left by then only: until then, the filters
+ * and joins copy narrow tuples around.
+ * <p>
+ * The field holds the page number times the number of slots per page, plus
+ * the slot of the tuple (see {@link #encode}).
+ */
+public class RecordIdScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Name of the field locating the tuple, after the table alias */
+    public static final String RID = "$rid";
+
+    private final int[] fields;
+    private final TupleDesc td;
+    private final int numSlots;
+    private transient Tuple next;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param fields
+     *            the indexes of the fields of the table to return, in order
+     */
+    public RecordIdScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
+        super(tid, tableid, tableAlias);
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("@RecordIdScan, only heap files have record ids to fetch by");
+        TupleDesc full = super.getTupleDesc();
+        Type[] types = new Type[fields.length + 1];
+        String[] names = new String[fields.length + 1];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = full.getFieldType(fields[i]);
+            names[i] = full.getFieldName(fields[i]);
+        }
+        types[fields.length] = Type.INT_TYPE;
+        names[fields.length] = tableAlias + "." + RID;
+        this.fields = fields.clone();
+        this.td = new TupleDesc(types, names);
+        this.numSlots = HeapPage.numSlots(Database.getCatalog().getTupleDesc(tableid));
+    }
+
+    /**
+     * @return the indexes of the fields of the table returned, in order
+     */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * @return the value of the {@link #RID} field of the tuple in the given
+     *         slot of the given page of a table with numSlots slots per page
+     */
+    public static int encode(int pgNo, int slot, int numSlots) {
+        return pgNo * numSlots + slot;
+    }
+
+    /**
+     * @return the RecordId of the tuple of a table whose {@link #RID} field
+     *         is rid
+     */
+    public static RecordId decode(int tableid, int rid, int numSlots) {
+        return new RecordId(new HeapPageId(tableid, rid / numSlots), rid % numSlots);
+    }
+
+    /**
+     * @return the fields of a tuple of the table returned by this scan
+     */
+    Tuple narrow(Tuple t) {
+        Tuple result = new Tuple(td);
+        RecordId rid = t.getRecordId();
+        result.setRecordId(rid);
+        for (int i = 0; i < fields.length; i++)
+            result.setField(i, t.getField(fields[i]));
+        result.setField(fields.length, new IntField(
+                encode(rid.getPageId().pageNumber(), rid.tupleno(), numSlots)));
+        return result;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        next = null;
+        super.open();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        // the Bloom filters apply to the fields returned
+        while (next == null && tableIt.hasNext()) {
+            Tuple t = narrow(tableIt.next());
+            if (passesBloomFilters(t))
+                next = t;
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        next = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        next = null;
+        super.rewind();
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * Repartition splits the tuples of its child into several outputs by a hash
+ * of one of their fields, so that tuples with equal values of the field end
+ * up in the same output. Each output is meant to be read by one copy of a
+ * fragment under a {@link Gather}, e.g. an aggregate grouped on the field,
+ * or one side of a join on it. The child is read once, on a thread of its
+ * own, while the outputs are open; it is read again for the outputs that are
+ * rewound (see {@link Consumer#rewind}).
+ */
+public class Repartition extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Producer producer;
+    private final int field;
+
+    private Repartition(Producer producer, int field) {
+        this.producer = producer;
+        this.field = field;
+    }
+
+    /**
+     * Splits the tuples of child by a hash of a field.
+     *
+     * @param child
+     *            the tuples to split, which must not be read elsewhere
+     * @param field
+     *            the index of the field to split on
+     * @param n
+     *            the number of outputs
+     * @return the outputs, to be read by different threads
+     */
+    public static Repartition[] split(DbIterator child, int field, int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("@Repartition, there must be an output");
+        if (field < 0 || field >= child.getTupleDesc().numFields())
+            throw new IllegalArgumentException("@Repartition, invalid field " + field);
+        Producer producer = new Producer(child, field);
+        Repartition[] outputs = new Repartition[n];
+        for (int i = 0; i < n; i++)
+            outputs[i] = new Repartition(producer, field);
+        producer.setConsumers(outputs);
+        return outputs;
+    }
+
+    Producer[] getProducers() {
+        return new Producer[] { producer };
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    public String getName() {
+        return "repartition(" + getTupleDesc().getFieldName(field) + ")";
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { producer.getChild() };
+    }
+
+    /**
+     * Replaces the child of all the outputs, which must be closed, as they
+     * share it.
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        Producer p = producer.rebuild(children[0]);
+        for (Consumer c : p.getConsumers())
+            ((Repartition) c).producer = p;
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SampleScan reads a random sample of the pages of a HeapFile, as
+ * <code>TABLESAMPLE SYSTEM (percent)</code> does: each page is read with the
+ * given probability, independently of the others, and all of its tuples are
+ * returned. Reading a few percent of the pages is enough for an
+ * {@link Aggregate} built with the same fraction to estimate a SUM, COUNT or
+ * AVG over the whole table, with confidence bounds.
+ * <p>
+ * The pages are chosen by a random generator seeded once per scan, so a
+ * rewind returns the same sample; a scan given the same seed does too, as
+ * long as the table keeps the same pages.
+ */
+public class SampleScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double fraction;
+    private final long seed;
+
+    private transient Random random;
+    private transient int numPages;
+    private transient int pgNo;
+    private transient Iterator<Tuple> pageIt;
+    private transient Tuple next;
+    private boolean opened;
+
+    /**
+     * Constructor, with a random seed.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param percent
+     *            the probability that a page is read, in percent, in (0, 100]
+     */
+    public SampleScan(TransactionId tid, int tableid, String tableAlias, double percent) {
+        this(tid, tableid, tableAlias, percent, new Random().nextLong());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}
+     * @param percent
+     *            the probability that a page is read, in percent, in (0, 100]
+     * @param seed
+     *            the seed of the choice of the pages
+     */
+    public SampleScan(TransactionId tid, int tableid, String tableAlias, double percent,
+            long seed) {
+        super(tid, tableid, tableAlias);
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("@SampleScan, only heap files can be sampled");
+        if (!(percent > 0 && percent <= 100))
+            throw new IllegalArgumentException("@SampleScan, the percentage must be in (0, 100]");
+        this.fraction = percent / 100;
+        this.seed = seed;
+    }
+
+    /**
+     * @return the probability that a page, and so each tuple, is read
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        opened = true;
+        start();
+    }
+
+    private void start() {
+        random = new Random(seed);
+        numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        pgNo = -1;
+        pageIt = null;
+        next = null;
+    }
+
+    /**
+     * Moves to the next page of the sample.
+     *
+     * @return false if there is none
+     */
+    private boolean nextPage() throws DbException, TransactionAbortedException {
+        // one draw per page, so that the sample does not depend on when the
+        // scan stops
+        while (++pgNo < numPages) {
+            if (random.nextDouble() < fraction) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid, pgNo), Permissions.READ_ONLY);
+                pageIt = page.iterator();
+                return true;
+            }
+        }
+        pageIt = null;
+        return false;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!opened)
+            throw new IllegalStateException("Operator not yet open");
+        while (next == null) {
+            if (pageIt == null || !pageIt.hasNext()) {
+                if (!nextPage())
+                    return false;
+                continue;
+            }
+            Tuple t = pageIt.next();
+            if (passesBloomFilters(t))
+                next = t;
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void close() {
+        opened = false;
+        pageIt = null;
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+    }
+}
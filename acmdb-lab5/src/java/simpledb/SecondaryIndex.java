@@ -0,0 +1,268 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A SecondaryIndex maps the values of a field of a HeapFile to the tuples
+ * holding them. It is stored as a BTreeFile keyed on the value, or as a
+ * {@link HashIndexFile} hashed on it, whose tuples hold the value and the
+ * location of a tuple of the heap file, encoded as the <code>$rid</code>
+ * field of a {@link RecordIdScan}. A hash index only finds the tuples of a
+ * value efficiently; a B+ tree index also finds those of a range, in order.
+ * <p>
+ * A covering index also holds the values of some other fields of the heap
+ * file, its included fields, between the value and the location. A query
+ * that reads only the indexed and included fields of the table is answered
+ * from the index alone, without fetching the tuples from the heap file (see
+ * {@link SecondaryIndexScan#SecondaryIndexScan(TransactionId, SecondaryIndex,
+ * String, IndexPredicate, boolean)}).
+ * <p>
+ * The file of an index is a table of the Catalog, under the name of
+ * the index, and the index is registered with its heap file (see
+ * {@link Catalog#getIndexes}): the BufferPool inserts and deletes the
+ * entries of the indexes of a table along with its tuples, as part of the
+ * same transaction.
+ */
+public class SecondaryIndex {
+
+    private final String name;
+    private final int tableid;
+    private final int field;
+    private final int[] included;
+    private final DbFile file;
+    private final int numSlots;
+
+    private SecondaryIndex(String name, int tableid, int field, int[] included, DbFile file) {
+        this.name = name;
+        this.tableid = tableid;
+        this.field = field;
+        this.included = included;
+        this.file = file;
+        this.numSlots = HeapPage.numSlots(Database.getCatalog().getTupleDesc(tableid));
+    }
+
+    /**
+     * Builds the B+ tree index of a field of a heap file from its tuples,
+     * read as a part of the given transaction, and adds it to the Catalog.
+     *
+     * @param tid
+     *            the transaction reading the heap file
+     * @param name
+     *            the name of the index, which must not be the name of a table
+     * @param tableid
+     *            the heap file to index
+     * @param field
+     *            the field to index
+     * @param f
+     *            the file to store the index in
+     * @return the index
+     */
+    public static SecondaryIndex create(TransactionId tid, String name, int tableid, int field,
+            File f) throws DbException, TransactionAbortedException, IOException {
+        return create(tid, name, tableid, field, f, false);
+    }
+
+    /**
+     * Builds the B+ tree or hash index of a field of a heap file from its
+     * tuples, read as a part of the given transaction, and adds it to the
+     * Catalog.
+     *
+     * @param hash
+     *            true to store the index as a HashIndexFile
+     * @see #create(TransactionId, String, int, int, File)
+     */
+    public static SecondaryIndex create(TransactionId tid, String name, int tableid, int field,
+            File f, boolean hash) throws DbException, TransactionAbortedException, IOException {
+        return create(tid, name, tableid, field, new int[0], f, hash);
+    }
+
+    /**
+     * Builds a covering B+ tree or hash index of a field of a heap file from
+     * its tuples, read as a part of the given transaction, and adds it to
+     * the Catalog.
+     *
+     * @param included
+     *            the other fields of the heap file whose values the entries
+     *            hold, in order
+     * @see #create(TransactionId, String, int, int, File, boolean)
+     */
+    public static SecondaryIndex create(TransactionId tid, String name, int tableid, int field,
+            int[] included, File f, boolean hash)
+            throws DbException, TransactionAbortedException, IOException {
+        Catalog catalog = Database.getCatalog();
+        if (!(catalog.getDatabaseFile(tableid) instanceof HeapFile))
+            throw new DbException("@SecondaryIndex, only heap files have secondary indexes");
+        TupleDesc td = catalog.getTupleDesc(tableid);
+        int[] fields = new int[included.length + 1];
+        fields[0] = field;
+        System.arraycopy(included, 0, fields, 1, included.length);
+        Set<Integer> distinct = new HashSet<Integer>();
+        for (int i : fields) {
+            if (i < 0 || i >= td.numFields())
+                throw new DbException("@SecondaryIndex, no field " + i);
+            if (!distinct.add(i))
+                throw new DbException("@SecondaryIndex, field " + i + " is indexed twice");
+        }
+        try {
+            catalog.getTableId(name);
+            throw new DbException("@SecondaryIndex, " + name + " is a table already");
+        } catch (NoSuchElementException e) {
+            // the name is free
+        }
+
+        Type[] types = new Type[fields.length + 1];
+        String[] names = new String[fields.length + 1];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        types[fields.length] = Type.INT_TYPE;
+        names[fields.length] = RecordIdScan.RID;
+        TupleDesc entryTd = new TupleDesc(types, names);
+        // the scan returns the entries: the fields, and the location of the tuple
+        DbIterator entries = new RecordIdScan(tid, tableid, name, fields);
+        DbFile file = hash ? HashIndexFile.load(f, entryTd, 0, entries, name)
+                : new BTreeBulkLoader(f, entryTd, 0, BTreeBulkLoader.DEFAULT_FILL_FACTOR)
+                        .load(entries, false, name);
+        SecondaryIndex index = new SecondaryIndex(name, tableid, field, included.clone(), file);
+        catalog.addIndex(index);
+        return index;
+    }
+
+    /**
+     * @return the name of the index
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the table id of the heap file indexed
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the index of the field indexed
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the indexes of the included fields, in the order of the entries
+     */
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    /**
+     * @return true if the entries hold the values of all the given fields of
+     *         the heap file
+     */
+    public boolean covers(Collection<Integer> fields) {
+        for (int f : fields) {
+            if (f != field && entryPosition(f) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of a field of the heap file in the entries, or -1
+     *         if they do not hold it
+     */
+    public int entryPosition(int tableField) {
+        if (tableField == field)
+            return 0;
+        for (int i = 0; i < included.length; i++) {
+            if (included[i] == tableField)
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the BTreeFile or HashIndexFile holding the entries of the index
+     */
+    public DbFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return true if the entries are in a HashIndexFile, which does not
+     *         return them in order
+     */
+    public boolean isHash() {
+        return file instanceof HashIndexFile;
+    }
+
+    /**
+     * @return an iterator over the entries whose value satisfies a
+     *         predicate, or over all of them if it is null
+     */
+    public DbFileIterator entries(TransactionId tid, IndexPredicate ipred) {
+        if (ipred == null)
+            return file.iterator(tid);
+        if (isHash())
+            return ((HashIndexFile) file).indexIterator(tid, ipred);
+        return ((BTreeFile) file).indexIterator(tid, ipred);
+    }
+
+    /**
+     * @return the location in the heap file of the tuple of an entry
+     */
+    public RecordId recordId(Tuple entry) {
+        IntField rid = (IntField) entry.getField(included.length + 1);
+        return RecordIdScan.decode(tableid, rid.getValue(), numSlots);
+    }
+
+    /**
+     * @return the entry of a tuple of the heap file, which has a RecordId
+     */
+    private Tuple entry(Tuple t) {
+        Tuple entry = new Tuple(file.getTupleDesc());
+        RecordId rid = t.getRecordId();
+        entry.setField(0, t.getField(field));
+        for (int i = 0; i < included.length; i++)
+            entry.setField(i + 1, t.getField(included[i]));
+        entry.setField(included.length + 1, new IntField(
+                RecordIdScan.encode(rid.getPageId().pageNumber(), rid.tupleno(), numSlots)));
+        return entry;
+    }
+
+    /**
+     * Adds the entry of a tuple just inserted into the heap file.
+     */
+    void insert(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, file.getId(), entry(t));
+    }
+
+    /**
+     * Removes the entry of a tuple about to be deleted from the heap file.
+     */
+    void delete(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple target = entry(t);
+        int rid = included.length + 1;
+        DbFileIterator it = entries(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, target.getField(0)));
+        Tuple found = null;
+        it.open();
+        try {
+            while (found == null && it.hasNext()) {
+                Tuple e = it.next();
+                if (e.getField(rid).equals(target.getField(rid)))
+                    found = e;
+            }
+        } finally {
+            it.close();
+        }
+        if (found == null)
+            throw new DbException("@SecondaryIndex, no entry of " + t + " in " + name);
+        Database.getBufferPool().deleteTuple(tid, found);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SecondaryIndexScan reads the tuples of a heap file whose indexed field
+ * satisfies a predicate, through a {@link SecondaryIndex}: it walks the
+ * entries of the index matching the predicate, and fetches the tuple each
+ * one locates from its HeapPage, through the BufferPool. The tuples come out
+ * in the order of the indexed field, unless the index is a hash index.
+ * <p>
+ * An index-only scan of a covering index returns the indexed and included
+ * fields of the tuples straight from the entries, without reading the heap
+ * file or locking its pages.
+ */
+public class SecondaryIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final String alias;
+    private final IndexPredicate ipred;
+    private final TupleDesc td;
+    // for an index-only scan, the position in the entries of each field
+    private final int[] entryPositions;
+    private transient DbFileIterator it;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the heap file through
+     * @param tableAlias
+     *            the alias of the heap file, as for {@link SeqScan}
+     * @param ipred
+     *            the predicate on the indexed field, or null to return all
+     *            the tuples
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred) {
+        this(tid, index, tableAlias, ipred, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param indexOnly
+     *            true to return only the indexed and included fields of the
+     *            tuples, in the order of the fields of the heap file, from
+     *            the entries of the index
+     * @see #SecondaryIndexScan(TransactionId, SecondaryIndex, String,
+     *      IndexPredicate)
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred, boolean indexOnly) {
+        this.tid = tid;
+        this.index = index;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(index.getTableId());
+        List<Integer> fields = new ArrayList<Integer>();
+        for (int i = 0; i < tableTd.numFields(); i++) {
+            if (!indexOnly || index.entryPosition(i) >= 0)
+                fields.add(i);
+        }
+        Type[] types = new Type[fields.size()];
+        String[] names = new String[fields.size()];
+        int[] positions = new int[fields.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tableTd.getFieldType(fields.get(i));
+            names[i] = tableAlias + "." + tableTd.getFieldName(fields.get(i));
+            positions[i] = index.entryPosition(fields.get(i));
+        }
+        this.td = new TupleDesc(types, names);
+        this.entryPositions = indexOnly ? positions : null;
+    }
+
+    /**
+     * @return the name of the heap file in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return true if the tuples are read from the entries of the index only
+     */
+    public boolean isIndexOnly() {
+        return entryPositions != null;
+    }
+
+    /**
+     * @return the index of the indexed field in the tuples returned
+     */
+    public int indexedField() {
+        if (!isIndexOnly())
+            return index.getField();
+        for (int i = 0; i < entryPositions.length; i++) {
+            if (entryPositions[i] == 0)
+                return i;
+        }
+        throw new IllegalStateException("@SecondaryIndexScan, the indexed field is missing");
+    }
+
+    /**
+     * @return the predicate on the indexed field, or null if all the tuples
+     *         are read
+     */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = index.entries(tid, ipred);
+        it.open();
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it == null)
+            throw new IllegalStateException("iterator is closed");
+        Tuple entry = it.next();
+        if (isIndexOnly()) {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < entryPositions.length; i++)
+                t.setField(i, entry.getField(entryPositions[i]));
+            return t;
+        }
+        RecordId r = index.recordId(entry);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, r.getPageId(),
+                Permissions.READ_ONLY);
+        Tuple t = page.getTuple(r.tupleno());
+        if (t == null)
+            throw new DbException("@SecondaryIndexScan, tuple " + r.tupleno() + " of page "
+                    + r.getPageId().pageNumber() + " is gone");
+        return t;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it.rewind();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+    }
+}
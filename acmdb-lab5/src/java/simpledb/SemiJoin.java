@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SemiJoin implements "x IN (subquery)" and "EXISTS (subquery)": it returns
+ * the tuples of its left child that have at least one match on the right,
+ * once each, and never the right tuples themselves.
+ * <p>
+ * It builds a hash set over the join fields of the right child and streams
+ * the left child through it, so each left tuple is decided by a single probe
+ * however many right tuples it matches. The left tuples keep their order.
+ */
+public class SemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate joinPredicate;
+    private DbIterator child1;
+    private DbIterator child2;
+    // the join fields of child2
+    private transient HashSet<Field> keys;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate between a field of child1 and a field
+     *            of child2
+     * @param child1
+     *            Iterator for the left(outer) relation, whose tuples are
+     *            returned
+     * @param child2
+     *            Iterator for the right(inner) relation, e.g. the subquery
+     */
+    public SemiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("@SemiJoin, only equality joins are supported");
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    /**
+     * @return the schema of the left child, the only one returned
+     */
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        keys = new HashSet<>();
+        while (child2.hasNext())
+            keys.add(child2.next().getField(joinPredicate.getField2()));
+        child2.close();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        keys = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+    }
+
+    /**
+     * @param matched
+     *            whether a left tuple has a match on the right
+     * @return true if the left tuple is part of the result
+     */
+    protected boolean keep(boolean matched) {
+        return matched;
+    }
+
+    /**
+     * @return the next left tuple to keep, or null if there are no more
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int field = joinPredicate.getField1();
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (keep(keys.contains(t.getField(field))))
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -17,6 +17,12 @@ public class SeqScan implements DbIterator {
     String tableAlias;
     DbFileIterator tableIt = null;
 
+    // Bloom filters pushed down by hash joins, with the field each applies to
+    private ArrayList<BloomFilter> bloomFilters = new ArrayList<>();
+    private ArrayList<Integer> bloomFields = new ArrayList<>();
+    // the next tuple passing the Bloom filters, read ahead by hasNext
+    private transient Tuple pending;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -81,8 +87,44 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Drops, from now on, the tuples whose given field is not in the Bloom
+     * filter.
+     *
+     * @param field
+     *            the index of the field in this scan's tuples
+     * @param filter
+     *            the filter, e.g. over the join fields of a hash join's build
+     *            input
+     */
+    public void addBloomFilter(int field, BloomFilter filter) {
+        bloomFields.add(field);
+        bloomFilters.add(filter);
+    }
+
+    /**
+     * Stops applying a filter given to {@link #addBloomFilter}.
+     */
+    public void removeBloomFilter(BloomFilter filter) {
+        for (int i = bloomFilters.size() - 1; i >= 0; i--) {
+            if (bloomFilters.get(i) == filter) {
+                bloomFilters.remove(i);
+                bloomFields.remove(i);
+            }
+        }
+    }
+
+    boolean passesBloomFilters(Tuple t) {
+        for (int i = 0; i < bloomFilters.size(); i++) {
+            if (!bloomFilters.get(i).mightContain(t.getField(bloomFields.get(i))))
+                return false;
+        }
+        return true;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        pending = null;
         tableIt.open();
     }
 
@@ -112,23 +154,38 @@ public class SeqScan implements DbIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return tableIt.hasNext();
+        if (pending == null && bloomFilters.isEmpty())
+            return tableIt.hasNext();
+        while (pending == null && tableIt.hasNext()) {
+            Tuple t = tableIt.next();
+            if (passesBloomFilters(t))
+                pending = t;
+        }
+        return pending != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return tableIt.next();
+        if (pending == null && bloomFilters.isEmpty())
+            return tableIt.next();
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = pending;
+        pending = null;
+        return t;
     }
 
     public void close() {
         // some code goes here
+        pending = null;
         tableIt.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        pending = null;
         tableIt.rewind();
     }
 }
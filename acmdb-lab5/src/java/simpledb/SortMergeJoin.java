@@ -0,0 +1,193 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements the relational join operation by
+ * merging two inputs that are sorted on their join fields. It supports the
+ * equality predicate only: it keeps no more of the inner relation than the
+ * run of tuples sharing the current key, where a range predicate would match
+ * a whole prefix or suffix of it. Range joins are left to
+ * {@link BlockNestedLoopJoin}.
+ * <p>
+ * Inputs that are already ordered on the join field (for example a scan of a
+ * BTreeFile on its key field) are consumed as they are; any other input is
+ * sorted first with an {@link OrderBy}.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate joinPredicate;
+    private DbIterator childIt1;
+    private DbIterator childIt2;
+    private TupleDesc tupleDesc;
+
+    // equality merge state: the run of inner tuples sharing the current key
+    private Tuple item1;
+    private Tuple peek2;
+    private ArrayList<Tuple> group2;
+    private int groupPos;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on. The children are checked with {@link OperatorOrdering} and
+     * sorted if their order is not known.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2,
+                OperatorOrdering.isAscendingOn(child1, p.getField1()),
+                OperatorOrdering.isAscendingOn(child2, p.getField2()));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param child1Sorted
+     *            true if child1 already produces tuples in ascending order of
+     *            the left join field
+     * @param child2Sorted
+     *            true if child2 already produces tuples in ascending order of
+     *            the right join field
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean child1Sorted, boolean child2Sorted) {
+        if (!isSupported(p.getOperator()))
+            throw new IllegalArgumentException("@SortMergeJoin, unsupported operator " + p.getOperator());
+        this.joinPredicate = p;
+        this.childIt1 = child1Sorted ? child1 : new OrderBy(p.getField1(), true, child1);
+        this.childIt2 = child2Sorted ? child2 : new OrderBy(p.getField2(), true, child2);
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.group2 = new ArrayList<>();
+    }
+
+    /**
+     * @return true if op can be evaluated by a sort-merge join
+     */
+    public static boolean isSupported(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return childIt1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return childIt2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        childIt1.open();
+        childIt2.open();
+        resetState();
+    }
+
+    public void close() {
+        childIt1.close();
+        childIt2.close();
+        item1 = null;
+        peek2 = null;
+        group2.clear();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        childIt1.rewind();
+        childIt2.rewind();
+        resetState();
+    }
+
+    private void resetState() throws DbException, TransactionAbortedException {
+        item1 = null;
+        group2.clear();
+        groupPos = 0;
+        peek2 = childIt2.hasNext() ? childIt2.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The output tuples are the concatenation of the joining
+     * tuples from the left and right relation, as in {@link Join}.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int f1 = joinPredicate.getField1(), f2 = joinPredicate.getField2();
+        while (true) {
+            if (item1 != null && groupPos < group2.size())
+                return Tuple.merge(item1, group2.get(groupPos++));
+            if (!childIt1.hasNext())
+                return null;
+            Tuple prev1 = item1;
+            item1 = childIt1.next();
+            groupPos = 0;
+            // duplicate outer keys replay the buffered inner run
+            if (prev1 != null && !group2.isEmpty()
+                    && compareFields(item1.getField(f1), group2.get(0).getField(f2)) == 0)
+                continue;
+            group2.clear();
+            Field key = item1.getField(f1);
+            while (peek2 != null && compareFields(peek2.getField(f2), key) < 0)
+                peek2 = childIt2.hasNext() ? childIt2.next() : null;
+            if (peek2 == null)
+                return null; // inner relation exhausted, no later outer key can match
+            while (peek2 != null && compareFields(peek2.getField(f2), key) == 0) {
+                group2.add(peek2);
+                peek2 = childIt2.hasNext() ? childIt2.next() : null;
+            }
+        }
+    }
+
+    static int compareFields(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{childIt1, childIt2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        assert children.length == 2;
+        childIt1 = children[0];
+        childIt2 = children[1];
+    }
+
+}
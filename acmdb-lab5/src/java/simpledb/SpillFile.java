@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is a temporary file of tuples, used by operators that run out of
+ * their memory budget. It is written once, sequentially, and can then be read
+ * back any number of times.
+ * <p>
+ * Tuples are stored in a compact binary row format rather than in the fixed
+ * size page format: an int is 4 bytes, and a string is its modified UTF-8
+ * encoding preceded by a 2 byte length (see {@link DataOutputStream#writeUTF}),
+ * so short strings do not pay for {@link Type#STRING_LEN} bytes.
+ */
+public class SpillFile {
+
+    /** Size of the buffer of one reader or writer, in bytes. */
+    public static final int BUFFER_SIZE = 8192;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Create a new, empty spill file for tuples of the given schema.
+     *
+     * @throws DbException
+     *             if the temporary file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("simpledb-spill", ".tmp");
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples written to this file
+     */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * Append a tuple to the file.
+     */
+    public void write(Tuple t) throws DbException {
+        if (out == null)
+            throw new DbException("spill file is closed for writing");
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    out.writeInt(((IntField) f).getValue());
+                else
+                    out.writeUTF(((StringField) f).getValue());
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    /**
+     * Flush the written tuples; no more tuples may be written afterwards.
+     */
+    public void finishWriting() throws DbException {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Open a new reader over the tuples of this file, in the order they were
+     * written. Implicitly calls {@link #finishWriting}.
+     */
+    public Reader reader() throws DbException {
+        finishWriting();
+        return new Reader();
+    }
+
+    /**
+     * Delete the file. The file must not be used afterwards.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * Sequential reader over a SpillFile.
+     */
+    public class Reader {
+        private DataInputStream in;
+        private int remaining;
+
+        private Reader() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            remaining = numTuples;
+        }
+
+        /**
+         * @return the next tuple, or null if all tuples have been read
+         */
+        public Tuple readNext() throws DbException {
+            if (remaining == 0)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE)
+                        t.setField(i, new IntField(in.readInt()));
+                    else
+                        t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+            remaining = 0;
+        }
+    }
+}
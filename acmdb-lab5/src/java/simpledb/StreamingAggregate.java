@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamingAggregate computes the same result as {@link Aggregate} for a
+ * child whose tuples arrive grouped on the group-by fields, e.g. a scan of a
+ * B+ tree grouped by its key (see {@link OperatorOrdering#isGroupedOn}).
+ * <p>
+ * Instead of building a hash table of all the groups, it aggregates one group
+ * at a time and emits it as soon as the group key changes, so it uses
+ * constant memory and produces its first group before reading the whole
+ * input. The groups are produced in the order of the input.
+ */
+public class StreamingAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int[] gfields;
+    private int[] afields;
+    private Aggregator.Op[] aops;
+
+    // the state of the current group
+    private Tuple first;
+    private int[] acc;
+    private int cnt;
+    // per APPROX_COUNT_DISTINCT, null for the other aggregates
+    private HyperLogLog[] sketches;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, grouped on gfields.
+     * @param afields
+     *            The column over which each aggregate is computed.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each aggregate
+     * @throws IllegalArgumentException
+     *             if an aggregate other than COUNT is computed over a string
+     *             column
+     */
+    public StreamingAggregate(DbIterator child, int[] afields, int[] gfields,
+            Aggregator.Op[] aops) {
+        super(child, afields, gfields, aops);
+        this.child = child;
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.acc = new int[aops.length];
+        this.sketches = new HyperLogLog[aops.length];
+    }
+
+    /**
+     * Leaves the child open: groups are read from it as they are requested.
+     */
+    protected void consumeChild() {
+        first = null;
+    }
+
+    public void close() {
+        child.close();
+        first = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        first = null;
+    }
+
+    private boolean sameGroup(Tuple a, Tuple b) {
+        for (int g : gfields) {
+            if (!a.getField(g).equals(b.getField(g)))
+                return false;
+        }
+        return true;
+    }
+
+    private void startGroup(Tuple t) {
+        first = t;
+        Arrays.fill(acc, 0);
+        for (int a = 0; a < aops.length; a++)
+            sketches[a] = aops[a] == Aggregator.Op.APPROX_COUNT_DISTINCT ? new HyperLogLog() : null;
+        cnt = 0;
+        accumulate(t);
+    }
+
+    private void accumulate(Tuple t) {
+        for (int a = 0; a < aops.length; a++) {
+            if (aops[a] == Aggregator.Op.COUNT)
+                continue;
+            if (sketches[a] != null) {
+                sketches[a].add(t.getField(afields[a]));
+                continue;
+            }
+            int value = ((IntField) t.getField(afields[a])).getValue();
+            switch (aops[a]) {
+                case MIN:
+                    acc[a] = cnt == 0 ? value : Math.min(acc[a], value);
+                    break;
+                case MAX:
+                    acc[a] = cnt == 0 ? value : Math.max(acc[a], value);
+                    break;
+                default: // SUM, AVG
+                    acc[a] += value;
+                    break;
+            }
+        }
+        cnt++;
+    }
+
+    private Tuple result() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < gfields.length; i++)
+            t.setField(i, first.getField(gfields[i]));
+        for (int a = 0; a < aops.length; a++) {
+            int value;
+            if (aops[a] == Aggregator.Op.COUNT)
+                value = cnt;
+            else if (aops[a] == Aggregator.Op.AVG)
+                value = acc[a] / cnt;
+            else if (sketches[a] != null)
+                value = (int) Math.min(sketches[a].estimate(), Integer.MAX_VALUE);
+            else
+                value = acc[a];
+            t.setField(gfields.length + a, new IntField(value));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the next group, once the first tuple of the following group or
+     * the end of the input has been read. Should return null if there are no
+     * more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (first == null) {
+            if (!child.hasNext())
+                return null;
+            startGroup(child.next());
+        }
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(first, t)) {
+                Tuple done = result();
+                startGroup(t);
+                return done;
+            }
+            accumulate(t);
+        }
+        Tuple done = result();
+        first = null;
+        return done;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        super.setChildren(children);
+        child = children[0];
+    }
+}
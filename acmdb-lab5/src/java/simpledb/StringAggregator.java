@@ -1,8 +1,5 @@
 package simpledb;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
 /**
  * Knows how to compute some aggregate over a set of StringFields.
  */
@@ -15,10 +12,12 @@ public class StringAggregator implements Aggregator {
     private Op what;
 
     private TupleDesc tupleDesc;
-    private HashMap<Field, Integer> groupRes;
+    // (group value, count), spilled to disk past the memory budget
+    private transient HashAggregation groups;
 
     /**
-     * Aggregate constructor
+     * Aggregate constructor, using a memory budget of
+     * {@link HashAggregation#DEFAULT_MEMORY_PAGES} pages.
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
      * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
      * @param afield the 0-based index of the aggregate field in the tuple
@@ -27,14 +26,27 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
+        this(gbfield, gbfieldtype, afield, what,
+                (long) HashAggregation.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize());
+    }
+
+    /**
+     * Aggregate constructor
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param what aggregation operator to use -- only supports COUNT
+     * @param memoryBytes the memory budget for the groups, in bytes
+     * @throws IllegalArgumentException if what != COUNT
+     */
+    public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what,
+            long memoryBytes) {
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         if (what != Op.COUNT)
             throw new IllegalArgumentException("@StringAggregator");
         this.what = what;
-        this.groupRes = new HashMap<>();
         if (gbfield == NO_GROUPING)
             // no grouping
             // seems no check on tupleDesc
@@ -43,24 +55,27 @@ public class StringAggregator implements Aggregator {
             // need grouping
             tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"StringGroupRes", "StringAggregateRes"});
         }
+        boolean grouping = gbfield != NO_GROUPING;
+        this.groups = new HashAggregation(
+                grouping ? new int[] { gbfield } : new int[0],
+                grouping ? new Type[] { gbfieldtype } : new Type[0],
+                new int[] { afield }, new Op[] { what }, tupleDesc, memoryBytes);
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the constructor
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
-        Field groupKey = (gbfield == NO_GROUPING) ? null : tup.getField(gbfield);
-        Integer toPut;
-        if (gbfield == NO_GROUPING) {
-            toPut = ((IntField) tup.getField(afield)).getValue();
-            groupRes.put(groupKey, toPut);
-        } else {
-            toPut = groupRes.get(groupKey);
-            toPut = (toPut == null) ? 1 : toPut + 1;
-            groupRes.put(groupKey, toPut);
-        }
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        groups.add(tup);
+    }
+
+    /**
+     * @return true if the groups did not fit in the memory budget and were
+     *         written to disk
+     */
+    public boolean isExternal() {
+        return groups.isExternal();
     }
 
     /**
@@ -71,23 +86,12 @@ public class StringAggregator implements Aggregator {
      *   grouping. The aggregateVal is determined by the type of
      *   aggregate specified in the constructor.
      */
-    public DbIterator iterator() {
-        // some code goes here
-        ArrayList<Tuple> resTups = new ArrayList<Tuple>();
-        for (Field groupKey : this.groupRes.keySet()) {
-            Field aggRes = new IntField(groupRes.get(groupKey));
-            Tuple t = new Tuple(tupleDesc);
-            if (gbfield == NO_GROUPING) {
-                // no grouping
-                t.setField(0, aggRes);
-            } else {
-                // need grouping
-                t.setField(0, groupKey);
-                t.setField(1, aggRes);
-            }
-            resTups.add(t);
-        }
-        return new TupleIterator(tupleDesc, resTups);
+    public DbIterator iterator() throws DbException {
+        return groups.iterator();
+    }
+
+    public void close() {
+        groups.close();
     }
 
     @Override
@@ -1,6 +1,7 @@
 package simpledb;
 
 import javax.swing.*;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -103,7 +104,8 @@ public class TableStats {
         HashMap<Integer, Integer> minInts = new HashMap<>();
 
         // iterate through the table to collect statistics
-        DbFileIterator dbFileIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(new TransactionId());
+        TransactionId tid = new TransactionId();
+        DbFileIterator dbFileIterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
         try {
             dbFileIterator.open();
             Tuple curTup;
@@ -159,6 +161,14 @@ public class TableStats {
             e.printStackTrace();
         } catch (TransactionAbortedException e) {
             e.printStackTrace();
+        } finally {
+            // release the read locks, or the table could not be written to
+            dbFileIterator.close();
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
 
     }
@@ -180,6 +190,95 @@ public class TableStats {
         return this.ioCostPerPage * Database.getCatalog().getDatabaseFile(this.tableid).numPages();
     }
 
+    /**
+     * Estimates the cost of reading, through the index of a B+ tree file,
+     * the tuples whose key satisfies a predicate of the given selectivity:
+     * one page per level of the tree from the root down to the first leaf,
+     * then the leaves holding the tuples, which are next to each other.
+     *
+     * For a hash index file, the predicate must be an equality: the meta
+     * and directory pages are read, then the pages of the bucket of the key.
+     *
+     * @param selectivity
+     *            the selectivity of the predicate on the key field
+     * @return The estimated cost of the index scan, or infinity if the table
+     *         is neither a B+ tree file nor a hash index file
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        DbFile f = Database.getCatalog().getDatabaseFile(this.tableid);
+        if (f instanceof HashIndexFile)
+            return this.ioCostPerPage * hashPages((HashIndexFile) f, selectivity);
+        if (!(f instanceof BTreeFile))
+            return Double.POSITIVE_INFINITY;
+        return this.ioCostPerPage * indexPages((BTreeFile) f, selectivity);
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of this table whose indexed
+     * field satisfies a predicate of the given selectivity through a
+     * secondary index: the pages of the index read as by
+     * {@link #estimateIndexScanCost(double)}, then one page of the table per
+     * tuple, as the tuples are scattered across it. The predicate on a hash
+     * index must be an equality.
+     *
+     * @param index
+     *            a secondary index of this table
+     * @param selectivity
+     *            the selectivity of the predicate on the indexed field
+     * @return The estimated cost of the index scan
+     */
+    public double estimateIndexScanCost(SecondaryIndex index, double selectivity) {
+        double indexPages = index.isHash()
+                ? hashPages((HashIndexFile) index.getFile(), selectivity)
+                : indexPages((BTreeFile) index.getFile(), selectivity);
+        return this.ioCostPerPage * (indexPages + selectivity * this.ntups);
+    }
+
+    /**
+     * Estimates the cost of reading the indexed and included fields of the
+     * tuples of this table whose indexed field satisfies a predicate of the
+     * given selectivity from a covering secondary index alone: the pages of
+     * the index read as by {@link #estimateIndexScanCost(SecondaryIndex,
+     * double)}, but none of the table.
+     *
+     * @param index
+     *            a secondary index of this table
+     * @param selectivity
+     *            the selectivity of the predicate on the indexed field, or 1
+     *            to scan the whole index
+     * @return The estimated cost of the index-only scan
+     */
+    public double estimateIndexOnlyScanCost(SecondaryIndex index, double selectivity) {
+        double indexPages = index.isHash()
+                ? hashPages((HashIndexFile) index.getFile(), selectivity)
+                : indexPages((BTreeFile) index.getFile(), selectivity);
+        return this.ioCostPerPage * indexPages;
+    }
+
+    /**
+     * @return the number of pages of a B+ tree file read from the root down
+     *         to the first leaf, then along the leaves holding the given share
+     *         of its tuples
+     */
+    private static double indexPages(BTreeFile f, double selectivity) {
+        int numPages = Math.max(f.numPages(), 1);
+        // an internal page holds about one key and child pointer per
+        // key size plus 4 bytes
+        int keySize = f.getTupleDesc().getFieldType(f.keyField()).getLen();
+        double fanout = Math.max(2, BufferPool.getPageSize() / (keySize + 4));
+        int height = 1 + (int) Math.ceil(Math.log(numPages) / Math.log(fanout));
+        return height + Math.ceil(selectivity * numPages);
+    }
+
+    /**
+     * @return the number of pages of a hash index file read to find the
+     *         tuples of a key, which are the given share of its tuples: the
+     *         meta page, a directory page, and the pages of the bucket
+     */
+    private static double hashPages(HashIndexFile f, double selectivity) {
+        return 2 + Math.max(1, Math.ceil(selectivity * f.numPages()));
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
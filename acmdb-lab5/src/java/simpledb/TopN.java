@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its child in sort order. Instead of sorting the whole
+ * input it streams the child through a bounded heap holding the best n tuples
+ * seen so far, so it needs memory for n tuples only.
+ * <p>
+ * Ties are broken by input order, so the result is the same as the first n
+ * tuples of a stable {@link OrderBy}.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int[] orderByFields;
+    private boolean[] ascs;
+    private int n;
+    private transient ArrayList<Tuple> result;
+    private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param ascs
+     *            for each field, true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] ascs, int n, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length)
+            throw new IllegalArgumentException("@TopN, need one direction per sort field");
+        if (n < 0)
+            throw new IllegalArgumentException("@TopN, n must not be negative");
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.n = n;
+        this.child = child;
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    public boolean isASC() {
+        return ascs[0];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        Heap heap = newHeap();
+        while (n > 0 && child.hasNext())
+            heap.add(child.next());
+        result = heap.result();
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        result = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    /**
+     * @return the next of the n best tuples, in sort order
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (result != null && pos < result.size())
+            return result.get(pos++);
+        return null;
+    }
+
+    /**
+     * @return an empty heap keeping the n best tuples of this operator, e.g.
+     *         to feed with tuples pushed by a {@link PushEngine}
+     */
+    Heap newHeap() {
+        return new Heap(new TupleComparator(orderByFields, ascs), n);
+    }
+
+    /**
+     * The n best tuples added so far, in a max-heap on (sort key, arrival)
+     * whose head is the worst tuple kept.
+     */
+    static class Heap {
+        private final Comparator<Tuple> cmp;
+        private final int n;
+        private final PriorityQueue<Entry> heap;
+        private long seq;
+
+        Heap(Comparator<Tuple> cmp, int n) {
+            this.cmp = cmp;
+            this.n = n;
+            heap = new PriorityQueue<>(Math.max(1, n), (a, b) -> {
+                int c = cmp.compare(b.tuple, a.tuple);
+                return c != 0 ? c : Long.compare(b.seq, a.seq);
+            });
+        }
+
+        void add(Tuple t) {
+            if (heap.size() < n) {
+                heap.add(new Entry(t, seq++));
+            } else if (n > 0 && cmp.compare(t, heap.peek().tuple) < 0) {
+                // later tuples lose ties, so only a strictly better one gets in
+                heap.poll();
+                heap.add(new Entry(t, seq++));
+            }
+        }
+
+        /**
+         * @return the tuples kept, in sort order; empties the heap
+         */
+        ArrayList<Tuple> result() {
+            ArrayList<Tuple> result = new ArrayList<>(heap.size());
+            while (!heap.isEmpty())
+                result.add(heap.poll().tuple);
+            Collections.reverse(result);
+            return result;
+        }
+    }
+
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
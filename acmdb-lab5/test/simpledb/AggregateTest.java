@@ -176,6 +176,45 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for several aggregates over a composite group key, including
+   * a COUNT over a string field
+   */
+  @Test public void multipleAggregates() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new Object[] { 1, 2, "a",
+                    1, 4, "a",
+                    1, 6, "b",
+                    3, 2, "a",
+                    3, 4, "a",
+                    3, 6, "a",
+                    5, 7, "c" });
+    Aggregate op = new Aggregate(scan, new int[] { 1, 1, 1, 2 }, new int[] { 0, 2 },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT });
+    TupleDesc td = op.getTupleDesc();
+    assertEquals(6, td.numFields());
+    assertEquals(Type.STRING_TYPE, td.getFieldType(1));
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(6,
+        new Object[] { 1, "a", 2, 4, 3, 2,
+                    1, "b", 6, 6, 6, 1,
+                    3, "a", 2, 6, 4, 3,
+                    5, "c", 7, 7, 7, 1 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+
+    // reopening computes the same groups again
+    op.close();
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(4, count);
+  }
+
   /**
    * JUnit suite target
    */
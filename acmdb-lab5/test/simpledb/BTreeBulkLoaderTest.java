@@ -0,0 +1,199 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeBulkLoaderTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+
+	private TransactionId tid;
+	private TupleDesc td;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		td = Utility.getTupleDesc(2);
+		file = File.createTempFile("bulk", ".dat");
+		file.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+	}
+
+	/**
+	 * @return n tuples with random keys, and the row number as second field
+	 */
+	private List<Tuple> randomTuples(int n) {
+		Random rand = new Random(7);
+		List<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < n; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(rand.nextInt(n / 4)));
+			t.setField(1, new IntField(i));
+			tuples.add(t);
+		}
+		return tuples;
+	}
+
+	private BTreeFile load(List<Tuple> tuples, boolean sorted, double fillFactor) throws Exception {
+		BTreeBulkLoader loader = new BTreeBulkLoader(file, td, 0, fillFactor);
+		// enough for a few runs to spill
+		loader.setSortMemory(td.getSize() * ROWS / 4);
+		return loader.load(new TupleIterator(td, tuples), sorted, "bulk");
+	}
+
+	/**
+	 * @return the tuples of the file, in the order of the leaves
+	 */
+	private List<Tuple> scan(DbFileIterator it) throws Exception {
+		List<Tuple> tuples = new ArrayList<Tuple>();
+		it.open();
+		while (it.hasNext())
+			tuples.add(it.next());
+		it.close();
+		return tuples;
+	}
+
+	/**
+	 * Unsorted input is sorted, and makes a valid B+ tree with full pages
+	 */
+	@Test
+	public void loadUnsorted() throws Exception {
+		List<Tuple> tuples = randomTuples(ROWS);
+		BTreeFile bf = load(tuples, false, 1.0);
+		assertEquals(bf.getId(), Database.getCatalog().getTableId("bulk"));
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+
+		List<Tuple> scanned = scan(bf.iterator(tid));
+		assertEquals(ROWS, scanned.size());
+		Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(0));
+		for (int i = 0; i < ROWS; i++)
+			assertEquals(tuples.get(i).getField(0), scanned.get(i).getField(0));
+
+		int key = ((IntField) tuples.get(ROWS / 2).getField(0)).getValue();
+		int matches = 0;
+		for (Tuple t : tuples) {
+			if (((IntField) t.getField(0)).getValue() == key)
+				matches++;
+		}
+		assertEquals(matches, scan(bf.indexIterator(tid,
+				new IndexPredicate(Op.EQUALS, new IntField(key)))).size());
+
+		// as many leaves as needed, and few internal pages
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				new BTreePageId(bf.getId(), 1, BTreePageId.LEAF), Permissions.READ_ONLY);
+		int leaves = (ROWS + leaf.getMaxTuples() - 1) / leaf.getMaxTuples();
+		assertTrue(bf.numPages() <= leaves + 2);
+	}
+
+	/**
+	 * A lower fill factor leaves room in the pages, which inserts use before
+	 * splitting them
+	 */
+	@Test
+	public void fillFactor() throws Exception {
+		List<Tuple> tuples = randomTuples(ROWS);
+		Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(0));
+		BTreeFile bf = load(tuples, true, 0.7);
+		int numPages = bf.numPages();
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				new BTreePageId(bf.getId(), 1, BTreePageId.LEAF), Permissions.READ_ONLY);
+		assertEquals((int) (0.7 * leaf.getMaxTuples()), leaf.getNumTuples());
+		assertTrue(numPages > (ROWS + leaf.getMaxTuples() - 1) / leaf.getMaxTuples() * 10 / 8);
+		// the locks of the check would fill the buffer pool
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		for (int i = 0; i < 20; i++)
+			Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i * 250, 2));
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(numPages, bf.numPages());
+		assertEquals(ROWS + 20, scan(bf.iterator(tid)).size());
+	}
+
+	/**
+	 * Small pages make several levels of internal pages
+	 */
+	@Test
+	public void levels() throws Exception {
+		BufferPool.setPageSize(256);
+		Database.reset();
+		List<Tuple> tuples = randomTuples(ROWS);
+		BTreeFile bf = load(tuples, false, 0.8);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+				rootPtr.getRootId(), Permissions.READ_ONLY);
+		assertEquals(BTreePageId.INTERNAL, root.iterator().next().getLeftChild().pgcateg());
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// a transaction per check keeps the buffer pool from filling up
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		for (int key : new int[] { 0, 7, 1000, ROWS / 4 - 1 }) {
+			int matches = 0;
+			for (Tuple t : tuples) {
+				if (((IntField) t.getField(0)).getValue() >= key)
+					matches++;
+			}
+			assertEquals(matches, scan(bf.indexIterator(tid,
+					new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(key)))).size());
+			Database.getBufferPool().transactionComplete(tid);
+			tid = new TransactionId();
+		}
+	}
+
+	/**
+	 * A single page of tuples is the root, and no tuples make an empty root
+	 */
+	@Test
+	public void small() throws Exception {
+		BTreeFile bf = load(randomTuples(8), false, 1.0);
+		assertEquals(1, bf.numPages());
+		assertEquals(8, scan(bf.iterator(tid)).size());
+
+		Database.reset();
+		tid = new TransactionId();
+		bf = load(new ArrayList<Tuple>(), true, 1.0);
+		assertEquals(1, bf.numPages());
+		assertEquals(0, scan(bf.iterator(tid)).size());
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(3, 2));
+		assertEquals(1, scan(bf.iterator(tid)).size());
+	}
+
+	@Test(expected = DbException.class)
+	public void unsortedInput() throws Exception {
+		load(randomTuples(100), true, 1.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badFillFactor() throws Exception {
+		new BTreeBulkLoader(file, td, 0, 0.3);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeBulkLoaderTest.class);
+	}
+}
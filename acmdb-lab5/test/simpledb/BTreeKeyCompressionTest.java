@@ -0,0 +1,291 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeKeyCompressionTest extends SimpleDbTestBase {
+	private static final int ROWS = 4000;
+
+	private TransactionId tid;
+	private TupleDesc td;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		// small pages make a tree of three levels
+		BufferPool.setPageSize(1024);
+		Database.reset();
+		tid = new TransactionId();
+		td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+		file = File.createTempFile("compressed", ".dat");
+		file.deleteOnExit();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	private void commit() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+	}
+
+	private static StringField key(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	/**
+	 * @return n tuples with random keys of 5 to 60 letters sharing long
+	 *         prefixes, and the row number as second field
+	 */
+	private List<Tuple> randomTuples(int n, long seed) {
+		Random rand = new Random(seed);
+		List<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < n; i++) {
+			StringBuilder sb = new StringBuilder();
+			int len = 5 + rand.nextInt(56);
+			for (int j = 0; j < len; j++)
+				sb.append("abc".charAt(rand.nextInt(3)));
+			Tuple t = new Tuple(td);
+			t.setField(0, key(sb.toString()));
+			t.setField(1, new IntField(i));
+			tuples.add(t);
+		}
+		return tuples;
+	}
+
+	/**
+	 * @return the tuples of an iterator as strings, in order
+	 */
+	private List<String> scan(DbFileIterator it) throws Exception {
+		List<String> result = new ArrayList<String>();
+		it.open();
+		while (it.hasNext())
+			result.add(it.next().toString());
+		it.close();
+		return result;
+	}
+
+	/**
+	 * @return the tuples as strings, sorted on their key and then on their
+	 *         second field
+	 */
+	private static List<String> sorted(List<Tuple> tuples) {
+		List<String> result = new ArrayList<String>();
+		for (Tuple t : tuples)
+			result.add(t.toString());
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return the tuples of the file as strings, sorted as by sorted()
+	 */
+	private List<String> contents(BTreeFile bf) throws Exception {
+		List<String> result = scan(bf.iterator(tid));
+		String prev = null;
+		for (String s : result) {
+			String k = s.split("\t")[0];
+			assertTrue(prev == null || prev.compareTo(k) <= 0);
+			prev = k;
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	private Page page(BTreePageId pid) throws Exception {
+		return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	/**
+	 * @return the number of levels of the tree
+	 */
+	private int height(BTreeFile bf) throws Exception {
+		BTreePageId pid = ((BTreeRootPtrPage) page(BTreeRootPtrPage.getId(bf.getId()))).getRootId();
+		int height = 1;
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			pid = ((BTreeInternalPage) page(pid)).iterator().next().getLeftChild();
+			height++;
+		}
+		return height;
+	}
+
+	/**
+	 * Separators are the shortest prefixes of the right key greater than the
+	 * left one; other keys are not truncated
+	 */
+	@Test
+	public void separator() {
+		assertEquals(key("b"), BTreeKeyCompression.separator(key("apple"), key("banana")));
+		assertEquals(key("abd"), BTreeKeyCompression.separator(key("abcz"), key("abde")));
+		assertEquals(key("abcd"), BTreeKeyCompression.separator(key("abc"), key("abcd")));
+		assertEquals(key("abc"), BTreeKeyCompression.separator(key("abc"), key("abc")));
+		assertEquals(new IntField(3), BTreeKeyCompression.separator(new IntField(3), new IntField(9)));
+	}
+
+	/**
+	 * Inserts make a valid tree whose pages hold many more entries than their
+	 * capacity in uncompressed keys, and whose pages read back as written
+	 */
+	@Test
+	public void insert() throws Exception {
+		BTreeFile bf = new BTreeFile(file, 0, td);
+		Database.getCatalog().addTable(bf, "compressed");
+		List<Tuple> tuples = randomTuples(ROWS, 3);
+		// a transaction per batch keeps the buffer pool from filling up
+		for (int i = 0; i < tuples.size(); i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuples.get(i));
+			if (i % 5 == 4)
+				commit();
+		}
+		commit();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(sorted(tuples), contents(bf));
+		assertEquals(3, height(bf));
+
+		BTreePageId rootId = ((BTreeRootPtrPage) page(BTreeRootPtrPage.getId(bf.getId()))).getRootId();
+		BTreeInternalPage root = (BTreeInternalPage) page(rootId);
+		BTreeInternalPage internal = (BTreeInternalPage) page(root.iterator().next().getLeftChild());
+		BTreeLeafPage leaf = (BTreeLeafPage) page(internal.iterator().next().getLeftChild());
+		assertTrue(internal.getNumEntries() > 4 * internal.getMaxEntries());
+		assertTrue(leaf.getNumTuples() > 2 * leaf.getMaxTuples());
+
+		BTreeInternalPage internalCopy = new BTreeInternalPage(internal.getId(), internal.getPageData(), 0);
+		assertArrayEquals(internal.getPageData(), internalCopy.getPageData());
+		Iterator<BTreeEntry> it = internal.iterator();
+		Iterator<BTreeEntry> copyIt = internalCopy.iterator();
+		while (it.hasNext()) {
+			BTreeEntry e = it.next();
+			BTreeEntry copy = copyIt.next();
+			assertEquals(e.getKey(), copy.getKey());
+			assertEquals(e.getRightChild(), copy.getRightChild());
+		}
+		assertFalse(copyIt.hasNext());
+
+		BTreeLeafPage leafCopy = new BTreeLeafPage(leaf.getId(), leaf.getPageData(), 0);
+		assertArrayEquals(leaf.getPageData(), leafCopy.getPageData());
+		List<String> leafTuples = new ArrayList<String>();
+		Iterator<Tuple> tupIt = leaf.iterator();
+		while (tupIt.hasNext())
+			leafTuples.add(tupIt.next().toString());
+		List<String> copyTuples = new ArrayList<String>();
+		tupIt = leafCopy.iterator();
+		while (tupIt.hasNext())
+			copyTuples.add(tupIt.next().toString());
+		assertEquals(leafTuples, copyTuples);
+
+		String k = ((StringField) tuples.get(ROWS / 2).getField(0)).getValue();
+		List<Tuple> matching = new ArrayList<Tuple>();
+		for (Tuple t : tuples) {
+			if (((StringField) t.getField(0)).getValue().equals(k))
+				matching.add(t);
+		}
+		assertEquals(sorted(matching), sorted(toTuples(bf, Op.EQUALS, k)));
+	}
+
+	private List<Tuple> toTuples(BTreeFile bf, Op op, String k) throws Exception {
+		List<Tuple> result = new ArrayList<Tuple>();
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(op, key(k)));
+		it.open();
+		while (it.hasNext())
+			result.add(it.next());
+		it.close();
+		return result;
+	}
+
+	/**
+	 * Deletes steal from and merge pages of varying size and keep the tree
+	 * valid down to a single level
+	 */
+	@Test
+	public void delete() throws Exception {
+		BTreeFile bf = new BTreeFile(file, 0, td);
+		Database.getCatalog().addTable(bf, "compressed");
+		List<Tuple> tuples = randomTuples(ROWS, 5);
+		for (int i = 0; i < tuples.size(); i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), tuples.get(i));
+			if (i % 5 == 4)
+				commit();
+		}
+		commit();
+		assertEquals(3, height(bf));
+
+		List<Tuple> remaining = new ArrayList<Tuple>(tuples);
+		Collections.shuffle(remaining, new Random(11));
+		while (remaining.size() > 10) {
+			Tuple victim = remaining.remove(remaining.size() - 1);
+			// the tuples move between pages, so look each one up again
+			for (Tuple t : toTuples(bf, Op.EQUALS, ((StringField) victim.getField(0)).getValue())) {
+				if (t.getField(1).equals(victim.getField(1))) {
+					Database.getBufferPool().deleteTuple(tid, t);
+					break;
+				}
+			}
+			if (remaining.size() % 5 == 0)
+				commit();
+			if (remaining.size() % 1000 == 0)
+				BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		}
+		commit();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(sorted(remaining), contents(bf));
+		assertEquals(1, height(bf));
+	}
+
+	/**
+	 * The bulk loader packs pages by their bytes into a valid tree, which
+	 * takes inserts and deletes
+	 */
+	@Test
+	public void bulkLoad() throws Exception {
+		List<Tuple> tuples = randomTuples(ROWS, 7);
+		BTreeFile bf = new BTreeBulkLoader(file, td, 0, 1.0)
+				.load(new TupleIterator(td, tuples), false, "compressed");
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		assertEquals(sorted(tuples), contents(bf));
+		commit();
+
+		String k = ((StringField) tuples.get(0).getField(0)).getValue();
+		assertEquals(1, toTuples(bf, Op.EQUALS, k).size());
+		List<Tuple> less = new ArrayList<Tuple>();
+		for (Tuple t : tuples) {
+			if (t.getField(0).compare(Op.LESS_THAN, key("abc")))
+				less.add(t);
+		}
+		assertEquals(sorted(less), sorted(toTuples(bf, Op.LESS_THAN, "abc")));
+		commit();
+
+		// full pages split on inserts
+		List<Tuple> more = randomTuples(200, 9);
+		for (int i = 0; i < more.size(); i++) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), more.get(i));
+			if (i % 5 == 4)
+				commit();
+		}
+		commit();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+		List<Tuple> all = new ArrayList<Tuple>(tuples);
+		all.addAll(more);
+		assertEquals(sorted(all), contents(bf));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeKeyCompressionTest.class);
+	}
+}
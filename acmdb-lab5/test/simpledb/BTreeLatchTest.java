@@ -0,0 +1,132 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.BTreeUtility.BTreeWriter;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeLatchTest extends SimpleDbTestBase {
+	private static final int POLL_INTERVAL = 100;
+	private static final int TIMEOUT = 5000;
+
+	// just so we have a pointer shorter than Database.getBufferPool
+	private BufferPool bp;
+	private BTreeFile bf;
+	private BTreePageId rootPtrId;
+	private BTreePageId rootId;
+	// a key on a leaf page with room for one more tuple
+	private Field roomKey;
+	// a key on another leaf page, which is full
+	private Field fullKey;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before public void setUp() throws Exception {
+		// create a packed B+ tree with 100 full leaf pages under the root
+		bf = BTreeUtility.createRandomBTreeFile(2, 50200, null, null, 0);
+		bp = Database.resetBufferPool(500);
+
+		TransactionId tid = new TransactionId();
+		rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		rootId = ((BTreeRootPtrPage) bp.getPage(tid, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		BTreeInternalPage root = (BTreeInternalPage) bp.getPage(tid, rootId, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = root.iterator();
+		BTreeEntry e = null;
+		for(int i = 0; i <= 50; i++) {
+			e = it.next();
+			if(i == 10)
+				fullKey = e.getKey();
+		}
+		// the key of an entry goes to its left child
+		roomKey = e.getKey();
+
+		// make room on the leaf page of roomKey
+		BTreeLeafPage leaf = (BTreeLeafPage) bp.getPage(tid, e.getLeftChild(), Permissions.READ_ONLY);
+		bp.deleteTuple(tid, leaf.iterator().next());
+		bp.transactionComplete(tid);
+	}
+
+	private Tuple tuple(Field key) {
+		return BTreeUtility.getBTreeTuple(((IntField) key).getValue(), 2);
+	}
+
+	/**
+	 * Waits for a writer to succeed, failing the test on an error or when it takes too long
+	 */
+	private void awaitSuccess(BTreeWriter writer) throws Exception {
+		for(int waited = 0; !writer.succeeded(); waited += POLL_INTERVAL) {
+			assertNull(writer.getError());
+			assertTrue("writer timed out", waited < TIMEOUT);
+			Thread.sleep(POLL_INTERVAL);
+		}
+	}
+
+	/**
+	 * An insert into a leaf page with room locks the leaf page only
+	 */
+	@Test public void insertLocksLeafOnly() throws Exception {
+		TransactionId tid = new TransactionId();
+		Tuple t = tuple(roomKey);
+		bp.insertTuple(tid, bf.getId(), t);
+		assertTrue(bp.holdsLock(tid, t.getRecordId().getPageId()));
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * A split changes the root page while another transaction which inserted
+	 * below it is still running
+	 */
+	@Test public void splitNextToRunningInsert() throws Exception {
+		TransactionId tid1 = new TransactionId();
+		bp.insertTuple(tid1, bf.getId(), tuple(roomKey));
+
+		TransactionId tid2 = new TransactionId();
+		BTreeWriter writer = new BTreeWriter(tid2, bf, ((IntField) fullKey).getValue(), 1);
+		writer.start();
+		awaitSuccess(writer);
+		assertTrue(bp.holdsLock(tid2, rootId));
+
+		bp.transactionComplete(tid2);
+		bp.transactionComplete(tid1);
+	}
+
+	/**
+	 * An insert below a page written by a running transaction locks its way
+	 * down, and so waits for that transaction to complete
+	 */
+	@Test public void insertWaitsForRunningSplit() throws Exception {
+		TransactionId tid2 = new TransactionId();
+		bp.insertTuple(tid2, bf.getId(), tuple(fullKey));
+		assertTrue(bp.holdsLock(tid2, rootId));
+
+		TransactionId tid1 = new TransactionId();
+		BTreeWriter writer = new BTreeWriter(tid1, bf, ((IntField) roomKey).getValue(), 1);
+		writer.start();
+		Thread.sleep(POLL_INTERVAL * 5);
+		assertFalse(writer.succeeded());
+		assertNull(writer.getError());
+
+		bp.transactionComplete(tid2);
+		awaitSuccess(writer);
+		assertTrue(bp.holdsLock(tid1, rootId));
+		bp.transactionComplete(tid1);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchTest.class);
+	}
+
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Every key added is reported, and few others are
+   */
+  @Test public void mightContain() {
+    BloomFilter filter = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++)
+      filter.add(new IntField(2 * i));
+    for (int i = 0; i < 1000; i++)
+      assertTrue(filter.mightContain(new IntField(2 * i)));
+
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (filter.mightContain(new IntField(2 * i + 1)))
+        falsePositives++;
+    }
+    // about 1% expected
+    assertTrue(falsePositives < 50);
+  }
+
+  @Test public void strings() {
+    BloomFilter filter = new BloomFilter(1);
+    filter.add(new StringField("apple", Type.STRING_LEN));
+    assertTrue(filter.mightContain(new StringField("apple", Type.STRING_LEN)));
+    assertFalse(new BloomFilter(1).mightContain(new StringField("apple", Type.STRING_LEN)));
+  }
+
+  /**
+   * A HashEquiJoin passes the keys of its build input down to the scan under
+   * its probe input, through a Filter, and takes it back when closed
+   */
+  @Test public void pushDown() throws Exception {
+    ArrayList<ArrayList<Integer>> facts = new ArrayList<ArrayList<Integer>>();
+    HeapFile factFile = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, facts);
+    DbIterator dims = TestUtil.createTupleList(1, new int[] { 1, 2, 3, 4, 5 });
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, factFile.getId(), "f");
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(0)), scan);
+
+    assertEquals(scan, BloomFilter.probeScan(filter));
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin join = new HashEquiJoin(pred, filter, dims);
+    join.open();
+    int joined = 0;
+    while (join.hasNext()) {
+      join.next();
+      joined++;
+    }
+
+    int expected = 0;
+    for (ArrayList<Integer> fact : facts) {
+      if (fact.get(0) >= 1 && fact.get(0) <= 5)
+        expected++;
+    }
+    assertEquals(expected, joined);
+
+    // the scan itself now drops most of the facts
+    scan.rewind();
+    int scanned = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      scanned++;
+    }
+    assertTrue(scanned >= expected);
+    assertTrue(scanned < expected + 100);
+
+    // but not once the join is closed
+    join.close();
+    scan.open();
+    scanned = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      scanned++;
+    }
+    scan.close();
+    assertEquals(facts.size(), scanned);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DistinctTest extends SimpleDbTestBase {
+
+  int width = 2;
+  DbIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan = TestUtil.createTupleList(width,
+        new int[] { 1, 2,
+                    3, 4,
+                    1, 2,
+                    1, 3,
+                    3, 4,
+                    5, 6 });
+  }
+
+  /**
+   * @return n tuples of width 2 cycling through the given number of
+   *         distinct values
+   */
+  private static DbIterator cycle(int n, int distinct) {
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = i % distinct;
+      values[2 * i + 1] = -(i % distinct);
+    }
+    return TestUtil.createTupleList(2, values);
+  }
+
+  /**
+   * Unit test for Distinct.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    Distinct op = new Distinct(scan);
+    assertEquals(Utility.getTupleDesc(width), op.getTupleDesc());
+  }
+
+  /**
+   * In memory, the first occurrence of each tuple is returned, in order
+   */
+  @Test public void firstSeen() throws Exception {
+    Distinct op = new Distinct(scan);
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(width,
+        new int[] { 1, 2,
+                    3, 4,
+                    1, 3,
+                    5, 6 });
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    assertFalse(op.isExternal());
+  }
+
+  /**
+   * Unit test for Distinct.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    Distinct op = new Distinct(scan);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(4, count);
+  }
+
+  /**
+   * Distinct tuples that do not fit in the memory budget are spilled, and
+   * still each returned once
+   */
+  @Test public void spill() throws Exception {
+    Distinct op = new Distinct(cycle(20000, 3000), 4096);
+    op.open();
+    HashSet<String> seen = new HashSet<String>();
+    while (op.hasNext())
+      assertTrue(seen.add(op.next().toString()));
+    assertEquals(3000, seen.size());
+    assertTrue(op.isExternal());
+
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(3000, count);
+    op.close();
+  }
+
+  /**
+   * Strings are compared by value
+   */
+  @Test public void strings() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (String s : new String[] { "a", "b", "a", "ab", "b" }) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(s, Type.STRING_LEN));
+      tuples.add(t);
+    }
+    Distinct op = new Distinct(new TupleIterator(td, tuples));
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DistinctTest.class);
+  }
+}
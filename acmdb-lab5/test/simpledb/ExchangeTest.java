@@ -0,0 +1,270 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  int dop = 4;
+
+  /**
+   * @return a list of n tuples of width 2, whose first field cycles through
+   *         the given number of keys
+   */
+  private static DbIterator keyedList(int n, int keys) {
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = i % keys;
+      values[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, values);
+  }
+
+  /**
+   * @return the tuples of it as strings, sorted, as the order of the output
+   *         of the fragments is not deterministic
+   */
+  private static List<String> sorted(DbIterator it) throws Exception {
+    List<String> tuples = new ArrayList<String>();
+    while (it.hasNext())
+      tuples.add(it.next().toString());
+    Collections.sort(tuples);
+    return tuples;
+  }
+
+  /**
+   * Each output of a Repartition gets the tuples of whole keys
+   */
+  @Test public void repartition() throws Exception {
+    final Repartition[] parts = Repartition.split(keyedList(5000, 100), 0, dop);
+    assertEquals(dop, parts.length);
+    assertEquals(Utility.getTupleDesc(2), parts[0].getTupleDesc());
+    // the outputs must be read concurrently, one thread each
+    List<Set<Integer>> keys = new ArrayList<Set<Integer>>();
+    List<Thread> readers = new ArrayList<Thread>();
+    final int[] counts = new int[dop];
+    for (int i = 0; i < dop; i++) {
+      final Set<Integer> partKeys = new HashSet<Integer>();
+      final int part = i;
+      keys.add(partKeys);
+      readers.add(new Thread(() -> {
+        try {
+          parts[part].open();
+          while (parts[part].hasNext()) {
+            partKeys.add(((IntField) parts[part].next().getField(0)).getValue());
+            counts[part]++;
+          }
+          parts[part].close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (Thread t : readers)
+      t.start();
+    for (Thread t : readers)
+      t.join();
+    Set<Integer> all = new HashSet<Integer>();
+    int count = 0;
+    for (int i = 0; i < dop; i++) {
+      for (int key : keys.get(i))
+        assertTrue(all.add(key));
+      count += counts[i];
+    }
+    assertEquals(5000, count);
+    assertEquals(100, all.size());
+  }
+
+  /**
+   * Reads each output on a thread of its own, rewinding the chosen ones once
+   * read and reading them again
+   *
+   * @return per output, its tuples as strings, sorted, and for a rewound one
+   *         those it read again after them
+   */
+  private static List<List<String>> read(final DbIterator[] outputs, final boolean[] rewind)
+      throws Exception {
+    final List<List<String>> result = new ArrayList<List<String>>();
+    List<Thread> readers = new ArrayList<Thread>();
+    for (int i = 0; i < outputs.length; i++) {
+      final List<String> tuples = new ArrayList<String>();
+      final int part = i;
+      result.add(tuples);
+      readers.add(new Thread(() -> {
+        try {
+          outputs[part].open();
+          tuples.addAll(sorted(outputs[part]));
+          if (rewind[part]) {
+            outputs[part].rewind();
+            tuples.addAll(sorted(outputs[part]));
+          }
+          outputs[part].close();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (Thread t : readers)
+      t.start();
+    for (Thread t : readers)
+      t.join();
+    return result;
+  }
+
+  /**
+   * A rewound output gets its tuples again, once the other outputs are
+   * rewound too or closed
+   */
+  @Test public void rewind() throws Exception {
+    Repartition[] parts = Repartition.split(keyedList(5000, 100), 0, dop);
+    List<List<String>> once = read(parts, new boolean[dop]);
+    List<List<String>> twice = read(parts, new boolean[] { true, false, true, false });
+    for (int i = 0; i < dop; i++) {
+      List<String> expected = new ArrayList<String>(once.get(i));
+      if (i % 2 == 0)
+        expected.addAll(once.get(i));
+      assertEquals(expected, twice.get(i));
+    }
+
+    Broadcast[] copies = Broadcast.copy(keyedList(500, 50), 2);
+    List<List<String>> copied = read(copies, new boolean[] { true, true });
+    assertEquals(1000, copied.get(0).size());
+    assertEquals(copied.get(0), copied.get(1));
+  }
+
+  /**
+   * Setting the child of an output sets that of all the outputs, which read
+   * it from then on
+   */
+  @Test public void setChildren() throws Exception {
+    Broadcast[] copies = Broadcast.copy(keyedList(10, 5), 2);
+    DbIterator child = keyedList(20, 5);
+    copies[0].setChildren(new DbIterator[] { child });
+    assertTrue(copies[1].getChildren()[0] == child);
+    List<List<String>> copied = read(copies, new boolean[2]);
+    assertEquals(20, copied.get(0).size());
+    assertEquals(copied.get(0), copied.get(1));
+
+    Repartition[] parts = Repartition.split(keyedList(10, 5), 0, dop);
+    parts[dop - 1].setChildren(new DbIterator[] { keyedList(3000, 30) });
+    int count = 0;
+    for (List<String> tuples : read(parts, new boolean[dop]))
+      count += tuples.size();
+    assertEquals(3000, count);
+  }
+
+  /**
+   * The child of open outputs cannot be replaced
+   */
+  @Test(expected = IllegalStateException.class) public void setChildrenOpen() throws Exception {
+    Repartition[] parts = Repartition.split(keyedList(10, 5), 0, 1);
+    parts[0].open();
+    try {
+      parts[0].setChildren(new DbIterator[] { keyedList(20, 5) });
+    } finally {
+      parts[0].close();
+    }
+  }
+
+  /**
+   * Gather of aggregates over a Repartition on the group field, checked
+   * against a serial Aggregate
+   */
+  @Test public void gatherAggregates() throws Exception {
+    int[] afields = { 1, 1 };
+    int[] gfields = { 0 };
+    Aggregator.Op[] aops = { Aggregator.Op.COUNT, Aggregator.Op.SUM };
+    Repartition[] parts = Repartition.split(keyedList(20000, 300), 0, dop);
+    DbIterator[] fragments = new DbIterator[dop];
+    for (int i = 0; i < dop; i++)
+      fragments[i] = new Aggregate(parts[i], afields, gfields, aops);
+    Gather op = new Gather(fragments);
+    assertEquals(fragments[0].getTupleDesc(), op.getTupleDesc());
+
+    Aggregate expected = new Aggregate(keyedList(20000, 300), afields, gfields, aops);
+    expected.open();
+    op.open();
+    List<String> tuples = sorted(op);
+    assertEquals(300, tuples.size());
+    assertEquals(sorted(expected), tuples);
+
+    // rewinding runs the fragments again
+    op.rewind();
+    assertEquals(tuples, sorted(op));
+    op.close();
+  }
+
+  /**
+   * Semi-join fragments over a Repartition of the outer tuples and a
+   * Broadcast of the inner ones
+   */
+  @Test public void broadcastSemiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Repartition[] outer = Repartition.split(keyedList(10000, 1000), 0, dop);
+    Broadcast[] inner = Broadcast.copy(keyedList(500, 250), dop);
+    DbIterator[] fragments = new DbIterator[dop];
+    for (int i = 0; i < dop; i++)
+      fragments[i] = new SemiJoin(pred, outer[i], inner[i]);
+    Gather op = new Gather(fragments);
+
+    SemiJoin expected = new SemiJoin(pred, keyedList(10000, 1000), keyedList(500, 250));
+    expected.open();
+    op.open();
+    List<String> tuples = sorted(op);
+    // keys 0..249 appear 10 times each on the outer side
+    assertEquals(2500, tuples.size());
+    assertEquals(sorted(expected), tuples);
+    op.close();
+  }
+
+  /**
+   * Closing a Gather before reading all of it must stop the fragments and
+   * the exchanges under them
+   */
+  @Test public void closeEarly() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      Repartition[] parts = Repartition.split(keyedList(20000, 5000), 0, dop);
+      DbIterator[] fragments = new DbIterator[dop];
+      for (int k = 0; k < dop; k++)
+        fragments[k] = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ,
+            new IntField(0)), parts[k]);
+      Gather op = new Gather(fragments);
+      op.open();
+      for (int j = 0; j < 10; j++)
+        assertNotNull(op.next());
+      op.close();
+    }
+  }
+
+  /**
+   * The error of a fragment is reported by the Gather
+   */
+  @Test(expected = DbException.class) public void failure() throws Exception {
+    DbIterator failing = new Filter(new Predicate(5, Predicate.Op.EQUALS, new IntField(0)),
+        keyedList(100, 10));
+    Gather op = new Gather(new DbIterator[] { keyedList(100, 10), failing });
+    op.open();
+    try {
+      while (op.hasNext())
+        op.next();
+    } finally {
+      op.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FetchTest extends SimpleDbTestBase {
+
+  HeapFile file;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createFile() throws Exception {
+    file = SystemTestUtil.createRandomHeapFile(4, 3000, 100, null, null, "c");
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A RecordIdScan returns the given fields and where each tuple is
+   */
+  @Test public void narrowScan() throws Exception {
+    RecordIdScan op = new RecordIdScan(tid, file.getId(), "t", new int[] { 2, 0 });
+    TupleDesc td = op.getTupleDesc();
+    assertEquals(3, td.numFields());
+    assertEquals("t.c2", td.getFieldName(0));
+    assertEquals("t.c0", td.getFieldName(1));
+    assertEquals("t.$rid", td.getFieldName(2));
+
+    SeqScan full = new SeqScan(tid, file.getId(), "t");
+    int numSlots = HeapPage.numSlots(file.getTupleDesc());
+    op.open();
+    full.open();
+    while (full.hasNext()) {
+      Tuple expected = full.next();
+      Tuple t = op.next();
+      assertEquals(expected.getField(2), t.getField(0));
+      assertEquals(expected.getField(0), t.getField(1));
+      int rid = ((IntField) t.getField(2)).getValue();
+      assertEquals(expected.getRecordId(),
+          RecordIdScan.decode(file.getId(), rid, numSlots));
+    }
+    assertEquals(false, op.hasNext());
+    op.close();
+    full.close();
+  }
+
+  /**
+   * The tuples left by a filter over a RecordIdScan are completed with the
+   * fields fetched by RecordId
+   */
+  @Test public void fetch() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20));
+    DbIterator narrow = new Filter(p,
+        new RecordIdScan(tid, file.getId(), "t", new int[] { 1 }));
+    Fetch op = new Fetch(tid, narrow, new int[] { file.getId() },
+        new String[] { "t" }, new int[][] { { 3, 0 } });
+    TupleDesc td = op.getTupleDesc();
+    assertEquals(3, td.numFields());
+    assertEquals("t.c1", td.getFieldName(0));
+    assertEquals("t.c3", td.getFieldName(1));
+    assertEquals("t.c0", td.getFieldName(2));
+
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(1);
+    fields.add(3);
+    fields.add(0);
+    DbIterator expected = new Project(fields, new Type[] { Type.INT_TYPE,
+        Type.INT_TYPE, Type.INT_TYPE }, new Filter(new Predicate(1,
+        Predicate.Op.LESS_THAN, new IntField(20)), new SeqScan(tid,
+        file.getId(), "t")));
+    expected.open();
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FetchTest.class);
+  }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private TupleDesc td;
+  private File file;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() throws Exception {
+    // small pages make the buckets split early
+    BufferPool.setPageSize(256);
+    Database.reset();
+    tid = new TransactionId();
+    td = Utility.getTupleDesc(2);
+    file = File.createTempFile("hash", ".dat");
+    file.deleteOnExit();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    BufferPool.resetPageSize();
+  }
+
+  /**
+   * @return n tuples with random keys below n / 4, and the row number as
+   *         second field
+   */
+  private List<Tuple> randomTuples(int n, long seed) {
+    Random rand = new Random(seed);
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < n; i++)
+      tuples.add(Utility.getHeapTuple(new int[] { rand.nextInt(n / 4), i }));
+    return tuples;
+  }
+
+  private void commit() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+  }
+
+  private HashMetaPage meta(HashIndexFile hf) throws Exception {
+    return (HashMetaPage) Database.getBufferPool().getPage(tid,
+        HashMetaPage.getId(hf.getId()), Permissions.READ_ONLY);
+  }
+
+  /**
+   * @return the tuples of an iterator, as strings, sorted
+   */
+  private List<String> scan(DbFileIterator it) throws Exception {
+    List<String> result = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      result.add(it.next().toString());
+    it.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * @return the tuples of the key, as strings, sorted
+   */
+  private static List<String> matching(List<Tuple> tuples, int key) {
+    List<String> result = new ArrayList<String>();
+    for (Tuple t : tuples) {
+      if (((IntField) t.getField(0)).getValue() == key)
+        result.add(t.toString());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private List<String> lookup(HashIndexFile hf, int key) throws Exception {
+    return scan(hf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key))));
+  }
+
+  /**
+   * Inserts into an empty file split its buckets one at a time, and the
+   * tuples of a key are found in its bucket
+   */
+  @Test public void insertAndSplit() throws Exception {
+    HashIndexFile hf = new HashIndexFile(file, 0, td);
+    Database.getCatalog().addTable(hf, "hash");
+    List<Tuple> tuples = randomTuples(2000, 3);
+    Database.getBufferPool().insertTuple(tid, hf.getId(), tuples.get(0));
+    assertEquals(HashIndexFile.DEFAULT_BUCKETS, meta(hf).numBuckets());
+
+    // a transaction per batch keeps the buffer pool from filling up
+    for (int i = 1; i < tuples.size(); i++) {
+      Database.getBufferPool().insertTuple(tid, hf.getId(), tuples.get(i));
+      if (i % 20 == 0)
+        commit();
+    }
+    commit();
+
+    HashMetaPage meta = meta(hf);
+    int slots = HashBucketPage.numSlots(td);
+    assertTrue(meta.numBuckets() >= tuples.size() / slots);
+    // more than 64 buckets take a second directory page
+    assertTrue(meta.getNumDirectoryPages() > 1);
+    // the buckets mostly fit in their primary page
+    assertTrue(hf.numPages() < 2 * meta.numBuckets() + 1 + meta.getNumDirectoryPages());
+
+    assertEquals(tuples.size(), scan(hf.iterator(tid)).size());
+    for (int key : new int[] { 0, 1, 77, 499, 500 })
+      assertEquals(matching(tuples, key), lookup(hf, key));
+  }
+
+  /**
+   * A loaded file has enough buckets for its tuples, and takes inserts
+   */
+  @Test public void load() throws Exception {
+    List<Tuple> tuples = randomTuples(20000, 7);
+    HashIndexFile hf = HashIndexFile.load(file, td, 0, new TupleIterator(td, tuples), "hash");
+    assertEquals(hf.getId(), Database.getCatalog().getTableId("hash"));
+    HashMetaPage meta = meta(hf);
+    int perBucket = (int) (HashIndexFile.LOAD_FILL_FACTOR * HashBucketPage.numSlots(td));
+    assertEquals((tuples.size() + perBucket - 1) / perBucket, meta.numBuckets());
+    assertTrue(hf.numPages() < meta.numBuckets() * 5 / 4);
+    commit();
+
+    assertEquals(tuples.size(), scan(hf.iterator(tid)).size());
+    commit();
+    for (int key : new int[] { 0, 2, 1000, 4999 }) {
+      assertEquals(matching(tuples, key), lookup(hf, key));
+      commit();
+    }
+
+    List<Tuple> more = randomTuples(400, 11);
+    for (int i = 0; i < more.size(); i++) {
+      Database.getBufferPool().insertTuple(tid, hf.getId(), more.get(i));
+      if (i % 20 == 19)
+        commit();
+    }
+    tuples.addAll(more);
+    assertEquals(matching(tuples, 42), lookup(hf, 42));
+    assertEquals(tuples.size(), scan(hf.iterator(tid)).size());
+  }
+
+  /**
+   * Deletes remove the tuples from their bucket, and an aborted transaction
+   * leaves the file as it was
+   */
+  @Test public void delete() throws Exception {
+    List<Tuple> tuples = randomTuples(2000, 5);
+    HashIndexFile hf = HashIndexFile.load(file, td, 0, new TupleIterator(td, tuples), "hash");
+    List<Tuple> victims = new ArrayList<Tuple>();
+    DbFileIterator it = hf.indexIterator(tid,
+        new IndexPredicate(Predicate.Op.EQUALS, new IntField(9)));
+    it.open();
+    while (it.hasNext())
+      victims.add(it.next());
+    it.close();
+    assertEquals(matching(tuples, 9).size(), victims.size());
+    assertTrue(victims.size() > 0);
+    for (Tuple t : victims)
+      Database.getBufferPool().deleteTuple(tid, t);
+    assertEquals(0, lookup(hf, 9).size());
+    Database.getBufferPool().transactionComplete(tid, false);
+
+    tid = new TransactionId();
+    assertEquals(matching(tuples, 9), lookup(hf, 9));
+    List<String> less = scan(hf.indexIterator(tid,
+        new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(10))));
+    int expected = 0;
+    for (int key = 0; key < 10; key++)
+      expected += matching(tuples, key).size();
+    assertEquals(expected, less.size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashIndexFileTest.class);
+  }
+}
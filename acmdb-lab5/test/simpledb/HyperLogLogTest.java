@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HyperLogLogTest extends SimpleDbTestBase {
+
+  /**
+   * @return the relative error of the estimate of a sketch of n distinct
+   *         values, each added several times
+   */
+  private static double error(int n) {
+    HyperLogLog h = new HyperLogLog();
+    for (int k = 0; k < 3; k++) {
+      for (int i = 0; i < n; i++)
+        h.add(new IntField(i * 7919));
+    }
+    return Math.abs(h.estimate() - n) / (double) n;
+  }
+
+  /**
+   * The estimates are within a few standard errors, small and large
+   */
+  @Test public void estimate() {
+    assertEquals(0, new HyperLogLog().estimate());
+    assertTrue(error(10) < 0.05);
+    assertTrue(error(500) < 0.1);
+    assertTrue(error(100000) < 0.1);
+  }
+
+  @Test public void strings() {
+    HyperLogLog h = new HyperLogLog();
+    for (int i = 0; i < 20000; i++)
+      h.add(new StringField("value" + (i % 5000), Type.STRING_LEN));
+    assertEquals(5000, h.estimate(), 500);
+  }
+
+  /**
+   * Merging sketches, directly or through their packed registers, gives the
+   * sketch of all the values
+   */
+  @Test public void merge() {
+    HyperLogLog a = new HyperLogLog();
+    HyperLogLog b = new HyperLogLog();
+    HyperLogLog all = new HyperLogLog();
+    for (int i = 0; i < 30000; i++) {
+      (i % 3 == 0 ? a : b).add(new IntField(i));
+      all.add(new IntField(i));
+    }
+    HyperLogLog packed = new HyperLogLog();
+    for (int w = 0; w < HyperLogLog.WORDS; w++) {
+      packed.mergeWord(w, a.getWord(w));
+      packed.mergeWord(w, b.getWord(w));
+    }
+    a.merge(b);
+    assertEquals(all.estimate(), a.estimate());
+    assertEquals(all.estimate(), packed.estimate());
+  }
+
+  /**
+   * The sketches of groups spilled to disk are merged back into the same
+   * estimates as in memory
+   */
+  @Test public void spilledGroups() throws Exception {
+    int rows = 20000;
+    int[] data = new int[2 * rows];
+    Random r = new Random(3);
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = i % 300;
+      data[2 * i + 1] = r.nextInt(1000);
+    }
+    int[] gfields = { 0 };
+    int[] afields = { 1, 1 };
+    Aggregator.Op[] ops = { Aggregator.Op.APPROX_COUNT_DISTINCT, Aggregator.Op.COUNT };
+    TupleDesc td = Utility.getTupleDesc(2);
+    GroupAggregator memory = new GroupAggregator(td, gfields, afields, ops);
+    // room for about 10 groups
+    GroupAggregator disk = new GroupAggregator(td, gfields, afields, ops, 10 * 1200);
+    DbIterator input = TestUtil.createTupleList(2, data);
+    input.open();
+    while (input.hasNext()) {
+      Tuple t = input.next();
+      memory.mergeTupleIntoGroup(t);
+      disk.mergeTupleIntoGroup(t);
+    }
+    assertTrue(disk.isExternal());
+    DbIterator expected = memory.iterator();
+    expected.open();
+    DbIterator actual = disk.iterator();
+    actual.open();
+    TestUtil.matchAllTuples(IntegerAggregatorTest.drain(expected, 300),
+        IntegerAggregatorTest.drain(actual, 300));
+    actual.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HyperLogLogTest.class);
+  }
+}
@@ -1,8 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -10,6 +14,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
 
@@ -126,6 +131,108 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over more groups than fit in its memory budget,
+   * so that groups are spilled to disk and partitions are split again
+   */
+  @Test public void mergeSpilled() throws Exception {
+    Random r = new Random(7);
+    int rows = 5000;
+    int[] data = new int[rows * width1];
+    HashMap<Integer, int[]> expected = new HashMap<Integer, int[]>(); // sum, count, min
+    for (int i = 0; i < rows; i++) {
+      int key = r.nextInt(2000) - 1000, value = r.nextInt(100);
+      data[i * width1] = key;
+      data[i * width1 + 1] = value;
+      int[] e = expected.get(key);
+      if (e == null)
+        expected.put(key, new int[] { value, 1, value });
+      else
+        expected.put(key, new int[] { e[0] + value, e[1] + 1, Math.min(e[2], value) });
+    }
+    // room for about 100 groups
+    long budget = 100 * 24;
+    Aggregator.Op[] ops = { Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.COUNT };
+    for (int k = 0; k < ops.length; k++) {
+      IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, ops[k], budget);
+      DbIterator input = TestUtil.createTupleList(width1, data);
+      input.open();
+      while (input.hasNext())
+        agg.mergeTupleIntoGroup(input.next());
+      assertTrue(agg.isExternal());
+
+      int[] result = new int[expected.size() * width1];
+      int i = 0;
+      for (Integer key : expected.keySet()) {
+        int[] e = expected.get(key);
+        result[i++] = key;
+        result[i++] = k == 0 ? e[0] / e[1] : k == 1 ? e[2] : e[1];
+      }
+      DbIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, result), drain(it, expected.size()));
+      it.rewind();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, result), drain(it, expected.size()));
+      it.close();
+    }
+  }
+
+  /**
+   * The spilled groups are deleted once the result iterator or the
+   * aggregator is closed
+   */
+  @Test public void spilledGroupsDeleted() throws Exception {
+    int before = SystemTestUtil.countSpillFiles();
+    for (int k = 0; k < 2; k++) {
+      IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM, 100 * 24);
+      for (int i = 0; i < 1000; i++)
+        agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { i, 1 }));
+      assertTrue(agg.isExternal());
+      assertTrue(SystemTestUtil.countSpillFiles() > before);
+      if (k == 0) {
+        DbIterator it = agg.iterator();
+        it.open();
+        drain(it, 1000);
+        it.close();
+      } else {
+        agg.close();
+      }
+      assertEquals(before, SystemTestUtil.countSpillFiles());
+    }
+  }
+
+  /**
+   * Read all tuples of it into memory, so that they can be rewound cheaply
+   */
+  static DbIterator drain(DbIterator it, int expectedCount) throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    while (it.hasNext())
+      tuples.add(it.next());
+    assertEquals(expectedCount, tuples.size());
+    TupleIterator result = new TupleIterator(it.getTupleDesc(), tuples);
+    result.open();
+    return result;
+  }
+
+  /**
+   * Test IntegerAggregator without grouping
+   */
+  @Test public void mergeNoGrouping() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.SUM, Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    int[] results = { 31, 2, 7, 4, 7 };
+    for (int k = 0; k < ops.length; k++) {
+      IntegerAggregator agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, ops[k]);
+      scan1.open();
+      while (scan1.hasNext())
+        agg.mergeTupleIntoGroup(scan1.next());
+      scan1.close();
+      DbIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { results[k] }), it);
+    }
+  }
+
   /**
    * Test IntegerAggregator.iterator() for DbIterator behaviour
    */
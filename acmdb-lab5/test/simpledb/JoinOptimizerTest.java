@@ -205,6 +205,125 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertEquals(Boolean.TRUE, ret[0]);
     }
 
+    /**
+     * Verify that inputs ordered on their join fields make a join cheaper
+     * (a sort-merge join can be used), and that one ordered input is not
+     * enough for an equality join. Range joins are never merged.
+     */
+    @Test
+    public void estimateOrderedJoinCostTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"),
+                new Vector<LogicalJoinNode>());
+        LogicalJoinNode eq = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2), Predicate.Op.EQUALS);
+        LogicalJoinNode lt = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2),
+                Predicate.Op.LESS_THAN);
+
+        double unordered = jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000);
+        Assert.assertEquals(unordered,
+                jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000, false, false), 1e-6);
+        Assert.assertEquals(unordered,
+                jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000, true, false), 1e-6);
+        double ordered = jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000, true, true);
+        Assert.assertTrue(ordered < unordered);
+        Assert.assertTrue(ordered > 5000 + 50000);
+
+        // range joins are not merged, ordered inputs or not
+        Assert.assertEquals(jo.estimateJoinCost(lt, 1000, 10000, 5000, 50000),
+                jo.estimateJoinCost(lt, 1000, 10000, 5000, 50000, true, true), 1e-6);
+    }
+
+    /**
+     * Verify that a parallel hash join is estimated cheaper than a serial one,
+     * but never cheaper than reading its inputs, and that the degree of
+     * parallelism does not change the cost of a join that is not hashed.
+     */
+    @Test
+    public void estimateParallelJoinCostTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"),
+                new Vector<LogicalJoinNode>());
+        LogicalJoinNode eq = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2), Predicate.Op.EQUALS);
+        LogicalJoinNode lt = new LogicalJoinNode(tableName1, tableName2,
+                Integer.toString(1), Integer.toString(2),
+                Predicate.Op.LESS_THAN);
+
+        double serial = jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000, false, false, 1);
+        double parallel = jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000, false, false, 4);
+        Assert.assertTrue(parallel < serial);
+        Assert.assertTrue(parallel > 5000 + 50000);
+        Assert.assertTrue(jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000, false, false, 8)
+                < parallel);
+
+        Assert.assertEquals(jo.estimateJoinCost(lt, 1000, 10000, 5000, 50000, false, false, 1),
+                jo.estimateJoinCost(lt, 1000, 10000, 5000, 50000, false, false, 4), 1e-6);
+    }
+
+    /**
+     * @return true if there is an operator of class c in the plan
+     */
+    private static boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            if (child != null && contains(child, c))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Verify that equality joins are only run in parallel when a degree of
+     * parallelism above 1 was set and the plan allows it, and that a plan
+     * restricted to the caller's thread is costed as a serial plan.
+     */
+    @Test
+    public void serialUnlessParallelTest() throws Exception {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        String sql = "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                + " t2 WHERE t1.c1 = t2.c2;";
+        LogicalJoinNode eq = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.EQUALS);
+        Assert.assertEquals(1, JoinOptimizer.getParallelism());
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, tableId1, "t1"),
+                new SeqScan(tid, tableId2, "t2")) instanceof HashEquiJoin);
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(eq, new SeqScan(tid, tableId1, "t1"),
+                new SeqScan(tid, tableId2, "t2"), 4) instanceof ParallelHashJoin);
+
+        JoinOptimizer.setParallelism(4);
+        try {
+            LogicalPlan lp = p.generateLogicalPlan(tid, sql);
+            lp.setParallel(true);
+            JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+            double serial = jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000, false, false, 1);
+            Assert.assertTrue(jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000) < serial);
+            Assert.assertTrue(contains(lp.physicalPlan(tid, TableStats.getStatsMap(), false),
+                    ParallelHashJoin.class));
+
+            lp = p.generateLogicalPlan(tid, sql);
+            lp.setParallel(false);
+            jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+            Assert.assertEquals(serial, jo.estimateJoinCost(eq, 1000, 10000, 5000, 50000), 1e-6);
+            DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            Assert.assertTrue(contains(plan, HashEquiJoin.class));
+            Assert.assertFalse(contains(plan, ParallelHashJoin.class));
+        } finally {
+            JoinOptimizer.setParallelism(1);
+        }
+    }
+
     /**
      * Verify that the join cardinalities produced by estimateJoinCardinality()
      * are reasonable
@@ -0,0 +1,73 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  int width = 1;
+
+  private DbIterator input() {
+    return TestUtil.createTupleList(width, new int[] { 1, 2, 3, 4, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for Limit.getNext() with and without an offset
+   */
+  @Test public void limitOffset() throws Exception {
+    Limit op = new Limit(3, 0, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 1, 2, 3 }), op);
+    op.close();
+
+    op = new Limit(3, 2, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 3, 4, 5 }), op);
+    op.close();
+
+    op = new Limit(10, 5, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 6, 7 }), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 6, 7 }), op);
+  }
+
+  /**
+   * Limit stops pulling tuples from its child once the limit is reached
+   */
+  @Test public void stopsEarly() throws Exception {
+    DbIterator child = input();
+    Limit op = new Limit(2, 1, child);
+    op.open();
+    op.next();
+    op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    assertEquals(new IntField(4), child.next().getField(0));
+  }
+
+  /**
+   * The parser cuts the LIMIT clause off a statement before Zql sees it
+   */
+  @Test public void parseLimit() throws Exception {
+    Parser p = new Parser();
+    assertEquals("SELECT * FROM t;", p.stripLimit("SELECT * FROM t LIMIT 10;"));
+    assertEquals("SELECT * FROM t", p.stripLimit("SELECT * FROM t limit 10 offset 5"));
+    assertEquals("SELECT * FROM t;", p.stripLimit("SELECT * FROM t;"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
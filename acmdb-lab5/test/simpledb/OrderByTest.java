@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int width = 2;
+  int rows = 500;
+  int[] data;
+  // room for 8 two-int tuples, so the input is split in many runs which are
+  // merged two at a time
+  long smallBudget = 8 * Utility.getTupleDesc(width).getSize();
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createData() {
+    Random r = new Random(42);
+    data = new int[rows * width];
+    for (int i = 0; i < data.length; i++)
+      data[i] = r.nextInt(20);
+  }
+
+  /**
+   * @return data sorted on field 0 ascending, then field 1 descending
+   */
+  private DbIterator expectedAscDesc() {
+    Integer[][] tups = new Integer[rows][];
+    for (int i = 0; i < rows; i++)
+      tups[i] = new Integer[] { data[i * width], data[i * width + 1] };
+    Arrays.sort(tups, (a, b) -> a[0].equals(b[0]) ? b[1] - a[1] : a[0] - b[0]);
+    int[] sorted = new int[data.length];
+    for (int i = 0; i < rows; i++) {
+      sorted[i * width] = tups[i][0];
+      sorted[i * width + 1] = tups[i][1];
+    }
+    return TestUtil.createTupleList(width, sorted);
+  }
+
+  private OrderBy ascDesc(long budget) {
+    return new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        TestUtil.createTupleList(width, data), budget);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on input that fits in memory
+   */
+  @Test public void inMemorySort() throws Exception {
+    OrderBy op = ascDesc(1 << 20);
+    op.open();
+    TestUtil.compareDbIterators(expectedAscDesc(), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on input that is spilled to sorted runs
+   */
+  @Test public void externalSort() throws Exception {
+    OrderBy op = ascDesc(smallBudget);
+    op.open();
+    TestUtil.compareDbIterators(expectedAscDesc(), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.rewind() and reopening an external sort
+   */
+  @Test public void rewindExternal() throws Exception {
+    OrderBy op = ascDesc(smallBudget);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    TestUtil.compareDbIterators(expectedAscDesc(), op);
+
+    // reopening must not see the input twice
+    op.close();
+    op.open();
+    TestUtil.compareDbIterators(expectedAscDesc(), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on string fields spilled to disk
+   */
+  @Test public void externalSortStrings() throws Exception {
+    Object[] tups = new Object[] { "pear", 1, "apple", 2, "fig", 3,
+        "", 4, "banana", 5, "apple", 6, "cherry", 7 };
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, true },
+        TestUtil.createTupleList(2, tups), 2 * (Type.STRING_TYPE.getLen() + 4));
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(2, new Object[] { "pear", 1,
+        "fig", 3, "cherry", 7, "banana", 5, "apple", 2, "apple", 6, "", 4 });
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * The single-field accessors describe the first sort field
+   */
+  @Test public void firstSortField() {
+    OrderBy op = new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true },
+        TestUtil.createTupleList(width, data));
+    assertEquals(1, op.getOrderByField());
+    assertEquals(false, op.isASC());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
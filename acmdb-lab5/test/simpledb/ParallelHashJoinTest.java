@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  int dop = 4;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * @return a list of n tuples of width 2, whose first field cycles through
+   *         the given number of keys
+   */
+  private static DbIterator keyedList(int n, int keys) {
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = i % keys;
+      values[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, values);
+  }
+
+  /**
+   * Unit test for ParallelHashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashJoin op = new ParallelHashJoin(pred, scan1, scan2, dop);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for ParallelHashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashJoin op = new ParallelHashJoin(pred, scan1, scan2, dop);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for ParallelHashJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashJoin op = new ParallelHashJoin(pred, scan1, scan2, dop);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * A join producing many more tuples than fit in the output queue, checked
+   * against a HashEquiJoin
+   */
+  @Test public void largeJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ParallelHashJoin op = new ParallelHashJoin(pred,
+        keyedList(2000, 100), keyedList(500, 50), dop);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    // keys 0..49 appear 20 times on the left and 10 times on the right
+    assertEquals(50 * 20 * 10, count);
+
+    op.rewind();
+    HashEquiJoin expected = new HashEquiJoin(pred,
+        keyedList(2000, 100), keyedList(500, 50));
+    expected.open();
+    assertEquals(sorted(expected), sorted(op));
+  }
+
+  /**
+   * @return the tuples of it as strings, sorted, as the order of the output
+   *         of the workers is not deterministic
+   */
+  private static List<String> sorted(DbIterator it) throws Exception {
+    List<String> tuples = new ArrayList<String>();
+    while (it.hasNext())
+      tuples.add(it.next().toString());
+    Collections.sort(tuples);
+    return tuples;
+  }
+
+  /**
+   * Closing the join before reading all of it must not leave workers behind
+   */
+  @Test public void closeEarly() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    for (int i = 0; i < 5; i++) {
+      ParallelHashJoin op = new ParallelHashJoin(pred,
+          keyedList(2000, 10), keyedList(500, 10), dop);
+      op.open();
+      for (int j = 0; j < 10; j++)
+        assertNotNull(op.next());
+      op.close();
+    }
+  }
+
+  /**
+   * A join over another one, whose consumer waits on the workers of the
+   * inner join while the workers of the outer one wait on the consumer
+   */
+  @Test(timeout = 60000) public void nestedJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    for (int d = 1; d <= dop; d *= 2) {
+      ParallelHashJoin inner = new ParallelHashJoin(pred,
+          keyedList(2000, 200), keyedList(2000, 200), d);
+      ParallelHashJoin op = new ParallelHashJoin(pred, inner, keyedList(2000, 200), d);
+      op.open();
+      int count = 0;
+      while (op.hasNext()) {
+        op.next();
+        count++;
+      }
+      op.close();
+      // every key appears 10 times in each input
+      assertEquals(200 * 10 * 10 * 10, count);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelHashJoinTest.class);
+  }
+}
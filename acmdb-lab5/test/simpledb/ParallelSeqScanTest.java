@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+  int dop = 4;
+  HeapFile file;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createFile() throws Exception {
+    file = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, null, "c");
+    tid = new TransactionId();
+    assertTrue(file.numPages() > dop * ParallelSeqScan.MORSEL_PAGES);
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * @return the tuples of it as strings, sorted, as the order of the output
+   *         of the workers is not deterministic
+   */
+  private static List<String> sorted(DbIterator it) throws Exception {
+    List<String> tuples = new ArrayList<String>();
+    while (it.hasNext())
+      tuples.add(it.next().toString());
+    Collections.sort(tuples);
+    return tuples;
+  }
+
+  /**
+   * Every tuple of the file is returned once
+   */
+  @Test public void scanAll() throws Exception {
+    ParallelSeqScan op = new ParallelSeqScan(tid, file.getId(), "t", dop);
+    op.open();
+    SeqScan expected = new SeqScan(tid, file.getId(), "t");
+    expected.open();
+    assertEquals(sorted(expected), sorted(op));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * The predicates and projection are those of a Filter and Project
+   */
+  @Test public void filterAndProject() throws Exception {
+    Predicate p1 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+    Predicate p2 = new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500));
+    ParallelSeqScan op = new ParallelSeqScan(tid, file.getId(), "t", dop,
+        new Predicate[] { p1, p2 }, new int[] { 2, 0 });
+    assertEquals(2, op.getTupleDesc().numFields());
+    assertEquals("t.c2", op.getTupleDesc().getFieldName(0));
+
+    TupleDesc td = op.getTupleDesc();
+    DbIterator expected = new Project(
+        new ArrayList<Integer>(Arrays.asList(2, 0)),
+        new Type[] { td.getFieldType(0), td.getFieldType(1) },
+        new Filter(p2, new Filter(p1, new SeqScan(tid, file.getId(), "t"))));
+    expected.open();
+    op.open();
+    List<String> tuples = sorted(op);
+    assertEquals(sorted(expected), tuples);
+    assertTrue(tuples.size() > 0);
+    op.close();
+  }
+
+  /**
+   * The pages are locked by the transaction of the scan
+   */
+  @Test public void locks() throws Exception {
+    ParallelSeqScan op = new ParallelSeqScan(tid, file.getId(), "t", dop);
+    op.open();
+    sorted(op);
+    op.close();
+    for (int i = 0; i < file.numPages(); i++)
+      assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(file.getId(), i)));
+  }
+
+  /**
+   * Unit test for ParallelSeqScan.rewind(), also before the end
+   */
+  @Test public void rewind() throws Exception {
+    ParallelSeqScan op = new ParallelSeqScan(tid, file.getId(), "t", dop);
+    op.open();
+    for (int i = 0; i < 10; i++)
+      op.next();
+    op.rewind();
+    List<String> first = sorted(op);
+    assertEquals(20000, first.size());
+    op.rewind();
+    assertEquals(first, sorted(op));
+    op.close();
+  }
+
+  /**
+   * Closing the scan before reading all of it must not leave workers behind
+   */
+  @Test public void closeEarly() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      ParallelSeqScan op = new ParallelSeqScan(tid, file.getId(), "t", dop);
+      op.open();
+      for (int j = 0; j < 10; j++)
+        op.next();
+      op.close();
+    }
+  }
+
+  /**
+   * @return true if the plan of sql, allowed to run on worker threads or
+   *         not, scans its table in parallel
+   */
+  private boolean plansParallelScan(String sql, boolean parallel) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    lp.setParallel(parallel);
+    DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    while (plan instanceof Operator && !(plan instanceof ParallelSeqScan))
+      plan = ((Operator) plan).getChildren()[0];
+    return plan instanceof ParallelSeqScan;
+  }
+
+  /**
+   * The planner only scans in parallel once a degree of parallelism above 1
+   * is set, and never in a plan restricted to the caller's thread
+   */
+  @Test public void planned() throws Exception {
+    Database.getCatalog().addTable(file, "t");
+    TableStats.computeStatistics();
+    String sql = "SELECT * FROM t WHERE t.c0 < 500;";
+    assertEquals(1, JoinOptimizer.getParallelism());
+    assertFalse(plansParallelScan(sql, true));
+    JoinOptimizer.setParallelism(dop);
+    try {
+      assertTrue(plansParallelScan(sql, true));
+      assertFalse(plansParallelScan(sql, false));
+    } finally {
+      JoinOptimizer.setParallelism(1);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+  }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PushEngineTest extends SimpleDbTestBase {
+
+  HeapFile outer;
+  HeapFile inner;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createFiles() throws Exception {
+    outer = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, null, "a");
+    inner = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null, "b");
+    tid = new TransactionId();
+    assertTrue(outer.numPages() > PushEngine.MORSEL_PAGES);
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private DbIterator scan(HeapFile f, String alias) {
+    return new SeqScan(tid, f.getId(), alias);
+  }
+
+  /**
+   * @return the tuples of it as strings
+   */
+  private static List<String> pull(DbIterator it) throws Exception {
+    List<String> tuples = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      tuples.add(it.next().toString());
+    it.close();
+    return tuples;
+  }
+
+  /**
+   * @return the tuples of plan as strings, run by a PushEngine
+   */
+  private static List<String> push(DbIterator plan) throws Exception {
+    List<String> tuples = new ArrayList<String>();
+    PushEngine engine = new PushEngine(plan);
+    engine.start();
+    while (engine.hasNext())
+      tuples.add(engine.next().toString());
+    engine.close();
+    return tuples;
+  }
+
+  private static List<String> sorted(List<String> tuples) {
+    Collections.sort(tuples);
+    return tuples;
+  }
+
+  /**
+   * A scan, filter and projection give the tuples of the pull-based plan
+   */
+  @Test public void filterAndProject() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+    DbIterator plan = new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, new Filter(p, scan(outer, "t")));
+    List<String> expected = sorted(pull(plan));
+    assertEquals(expected, sorted(push(plan)));
+  }
+
+  /**
+   * The build side of a join is a pipeline of its own, the probe side
+   * streams through it
+   */
+  @Test public void hashJoin() throws Exception {
+    JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    DbIterator plan = new HashEquiJoin(jp, scan(outer, "t"), scan(inner, "s"));
+    List<String> expected = sorted(pull(plan));
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, sorted(push(plan)));
+
+    DbIterator anti = new AntiJoin(jp, scan(outer, "t"), scan(inner, "s"));
+    assertEquals(sorted(pull(anti)), sorted(push(anti)));
+  }
+
+  /**
+   * The groups of an aggregate merged from all the workers
+   */
+  @Test public void aggregate() throws Exception {
+    DbIterator plan = new Aggregate(scan(outer, "t"), new int[] { 1, 2 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT });
+    List<String> expected = sorted(pull(plan));
+    assertEquals(1000, expected.size(), 100);
+    assertEquals(expected, sorted(push(plan)));
+  }
+
+  /**
+   * The output of a sort keeps its order through the streaming operators
+   * above it, including a limit
+   */
+  @Test public void orderByAndLimit() throws Exception {
+    DbIterator sort = new OrderBy(new int[] { 1, 0, 2 }, new boolean[] { true, false, true },
+        new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(100)),
+            scan(outer, "t")));
+    DbIterator plan = new Limit(50, 10, sort);
+    List<String> expected = pull(plan);
+    assertEquals(50, expected.size());
+    assertEquals(expected, push(plan));
+  }
+
+  /**
+   * Closing the engine before reading all of it stops the workers
+   */
+  @Test public void closeEarly() throws Exception {
+    JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    for (int i = 0; i < 5; i++) {
+      PushEngine engine = new PushEngine(
+          new HashEquiJoin(jp, scan(outer, "t"), scan(inner, "s")));
+      engine.start();
+      for (int j = 0; j < 10; j++)
+        assertNotNull(engine.next());
+      engine.close();
+    }
+  }
+
+  /**
+   * A plan without tuples
+   */
+  @Test public void empty() throws Exception {
+    PushEngine engine = new PushEngine(new Filter(
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-1)), scan(outer, "t")));
+    engine.start();
+    assertFalse(engine.hasNext());
+    engine.close();
+  }
+
+  /**
+   * The error of a worker is reported by the engine
+   */
+  @Test(expected = DbException.class) public void failure() throws Exception {
+    DbIterator failing = new Filter(new Predicate(5, Predicate.Op.EQUALS, new IntField(0)),
+        scan(outer, "t"));
+    push(failing);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PushEngineTest.class);
+  }
+}
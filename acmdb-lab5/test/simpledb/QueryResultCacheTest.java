@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryResultCacheTest extends SimpleDbTestBase {
+
+  HeapFile file;
+  int[] tables;
+  TupleDesc td = Utility.getTupleDesc(2);
+
+  @Before public void createFile() throws Exception {
+    file = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, null, "c");
+    Database.getCatalog().addTable(file, "t");
+    tables = new int[] { file.getId() };
+  }
+
+  private List<Tuple> tuples(int n) {
+    List<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < n; i++)
+      tuples.add(Utility.getHeapTuple(i, 2));
+    return tuples;
+  }
+
+  /**
+   * A stored result is served as long as its tables are unchanged
+   */
+  @Test public void hit() throws Exception {
+    QueryResultCache cache = new QueryResultCache(QueryResultCache.DEFAULT_BYTES);
+    assertNull(cache.get("SELECT * FROM t", tables));
+    long[] versions = cache.versions(tables);
+    assertTrue(cache.put("SELECT * FROM t", tables, versions, td, tuples(3)));
+    DbIterator it = cache.get("SELECT * FROM t", tables);
+    assertNotNull(it);
+    it.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+        new int[] { 0, 0, 1, 1, 2, 2 }), it);
+    assertNull(cache.get("SELECT * FROM t WHERE t.c0 > 1", tables));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  /**
+   * A write to a table hides its results from the moment it is made, and
+   * drops them
+   */
+  @Test public void invalidate() throws Exception {
+    QueryResultCache cache = new QueryResultCache(QueryResultCache.DEFAULT_BYTES);
+    long[] versions = cache.versions(tables);
+    cache.put("SELECT * FROM t", tables, versions, td, tuples(3));
+
+    BufferPool bp = Database.getBufferPool();
+    long version = bp.getTableVersion(file.getId());
+    TransactionId tid = new TransactionId();
+    bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(7, 2));
+    assertTrue(bp.hasUncommittedWrites(file.getId()));
+    assertNull(cache.versions(tables));
+    assertNull(cache.get("SELECT * FROM t", tables));
+    // nor can a result read before the write be stored
+    assertFalse(cache.put("SELECT * FROM t", tables, versions, td, tuples(3)));
+
+    bp.transactionComplete(tid);
+    assertFalse(bp.hasUncommittedWrites(file.getId()));
+    assertTrue(bp.getTableVersion(file.getId()) > version);
+    assertNull(cache.get("SELECT * FROM t", tables));
+    assertEquals(0, cache.size());
+  }
+
+  /**
+   * The least recently used results are evicted to keep the cache within
+   * its size, and results larger than it are not stored
+   */
+  @Test public void evict() throws Exception {
+    long size = QueryResultCache.size(td, 10);
+    QueryResultCache cache = new QueryResultCache(3 * size);
+    long[] versions = cache.versions(tables);
+    for (String q : new String[] { "a", "b", "c" })
+      assertTrue(cache.put(q, tables, versions, td, tuples(10)));
+    assertNotNull(cache.get("a", tables));
+    assertTrue(cache.put("d", tables, versions, td, tuples(10)));
+    assertEquals(3, cache.size());
+    assertEquals(3 * size, cache.getBytes());
+    assertNull(cache.get("b", tables));
+    assertNotNull(cache.get("a", tables));
+    assertNotNull(cache.get("c", tables));
+
+    assertFalse(cache.put("e", tables, versions, td, tuples(31)));
+    assertEquals(3, cache.size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(QueryResultCacheTest.class);
+  }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SampleScanTest extends SimpleDbTestBase {
+
+  HeapFile file;
+  TransactionId tid;
+  int rows = 50000;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createFile() throws Exception {
+    file = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, null, "c");
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static List<String> read(DbIterator it) throws Exception {
+    List<String> tuples = new ArrayList<String>();
+    while (it.hasNext())
+      tuples.add(it.next().toString());
+    return tuples;
+  }
+
+  /**
+   * About the given share of the tuples is read, whole pages at a time, and
+   * the same ones again after a rewind or with the same seed
+   */
+  @Test public void sample() throws Exception {
+    SampleScan op = new SampleScan(tid, file.getId(), "t", 10, 42);
+    assertEquals(0.1, op.getFraction(), 1e-9);
+    op.open();
+    List<String> tuples = read(op);
+    assertTrue(tuples.size() > rows / 20 && tuples.size() < rows / 5);
+    op.rewind();
+    assertEquals(tuples, read(op));
+    op.close();
+
+    SampleScan same = new SampleScan(tid, file.getId(), "t", 10, 42);
+    same.open();
+    assertEquals(tuples, read(same));
+    same.close();
+  }
+
+  /**
+   * A sample of all the pages is the whole table
+   */
+  @Test public void everything() throws Exception {
+    SampleScan op = new SampleScan(tid, file.getId(), "t", 100);
+    op.open();
+    SeqScan expected = new SeqScan(tid, file.getId(), "t");
+    expected.open();
+    assertEquals(read(expected), read(op));
+    op.close();
+  }
+
+  /**
+   * Aggregates over a sample estimate those over the whole table, within
+   * their confidence bounds
+   */
+  @Test public void estimates() throws Exception {
+    Aggregate exact = new Aggregate(new SeqScan(tid, file.getId(), "t"),
+        new int[] { 1, 1, 1 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.AVG });
+    exact.open();
+    Tuple truth = exact.next();
+    exact.close();
+
+    int covered = 0;
+    for (int seed = 0; seed < 20; seed++) {
+      Aggregate op = new Aggregate(new SampleScan(tid, file.getId(), "t", 5, seed),
+          new int[] { 1, 1, 1 }, new int[0],
+          new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.AVG },
+          0.05);
+      // the three estimates, then their bounds
+      assertEquals(6, op.getTupleDesc().numFields());
+      assertEquals("ci95(sum(t.c1))", op.getTupleDesc().getFieldName(3));
+      op.open();
+      Tuple t = op.next();
+      op.close();
+      boolean all = true;
+      for (int a = 0; a < 3; a++) {
+        int estimate = ((IntField) t.getField(a)).getValue();
+        int bound = ((IntField) t.getField(3 + a)).getValue();
+        int actual = ((IntField) truth.getField(a)).getValue();
+        // the residuals of the AVG are small when the sample has few
+        // pages with close means, so its bound may round to 0
+        assertTrue(a == 2 ? bound >= 0 : bound > 0);
+        all &= Math.abs(estimate - actual) <= bound;
+      }
+      if (all)
+        covered++;
+    }
+    // the tuples of a page are independent here, so the bounds hold about
+    // 95% of the time each
+    assertTrue(covered >= 12);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SampleScanTest.class);
+  }
+}
@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+  HeapFile file;
+  SecondaryIndex index;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createIndex() throws Exception {
+    file = SystemTestUtil.createRandomHeapFile(3, 3000, 1000, null, null, "c");
+    Database.getCatalog().addTable(file, "t");
+    File f = File.createTempFile("index", ".idx");
+    f.deleteOnExit();
+    tid = new TransactionId();
+    index = SecondaryIndex.create(tid, "t_c1", file.getId(), 1, f);
+    Database.getBufferPool().transactionComplete(tid);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * @return the tuples of the table whose field 1 passes the predicate, as
+   *         strings, sorted
+   */
+  private List<String> expected(Predicate.Op op, int value) throws Exception {
+    List<String> result = new ArrayList<String>();
+    SeqScan scan = new SeqScan(tid, file.getId(), "t");
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      if (t.getField(1).compare(op, new IntField(value)))
+        result.add(t.toString());
+    }
+    scan.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  private List<String> lookup(Predicate.Op op, int value) throws Exception {
+    List<String> result = new ArrayList<String>();
+    SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t",
+        new IndexPredicate(op, new IntField(value)));
+    scan.open();
+    int last = Integer.MIN_VALUE;
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      // in the order of the indexed field
+      int v = ((IntField) t.getField(1)).getValue();
+      assertTrue(v >= last);
+      last = v;
+      result.add(t.toString());
+    }
+    scan.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * The index is registered with its table, and finds the tuples of a value
+   * or range
+   */
+  @Test public void lookup() throws Exception {
+    assertEquals(Collections.singletonList(index),
+        Database.getCatalog().getIndexes(file.getId()));
+    assertEquals(index.getFile().getId(), Database.getCatalog().getTableId("t_c1"));
+    for (int v : new int[] { 0, 17, 500, 999 })
+      assertEquals(expected(Predicate.Op.EQUALS, v), lookup(Predicate.Op.EQUALS, v));
+    assertEquals(expected(Predicate.Op.LESS_THAN, 40), lookup(Predicate.Op.LESS_THAN, 40));
+    assertEquals(expected(Predicate.Op.GREATER_THAN_OR_EQ, 980),
+        lookup(Predicate.Op.GREATER_THAN_OR_EQ, 980));
+  }
+
+  /**
+   * Inserts and deletes through the BufferPool maintain the index, and an
+   * aborted transaction leaves it as it was
+   */
+  @Test public void maintain() throws Exception {
+    BufferPool bp = Database.getBufferPool();
+    for (int i = 0; i < 5; i++)
+      bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(new int[] { i, 2000, 3 }));
+    assertEquals(5, lookup(Predicate.Op.EQUALS, 2000).size());
+    assertEquals(expected(Predicate.Op.EQUALS, 2000), lookup(Predicate.Op.EQUALS, 2000));
+
+    List<Tuple> victims = new ArrayList<Tuple>();
+    SeqScan scan = new SeqScan(tid, file.getId(), "t");
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      if (((IntField) t.getField(1)).getValue() < 100)
+        victims.add(t);
+    }
+    scan.close();
+    for (Tuple t : victims)
+      bp.deleteTuple(tid, t);
+    assertEquals(0, lookup(Predicate.Op.LESS_THAN, 100).size());
+    bp.transactionComplete(tid);
+
+    tid = new TransactionId();
+    assertEquals(5, lookup(Predicate.Op.EQUALS, 2000).size());
+    bp.deleteTuple(tid, victimAt(2000));
+    assertEquals(4, lookup(Predicate.Op.EQUALS, 2000).size());
+    bp.transactionComplete(tid, false);
+
+    tid = new TransactionId();
+    assertEquals(5, lookup(Predicate.Op.EQUALS, 2000).size());
+    assertEquals(expected(Predicate.Op.LESS_THAN, 200), lookup(Predicate.Op.LESS_THAN, 200));
+  }
+
+  /**
+   * An index-only scan of a covering index returns the indexed and included
+   * fields, in the order of the table, kept up to date by the BufferPool
+   */
+  @Test public void covering() throws Exception {
+    File f = File.createTempFile("covering", ".idx");
+    f.deleteOnExit();
+    SecondaryIndex covering = SecondaryIndex.create(tid, "t_c1_c0", file.getId(), 1,
+        new int[] { 0 }, f, false);
+    assertTrue(covering.covers(Arrays.asList(0, 1)));
+    assertTrue(!covering.covers(Arrays.asList(1, 2)));
+    Database.getBufferPool().insertTuple(tid, file.getId(),
+        Utility.getHeapTuple(new int[] { 7, 2000, 3 }));
+
+    SecondaryIndexScan scan = new SecondaryIndexScan(tid, covering, "t",
+        new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(40)), true);
+    assertEquals(2, scan.getTupleDesc().numFields());
+    assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+    assertEquals(1, scan.indexedField());
+    List<String> result = new ArrayList<String>();
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      result.add(t.getField(0) + "\t" + t.getField(1));
+    }
+    scan.close();
+    Collections.sort(result);
+    List<String> expected = new ArrayList<String>();
+    for (String row : expected(Predicate.Op.LESS_THAN, 40)) {
+      String[] fields = row.split("\t");
+      expected.add(fields[0] + "\t" + fields[1]);
+    }
+    Collections.sort(expected);
+    assertEquals(expected, result);
+
+    scan = new SecondaryIndexScan(tid, covering, "t",
+        new IndexPredicate(Predicate.Op.EQUALS, new IntField(2000)), true);
+    scan.open();
+    assertEquals(new IntField(7), scan.next().getField(0));
+    scan.close();
+  }
+
+  private Tuple victimAt(int value) throws Exception {
+    SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t",
+        new IndexPredicate(Predicate.Op.EQUALS, new IntField(value)));
+    scan.open();
+    Tuple t = scan.next();
+    scan.close();
+    return t;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SecondaryIndexTest.class);
+  }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator semiJoin;
+  DbIterator antiJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8,
+                    3, 9 });
+    // 3 matches twice, which must not duplicate the left tuples
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    3, 4, 5,
+                    3, 5, 6,
+                    4, 5, 6 });
+    this.semiJoin = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    3, 9 });
+    this.antiJoin = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    7, 8 });
+  }
+
+  /**
+   * Unit test for SemiJoin.getTupleDesc(): only the left fields are returned
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SemiJoin op = new SemiJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for SemiJoin.getNext(): each matching left tuple once, in order
+   */
+  @Test public void semiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SemiJoin op = new SemiJoin(pred, scan1, scan2);
+    op.open();
+    semiJoin.open();
+    TestUtil.compareDbIterators(semiJoin, op);
+  }
+
+  /**
+   * Unit test for AntiJoin.getNext()
+   */
+  @Test public void antiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    AntiJoin op = new AntiJoin(pred, scan1, scan2);
+    op.open();
+    antiJoin.open();
+    TestUtil.compareDbIterators(antiJoin, op);
+  }
+
+  /**
+   * Unit test for SemiJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SemiJoin op = new SemiJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    semiJoin.open();
+    TestUtil.compareDbIterators(semiJoin, op);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SemiJoinTest.class);
+  }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test. The inputs are deliberately not sorted and
+   * contain duplicate join keys.
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4,
+                    3, 9 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    3, 4, 5,
+                    1, 2, 3,
+                    5, 6, 7,
+                    3, 0, 0,
+                    2, 3, 4 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 0, 0,
+                    3, 9, 3, 4, 5,
+                    3, 9, 3, 0, 0,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() on inputs that are already sorted,
+   * which must not be wrapped in another sort
+   */
+  @Test public void eqJoinSortedInputs() throws Exception {
+    DbIterator sorted1 = new OrderBy(0, true, scan1);
+    DbIterator sorted2 = new OrderBy(0, true, scan2);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, sorted1, sorted2);
+    assertTrue(op.getChildren()[0] == sorted1);
+    assertTrue(op.getChildren()[1] == sorted2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Range predicates are left to BlockNestedLoopJoin
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void rangeJoinRejected() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    new SortMergeJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * A not-equals predicate cannot be evaluated by merging
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void neJoinRejected() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    new SortMergeJoin(pred, scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StreamingAggregateTest extends SimpleDbTestBase {
+
+  int width1 = 3;
+  DbIterator scan1;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    // grouped on (0, 2), but not sorted on 2
+    this.scan1 = TestUtil.createTupleList(width1,
+        new Object[] { 1, 2, "b",
+                    1, 4, "b",
+                    1, 6, "a",
+                    3, 2, "a",
+                    3, 4, "a",
+                    3, 6, "c",
+                    5, 7, "c" });
+  }
+
+  /**
+   * Unit test for StreamingAggregate.getNext() over a composite group key:
+   * groups come out in input order
+   */
+  @Test public void multipleAggregates() throws Exception {
+    StreamingAggregate op = new StreamingAggregate(scan1, new int[] { 1, 1, 1 },
+        new int[] { 0, 2 }, new Aggregator.Op[] { Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT });
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(5,
+        new Object[] { 1, "b", 6, 3, 2,
+                    1, "a", 6, 6, 1,
+                    3, "a", 6, 3, 2,
+                    3, "c", 6, 6, 1,
+                    5, "c", 7, 7, 1 });
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+  }
+
+  /**
+   * StreamingAggregate has the same schema as Aggregate
+   */
+  @Test public void getTupleDesc() {
+    int[] afields = { 1 };
+    int[] gfields = { 0 };
+    Aggregator.Op[] aops = { Aggregator.Op.MIN };
+    assertEquals(new Aggregate(scan1, afields, gfields, aops).getTupleDesc(),
+        new StreamingAggregate(scan1, afields, gfields, aops).getTupleDesc());
+  }
+
+  /**
+   * Unit test for StreamingAggregate over an empty input
+   */
+  @Test public void emptyInput() throws Exception {
+    StreamingAggregate op = new StreamingAggregate(
+        new TupleIterator(Utility.getTupleDesc(width1), new ArrayList<Tuple>()), new int[] { 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.MAX });
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * An OrderBy on the group fields, in any order, groups its output
+   */
+  @Test public void groupedOnOrderBy() {
+    OrderBy o = new OrderBy(new int[] { 2, 0, 1 }, new boolean[] { true, false, true }, scan1);
+    assertTrue(OperatorOrdering.isGroupedOn(o, new int[] { 0, 2 }));
+    assertTrue(!OperatorOrdering.isGroupedOn(o, new int[] { 0 }));
+    assertTrue(!OperatorOrdering.isGroupedOn(scan1, new int[] { 0 }));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StreamingAggregateTest.class);
+  }
+}
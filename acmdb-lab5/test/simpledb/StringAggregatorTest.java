@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class StringAggregatorTest extends SimpleDbTestBase {
@@ -53,6 +54,55 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator over more string groups than fit in its memory
+   * budget, so that groups are spilled to disk
+   */
+  @Test public void mergeSpilled() throws Exception {
+    int rows = 3000;
+    Object[] data = new Object[rows * 2];
+    HashMap<String, Integer> expected = new HashMap<String, Integer>();
+    for (int i = 0; i < rows; i++) {
+      String key = "group" + (i * 7 % 1000);
+      data[i * 2] = key;
+      data[i * 2 + 1] = "x";
+      expected.put(key, expected.containsKey(key) ? expected.get(key) + 1 : 1);
+    }
+    StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 1,
+        Aggregator.Op.COUNT, 50 * 32);
+    DbIterator input = TestUtil.createTupleList(2, data);
+    input.open();
+    while (input.hasNext())
+      agg.mergeTupleIntoGroup(input.next());
+    assertTrue(agg.isExternal());
+
+    Object[] result = new Object[expected.size() * 2];
+    int i = 0;
+    for (String key : expected.keySet()) {
+      result[i++] = key;
+      result[i++] = expected.get(key);
+    }
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, result),
+        IntegerAggregatorTest.drain(it, expected.size()));
+    it.close();
+  }
+
+  /**
+   * Test StringAggregator without grouping
+   */
+  @Test public void mergeNoGrouping() throws Exception {
+    StringAggregator agg = new StringAggregator(Aggregator.NO_GROUPING, null, 1,
+        Aggregator.Op.COUNT);
+    scan1.open();
+    while (scan1.hasNext())
+      agg.mergeTupleIntoGroup(scan1.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 7 }), it);
+  }
+
   /**
    * Test StringAggregator.iterator() for DbIterator behaviour
    */
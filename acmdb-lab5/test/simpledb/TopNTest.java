@@ -0,0 +1,83 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  int width = 2;
+
+  private DbIterator input() {
+    return TestUtil.createTupleList(width, new int[] { 5, 0, 3, 1, 9, 2,
+        3, 3, 1, 4, 7, 5, 3, 6, 2, 7 });
+  }
+
+  /**
+   * Unit test for TopN.getNext() on a single ascending key; ties keep their
+   * input order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { true }, 5, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 1, 4, 2, 7, 3, 1, 3, 3, 3, 6 }), op);
+  }
+
+  /**
+   * Unit test for TopN.getNext() on a descending then ascending key
+   */
+  @Test public void topMultiKey() throws Exception {
+    TopN op = new TopN(new int[] { 0, 1 }, new boolean[] { false, true }, 3, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 9, 2, 7, 5, 5, 0 }), op);
+  }
+
+  /**
+   * TopN with n larger than the input returns the whole input, sorted
+   */
+  @Test public void nLargerThanInput() throws Exception {
+    TopN op = new TopN(new int[] { 1 }, new boolean[] { false }, 100, input());
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width, new int[] {
+        2, 7, 3, 6, 7, 5, 1, 4, 3, 3, 9, 2, 3, 1, 5, 0 }), op);
+  }
+
+  /**
+   * Unit test for TopN with n = 0, and for rewind
+   */
+  @Test public void emptyAndRewind() throws Exception {
+    TopN op = new TopN(new int[] { 0 }, new boolean[] { true }, 0, input());
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+
+    op = new TopN(new int[] { 0 }, new boolean[] { true }, 2, input());
+    op.open();
+    assertEquals(2, countRemaining(op));
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 1, 4, 2, 7 }), op);
+  }
+
+  private static int countRemaining(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
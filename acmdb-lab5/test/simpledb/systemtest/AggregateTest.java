@@ -113,6 +113,39 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test public void testMultipleAggregates()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, 8, null, createdTuples);
+
+        // group by (column 0, column 2), aggregate column 1
+        Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.COUNT };
+        HashMap<ArrayList<Integer>, ArrayList<Integer>> values =
+                new HashMap<ArrayList<Integer>, ArrayList<Integer>>();
+        for (ArrayList<Integer> t : createdTuples) {
+            ArrayList<Integer> key = new ArrayList<Integer>();
+            key.add(t.get(0));
+            key.add(t.get(2));
+            if (!values.containsKey(key)) values.put(key, new ArrayList<Integer>());
+            values.get(key).add(t.get(1));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<ArrayList<Integer>, ArrayList<Integer>> e : values.entrySet()) {
+            ArrayList<Integer> result = new ArrayList<Integer>(e.getKey());
+            for (Aggregator.Op op : ops)
+                result.add(computeAggregate(e.getValue(), op));
+            expected.add(result);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        Aggregate ag = new Aggregate(ss, new int[] { 1, 1, 1, 1 }, new int[] { 0, 2 }, ops);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
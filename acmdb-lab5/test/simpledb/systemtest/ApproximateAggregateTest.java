@@ -0,0 +1,112 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ApproximateAggregateTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 40000;
+    private static final int MAX_VALUE = 5000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "a");
+        Database.getCatalog().addTable(t, "t");
+        TableStats.computeStatistics();
+    }
+
+    private static List<Tuple> run(String sql) throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        List<Tuple> result = new ArrayList<Tuple>();
+        plan.open();
+        while (plan.hasNext())
+            result.add(plan.next());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    private static int value(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    @Test public void testApproxCountDistinct() throws Exception {
+        HashSet<Integer> values = new HashSet<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            values.add(t.get(1));
+        List<Tuple> result = run("SELECT APPROX_COUNT_DISTINCT(t.a1) FROM t;");
+        assertEquals(1, result.size());
+        assertEquals(values.size(), value(result.get(0), 0), values.size() * 0.1);
+    }
+
+    @Test public void testApproxCountDistinctGroupBy() throws Exception {
+        HashMap<Integer, HashSet<Integer>> groups = new HashMap<Integer, HashSet<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (!groups.containsKey(t.get(0)))
+                groups.put(t.get(0), new HashSet<Integer>());
+            groups.get(t.get(0)).add(t.get(1));
+        }
+        List<Tuple> result = run("SELECT t.a0, APPROX_COUNT_DISTINCT(t.a1) FROM t GROUP BY t.a0;");
+        assertEquals(groups.size(), result.size());
+        // the groups are small, so that some of their values may share a
+        // register, but the estimates are unbiased
+        long exact = 0, estimate = 0;
+        for (Tuple t : result) {
+            exact += groups.get(value(t, 0)).size();
+            estimate += value(t, 1);
+        }
+        assertEquals(exact, estimate, exact * 0.02);
+    }
+
+    /**
+     * SUM, COUNT and AVG over a sample are estimates over the whole table,
+     * each followed by the half-width of its confidence interval
+     */
+    @Test public void testTableSample() throws Exception {
+        long sum = 0;
+        for (ArrayList<Integer> t : tuples)
+            sum += t.get(1);
+        String sql = "SELECT SUM(t.a1), COUNT(t.a1), AVG(t.a1) FROM t TABLESAMPLE SYSTEM (20) REPEATABLE (7);";
+        List<Tuple> result = run(sql);
+        assertEquals(1, result.size());
+        Tuple t = result.get(0);
+        assertEquals(6, t.getTupleDesc().numFields());
+        long[] exact = { sum, ROWS, sum / ROWS };
+        for (int a = 0; a < 3; a++) {
+            int bound = value(t, 2 * a + 1);
+            assertTrue(bound > 0);
+            // four standard errors, so that the test practically never fails
+            assertEquals(exact[a], value(t, 2 * a), 2 * bound);
+        }
+        // the same seed reads the same pages
+        assertEquals(t.toString(), run(sql).get(0).toString());
+    }
+
+    @Test public void testSampleWithoutAggregate() throws Exception {
+        List<Tuple> result = run("SELECT * FROM t TABLESAMPLE (10);");
+        assertFalse(result.isEmpty());
+        assertTrue(result.size() < ROWS / 4);
+        assertEquals(ROWS, run("SELECT * FROM t TABLESAMPLE (100);").size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ApproximateAggregateTest.class);
+    }
+}
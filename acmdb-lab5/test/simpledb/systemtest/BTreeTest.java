@@ -6,6 +6,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
@@ -193,6 +194,27 @@ public class BTreeTest extends SimpleDbTestBase {
 					break;
 				}
 			}
+			if(!found) {
+				it.close();
+				DbFileIterator all = bf.iterator(tid);
+				all.open();
+				int pos = 0, at = -1, copies = 0;
+				Field prevKey = null;
+				boolean sorted = true;
+				while(all.hasNext()) {
+					Tuple t = all.next();
+					if(prevKey != null && t.getField(0).compare(Op.LESS_THAN, prevKey)) {
+						if(sorted) System.out.println("DEBUG unsorted at " + pos + " " + prevKey + " > " + t);
+						sorted = false;
+					}
+					prevKey = t.getField(0);
+					if(tuple.equals(SystemTestUtil.tupleToList(t))) { at = pos; copies++; System.out.println("DEBUG found in full scan at " + pos + " rid " + t.getRecordId()); }
+					pos++;
+				}
+				all.close();
+				System.out.println("DEBUG missing " + tuple + " copies " + copies + " total " + pos + " expected " + insertedTuples.size() + " sorted " + sorted);
+				try { BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true); System.out.println("DEBUG checkRep ok"); } catch (Throwable e) { System.out.println("DEBUG checkRep " + e); }
+			}
 			assertTrue(found);
 			it.close();
 		}
@@ -0,0 +1,160 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class CoveringIndexTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 6;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private Parser parser;
+
+    @Before public void createIndex() throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "a");
+        Database.getCatalog().addTable(t, "t");
+        TableStats.computeStatistics();
+        parser = new Parser();
+        assertTrue(run("CREATE INDEX t_a1 ON t (a1) INCLUDE (a3);").contains(
+                "Created index t_a1 on t(a1) including a3"));
+    }
+
+    /**
+     * @return what the parser prints for the statement
+     */
+    private String run(String sql) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(text));
+        try {
+            parser.processNextStatement(sql);
+        } finally {
+            System.setOut(out);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Plans and runs a query over t, checking whether it reads t from the
+     * index alone
+     *
+     * @return the tuples of the query as strings, in the order of the query
+     */
+    private static List<String> query(String sql, boolean indexOnly) throws Exception {
+        return SystemTestUtil.runQuery(sql, plan -> {
+            DbIterator scan = SystemTestUtil.firstScan(plan);
+            assertEquals(indexOnly, scan instanceof SecondaryIndexScan
+                    && ((SecondaryIndexScan) scan).isIndexOnly());
+        });
+    }
+
+    private static List<String> sorted(List<String> result) {
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the given fields of the rows of t whose a1 passes the
+     *         predicate, as strings, sorted
+     */
+    private List<String> expected(Predicate.Op op, int value, int... fields) {
+        List<String> result = new ArrayList<String>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (!new IntField(tuple.get(1)).compare(op, new IntField(value)))
+                continue;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < fields.length; i++)
+                sb.append(i == 0 ? "" : "\t").append(tuple.get(fields[i]));
+            result.add(sb.toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Queries reading only the indexed and included fields are answered from
+     * the index, with or without a filter on the indexed field
+     */
+    @Test public void indexOnly() throws Exception {
+        assertEquals(expected(Predicate.Op.LESS_THAN, 200, 3),
+                sorted(query("SELECT t.a3 FROM t WHERE t.a1 < 200;", true)));
+        int value = tuples.get(0).get(1);
+        assertEquals(expected(Predicate.Op.EQUALS, value, 1, 3),
+                sorted(query("SELECT t.a1, t.a3 FROM t WHERE t.a1 = " + value + ";", true)));
+        assertEquals(expected(Predicate.Op.GREATER_THAN, 9000, 3, 1),
+                sorted(query("SELECT t.a3, t.a1 FROM t WHERE t.a1 > 9000 AND t.a3 >= 0;", true)));
+        // the index is smaller than the table
+        assertEquals(expected(Predicate.Op.GREATER_THAN_OR_EQ, 0, 3),
+                sorted(query("SELECT t.a3 FROM t;", true)));
+    }
+
+    /**
+     * The entries come out in the order of the indexed field
+     */
+    @Test public void ordered() throws Exception {
+        List<String> result = query("SELECT t.a1, t.a3 FROM t WHERE t.a1 < 500 ORDER BY t.a1;", true);
+        int last = Integer.MIN_VALUE;
+        for (String row : result) {
+            int v = Integer.parseInt(row.split("\t")[0]);
+            assertTrue(v >= last);
+            last = v;
+        }
+        assertEquals(expected(Predicate.Op.LESS_THAN, 500, 1, 3), sorted(result));
+    }
+
+    /**
+     * Queries reading other fields of t fetch its tuples
+     */
+    @Test public void notCovered() throws Exception {
+        assertEquals(expected(Predicate.Op.LESS_THAN, 20, 2),
+                sorted(query("SELECT t.a2 FROM t WHERE t.a1 < 20;", false)));
+        assertEquals(expected(Predicate.Op.LESS_THAN, 20, 0, 1, 2, 3, 4, 5),
+                sorted(query("SELECT * FROM t WHERE t.a1 < 20;", false)));
+        assertEquals(expected(Predicate.Op.LESS_THAN, 20, 3),
+                sorted(query("SELECT t.a3 FROM t WHERE t.a1 < 20 AND t.a4 >= 0;", false)));
+    }
+
+    /**
+     * INSERT and DELETE statements keep the included fields up to date
+     */
+    @Test public void writes() throws Exception {
+        run("INSERT INTO t VALUES (1, 12345, 2, 3, 4, 5);");
+        assertEquals(Collections.singletonList("3"),
+                query("SELECT t.a3 FROM t WHERE t.a1 = 12345;", true));
+        run("DELETE FROM t WHERE t.a1 = 12345;");
+        run("DELETE FROM t WHERE t.a1 < 10;");
+        assertEquals(0, query("SELECT t.a3 FROM t WHERE t.a1 = 12345;", true).size());
+        List<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (tuple.get(1) >= 10 && tuple.get(1) < 20)
+                expected.add(tuple.get(3).toString());
+        }
+        assertEquals(sorted(expected),
+                sorted(query("SELECT t.a3 FROM t WHERE t.a1 < 20;", true)));
+    }
+
+    @Test public void badStatements() throws Exception {
+        assertTrue(run("CREATE INDEX t_a2 ON t (a2) INCLUDE (b);").contains("Unknown field"));
+        assertTrue(run("CREATE INDEX t_a2 ON t (a2) INCLUDE (a2);").contains("twice"));
+        assertTrue(run("CREATE INDEX t_a2 ON t (a2) INCLUDE (a3, a3);").contains("twice"));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CoveringIndexTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class DistinctTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 30;
+
+    private DbIterator plan(TransactionId tid, String sql) throws Exception {
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * SELECT DISTINCT over two of three columns, also with ORDER BY and LIMIT
+     */
+    @Test public void testSelectDistinct() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(f, "d");
+        TableStats.computeStatistics();
+
+        TreeSet<ArrayList<Integer>> pairs = new TreeSet<ArrayList<Integer>>((a, b) ->
+                a.get(0).equals(b.get(0)) ? a.get(1) - b.get(1) : a.get(0) - b.get(0));
+        for (ArrayList<Integer> t : tuples) {
+            ArrayList<Integer> pair = new ArrayList<Integer>();
+            pair.add(t.get(0));
+            pair.add(t.get(2));
+            pairs.add(pair);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(pairs);
+
+        TransactionId tid = new TransactionId();
+        DbIterator it = plan(tid, "SELECT DISTINCT d.c0, d.c2 FROM d;");
+        SystemTestUtil.matchTuples(it, expected);
+
+        // duplicates are removed before the limit, in sort order
+        it = plan(tid, "SELECT DISTINCT d.c0, d.c2 FROM d ORDER BY d.c0 LIMIT 10;");
+        it.open();
+        int count = 0;
+        int previous = Integer.MIN_VALUE;
+        HashSet<String> seen = new HashSet<String>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int c0 = ((IntField) t.getField(0)).getValue();
+            assertTrue(c0 >= previous);
+            assertTrue(seen.add(t.toString()));
+            previous = c0;
+            count++;
+        }
+        it.close();
+        assertEquals(Math.min(10, expected.size()), count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DistinctTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int DOP = 4;
+    private static final int ROWS = DOP * Exchange.MIN_TUPLES_PER_FRAGMENT;
+    private static final int MAX_VALUE = 1000;
+
+    private int parallelism;
+    private ArrayList<ArrayList<Integer>> outer;
+    private ArrayList<ArrayList<Integer>> inner;
+
+    @Before public void createTables() throws IOException, DbException, TransactionAbortedException {
+        outer = new ArrayList<ArrayList<Integer>>();
+        inner = new ArrayList<ArrayList<Integer>>();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, outer, "a");
+        HeapFile s = SystemTestUtil.createRandomHeapFile(COLUMNS, 300, MAX_VALUE, null, inner, "b");
+        Database.getCatalog().addTable(t, "t");
+        Database.getCatalog().addTable(s, "s");
+        TableStats.computeStatistics();
+        parallelism = JoinOptimizer.getParallelism();
+        JoinOptimizer.setParallelism(DOP);
+    }
+
+    @After public void restoreParallelism() {
+        JoinOptimizer.setParallelism(parallelism);
+    }
+
+    /**
+     * @return true if there is a Gather in the plan
+     */
+    private static boolean hasGather(DbIterator plan) {
+        if (plan instanceof Gather)
+            return true;
+        if (!(plan instanceof Operator))
+            return false;
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            if (child != null && hasGather(child))
+                return true;
+        }
+        return false;
+    }
+
+    private void validate(String sql, ArrayList<ArrayList<Integer>> expected)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid, sql);
+        lp.setParallel(true);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(hasGather(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testGroupBy() throws Exception {
+        TreeMap<Integer, Integer> sums = new TreeMap<Integer, Integer>();
+        for (ArrayList<Integer> t : outer)
+            sums.merge(t.get(0), t.get(1), Integer::sum);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int key : sums.keySet()) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(key);
+            row.add(sums.get(key));
+            expected.add(row);
+        }
+        validate("SELECT t.a0, SUM(t.a1) FROM t GROUP BY t.a0;", expected);
+    }
+
+    @Test public void testDistinct() throws Exception {
+        TreeSet<Integer> values = new TreeSet<Integer>();
+        for (ArrayList<Integer> t : outer)
+            values.add(t.get(1));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (int v : values) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(v);
+            expected.add(row);
+        }
+        validate("SELECT DISTINCT t.a1 FROM t;", expected);
+    }
+
+    @Test public void testIn() throws Exception {
+        HashSet<Integer> keys = new HashSet<Integer>();
+        for (ArrayList<Integer> s : inner)
+            keys.add(s.get(0));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : outer) {
+            if (keys.contains(t.get(0)))
+                expected.add(t);
+        }
+        validate("SELECT * FROM t WHERE t.a0 IN (SELECT s.b0 FROM s);", expected);
+    }
+
+    /**
+     * The exchanges change the order of the result, so a plan that was not
+     * allowed to run on worker threads has none
+     */
+    @Test public void testSerialByDefault() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT t.a0, SUM(t.a1) FROM t GROUP BY t.a0;");
+        assertFalse(hasGather(lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class HashIndexTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private Parser parser;
+
+    /**
+     * Creates the same tuples as a heap file t, with a hash index on a1, and
+     * as a hash index file h hashed on a0
+     */
+    @Before public void createTables() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "a");
+        Database.getCatalog().addTable(t, "t");
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        TransactionId tid = new TransactionId();
+        HashIndexFile.load(f, t.getTupleDesc(), 0, new SeqScan(tid, t.getId(), "t"), "h");
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.computeStatistics();
+        parser = new Parser();
+        assertTrue(run("CREATE INDEX t_a1 ON t (a1) USING HASH;").contains("Created index t_a1"));
+    }
+
+    /**
+     * @return what the parser prints for the statement
+     */
+    private String run(String sql) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(text));
+        try {
+            parser.processNextStatement(sql);
+        } finally {
+            System.setOut(out);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Plans and runs a query, checking the class of the scan it reads its
+     * table with
+     *
+     * @return the tuples of the query as strings, sorted
+     */
+    private static List<String> query(String sql, Class<?> scanClass) throws Exception {
+        // a serial plan, whatever the degree of parallelism, so that a full
+        // scan is a SeqScan
+        List<String> result = SystemTestUtil.runQuery(sql, lp -> lp.setParallel(false),
+                plan -> assertEquals(scanClass, SystemTestUtil.firstScan(plan).getClass()));
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the rows passing the predicate on a field, as strings, sorted
+     */
+    private List<String> expected(int field, Predicate.Op op, int value) {
+        List<String> result = new ArrayList<String>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (!new IntField(tuple.get(field)).compare(op, new IntField(value)))
+                continue;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < tuple.size(); i++)
+                sb.append(i == 0 ? "" : "\t").append(tuple.get(i));
+            result.add(sb.toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Equality on the key of a hash index file reads its bucket; ranges scan
+     * the whole file
+     */
+    @Test public void hashTable() throws Exception {
+        int value = tuples.get(0).get(0);
+        assertEquals(expected(0, Predicate.Op.EQUALS, value),
+                query("SELECT * FROM h WHERE h.a0 = " + value + ";", HashScan.class));
+        assertEquals(expected(0, Predicate.Op.LESS_THAN, 20),
+                query("SELECT * FROM h WHERE h.a0 < 20;", SeqScan.class));
+        assertEquals(expected(1, Predicate.Op.EQUALS, value),
+                query("SELECT * FROM h WHERE h.a1 = " + value + ";", SeqScan.class));
+    }
+
+    /**
+     * Equality on a field with a hash index reads the heap file through it;
+     * ranges do not
+     */
+    @Test public void hashSecondaryIndex() throws Exception {
+        int value = tuples.get(0).get(1);
+        assertEquals(expected(1, Predicate.Op.EQUALS, value),
+                query("SELECT * FROM t WHERE t.a1 = " + value + ";", SecondaryIndexScan.class));
+        assertEquals(expected(1, Predicate.Op.LESS_THAN, 20),
+                query("SELECT * FROM t WHERE t.a1 < 20;", SeqScan.class));
+    }
+
+    /**
+     * INSERT and DELETE statements write through the hash indexes
+     */
+    @Test public void writes() throws Exception {
+        run("INSERT INTO h VALUES (12345, 1, 2);");
+        run("INSERT INTO t VALUES (1, 12345, 2);");
+        assertEquals(Collections.singletonList("12345\t1\t2"),
+                query("SELECT * FROM h WHERE h.a0 = 12345;", HashScan.class));
+        assertEquals(Collections.singletonList("1\t12345\t2"),
+                query("SELECT * FROM t WHERE t.a1 = 12345;", SecondaryIndexScan.class));
+        run("DELETE FROM h WHERE h.a0 = 12345;");
+        run("DELETE FROM t WHERE t.a1 = 12345;");
+        assertEquals(0, query("SELECT * FROM h WHERE h.a0 = 12345;", HashScan.class).size());
+        assertEquals(0, query("SELECT * FROM t WHERE t.a1 = 12345;",
+                SecondaryIndexScan.class).size());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
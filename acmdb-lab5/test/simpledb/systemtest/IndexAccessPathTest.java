@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexAccessPathTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, 0);
+        // the same file, with named fields for the queries
+        BTreeFile t = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(COLUMNS, "a"));
+        Database.getCatalog().addTable(t, "t");
+        TableStats.computeStatistics();
+    }
+
+    private static boolean filters(DbIterator plan) {
+        if (plan instanceof Filter)
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (filters(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Plans and runs a query over t, checking the access path chosen
+     *
+     * @return the tuples of the query as strings, sorted
+     */
+    private static List<String> run(String sql, Predicate.Op indexOp, boolean filter)
+            throws Exception {
+        List<String> result = SystemTestUtil.runQuery(sql, plan -> {
+            DbIterator scan = SystemTestUtil.firstScan(plan);
+            if (indexOp == null) {
+                assertTrue(scan instanceof SeqScan);
+            } else {
+                assertTrue(scan instanceof BTreeScan);
+                IndexPredicate ipred = ((BTreeScan) scan).getIndexPredicate();
+                assertNotNull(ipred);
+                assertEquals(indexOp, ipred.getOp());
+            }
+            assertEquals(filter, filters(plan));
+        });
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the rows of t passing the predicate on the given fields, as
+     *         strings, sorted
+     */
+    private List<String> expected(int field, Predicate.Op op, int value) {
+        List<String> result = new ArrayList<String>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (!new IntField(tuple.get(field)).compare(op, new IntField(value)))
+                continue;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < tuple.size(); i++)
+                sb.append(i == 0 ? "" : "\t").append(tuple.get(i));
+            result.add(sb.toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test public void equality() throws Exception {
+        int key = tuples.get(0).get(0);
+        List<String> actual = run("SELECT * FROM t WHERE t.a0 = " + key + ";",
+                Predicate.Op.EQUALS, false);
+        assertFalse(actual.isEmpty());
+        assertEquals(expected(0, Predicate.Op.EQUALS, key), actual);
+    }
+
+    @Test public void selectiveRange() throws Exception {
+        // the other filter is still applied by a Filter
+        List<String> actual = run("SELECT * FROM t WHERE t.a0 < 100 AND t.a1 > 5000;",
+                Predicate.Op.LESS_THAN, true);
+        List<String> expected = expected(0, Predicate.Op.LESS_THAN, 100);
+        expected.retainAll(expected(1, Predicate.Op.GREATER_THAN, 5000));
+        assertEquals(expected, actual);
+    }
+
+    @Test public void unselectiveRange() throws Exception {
+        // reading every leaf from the root costs more than scanning the file
+        assertEquals(expected(0, Predicate.Op.LESS_THAN, 20000),
+                run("SELECT * FROM t WHERE t.a0 < 20000;", null, true));
+    }
+
+    @Test public void nonKeyFilter() throws Exception {
+        assertEquals(expected(1, Predicate.Op.LESS_THAN, 100),
+                run("SELECT * FROM t WHERE t.a1 < 100;", null, true));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexAccessPathTest.class);
+    }
+}
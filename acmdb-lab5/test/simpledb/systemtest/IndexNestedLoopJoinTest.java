@@ -0,0 +1,86 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int MAX_VALUE = 64;
+
+    public void validateJoin(Predicate.Op op, int table1Rows, int table2Rows,
+            int batchSize, boolean filterInner)
+            throws IOException, DbException, TransactionAbortedException {
+        // Create the outer heap file and the inner B+ tree, keyed on column 0
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, table1Rows, MAX_VALUE, new HashMap<Integer, Integer>(), t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile table2 = BTreeUtility.createRandomBTreeFile(
+                COLUMNS, table2Rows, MAX_VALUE, null, t2Tuples, 0);
+
+        // Generate the expected results
+        IntField filterValue = new IntField(MAX_VALUE / 2);
+        ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (filterInner && t2.get(1) >= filterValue.getValue())
+                    continue;
+                if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(0)))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        // Begin the join
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        DbIterator inner = new SeqScan(tid, table2.getId(), "");
+        if (filterInner)
+            inner = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, filterValue), inner);
+        JoinPredicate p = new JoinPredicate(0, op, 0);
+        IndexNestedLoopJoin joinOp = new IndexNestedLoopJoin(p, ss1, inner, batchSize);
+
+        // test the join results
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testEquals()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(Predicate.Op.EQUALS, 500, 2000, IndexNestedLoopJoin.DEFAULT_BATCH_SIZE, false);
+    }
+
+    @Test public void testEqualsSmallBatches()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(Predicate.Op.EQUALS, 500, 2000, 7, false);
+    }
+
+    @Test public void testLessThan()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(Predicate.Op.LESS_THAN, 50, 500, 16, false);
+    }
+
+    @Test public void testGreaterThanOrEq()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(Predicate.Op.GREATER_THAN_OR_EQ, 50, 500, 16, false);
+    }
+
+    @Test public void testFilteredInner()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(Predicate.Op.EQUALS, 500, 2000, 64, true);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class LateMaterializationTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+    private static final int MAX_VALUE = 500;
+
+    private boolean pushBased;
+
+    @Before public void createTables() throws IOException, DbException, TransactionAbortedException {
+        // wide rows, of which the queries read a few fields
+        HeapFile t = SystemTestUtil.createRandomHeapFile(6, ROWS, MAX_VALUE, null, null, "a");
+        HeapFile s = SystemTestUtil.createRandomHeapFile(4, 500, MAX_VALUE, null, null, "b");
+        Database.getCatalog().addTable(t, "t");
+        Database.getCatalog().addTable(s, "s");
+        TableStats.computeStatistics();
+        pushBased = Query.isPushBased();
+    }
+
+    @After public void restorePushBased() {
+        Query.setPushBased(pushBased);
+    }
+
+    private static boolean fetches(DbIterator plan) {
+        if (plan instanceof Fetch)
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (fetches(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the tuples of the query as strings
+     */
+    private static List<String> run(String sql, boolean late, boolean push) throws Exception {
+        Query.setPushBased(push);
+        return SystemTestUtil.runQuery(sql, lp -> lp.setLateMaterialization(late),
+                plan -> assertEquals(late, fetches(plan)));
+    }
+
+    /**
+     * Checks that the plan fetching the fields late, pull-based and
+     * push-based, gives the tuples of the plan reading whole tuples
+     */
+    private static void validate(String sql, boolean ordered) throws Exception {
+        List<String> expected = run(sql, false, false);
+        assertFalse(expected.isEmpty());
+        for (boolean push : new boolean[] { false, true }) {
+            List<String> actual = run(sql, true, push);
+            if (!ordered) {
+                Collections.sort(expected);
+                Collections.sort(actual);
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test public void testFilter() throws Exception {
+        validate("SELECT t.a5, t.a2, t.a0 FROM t WHERE t.a1 < 50;", false);
+    }
+
+    @Test public void testJoin() throws Exception {
+        validate("SELECT t.a4, s.b3, t.a0 FROM t, s WHERE t.a0 = s.b0 AND t.a1 < 250;", false);
+    }
+
+    @Test public void testAggregate() throws Exception {
+        validate("SELECT s.b2, SUM(t.a3), COUNT(t.a5) FROM t, s WHERE t.a0 = s.b0 GROUP BY s.b2;",
+                false);
+    }
+
+    @Test public void testOrderBy() throws Exception {
+        validate("SELECT t.a0, t.a3, t.a4 FROM t WHERE t.a2 > 400 ORDER BY t.a3, t.a4, t.a0;", true);
+    }
+
+    /**
+     * All the fields are needed anyway, the scans read whole tuples
+     */
+    @Test public void testStar() throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM t WHERE t.a1 < 50;");
+        lp.setLateMaterialization(true);
+        assertFalse(fetches(lp.physicalPlan(tid, TableStats.getStatsMap(), false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LateMaterializationTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class PushEngineTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 10000;
+    private static final int MAX_VALUE = 500;
+
+    private boolean pushBased;
+
+    @Before public void createTables() throws IOException, DbException, TransactionAbortedException {
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null, "a");
+        HeapFile s = SystemTestUtil.createRandomHeapFile(COLUMNS, 500, MAX_VALUE, null, null, "b");
+        Database.getCatalog().addTable(t, "t");
+        Database.getCatalog().addTable(s, "s");
+        TableStats.computeStatistics();
+        pushBased = Query.isPushBased();
+    }
+
+    @After public void restorePushBased() {
+        Query.setPushBased(pushBased);
+    }
+
+    /**
+     * @return the tuples of the query as strings
+     */
+    private static List<String> run(String sql, boolean push) throws Exception {
+        Query.setPushBased(push);
+        return SystemTestUtil.runQuery(sql);
+    }
+
+    /**
+     * Checks that the push-based engine gives the tuples of the pull-based
+     * plan, in the same order if ordered is set
+     */
+    private static void validate(String sql, boolean ordered) throws Exception {
+        List<String> expected = run(sql, false);
+        List<String> actual = run(sql, true);
+        assertFalse(expected.isEmpty());
+        if (!ordered) {
+            Collections.sort(expected);
+            Collections.sort(actual);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test public void testJoin() throws Exception {
+        validate("SELECT t.a1, s.b1 FROM t, s WHERE t.a0 = s.b0 AND t.a1 < 250;", false);
+    }
+
+    @Test public void testGroupBy() throws Exception {
+        validate("SELECT t.a0, SUM(t.a1), COUNT(t.a1) FROM t GROUP BY t.a0;", false);
+    }
+
+    @Test public void testOrderBy() throws Exception {
+        validate("SELECT t.a0, t.a1 FROM t, s WHERE t.a0 = s.b0 ORDER BY t.a1, t.a0;", true);
+    }
+
+    @Test public void testSubquery() throws Exception {
+        validate("SELECT DISTINCT t.a1 FROM t WHERE t.a0 NOT IN (SELECT s.b0 FROM s);", false);
+    }
+
+    /**
+     * @return the tuples of a plan as strings, run pull-based
+     */
+    private static List<String> pull(DbIterator plan) throws Exception {
+        List<String> tuples = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext())
+            tuples.add(plan.next().toString());
+        plan.close();
+        return tuples;
+    }
+
+    /**
+     * Checks that the push-based engine spills the input of plan to disk
+     * while it runs, deletes the files once done, and gives the tuples of
+     * the pull-based plan
+     */
+    private static void validateSpilled(DbIterator plan, boolean ordered) throws Exception {
+        List<String> expected = pull(plan);
+        int before = SystemTestUtil.countSpillFiles();
+        PushEngine engine = new PushEngine(plan);
+        engine.start();
+        List<String> actual = new ArrayList<String>();
+        actual.add(engine.next().toString());
+        // the workers keep going until the output queue is full
+        long deadline = System.currentTimeMillis() + 5000;
+        while (SystemTestUtil.countSpillFiles() == before) {
+            assertTrue("nothing spilled", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        while (engine.hasNext())
+            actual.add(engine.next().toString());
+        engine.close();
+        assertEquals(before, SystemTestUtil.countSpillFiles());
+        if (!ordered) {
+            Collections.sort(expected);
+            Collections.sort(actual);
+        }
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Sorts and DISTINCT keep the memory budgets of their operators
+     */
+    @Test public void testSpill() throws Exception {
+        TransactionId tid = new TransactionId();
+        int tableid = Database.getCatalog().getTableId("t");
+        validateSpilled(new OrderBy(new int[] { 1, 0 }, new boolean[] { true, false },
+                new SeqScan(tid, tableid, "t"), 16 * 1024), true);
+        validateSpilled(new Distinct(new SeqScan(tid, tableid, "t"), 1024), false);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PushEngineTest.class);
+    }
+}
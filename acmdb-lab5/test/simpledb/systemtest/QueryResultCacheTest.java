@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class QueryResultCacheTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 2000;
+    private static final int MAX_VALUE = 100;
+
+    private Parser parser;
+
+    @Before public void createTable() throws IOException, DbException, TransactionAbortedException {
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, null, "a");
+        Database.getCatalog().addTable(t, "t");
+        TableStats.computeStatistics();
+        parser = new Parser();
+    }
+
+    /**
+     * @return what the parser prints for the statement
+     */
+    private String run(String sql) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(text));
+        try {
+            parser.processNextStatement(sql);
+        } finally {
+            System.setOut(out);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the printed rows of the result of a query
+     */
+    private static String rows(String output) {
+        int start = output.indexOf("-\n");
+        return output.substring(start, output.indexOf(" rows.") + " rows.".length());
+    }
+
+    @Test public void repeatedQuery() throws Exception {
+        QueryResultCache cache = Database.getResultCache();
+        String sql = "SELECT t.a0, COUNT(t.a1) FROM t WHERE t.a1 < 50 GROUP BY t.a0;";
+        String first = run(sql);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.size());
+
+        // spacing and keyword case are normalized away
+        String second = run("select t.a0,  COUNT(t.a1) from t where t.a1 < 50 group by t.a0;");
+        assertEquals(1, cache.getHits());
+        assertTrue(second.contains("query result cache"));
+        assertEquals(rows(first), rows(second));
+
+        // a LIMIT makes a different query
+        run("SELECT t.a0, COUNT(t.a1) FROM t WHERE t.a1 < 50 GROUP BY t.a0 LIMIT 3;");
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test public void writesInvalidate() throws Exception {
+        QueryResultCache cache = Database.getResultCache();
+        // a single row with the count
+        String sql = "SELECT COUNT(t.a0) FROM t;";
+        assertTrue(run(sql).contains("\n" + ROWS + "\n"));
+        run("INSERT INTO t VALUES (1, 2);");
+        String after = run(sql);
+        assertFalse(after.contains("query result cache"));
+        assertTrue(after.contains("\n" + (ROWS + 1) + "\n"));
+        assertTrue(run(sql).contains("query result cache"));
+
+        // not while a transaction has written to the table
+        run("SET TRANSACTION READ WRITE;");
+        run("DELETE FROM t WHERE t.a0 = 1 AND t.a1 = 2;");
+        assertFalse(run(sql).contains("query result cache"));
+        run("ROLLBACK;");
+        String rolledBack = run(sql);
+        assertFalse(rolledBack.contains("query result cache"));
+        String again = run(sql);
+        assertTrue(again.contains("query result cache"));
+        assertEquals(rows(rolledBack), rows(again));
+        assertEquals(2, cache.getHits());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(QueryResultCacheTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 10000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private Parser parser;
+
+    @Before public void createIndex() throws IOException, DbException, TransactionAbortedException {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples, "a");
+        Database.getCatalog().addTable(t, "t");
+        TableStats.computeStatistics();
+        parser = new Parser();
+        assertTrue(run("CREATE INDEX t_a1 ON t (a1);").contains("Created index t_a1"));
+    }
+
+    /**
+     * @return what the parser prints for the statement
+     */
+    private String run(String sql) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(text));
+        try {
+            parser.processNextStatement(sql);
+        } finally {
+            System.setOut(out);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Plans and runs a query over t, checking whether it reads t through the
+     * index
+     *
+     * @return the tuples of the query as strings, sorted
+     */
+    private static List<String> query(String sql, boolean index) throws Exception {
+        List<String> result = SystemTestUtil.runQuery(sql, plan -> assertEquals(index,
+                SystemTestUtil.firstScan(plan) instanceof SecondaryIndexScan));
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the rows of t passing the predicate on a field, as strings,
+     *         sorted
+     */
+    private List<String> expected(int field, Predicate.Op op, int value) {
+        List<String> result = new ArrayList<String>();
+        for (ArrayList<Integer> tuple : tuples) {
+            if (!new IntField(tuple.get(field)).compare(op, new IntField(value)))
+                continue;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < tuple.size(); i++)
+                sb.append(i == 0 ? "" : "\t").append(tuple.get(i));
+            result.add(sb.toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Test public void selectiveLookup() throws Exception {
+        int value = tuples.get(0).get(1);
+        assertEquals(expected(1, Predicate.Op.EQUALS, value),
+                query("SELECT * FROM t WHERE t.a1 = " + value + ";", true));
+        assertEquals(expected(1, Predicate.Op.LESS_THAN, 20),
+                query("SELECT * FROM t WHERE t.a1 < 20;", true));
+    }
+
+    @Test public void unselectiveOrOtherField() throws Exception {
+        assertEquals(expected(1, Predicate.Op.GREATER_THAN, 2000),
+                query("SELECT * FROM t WHERE t.a1 > 2000;", false));
+        assertEquals(expected(2, Predicate.Op.EQUALS, 5),
+                query("SELECT * FROM t WHERE t.a2 = 5;", false));
+    }
+
+    /**
+     * INSERT and DELETE statements keep the index up to date
+     */
+    @Test public void writes() throws Exception {
+        run("INSERT INTO t VALUES (1, 12345, 2);");
+        assertEquals(Collections.singletonList("1\t12345\t2"),
+                query("SELECT * FROM t WHERE t.a1 = 12345;", true));
+        run("DELETE FROM t WHERE t.a1 = 12345;");
+        run("DELETE FROM t WHERE t.a1 < 10;");
+        assertEquals(0, query("SELECT * FROM t WHERE t.a1 = 12345;", true).size());
+        assertEquals(0, query("SELECT * FROM t WHERE t.a1 < 10;", true).size());
+        List<String> expected = expected(1, Predicate.Op.LESS_THAN, 20);
+        expected.removeAll(expected(1, Predicate.Op.LESS_THAN, 10));
+        assertEquals(expected, query("SELECT * FROM t WHERE t.a1 < 20;", true));
+    }
+
+    @Test public void badStatements() throws Exception {
+        assertTrue(run("CREATE INDEX t_a1 ON t (a2);").contains("exists already"));
+        assertTrue(run("CREATE INDEX t_b ON t (b);").contains("Unknown field"));
+        assertTrue(run("CREATE INDEX u_a0 ON u (a0);").contains("Unknown table"));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
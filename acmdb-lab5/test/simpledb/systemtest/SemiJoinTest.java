@@ -0,0 +1,85 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int MAX_VALUE = 200;
+
+    private ArrayList<ArrayList<Integer>> outer;
+    private ArrayList<ArrayList<Integer>> inner;
+
+    @Before public void createTables() throws IOException, DbException, TransactionAbortedException {
+        outer = new ArrayList<ArrayList<Integer>>();
+        inner = new ArrayList<ArrayList<Integer>>();
+        HeapFile t = SystemTestUtil.createRandomHeapFile(COLUMNS, 1000, MAX_VALUE, null, outer, "a");
+        HeapFile s = SystemTestUtil.createRandomHeapFile(COLUMNS, 300, MAX_VALUE, null, inner, "b");
+        Database.getCatalog().addTable(t, "t");
+        Database.getCatalog().addTable(s, "s");
+        TableStats.computeStatistics();
+    }
+
+    /**
+     * @return the outer tuples whose first field is (or is not) the first
+     *         field of an inner tuple whose second field is at least minB1
+     */
+    private ArrayList<ArrayList<Integer>> expected(int minB1, boolean anti) {
+        HashSet<Integer> keys = new HashSet<Integer>();
+        for (ArrayList<Integer> s : inner) {
+            if (s.get(1) >= minB1)
+                keys.add(s.get(0));
+        }
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : outer) {
+            if (keys.contains(t.get(0)) != anti)
+                result.add(t);
+        }
+        return result;
+    }
+
+    private void validate(String sql, ArrayList<ArrayList<Integer>> expected)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid, sql);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        // a semi-join never returns the subquery fields
+        assertTrue(plan.getTupleDesc().numFields() == COLUMNS);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIn() throws Exception {
+        validate("SELECT * FROM t WHERE t.a0 IN (SELECT s.b0 FROM s WHERE s.b1 >= 100);",
+                expected(100, false));
+    }
+
+    @Test public void testNotIn() throws Exception {
+        validate("SELECT * FROM t WHERE t.a0 NOT IN (SELECT s.b0 FROM s WHERE s.b1 >= 100);",
+                expected(100, true));
+    }
+
+    @Test public void testExists() throws Exception {
+        validate("SELECT * FROM t WHERE EXISTS (SELECT * FROM s WHERE s.b0 = t.a0 AND s.b1 >= 50);",
+                expected(50, false));
+    }
+
+    @Test public void testNotExists() throws Exception {
+        validate("SELECT * FROM t WHERE t.a1 >= 0 AND NOT EXISTS (SELECT * FROM s WHERE t.a0 = s.b0);",
+                expected(Integer.MIN_VALUE, true));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SemiJoinTest.class);
+    }
+}
@@ -0,0 +1,70 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+public class StreamingAggregateTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 300;
+
+    /**
+     * Aggregate a B+ tree grouped by its key: the scan delivers the groups
+     * one after the other, in key order.
+     */
+    @Test public void testBTreeGroupedByKey()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile table = BTreeUtility.createRandomBTreeFile(
+                COLUMNS, ROWS, MAX_VALUE, null, tuples, 0);
+
+        // key -> (sum, count)
+        TreeMap<Integer, int[]> groups = new TreeMap<Integer, int[]>();
+        for (ArrayList<Integer> t : tuples) {
+            int[] g = groups.get(t.get(0));
+            if (g == null)
+                groups.put(t.get(0), g = new int[2]);
+            g[0] += t.get(1);
+            g[1]++;
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Integer key : groups.keySet()) {
+            ArrayList<Integer> result = new ArrayList<Integer>();
+            result.add(key);
+            result.add(groups.get(key)[0]);
+            result.add(groups.get(key)[1]);
+            expected.add(result);
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        assertTrue(OperatorOrdering.isGroupedOn(ss, new int[] { 0 }));
+        StreamingAggregate ag = new StreamingAggregate(ss, new int[] { 1, 1 }, new int[] { 0 },
+                new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT });
+        assertTrue(OperatorOrdering.isAscendingOn(ag, 0));
+        SystemTestUtil.matchTuples(ag, expected);
+
+        // the groups come out in key order
+        ag.open();
+        int previous = Integer.MIN_VALUE;
+        while (ag.hasNext()) {
+            int key = ((IntField) ag.next().getField(0)).getValue();
+            assertTrue(key > previous);
+            previous = key;
+        }
+        ag.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StreamingAggregateTest.class);
+    }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import org.junit.Assert;
 
@@ -146,6 +147,64 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * @return the first scan of a plan, walking down the first children
+     */
+    public static DbIterator firstScan(DbIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    /**
+     * Plans and runs a query in a transaction of its own.
+     *
+     * @return the tuples of the query as strings, in the order of the query
+     */
+    public static List<String> runQuery(String sql) throws Exception {
+        return runQuery(sql, null, null);
+    }
+
+    /**
+     * Plans and runs a query in a transaction of its own.
+     *
+     * @param check
+     *            called with the physical plan before it runs, or null
+     * @return the tuples of the query as strings, in the order of the query
+     */
+    public static List<String> runQuery(String sql, Consumer<DbIterator> check)
+            throws Exception {
+        return runQuery(sql, null, check);
+    }
+
+    /**
+     * Plans and runs a query in a transaction of its own.
+     *
+     * @param configure
+     *            called with the logical plan before it is planned, or null
+     * @param check
+     *            called with the physical plan before it runs, or null
+     * @return the tuples of the query as strings, in the order of the query
+     */
+    public static List<String> runQuery(String sql, Consumer<LogicalPlan> configure,
+            Consumer<DbIterator> check) throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        if (configure != null)
+            configure.accept(lp);
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        if (check != null)
+            check.accept(plan);
+        Query query = new Query(plan, tid);
+        List<String> result = new ArrayList<String>();
+        query.start();
+        while (query.hasNext())
+            result.add(query.next().toString());
+        query.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM
@@ -165,6 +224,19 @@ public class SystemTestUtil {
 
         return memAfter;
     }
+
+    /**
+     * @return the number of spill files in the temporary directory
+     */
+    public static int countSpillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith("simpledb-spill"))
+                count++;
+        }
+        return count;
+    }
 	
 	/**
 	 * Generates a unique string each time it is called.